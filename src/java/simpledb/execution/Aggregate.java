@@ -1,21 +1,26 @@
 package simpledb.execution;
 
+import simpledb.common.Database;
 import simpledb.common.DbException;
 import simpledb.common.Type;
+import simpledb.storage.DbFile;
+import simpledb.storage.HeapFile;
 import simpledb.storage.Tuple;
 import simpledb.storage.TupleDesc;
 import simpledb.transaction.TransactionAbortedException;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Deque;
 import java.util.Iterator;
 import java.util.List;
 import java.util.NoSuchElementException;
 
 
 /**
- * The Aggregation operator that computes an aggregate (e.g., sum, avg, max,
- * min). Note that we only support aggregates over a single column, grouped by a
- * single column.
+ * The Aggregation operator that computes aggregates (e.g., sum, avg, max,
+ * min). Any number of aggregates, each over a single column, are computed
+ * in one pass over the child, grouped by any number of columns.
  */
 public class Aggregate extends Operator {
 
@@ -24,18 +29,45 @@ public class Aggregate extends Operator {
     /**
      * 聚合字段索引
      */
-    private final int afield;
+    private final int[] afields;
 
     /**
      * 分组字段索引,group by
      */
-    private final int gfield;
+    private final int[] gfields;
     private final TupleDesc td;
-    private final Aggregator.Op aop;
+    private final Aggregator.Op[] aops;
     private final List<Tuple> childTups = new ArrayList<>();
     private Iterator<Tuple> it;
     private OpIterator child;
 
+    /** The default number of groups the aggregate keeps in memory */
+    public final static int MAX_GROUPS = 100000;
+    /** The number of partitions the input is split into when spilling */
+    public final static int FANOUT = 16;
+    /** How many times a partition is split again before it is aggregated whatever its size */
+    public final static int MAX_LEVELS = 3;
+
+    private final int maxGroups;
+    private boolean parallel = false;
+
+    // a spill file of the input tuples whose groups hash to the same
+    // partition, and the level it is aggregated at
+    private static final class Partition {
+        final SpillFile file;
+        final int level;
+
+        Partition(SpillFile file, int level) {
+            this.file = file;
+            this.level = level;
+        }
+    }
+
+    // the partitions not aggregated yet, and whether any were made since
+    // the child was opened or rewound
+    transient private Deque<Partition> partitions = null;
+    transient private boolean spilled = false;
+
     /**
      * Constructor.
      * <p>
@@ -51,13 +83,65 @@ public class Aggregate extends Operator {
      */
     public Aggregate(OpIterator child, int afield, int gfield, Aggregator.Op aop) {
         // some code goes here
+        this(child, new int[]{afield}, new Aggregator.Op[]{aop},
+                gfield == Aggregator.NO_GROUPING ? new int[0] : new int[]{gfield});
+    }
+
+    /**
+     * Constructor for several aggregates, grouped by several columns.
+     *
+     * @param child   The OpIterator that is feeding us tuples.
+     * @param afields The columns over which we are computing aggregates.
+     * @param aops    The aggregation operator to use for each of afields
+     * @param gfields The columns over which we are grouping the result, empty
+     *                if there is no grouping
+     */
+    public Aggregate(OpIterator child, int[] afields, Aggregator.Op[] aops, int[] gfields) {
+        this(child, afields, aops, gfields, MAX_GROUPS);
+    }
+
+    /**
+     * Constructor with a memory budget.  Once maxGroups groups are in
+     * memory, the tuples of any other group are partitioned by the hash of
+     * their group-by fields into temporary files, and each partition is
+     * aggregated in turn after the groups in memory are returned; a
+     * partition that still has too many groups is split again.
+     *
+     * @param maxGroups the number of groups to keep in memory
+     */
+    public Aggregate(OpIterator child, int[] afields, Aggregator.Op[] aops, int[] gfields, int maxGroups) {
+        if (maxGroups < 1) {
+            throw new IllegalArgumentException("at least one group must fit in memory");
+        }
+        if (afields.length == 0 || afields.length != aops.length) {
+            throw new IllegalArgumentException("one operator is needed per aggregate field");
+        }
         this.child = child;
-        this.afield = afield;
-        this.gfield = gfield;
-        this.aop = aop;
-        Type [] typeAr = gfield == Aggregator.NO_GROUPING? new Type[]{Type.INT_TYPE} : new Type[] {child.getTupleDesc().getFieldType(gfield),Type.INT_TYPE};
-        String [] fieldAr = gfield == Aggregator.NO_GROUPING? new String[]{aop.toString()} : new String[] {child.getTupleDesc().getFieldName(gfield),aop.toString()};
-        this.td = new TupleDesc(typeAr,fieldAr);
+        this.afields = afields;
+        this.gfields = gfields;
+        this.aops = aops;
+        this.maxGroups = maxGroups;
+        this.td = aggregateTupleDesc(child.getTupleDesc(), gfields, aops);
+    }
+
+    /**
+     * @return the TupleDesc of the results of aggregates with the specified
+     * operators over tuples of childTd, grouped by gfields: the group-by
+     * fields, named as in childTd, then one INT_TYPE field per aggregate,
+     * named after its operator
+     */
+    static TupleDesc aggregateTupleDesc(TupleDesc childTd, int[] gfields, Aggregator.Op[] aops) {
+        Type[] typeAr = new Type[gfields.length + aops.length];
+        String[] fieldAr = new String[typeAr.length];
+        for (int i = 0; i < gfields.length; i++) {
+            typeAr[i] = childTd.getFieldType(gfields[i]);
+            fieldAr[i] = childTd.getFieldName(gfields[i]);
+        }
+        for (int i = 0; i < aops.length; i++) {
+            typeAr[gfields.length + i] = Type.INT_TYPE;
+            fieldAr[gfields.length + i] = aops[i].toString();
+        }
+        return new TupleDesc(typeAr, fieldAr);
     }
 
     /**
@@ -67,43 +151,65 @@ public class Aggregate extends Operator {
      */
     public int groupField() {
         // some code goes here
-        return this.gfield;
+        return this.gfields.length == 0? Aggregator.NO_GROUPING : this.gfields[0];
+    }
+
+    /**
+     * @return the groupby field indexes in the <b>INPUT</b> tuples, empty if
+     * there is no grouping
+     */
+    public int[] groupFields() {
+        return this.gfields;
     }
 
     /**
      * @return If this aggregate is accompanied by a group by, return the name
-     * of the groupby field in the <b>OUTPUT</b> tuples. If not, return
+     * of the (first) groupby field in the <b>OUTPUT</b> tuples. If not, return
      * null;
      */
     public String groupFieldName() {
         // some code goes here
-        return this.gfield == Aggregator.NO_GROUPING? null : this.td.getFieldName(1);
+        return this.gfields.length == 0? null : this.td.getFieldName(0);
     }
 
 
     /**
-     * @return the aggregate field
+     * @return the (first) aggregate field
      */
     public int aggregateField() {
         // some code goes here
-        return this.afield;
+        return this.afields[0];
     }
 
     /**
-     * @return return the name of the aggregate field in the <b>OUTPUT</b>
-     * tuples
+     * @return the aggregate fields
+     */
+    public int[] aggregateFields() {
+        return this.afields;
+    }
+
+    /**
+     * @return return the name of the (first) aggregate field in the
+     * <b>INPUT</b> tuples
      */
     public String aggregateFieldName() {
         // some code goes here
-        return this.td.getFieldName(0);
+        return child.getTupleDesc().getFieldName(this.afields[0]);
     }
 
     /**
-     * @return return the aggregate operator
+     * @return return the (first) aggregate operator
      */
     public Aggregator.Op aggregateOp() {
         // some code goes here
-        return this.aop;
+        return this.aops[0];
+    }
+
+    /**
+     * @return the aggregate operator of each aggregate field
+     */
+    public Aggregator.Op[] aggregateOps() {
+        return this.aops;
     }
 
     public static String nameOfAggregatorOp(Aggregator.Op aop) {
@@ -115,51 +221,203 @@ public class Aggregate extends Operator {
             TransactionAbortedException {
         // some code goes here
         child.open();
-        if (child.getTupleDesc().getFieldType(afield) == Type.INT_TYPE){
-            IntegerAggregator aggregator = new IntegerAggregator(gfield, gfield == Aggregator.NO_GROUPING? null : child.getTupleDesc().getFieldType(gfield), afield, aop);
-            while (child.hasNext()){
-                aggregator.mergeTupleIntoGroup(child.next());
-            }
-            childTups.addAll(aggregator.generateAggTuples(td));
+        aggregateChild();
+        super.open();
+    }
+
+    /**
+     * Set whether the aggregate is computed in parallel when its child is a
+     * scan of a HeapFile, possibly under filters: page ranges of the table
+     * are then aggregated into partial states on the workers of the
+     * {@link Scheduler}, which are merged into the final result.  If the
+     * groups do not fit in the budget of the aggregate, it falls back to the
+     * serial aggregation, which spills.  Off by default.
+     */
+    public void setParallel(boolean parallel) {
+        this.parallel = parallel;
+    }
+
+    /** @return a new aggregator for the fields and operators of this aggregate */
+    GroupAggregator newAggregator() {
+        return new GroupAggregator(child.getTupleDesc(), gfields, afields, aops);
+    }
+
+    // the scan of a HeapFile of more than one morsel under the child's
+    // filters, whose predicates are added to predicates, or null if the
+    // child is not such a scan
+    private SeqScan parallelScan(List<Predicate> predicates) {
+        OpIterator op = child;
+        while (op instanceof Filter) {
+            predicates.add(0, ((Filter) op).getPredicate());
+            op = ((Filter) op).getChildren()[0];
+        }
+        if (!(op instanceof SeqScan) || ((SeqScan) op).getMorsels() != null) {
+            return null;
+        }
+        DbFile f = Database.getCatalog().getDatabaseFile(((SeqScan) op).getTableId());
+        if (!(f instanceof HeapFile) || ((HeapFile) f).numPages() <= PartialAggregate.MORSEL_PAGES) {
+            return null;
+        }
+        return (SeqScan) op;
+    }
+
+    /** @return true if the aggregate is computed in parallel by itself */
+    public boolean aggregatesInParallel() {
+        return parallel && parallelScan(new ArrayList<>()) != null;
+    }
+
+    /** @return the number of groups the aggregate keeps in memory */
+    public int maxGroups() {
+        return maxGroups;
+    }
+
+    /**
+     * Aggregate the table scanned by the child in parallel.
+     *
+     * @return the groups, or null if the child is not a scan of a HeapFile
+     *         under filters, or its groups do not fit in memory
+     */
+    private GroupAggregator aggregateInParallel() throws DbException, TransactionAbortedException {
+        List<Predicate> predicates = new ArrayList<>();
+        SeqScan scan = parallelScan(predicates);
+        if (scan == null) {
+            return null;
+        }
+        DbFile f = Database.getCatalog().getDatabaseFile(scan.getTableId());
+        PartialAggregate.Job job = new PartialAggregate.Job(this, scan.getTransactionId(), scan.getTableId(),
+                predicates.isEmpty() ? null : PredicateCompiler.compile(predicates), maxGroups);
+        int from = scan.getFromPage();
+        int to = scan.getToPage() < 0
+                ? ((HeapFile) f).numPages() : Math.min(scan.getToPage(), ((HeapFile) f).numPages());
+        List<PartialAggregate> morsels = new ArrayList<>();
+        for (int pageNo = from; pageNo < to; pageNo += PartialAggregate.MORSEL_PAGES) {
+            morsels.add(new PartialAggregate(job, pageNo, Math.min(to, pageNo + PartialAggregate.MORSEL_PAGES)));
+        }
+        Scheduler.invokeAll(morsels);
+        return job.merge();
+    }
+
+    // the partition of a tuple's group at a partitioning level
+    private int partition(Tuple t, int level) {
+        int h = 0;
+        for (int gfield : gfields) {
+            h = 31 * h + t.getField(gfield).hashCode();
+        }
+        h *= 0x9E3779B9 + 2 * level;
+        h ^= h >>> 16;
+        return h & (FANOUT - 1);
+    }
+
+    /**
+     * Aggregate the child.  The aggregator keeps one running accumulator
+     * per group and aggregate, so only the groups, not the child's tuples,
+     * are held in memory, and at most maxGroups of them.
+     */
+    private void aggregateChild() throws DbException, TransactionAbortedException {
+        partitions = new ArrayDeque<>();
+        GroupAggregator aggregator = parallel ? aggregateInParallel() : null;
+        if (aggregator != null) {
+            childTups.clear();
+            childTups.addAll(aggregator.generateAggTuples());
             it = childTups.iterator();
-        }else if (child.getTupleDesc().getFieldType(afield) == Type.STRING_TYPE){
-            StringAggregator aggregator = new StringAggregator(gfield, gfield == Aggregator.NO_GROUPING? null : child.getTupleDesc().getFieldType(gfield), afield, aop);
-            while (child.hasNext()){
-                aggregator.mergeTupleIntoGroup(child.next());
+            spilled = false;
+            return;
+        }
+        aggregator = newAggregator();
+        SpillFile[] spill = new SpillFile[FANOUT];
+        Tuple[] batch = new Tuple[BATCH_SIZE];
+        int n;
+        while ((n = child.nextBatch(batch)) > 0){
+            for (int i = 0; i < n; i++){
+                merge(aggregator, spill, batch[i], 0);
             }
-            childTups.addAll(aggregator.generateAggTuples(td));
-            it = childTups.iterator();
-        }else{
-            throw new UnsupportedOperationException();
         }
-        super.open();
+        finish(aggregator, spill, 0);
+        spilled = !partitions.isEmpty();
+    }
+
+    // merge a tuple into its group, or spill it if its group does not fit
+    private void merge(GroupAggregator aggregator, SpillFile[] spill, Tuple t, int level) throws DbException {
+        if (aggregator.mergeTupleIntoGroup(t, level < MAX_LEVELS ? maxGroups : Integer.MAX_VALUE)) {
+            return;
+        }
+        int p = partition(t, level);
+        if (spill[p] == null) {
+            spill[p] = new SpillFile(child.getTupleDesc());
+        }
+        spill[p].add(t);
+    }
+
+    // make the groups of the aggregator the next results, and queue the
+    // partitions spilled at this level
+    private void finish(GroupAggregator aggregator, SpillFile[] spill, int level) {
+        childTups.clear();
+        childTups.addAll(aggregator.generateAggTuples());
+        it = childTups.iterator();
+        for (SpillFile f : spill) {
+            if (f != null) {
+                partitions.push(new Partition(f, level + 1));
+            }
+        }
+    }
+
+    private void deletePartitions() {
+        if (partitions != null) {
+            for (Partition p : partitions) {
+                p.file.delete();
+            }
+            partitions = null;
+        }
     }
 
     /**
-     * Returns the next tuple. If there is a group by field, then the first
-     * field is the field by which we are grouping, and the second field is the
-     * result of computing the aggregate. If there is no group by field, then
-     * the result tuple should contain one field representing the result of the
-     * aggregate. Should return null if there are no more tuples.
+     * Returns the next tuple. If there are group by fields, then the first
+     * fields are the fields by which we are grouping, and the remaining fields
+     * are the results of computing the aggregates. If there is no group by
+     * field, then the result tuple contains just the results of the
+     * aggregates. Should return null if there are no more tuples.
      */
     protected Tuple fetchNext() throws TransactionAbortedException, DbException {
         // some code goes here
-        if (it != null && it.hasNext()){
-            return it.next();
+        while (it != null) {
+            if (it.hasNext()){
+                return it.next();
+            }
+            if (partitions == null || partitions.isEmpty()) {
+                break;
+            }
+            // aggregate the next partition spilled to disk
+            Partition p = partitions.pop();
+            GroupAggregator aggregator = newAggregator();
+            SpillFile[] spill = new SpillFile[FANOUT];
+            SpillFile.Reader in = p.file.reader();
+            Tuple t;
+            while ((t = in.next()) != null) {
+                merge(aggregator, spill, t, p.level);
+            }
+            p.file.delete();
+            finish(aggregator, spill, p.level);
         }
         return null;
     }
 
     public void rewind() throws DbException, TransactionAbortedException {
         // some code goes here
-        it = childTups.iterator();
+        if (spilled) {
+            // the results of the spilled partitions were not kept
+            deletePartitions();
+            child.rewind();
+            aggregateChild();
+        } else {
+            it = childTups.iterator();
+        }
     }
 
     /**
      * Returns the TupleDesc of this Aggregate. If there is no group by field,
-     * this will have one field - the aggregate column. If there is a group by
-     * field, the first field will be the group by field, and the second will be
-     * the aggregate value column.
+     * this will have one field per aggregate - the aggregate columns. If there
+     * are group by fields, they will be the first fields, followed by the
+     * aggregate value columns.
      * <p>
      * The name of an aggregate column should be informative. For example:
      * "aggName(aop) (child_td.getFieldName(afield))" where aop and afield are
@@ -176,6 +434,8 @@ public class Aggregate extends Operator {
         super.close();
         child.close();
         it = null;
+        deletePartitions();
+        spilled = false;
     }
 
     @Override
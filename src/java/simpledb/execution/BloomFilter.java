@@ -0,0 +1,86 @@
+package simpledb.execution;
+
+import simpledb.storage.Field;
+
+/**
+ * BloomFilter is a set of join keys that may have false positives but no
+ * false negatives: {@link #mightContain} is true for every key that was
+ * added, and for about 1% of the others.  {@link HashEquiJoin} builds one
+ * over the keys of its build side and pushes it down its probe side, so
+ * that probe tuples without a match are dropped by the scan that reads
+ * them, or the exchange that would queue them, rather than by the join.
+ * A {@link JoinTable} keeps one too, which it checks before each lookup.
+ * <p>
+ * Keys are hashed with {@link Field#hashCode}, so keys that are equal have
+ * the same hash whatever their field objects.
+ */
+public final class BloomFilter {
+
+    private static final int BITS_PER_KEY = 10;
+    private static final int NUM_HASHES = 5;
+
+    private final long[] bits;
+    private final int mask;
+
+    /** Create an empty filter sized for the specified number of keys */
+    public BloomFilter(int expectedKeys) {
+        long wanted = Math.max(64L, (long) expectedKeys * BITS_PER_KEY);
+        int size = 64;
+        while (size < wanted && size < (1 << 30)) {
+            size <<= 1;
+        }
+        bits = new long[size >>> 6];
+        mask = size - 1;
+    }
+
+    // a 32 bit finalizer, so that consecutive integer keys spread out
+    private static int mix(int h) {
+        h ^= h >>> 16;
+        h *= 0x85EBCA6B;
+        h ^= h >>> 13;
+        h *= 0xC2B2AE35;
+        h ^= h >>> 16;
+        return h;
+    }
+
+    /** Add a key with the specified hash to the filter */
+    public void add(int hash) {
+        int h1 = mix(hash);
+        int h2 = mix(h1) | 1;
+        for (int i = 0; i < NUM_HASHES; i++) {
+            int bit = (h1 + i * h2) & mask;
+            bits[bit >>> 6] |= 1L << bit;
+        }
+    }
+
+    /** Add a key to the filter */
+    public void add(Field key) {
+        add(key.hashCode());
+    }
+
+    /** @return false if no key with the specified hash was added */
+    public boolean mightContain(int hash) {
+        int h1 = mix(hash);
+        int h2 = mix(h1) | 1;
+        for (int i = 0; i < NUM_HASHES; i++) {
+            int bit = (h1 + i * h2) & mask;
+            if ((bits[bit >>> 6] & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** @return false if the key was not added */
+    public boolean mightContain(Field key) {
+        return mightContain(key.hashCode());
+    }
+
+    /**
+     * @return a test that passes the tuples whose specified field might be
+     *         in this filter
+     */
+    public TuplePredicate on(int field) {
+        return t -> mightContain(t.getField(field));
+    }
+}
@@ -0,0 +1,384 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.storage.IntField;
+import simpledb.storage.StringField;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * ColumnAggregate is the vectorized counterpart of {@link Aggregate}.  It
+ * drains a {@link ColumnOperator}, keeping a running count, sum, min and
+ * max per group in {@link GroupAccumulators}, and returns one tuple per group in the same format
+ * as Aggregate.  Each batch is processed in two tight loops: one that maps
+ * the group values of the live rows to group ids, and one that updates the
+ * accumulators.
+ * <p>
+ * It supports MIN, MAX, SUM, AVG and COUNT over INT_TYPE fields, and COUNT
+ * over STRING_TYPE fields.  Given the Aggregate it stands for, it keeps no
+ * more groups than that Aggregate's budget; if there are more, or its input
+ * does not fit in the budget of a {@link ColumnHashJoin}, the Aggregate is
+ * run instead, so that the groups or the join spill.
+ * <p>
+ * Like Aggregate, it can aggregate in parallel (see {@link #setParallel}):
+ * if it reads a scan of more than one morsel under filters, a copy of the
+ * filters over a scan of each morsel of pages is run as a task of the
+ * query's session, into accumulators the task borrows for as long as it
+ * runs, which are merged once every morsel is read.
+ */
+public class ColumnAggregate extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final ColumnOperator child;
+    private final int afield;
+    private final int gfield;
+    private final Aggregator.Op aop;
+    private final TupleDesc td;
+    private final Aggregate plan;
+
+    private final List<Tuple> results = new ArrayList<>();
+    private transient Iterator<Tuple> it;
+
+    // whether the pages are aggregated by tasks in parallel, when possible
+    private boolean parallel = false;
+    // whether there were too many groups, and the plan is run instead
+    private boolean fellBack = false;
+
+    // the accumulators batches are aggregated into, with the group ids of
+    // the rows of a batch
+    private static final class Partial {
+        final GroupAccumulators acc = new GroupAccumulators();
+        int[] ids = new int[ColumnOperator.VECTOR_SIZE];
+    }
+
+    /**
+     * @param child the operator to read batches from
+     * @param afield the field to aggregate
+     * @param gfield the field to group by, or {@link Aggregator#NO_GROUPING}
+     * @param aop the aggregation operator
+     */
+    public ColumnAggregate(ColumnOperator child, int afield, int gfield, Aggregator.Op aop) {
+        this(child, afield, gfield, aop, null);
+    }
+
+    /**
+     * Constructor with a memory budget: the groups are computed by plan
+     * instead if there are more than its budget.
+     *
+     * @param plan an Aggregate computing the same groups over the tuples of
+     *             child, or null to keep all the groups in memory
+     */
+    public ColumnAggregate(ColumnOperator child, int afield, int gfield, Aggregator.Op aop,
+                           Aggregate plan) {
+        TupleDesc childtd = child.getTupleDesc();
+        switch (aop) {
+        case MIN:
+        case MAX:
+        case SUM:
+        case AVG:
+            if (childtd.getFieldType(afield) != Type.INT_TYPE) {
+                throw new IllegalArgumentException("cannot compute " + aop + " over strings");
+            }
+            break;
+        case COUNT:
+            break;
+        default:
+            throw new IllegalArgumentException("unsupported aggregate " + aop);
+        }
+        this.child = child;
+        this.afield = afield;
+        this.gfield = gfield;
+        this.aop = aop;
+        this.plan = plan;
+        Type[] typeAr = gfield == Aggregator.NO_GROUPING ? new Type[]{Type.INT_TYPE}
+                : new Type[]{childtd.getFieldType(gfield), Type.INT_TYPE};
+        String[] fieldAr = gfield == Aggregator.NO_GROUPING ? new String[]{aop.toString()}
+                : new String[]{childtd.getFieldName(gfield), aop.toString()};
+        this.td = new TupleDesc(typeAr, fieldAr);
+    }
+
+    public int groupField() {
+        return gfield;
+    }
+
+    public int aggregateField() {
+        return afield;
+    }
+
+    public Aggregator.Op aggregateOp() {
+        return aop;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /**
+     * Set whether the pages may be aggregated by several tasks in parallel,
+     * as {@link Aggregate#setParallel} does for Aggregate.
+     */
+    public void setParallel(boolean parallel) {
+        this.parallel = parallel;
+    }
+
+    /**
+     * @return true if the aggregate is computed in parallel: it reads a scan
+     *         of more than one morsel under filters, and it groups by an
+     *         int field, if any, since the dictionaries of string fields
+     *         differ between the scans of the morsels
+     */
+    public boolean aggregatesInParallel() {
+        return parallel && parallelScan() != null && (gfield == Aggregator.NO_GROUPING
+                || child.getTupleDesc().getFieldType(gfield) == Type.INT_TYPE);
+    }
+
+    // the scan of more than one morsel under the child's filters, or null
+    // if the child is not such a scan
+    private ColumnScan parallelScan() {
+        ColumnOperator op = child;
+        while (op instanceof ColumnFilter) {
+            op = ((ColumnFilter) op).getChild();
+        }
+        if (!(op instanceof ColumnScan) || ((ColumnScan) op).numPages() <= PartialAggregate.MORSEL_PAGES) {
+            return null;
+        }
+        return (ColumnScan) op;
+    }
+
+    // a copy of the child's filters over a scan of pages [from, to) of scan
+    private ColumnOperator morsel(ColumnScan scan, int from, int to) {
+        List<Predicate> predicates = new ArrayList<>();
+        for (ColumnOperator op = child; op instanceof ColumnFilter; op = ((ColumnFilter) op).getChild()) {
+            predicates.add(0, ((ColumnFilter) op).getPredicate());
+        }
+        ColumnOperator op = new ColumnScan(scan.getTransactionId(), scan.getTableId(), scan.getAlias(), from, to);
+        for (Predicate p : predicates) {
+            op = new ColumnFilter(p, op);
+        }
+        return op;
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        fellBack = false;
+        GroupAccumulators acc = null;
+        StringDictionary groupDict = null;
+        if (aggregatesInParallel()) {
+            acc = aggregateInParallel();
+        } else {
+            child.open();
+            if (plan == null || child.fits()) {
+                Partial whole = new Partial();
+                groupDict = aggregate(child, whole);
+                acc = whole.acc;
+            }
+        }
+        if (acc == null || full(acc)) {
+            child.close();
+            plan.open();
+            fellBack = true;
+            super.open();
+            return;
+        }
+
+        results.clear();
+        for (int id = 0; id < acc.size(); id++) {
+            Tuple t = new Tuple(td);
+            IntField value = new IntField(acc.result(id, aop));
+            if (gfield == Aggregator.NO_GROUPING) {
+                t.setField(0, value);
+            } else {
+                int key = acc.key(id);
+                t.setField(0, groupDict == null ? new IntField(key)
+                        : new StringField(groupDict.decode(key), Type.STRING_LEN));
+                t.setField(1, value);
+            }
+            results.add(t);
+        }
+        it = results.iterator();
+        super.open();
+    }
+
+    // whether acc has more groups than the budget
+    private boolean full(GroupAccumulators acc) {
+        return plan != null && acc.size() > plan.maxGroups();
+    }
+
+    /**
+     * Aggregate the batches of op into p, until they are read or p has more
+     * groups than the budget.
+     *
+     * @return the dictionary of the group field, if it is a string field
+     */
+    private StringDictionary aggregate(ColumnOperator op, Partial p)
+            throws DbException, TransactionAbortedException {
+        StringDictionary groupDict = null;
+        GroupAccumulators acc = p.acc;
+        ColumnBatch b;
+        while ((b = op.nextBatch()) != null) {
+            int count = b.count();
+            if (p.ids.length < count) {
+                p.ids = new int[count];
+            }
+            int[] ids = p.ids;
+            if (gfield == Aggregator.NO_GROUPING) {
+                Arrays.fill(ids, 0, count, acc.group(0));
+            } else {
+                groupDict = b.dicts[gfield];
+                int[] keys = b.columns[gfield];
+                for (int i = 0; i < count; i++) {
+                    ids[i] = acc.group(keys[b.row(i)]);
+                }
+            }
+            accumulate(acc, ids, b, count);
+            if (full(acc)) {
+                break;
+            }
+        }
+        return groupDict;
+    }
+
+    /**
+     * Aggregate the morsels of the scan in parallel, each task into
+     * accumulators it borrows, and merge them.
+     *
+     * @return the merged accumulators, which have more groups than the
+     *         budget if the groups do not fit
+     */
+    private GroupAccumulators aggregateInParallel() throws DbException, TransactionAbortedException {
+        ColumnScan scan = parallelScan();
+        ConcurrentLinkedQueue<Partial> partials = new ConcurrentLinkedQueue<>();
+        AtomicBoolean full = new AtomicBoolean();
+        List<Callable<Void>> morsels = new ArrayList<>();
+        int numPages = scan.numPages();
+        for (int from = 0; from < numPages; from += PartialAggregate.MORSEL_PAGES) {
+            ColumnOperator op = morsel(scan, from, Math.min(numPages, from + PartialAggregate.MORSEL_PAGES));
+            morsels.add(() -> {
+                if (full.get()) {
+                    return null;
+                }
+                Partial p = partials.poll();
+                if (p == null) {
+                    p = new Partial();
+                }
+                try {
+                    op.open();
+                    aggregate(op, p);
+                    if (full(p.acc)) {
+                        full.set(true);
+                    }
+                } finally {
+                    op.close();
+                    partials.add(p);
+                }
+                return null;
+            });
+        }
+        Scheduler.invokeAll(morsels);
+        GroupAccumulators acc = new GroupAccumulators();
+        for (Partial p : partials) {
+            for (int id = 0; id < p.acc.size() && !full(acc); id++) {
+                acc.combine(acc.group(p.acc.key(id)), p.acc, id);
+            }
+        }
+        return acc;
+    }
+
+    private void accumulate(GroupAccumulators acc, int[] ids, ColumnBatch b, int count) {
+        if (aop == Aggregator.Op.COUNT) {
+            long[] counts = acc.counts;
+            for (int i = 0; i < count; i++) {
+                counts[ids[i]]++;
+            }
+            return;
+        }
+        int[] values = b.columns[afield];
+        switch (aop) {
+        case MIN: {
+            int[] mins = acc.mins;
+            for (int i = 0; i < count; i++) {
+                int v = values[b.row(i)];
+                int g = ids[i];
+                mins[g] = Math.min(mins[g], v);
+            }
+            break;
+        }
+        case MAX: {
+            int[] maxs = acc.maxs;
+            for (int i = 0; i < count; i++) {
+                int v = values[b.row(i)];
+                int g = ids[i];
+                maxs[g] = Math.max(maxs[g], v);
+            }
+            break;
+        }
+        default: {
+            long[] sums = acc.sums;
+            long[] counts = acc.counts;
+            for (int i = 0; i < count; i++) {
+                int g = ids[i];
+                sums[g] += values[b.row(i)];
+                counts[g]++;
+            }
+        }
+        }
+    }
+
+    protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+        if (fellBack) {
+            return plan.hasNext() ? plan.next() : null;
+        }
+        if (it != null && it.hasNext()) {
+            return it.next();
+        }
+        return null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        if (fellBack) {
+            plan.rewind();
+        } else {
+            it = results.iterator();
+        }
+    }
+
+    public void close() {
+        super.close();
+        if (fellBack) {
+            plan.close();
+            fellBack = false;
+        } else {
+            child.close();
+        }
+        it = null;
+    }
+
+    /**
+     * The input of a ColumnAggregate is a vectorized pipeline rather than an
+     * OpIterator, so it has no children in the iterator tree.
+     */
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[0];
+    }
+
+    /** A ColumnAggregate has no children to replace; an empty array is accepted */
+    @Override
+    public void setChildren(OpIterator[] children) {
+        if (children.length != 0) {
+            throw new UnsupportedOperationException("ColumnAggregate reads a ColumnOperator");
+        }
+    }
+}
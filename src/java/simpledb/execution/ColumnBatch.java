@@ -0,0 +1,101 @@
+package simpledb.execution;
+
+import simpledb.common.Type;
+import simpledb.storage.Field;
+import simpledb.storage.IntField;
+import simpledb.storage.StringField;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+
+/**
+ * ColumnBatch holds a batch of rows column by column, the unit of work of
+ * the vectorized operators (see {@link ColumnOperator}).
+ * <p>
+ * Every column is an int vector: INT_TYPE columns hold their values, and
+ * STRING_TYPE columns hold codes into the column's {@link StringDictionary}.
+ * Rows 0..size-1 of the vectors are filled.  Operators that drop rows do
+ * not move any values; they set a selection vector listing the positions
+ * of the rows that are still live, in increasing order.
+ */
+public class ColumnBatch {
+
+    final TupleDesc td;
+    final int[][] columns;
+    final StringDictionary[] dicts;
+    /** number of rows stored in the column vectors */
+    int size;
+    /** positions of the live rows, or null if all size rows are live */
+    int[] sel;
+    /** number of live positions in sel */
+    int selSize;
+
+    /**
+     * Create a batch with its own column vectors.
+     *
+     * @param td the schema of the rows
+     * @param dicts the dictionary of each STRING_TYPE column (entries of
+     *              INT_TYPE columns are ignored)
+     * @param capacity the number of rows the vectors can hold
+     */
+    public ColumnBatch(TupleDesc td, StringDictionary[] dicts, int capacity) {
+        this(td, new int[td.numFields()][], dicts);
+        for (int i = 0; i < columns.length; i++) {
+            columns[i] = new int[capacity];
+        }
+    }
+
+    /** Create a batch over existing column vectors */
+    ColumnBatch(TupleDesc td, int[][] columns, StringDictionary[] dicts) {
+        this.td = td;
+        this.columns = columns;
+        this.dicts = dicts;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /** @return the number of live rows in the batch */
+    public int count() {
+        return sel == null ? size : selSize;
+    }
+
+    /** @return the position in the column vectors of the i-th live row */
+    public int row(int i) {
+        return sel == null ? i : sel[i];
+    }
+
+    /** @return the vector of column i */
+    public int[] column(int i) {
+        return columns[i];
+    }
+
+    /** @return the dictionary of column i, or null for INT_TYPE columns */
+    public StringDictionary dictionary(int i) {
+        return dicts[i];
+    }
+
+    /** Empty the batch and make all rows live */
+    void reset() {
+        size = 0;
+        sel = null;
+        selSize = 0;
+    }
+
+    /** @return the value of column i at position pos as a Field */
+    public Field getField(int i, int pos) {
+        if (td.getFieldType(i) == Type.INT_TYPE) {
+            return new IntField(columns[i][pos]);
+        }
+        return new StringField(dicts[i].decode(columns[i][pos]), Type.STRING_LEN);
+    }
+
+    /** @return the row at position pos as a Tuple */
+    public Tuple getTuple(int pos) {
+        Tuple t = new Tuple(td);
+        for (int i = 0; i < columns.length; i++) {
+            t.setField(i, getField(i, pos));
+        }
+        return t;
+    }
+}
@@ -0,0 +1,204 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.storage.Field;
+import simpledb.storage.IntField;
+import simpledb.storage.StringField;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.util.Arrays;
+
+/**
+ * ColumnFilter is the vectorized counterpart of {@link Filter}.  It narrows
+ * the selection vector of each batch to the rows that pass its predicate,
+ * with one tight loop per comparison operator over the int vector of the
+ * predicate's field.
+ * <p>
+ * On a string field the predicate is evaluated once per dictionary code
+ * rather than once per row, and rows are selected by looking their code
+ * up in the memoized results.
+ */
+public class ColumnFilter implements ColumnOperator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final Predicate predicate;
+    private final ColumnOperator child;
+    private final int field;
+    private final boolean isString;
+
+    private transient int[] identity;
+    private transient int[] sel;
+    // memoized predicate results by dictionary code, for string fields
+    private transient boolean[] matches;
+    private transient int numMatched;
+    private transient StringDictionary matchedDict;
+
+    /**
+     * @param p the predicate to filter rows with
+     * @param child the operator to read batches from
+     */
+    public ColumnFilter(Predicate p, ColumnOperator child) {
+        this.predicate = p;
+        this.child = child;
+        this.field = p.getField();
+        this.isString = child.getTupleDesc().getFieldType(field) == Type.STRING_TYPE;
+    }
+
+    public Predicate getPredicate() {
+        return predicate;
+    }
+
+    /** @return the operator the filter reads batches from */
+    public ColumnOperator getChild() {
+        return child;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return child.getTupleDesc();
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        child.open();
+    }
+
+    public ColumnBatch nextBatch() throws DbException, TransactionAbortedException {
+        ColumnBatch b;
+        while ((b = child.nextBatch()) != null) {
+            int[] rows = b.sel;
+            int count = b.count();
+            if (rows == null) {
+                rows = identity(b.size);
+            }
+            if (sel == null || sel.length < count) {
+                sel = new int[Math.max(count, VECTOR_SIZE)];
+            }
+            int n;
+            if (isString) {
+                n = selectMatching(b.columns[field], b.dicts[field], rows, count, sel);
+            } else {
+                n = select(predicate.getOp(), b.columns[field],
+                        ((IntField) predicate.getOperand()).getValue(), rows, count, sel);
+            }
+            if (n > 0) {
+                b.sel = sel;
+                b.selSize = n;
+                return b;
+            }
+        }
+        return null;
+    }
+
+    private int[] identity(int size) {
+        if (identity == null || identity.length < size) {
+            identity = new int[Math.max(size, VECTOR_SIZE)];
+            for (int i = 0; i < identity.length; i++) {
+                identity[i] = i;
+            }
+        }
+        return identity;
+    }
+
+    /**
+     * Store the positions among rows[0..count-1] whose value in col
+     * compares to c as op in out.  Every position is written to out and
+     * the output index only advances past the ones that match, so the
+     * loops have no data dependent branches.
+     *
+     * @return the number of positions stored
+     */
+    static int select(Predicate.Op op, int[] col, int c, int[] rows, int count, int[] out) {
+        int n = 0;
+        switch (op) {
+        case EQUALS:
+        case LIKE:
+            for (int i = 0; i < count; i++) {
+                int r = rows[i];
+                out[n] = r;
+                n += col[r] == c ? 1 : 0;
+            }
+            break;
+        case NOT_EQUALS:
+            for (int i = 0; i < count; i++) {
+                int r = rows[i];
+                out[n] = r;
+                n += col[r] != c ? 1 : 0;
+            }
+            break;
+        case GREATER_THAN:
+            for (int i = 0; i < count; i++) {
+                int r = rows[i];
+                out[n] = r;
+                n += col[r] > c ? 1 : 0;
+            }
+            break;
+        case GREATER_THAN_OR_EQ:
+            for (int i = 0; i < count; i++) {
+                int r = rows[i];
+                out[n] = r;
+                n += col[r] >= c ? 1 : 0;
+            }
+            break;
+        case LESS_THAN:
+            for (int i = 0; i < count; i++) {
+                int r = rows[i];
+                out[n] = r;
+                n += col[r] < c ? 1 : 0;
+            }
+            break;
+        case LESS_THAN_OR_EQ:
+            for (int i = 0; i < count; i++) {
+                int r = rows[i];
+                out[n] = r;
+                n += col[r] <= c ? 1 : 0;
+            }
+            break;
+        }
+        return n;
+    }
+
+    private int selectMatching(int[] codes, StringDictionary dict, int[] rows, int count, int[] out) {
+        if (dict != matchedDict) {
+            matchedDict = dict;
+            numMatched = 0;
+        }
+        // evaluate the predicate on the strings added since the last batch
+        if (numMatched < dict.size()) {
+            if (matches == null || matches.length < dict.size()) {
+                matches = Arrays.copyOf(matches == null ? new boolean[0] : matches,
+                        Math.max(dict.size(), 2 * numMatched));
+            }
+            Field operand = predicate.getOperand();
+            for (; numMatched < dict.size(); numMatched++) {
+                StringField f = new StringField(dict.decode(numMatched), Type.STRING_LEN);
+                matches[numMatched] = f.compare(predicate.getOp(), operand);
+            }
+        }
+        boolean[] m = matches;
+        int n = 0;
+        for (int i = 0; i < count; i++) {
+            int r = rows[i];
+            out[n] = r;
+            n += m[codes[r]] ? 1 : 0;
+        }
+        return n;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child.rewind();
+    }
+
+    public boolean fits() {
+        return child.fits();
+    }
+
+    public void close() {
+        child.close();
+        sel = null;
+        matches = null;
+        matchedDict = null;
+        numMatched = 0;
+    }
+}
@@ -0,0 +1,242 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.util.Arrays;
+
+/**
+ * ColumnHashJoin is the vectorized counterpart of {@link HashEquiJoin} for
+ * equality joins on INT_TYPE fields.  The rows of child1 are copied into
+ * growable column vectors and indexed by an {@link IntHashTable} on the
+ * join key, with the rows of each key chained through a next-row array.
+ * Batches of child2 then probe the table, and the matching pairs of
+ * positions are gathered into the output vectors one column at a time.
+ * <p>
+ * Unlike HashEquiJoin, it does not spill: given a budget, it stops reading
+ * child1 once it has more rows than that, and no longer fits (see
+ * {@link ColumnOperator#fits}).
+ */
+public class ColumnHashJoin implements ColumnOperator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final JoinPredicate pred;
+    private final ColumnOperator child1, child2;
+    private final TupleDesc td;
+    private final int numFields1;
+    private final int maxTuples;
+
+    // build side, stored column by column
+    private transient int[][] buildColumns;
+    private transient StringDictionary[] buildDicts;
+    private transient int buildSize;
+    private transient IntHashTable table;
+    private transient int[] head;  // first build row of each key id
+    private transient int[] next;  // next build row with the same key
+
+    // probe state, kept between calls when the output batch fills up
+    private transient ColumnBatch probe;
+    private transient int probeIdx;
+    private transient int chain;
+
+    private transient ColumnBatch out;
+    private transient int[] buildRows, probeRows;
+
+    /**
+     * @param p the join predicate; it must be an equality between INT_TYPE
+     *          fields
+     * @param child1 the operator the hash table is built from
+     * @param child2 the operator that probes the hash table
+     */
+    public ColumnHashJoin(JoinPredicate p, ColumnOperator child1, ColumnOperator child2) {
+        this(p, child1, child2, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Constructor with a memory budget.
+     *
+     * @param maxTuples the number of child1 rows to keep in memory
+     */
+    public ColumnHashJoin(JoinPredicate p, ColumnOperator child1, ColumnOperator child2, int maxTuples) {
+        if (p.getOperator() != Predicate.Op.EQUALS
+                || child1.getTupleDesc().getFieldType(p.getField1()) != Type.INT_TYPE
+                || child2.getTupleDesc().getFieldType(p.getField2()) != Type.INT_TYPE) {
+            throw new IllegalArgumentException("ColumnHashJoin only supports equality on int fields");
+        }
+        this.pred = p;
+        this.child1 = child1;
+        this.child2 = child2;
+        this.td = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+        this.numFields1 = child1.getTupleDesc().numFields();
+        this.maxTuples = maxTuples;
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return pred;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        child1.open();
+        child2.open();
+        build();
+        probe = null;
+        chain = -1;
+    }
+
+    private void build() throws DbException, TransactionAbortedException {
+        buildColumns = new int[numFields1][VECTOR_SIZE];
+        buildDicts = null;
+        buildSize = 0;
+        table = new IntHashTable();
+        head = new int[VECTOR_SIZE];
+        next = new int[VECTOR_SIZE];
+        int keyField = pred.getField1();
+
+        ColumnBatch b;
+        while (buildSize <= maxTuples && (b = child1.nextBatch()) != null) {
+            buildDicts = b.dicts;
+            int count = b.count();
+            if (buildSize + count > next.length) {
+                int capacity = Math.max(buildSize + count, next.length * 2);
+                for (int i = 0; i < numFields1; i++) {
+                    buildColumns[i] = Arrays.copyOf(buildColumns[i], capacity);
+                }
+                next = Arrays.copyOf(next, capacity);
+            }
+            for (int i = 0; i < numFields1; i++) {
+                int[] from = b.columns[i];
+                int[] to = buildColumns[i];
+                if (b.sel == null) {
+                    System.arraycopy(from, 0, to, buildSize, count);
+                } else {
+                    int[] sel = b.sel;
+                    for (int j = 0; j < count; j++) {
+                        to[buildSize + j] = from[sel[j]];
+                    }
+                }
+            }
+            int[] keys = buildColumns[keyField];
+            for (int row = buildSize; row < buildSize + count; row++) {
+                int numKeys = table.size();
+                int id = table.put(keys[row]);
+                if (id == numKeys) {
+                    // first row with this key
+                    if (id == head.length) {
+                        head = Arrays.copyOf(head, head.length * 2);
+                    }
+                    head[id] = -1;
+                }
+                next[row] = head[id];
+                head[id] = row;
+            }
+            buildSize += count;
+        }
+    }
+
+    public boolean fits() {
+        return buildSize <= maxTuples && child1.fits() && child2.fits();
+    }
+
+    public ColumnBatch nextBatch() throws DbException, TransactionAbortedException {
+        if (buildSize == 0 || !fits()) {
+            return null;
+        }
+        if (out == null) {
+            StringDictionary[] dicts = new StringDictionary[td.numFields()];
+            if (buildDicts != null) {
+                System.arraycopy(buildDicts, 0, dicts, 0, numFields1);
+            }
+            out = new ColumnBatch(td, dicts, VECTOR_SIZE);
+            buildRows = new int[VECTOR_SIZE];
+            probeRows = new int[VECTOR_SIZE];
+        }
+        int keyField = pred.getField2();
+        while (true) {
+            if (probe == null) {
+                probe = child2.nextBatch();
+                probeIdx = 0;
+                chain = -1;
+                if (probe == null) {
+                    return null;
+                }
+            }
+            int[] keys = probe.columns[keyField];
+            int count = probe.count();
+            int n = 0;
+            while (n < VECTOR_SIZE) {
+                if (chain == -1) {
+                    if (probeIdx == count) {
+                        break;
+                    }
+                    int id = table.get(keys[probe.row(probeIdx)]);
+                    if (id < 0) {
+                        probeIdx++;
+                        continue;
+                    }
+                    chain = head[id];
+                }
+                buildRows[n] = chain;
+                probeRows[n] = probe.row(probeIdx);
+                n++;
+                chain = next[chain];
+                if (chain == -1) {
+                    probeIdx++;
+                }
+            }
+            if (n > 0) {
+                // gather before the probe side can reuse its vectors
+                gather(n);
+                if (chain == -1 && probeIdx == count) {
+                    probe = null;
+                }
+                return out;
+            }
+            probe = null;
+        }
+    }
+
+    // copy the matched pairs of rows into the output vectors
+    private void gather(int n) {
+        out.reset();
+        for (int i = 0; i < numFields1; i++) {
+            int[] from = buildColumns[i];
+            int[] to = out.columns[i];
+            for (int j = 0; j < n; j++) {
+                to[j] = from[buildRows[j]];
+            }
+        }
+        for (int i = 0; i < probe.columns.length; i++) {
+            int[] from = probe.columns[i];
+            int[] to = out.columns[numFields1 + i];
+            for (int j = 0; j < n; j++) {
+                to[j] = from[probeRows[j]];
+            }
+            out.dicts[numFields1 + i] = probe.dicts[i];
+        }
+        out.size = n;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child2.rewind();
+        probe = null;
+        chain = -1;
+    }
+
+    public void close() {
+        child1.close();
+        child2.close();
+        buildColumns = null;
+        table = null;
+        head = null;
+        next = null;
+        probe = null;
+        out = null;
+    }
+}
@@ -0,0 +1,53 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.io.Serializable;
+
+/**
+ * ColumnOperator is the iterator interface of the vectorized operators.
+ * Instead of one Tuple at a time, they pass {@link ColumnBatch}es of
+ * primitive column vectors, and each operator works on a whole batch in a
+ * tight loop.  {@link ColumnAggregate} turns the output of a vectorized
+ * pipeline back into tuples, so it can be used as part of an ordinary
+ * {@link OpIterator} plan.
+ * <p>
+ * A batch returned by nextBatch is only valid until the next call: the
+ * operator that produced it may reuse its vectors, and the operator that
+ * consumes it may replace its selection vector.
+ * <p>
+ * An operator that keeps its input in memory, such as
+ * {@link ColumnHashJoin}, may have a budget; if its input does not fit, it
+ * stops reading it, and the tuple-at-a-time plan it stands for must be run
+ * instead (see {@link #fits}).
+ */
+public interface ColumnOperator extends Serializable {
+
+    /** Number of rows a batch is sized for */
+    int VECTOR_SIZE = 1024;
+
+    void open() throws DbException, TransactionAbortedException;
+
+    /**
+     * @return the next batch, which holds at least one live row, or null if
+     *         there are no more rows
+     */
+    ColumnBatch nextBatch() throws DbException, TransactionAbortedException;
+
+    void rewind() throws DbException, TransactionAbortedException;
+
+    TupleDesc getTupleDesc();
+
+    void close();
+
+    /**
+     * @return false if the operator or one below it, once open, has more
+     *         input than its budget, so that the batches it returns are not
+     *         the whole output
+     */
+    default boolean fits() {
+        return true;
+    }
+}
@@ -0,0 +1,77 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+/**
+ * ColumnProject is the vectorized counterpart of {@link Project}.  Since
+ * rows are stored column by column, projecting only rearranges references
+ * to the child's vectors; no values are copied.  Below a
+ * {@link ColumnHashJoin}, it narrows the rows the join copies to the fields
+ * that are read above it.
+ */
+public class ColumnProject implements ColumnOperator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final ColumnOperator child;
+    private final int[] fields;
+    private final TupleDesc td;
+
+    /**
+     * @param fields the indexes of the child's fields to output, in order
+     * @param child the operator to read batches from
+     */
+    public ColumnProject(int[] fields, ColumnOperator child) {
+        this.child = child;
+        this.fields = fields.clone();
+        TupleDesc childtd = child.getTupleDesc();
+        Type[] types = new Type[fields.length];
+        String[] names = new String[fields.length];
+        for (int i = 0; i < fields.length; i++) {
+            types[i] = childtd.getFieldType(fields[i]);
+            names[i] = childtd.getFieldName(fields[i]);
+        }
+        this.td = new TupleDesc(types, names);
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        child.open();
+    }
+
+    public ColumnBatch nextBatch() throws DbException, TransactionAbortedException {
+        ColumnBatch b = child.nextBatch();
+        if (b == null) {
+            return null;
+        }
+        int[][] columns = new int[fields.length][];
+        StringDictionary[] dicts = new StringDictionary[fields.length];
+        for (int i = 0; i < fields.length; i++) {
+            columns[i] = b.columns[fields[i]];
+            dicts[i] = b.dicts[fields[i]];
+        }
+        ColumnBatch out = new ColumnBatch(td, columns, dicts);
+        out.size = b.size;
+        out.sel = b.sel;
+        out.selSize = b.selSize;
+        return out;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child.rewind();
+    }
+
+    public boolean fits() {
+        return child.fits();
+    }
+
+    public void close() {
+        child.close();
+    }
+}
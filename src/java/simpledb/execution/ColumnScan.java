@@ -0,0 +1,177 @@
+package simpledb.execution;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Permissions;
+import simpledb.common.Type;
+import simpledb.storage.DbFile;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPage;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+/**
+ * ColumnScan is the vectorized counterpart of {@link SeqScan}: it reads the
+ * pages of a HeapFile through the buffer pool and returns their tuples as
+ * column vectors, several pages per batch.  String fields are dictionary
+ * encoded as they are read.  Like SeqScan, it can read a range of the
+ * pages only, so that a table can be scanned in morsels by several scans.
+ */
+public class ColumnScan implements ColumnOperator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final TransactionId tid;
+    private final int tableId;
+    private final String tableAlias;
+    private final TupleDesc td;
+    private final HeapFile file;
+    private final int fromPage;
+    private final int toPage;
+
+    private transient StringDictionary[] dicts;
+    private transient ColumnBatch batch;
+    private transient String[] strings;
+    private int pageNo;
+
+    /**
+     * Creates a vectorized scan over the specified table as a part of the
+     * specified transaction.
+     *
+     * @param tid the transaction this scan is running as a part of
+     * @param tableid the table to scan; it must be stored in a HeapFile
+     * @param tableAlias the alias of this table, used to prefix the field
+     *                   names as in {@link SeqScan#getTupleDesc()}
+     */
+    public ColumnScan(TransactionId tid, int tableid, String tableAlias) {
+        this(tid, tableid, tableAlias, 0, -1);
+    }
+
+    /**
+     * Creates a vectorized scan over a range of pages of the specified
+     * table.
+     *
+     * @param fromPage the first page to scan
+     * @param toPage the page after the last one to scan, or -1 to scan up to
+     *               the last page of the table
+     */
+    public ColumnScan(TransactionId tid, int tableid, String tableAlias, int fromPage, int toPage) {
+        DbFile f = Database.getCatalog().getDatabaseFile(tableid);
+        if (!(f instanceof HeapFile)) {
+            throw new IllegalArgumentException("ColumnScan only reads heap files");
+        }
+        this.tid = tid;
+        this.tableId = tableid;
+        this.tableAlias = tableAlias;
+        this.file = (HeapFile) f;
+        this.fromPage = fromPage;
+        this.toPage = toPage;
+
+        TupleDesc oldDesc = Database.getCatalog().getTupleDesc(tableid);
+        Type[] typeAr = new Type[oldDesc.numFields()];
+        String[] fieldAr = new String[oldDesc.numFields()];
+        for (int i = 0; i < typeAr.length; i++) {
+            typeAr[i] = oldDesc.getFieldType(i);
+            fieldAr[i] = String.format("%s.%s", tableAlias, oldDesc.getFieldName(i));
+        }
+        this.td = new TupleDesc(typeAr, fieldAr);
+    }
+
+    public String getTableName() {
+        return Database.getCatalog().getTableName(this.tableId);
+    }
+
+    public String getAlias() {
+        return this.tableAlias;
+    }
+
+    /** @return the id of the table this operator scans */
+    public int getTableId() {
+        return this.tableId;
+    }
+
+    /** @return the transaction this operator scans the table for */
+    public TransactionId getTransactionId() {
+        return this.tid;
+    }
+
+    /** @return the number of pages the scan reads */
+    public int numPages() {
+        int numPages = file.numPages();
+        return Math.max(0, (toPage < 0 ? numPages : Math.min(toPage, numPages)) - fromPage);
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    public void open() {
+        dicts = new StringDictionary[td.numFields()];
+        for (int i = 0; i < dicts.length; i++) {
+            if (td.getFieldType(i) == Type.STRING_TYPE) {
+                dicts[i] = new StringDictionary();
+            }
+        }
+        pageNo = fromPage;
+    }
+
+    public ColumnBatch nextBatch() throws DbException, TransactionAbortedException {
+        if (dicts == null) {
+            throw new IllegalStateException("ColumnScan not yet open");
+        }
+        int endPage = fromPage + numPages();
+        while (pageNo < endPage) {
+            HeapPage page = readPage(pageNo++);
+            if (batch == null) {
+                batch = new ColumnBatch(td, dicts, Math.max(VECTOR_SIZE, page.getNumSlots()));
+                strings = new String[batch.columns[0].length];
+            }
+            batch.reset();
+            append(page);
+            // fill the rest of the batch with whole pages
+            while (pageNo < endPage
+                    && batch.columns[0].length - batch.size >= page.getNumSlots()) {
+                page = readPage(pageNo++);
+                append(page);
+            }
+            if (batch.size > 0) {
+                return batch;
+            }
+        }
+        return null;
+    }
+
+    private HeapPage readPage(int pgNo) throws DbException, TransactionAbortedException {
+        return (HeapPage) Database.getBufferPool().getPage(tid,
+                new HeapPageId(tableId, pgNo), Permissions.READ_ONLY);
+    }
+
+    private void append(HeapPage page) {
+        int n = 0;
+        for (int i = 0; i < td.numFields(); i++) {
+            if (dicts[i] == null) {
+                n = page.readIntColumn(i, batch.columns[i], batch.size);
+            } else {
+                n = page.readStringColumn(i, strings, 0);
+                int[] codes = batch.columns[i];
+                StringDictionary dict = dicts[i];
+                for (int j = 0; j < n; j++) {
+                    codes[batch.size + j] = dict.encode(strings[j]);
+                }
+            }
+        }
+        batch.size += n;
+    }
+
+    public void rewind() {
+        pageNo = fromPage;
+    }
+
+    public void close() {
+        dicts = null;
+        batch = null;
+        strings = null;
+    }
+}
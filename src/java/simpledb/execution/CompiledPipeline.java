@@ -0,0 +1,355 @@
+package simpledb.execution;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Permissions;
+import simpledb.common.Type;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPage;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.IntField;
+import simpledb.storage.PageMorsels;
+import simpledb.storage.StringField;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * CompiledPipeline runs a pipeline of operators that {@link PipelineCompiler}
+ * has compiled into a single generated loop.  The loop is run over the
+ * pages of the pipeline's scan, one page at a time; it reads the page's
+ * tuples, filters them, probes the build sides of its joins and either
+ * emits the tuples that come out of the pipeline or folds them into the
+ * accumulators of an aggregate, without any tuple crossing an operator
+ * boundary.
+ * <p>
+ * An aggregate that runs in parallel (see {@link Aggregate#setParallel})
+ * is compiled into a pipeline that runs the loop over the morsels of its
+ * scan's pages as tasks of the query's session, each into accumulators of
+ * its own, which are then merged (see {@link Scheduler#invokeAll}).
+ * <p>
+ * The build sides of the joins are ordinary operators, which are drained
+ * into {@link JoinTable}s when the pipeline is opened.  If the build side of
+ * a join does not fit in the join's budget, or the groups of an aggregate in
+ * the aggregate's, the plan the pipeline was compiled from is run instead,
+ * so that it spills.
+ */
+public class CompiledPipeline extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final OpIterator plan;
+    private final String source;
+    private final transient PipelineCompiler.Body body;
+    private final SeqScan scan;
+    private final int[] ints;
+    private final String[] strings;
+    private final OpIterator[] builds;
+    private final int[] buildFields;
+    private final int[] buildLimits;
+    private final TupleDesc td;
+
+    // aggregating pipelines only
+    private final int gfield;
+    private final Type gtype;
+    private final Aggregator.Op aop;
+    // whether the pages are aggregated by tasks in parallel
+    private final boolean parallel;
+
+    private transient PipelineContext ctx;
+    private transient GroupAccumulators acc;
+    private transient StringDictionary groups;
+    private final List<Tuple> out = new ArrayList<>();
+    private transient Iterator<Tuple> it;
+    private int pgNo;
+    // for a scan that shares morsels of pages: the end of the current
+    // morsel, and whether the morsels are to be released on close
+    private int morselEnd;
+    private boolean claimed = false;
+    // whether a build side or the groups did not fit, and the plan is run instead
+    private boolean fellBack = false;
+
+    CompiledPipeline(OpIterator plan, String source, PipelineCompiler.Body body, SeqScan scan,
+                     int[] ints, String[] strings, OpIterator[] builds, int[] buildFields,
+                     int[] buildLimits, int gfield, Type gtype, Aggregator.Op aop, boolean parallel) {
+        this.plan = plan;
+        this.source = source;
+        this.body = body;
+        this.scan = scan;
+        this.ints = ints;
+        this.strings = strings;
+        this.builds = builds;
+        this.buildFields = buildFields;
+        this.buildLimits = buildLimits;
+        this.td = plan.getTupleDesc();
+        this.gfield = gfield;
+        this.gtype = gtype;
+        this.aop = aop;
+        this.parallel = parallel;
+    }
+
+    /** @return the plan this pipeline was compiled from */
+    public OpIterator getPlan() {
+        return plan;
+    }
+
+    /** @return the Java source the pipeline was compiled from */
+    public String getSource() {
+        return source;
+    }
+
+    private boolean aggregating() {
+        return aop != null;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        fellBack = false;
+        JoinTable[] tables = new JoinTable[builds.length];
+        for (int i = 0; i < builds.length; i++) {
+            builds[i].open();
+            tables[i] = JoinTable.build(builds[i], buildFields[i], buildLimits[i]);
+            if (tables[i] == null) {
+                runPlan(i + 1);
+                return;
+            }
+        }
+        if (aggregating()) {
+            acc = new GroupAccumulators();
+            groups = new StringDictionary();
+        }
+        ctx = new PipelineContext(ints, strings, tables, td, acc, groups, out);
+        out.clear();
+        startPages();
+        if (aggregating()) {
+            int maxGroups = ((Aggregate) plan).maxGroups();
+            if (parallel) {
+                aggregateInParallel(tables, maxGroups);
+            } else {
+                while (acc.size() <= maxGroups && runPage()) {
+                    // aggregate every page before returning anything
+                }
+            }
+            if (acc.size() > maxGroups) {
+                runPlan(builds.length);
+                return;
+            }
+            out.clear();
+            for (int id = 0; id < acc.size(); id++) {
+                Tuple t = new Tuple(td);
+                IntField value = new IntField(acc.result(id, aop));
+                if (gfield == Aggregator.NO_GROUPING) {
+                    t.setField(0, value);
+                } else {
+                    int key = acc.key(id);
+                    t.setField(0, gtype == Type.INT_TYPE ? new IntField(key)
+                            : new StringField(groups.decode(key), Type.STRING_LEN));
+                    t.setField(1, value);
+                }
+                out.add(t);
+            }
+            ctx = null;
+            acc = null;
+            groups = null;
+        }
+        it = out.iterator();
+        super.open();
+    }
+
+    // the accumulators a task aggregates its morsel into
+    private static final class Partial {
+        final GroupAccumulators acc = new GroupAccumulators();
+        final StringDictionary groups = new StringDictionary();
+        final PipelineContext ctx;
+
+        Partial(CompiledPipeline p, JoinTable[] tables) {
+            ctx = new PipelineContext(p.ints, p.strings, tables, p.td, acc, groups, null);
+        }
+    }
+
+    // aggregate the morsels of the scan's pages in parallel, each task into
+    // accumulators it takes from partials for as long as it runs, and merge
+    // them into acc; acc has more than maxGroups groups if they do not fit
+    private void aggregateInParallel(JoinTable[] tables, int maxGroups)
+            throws DbException, TransactionAbortedException {
+        HeapFile file = (HeapFile) Database.getCatalog().getDatabaseFile(scan.getTableId());
+        int to = scan.getToPage() < 0 ? file.numPages() : Math.min(scan.getToPage(), file.numPages());
+        ConcurrentLinkedQueue<Partial> partials = new ConcurrentLinkedQueue<>();
+        AtomicBoolean full = new AtomicBoolean();
+        List<Callable<Void>> morsels = new ArrayList<>();
+        for (int from = scan.getFromPage(); from < to; from += PartialAggregate.MORSEL_PAGES) {
+            int start = from, end = Math.min(to, from + PartialAggregate.MORSEL_PAGES);
+            morsels.add(() -> {
+                if (full.get()) {
+                    return null;
+                }
+                Partial partial = partials.poll();
+                if (partial == null) {
+                    partial = new Partial(this, tables);
+                }
+                try {
+                    for (int pageNo = start; pageNo < end && partial.acc.size() <= maxGroups; pageNo++) {
+                        HeapPage page = (HeapPage) Database.getBufferPool().getPage(scan.getTransactionId(),
+                                new HeapPageId(scan.getTableId(), pageNo), Permissions.READ_ONLY);
+                        body.run(page, partial.ctx);
+                    }
+                    if (partial.acc.size() > maxGroups) {
+                        full.set(true);
+                    }
+                } finally {
+                    partials.add(partial);
+                }
+                return null;
+            });
+        }
+        Scheduler.invokeAll(morsels);
+        for (Partial partial : partials) {
+            for (int id = 0; id < partial.acc.size() && acc.size() <= maxGroups; id++) {
+                int key = partial.acc.key(id);
+                if (gfield != Aggregator.NO_GROUPING && gtype == Type.STRING_TYPE) {
+                    key = groups.encode(partial.groups.decode(key));
+                }
+                acc.combine(acc.group(key), partial.acc, id);
+            }
+        }
+    }
+
+    // run the plan instead of the pipeline, once the first opened builds
+    // have been closed
+    private void runPlan(int opened) throws DbException, TransactionAbortedException {
+        for (int i = 0; i < opened; i++) {
+            builds[i].close();
+        }
+        releasePages();
+        ctx = null;
+        acc = null;
+        groups = null;
+        out.clear();
+        plan.open();
+        fellBack = true;
+        super.open();
+    }
+
+    // read the pages of the scan from the first one again
+    private void startPages() {
+        releasePages();
+        pgNo = scan.getFromPage();
+        morselEnd = 0;
+        claimed = scan.getMorsels() != null;
+    }
+
+    private void releasePages() {
+        if (claimed) {
+            claimed = false;
+            scan.getMorsels().release();
+        }
+    }
+
+    // the next page of the scan, or -1 if there is none
+    private int nextPage() {
+        PageMorsels morsels = scan.getMorsels();
+        if (morsels != null) {
+            if (pgNo >= morselEnd) {
+                int from = morsels.next();
+                if (from < 0) {
+                    return -1;
+                }
+                pgNo = from;
+                morselEnd = morsels.end(from);
+            }
+            return pgNo++;
+        }
+        HeapFile file = (HeapFile) Database.getCatalog().getDatabaseFile(scan.getTableId());
+        if (pgNo >= file.numPages() || scan.getToPage() >= 0 && pgNo >= scan.getToPage()) {
+            return -1;
+        }
+        return pgNo++;
+    }
+
+    // run the pipeline over the next page of the scan; false if there is none
+    private boolean runPage() throws DbException, TransactionAbortedException {
+        int next = nextPage();
+        if (next < 0) {
+            return false;
+        }
+        HeapPage page = (HeapPage) Database.getBufferPool().getPage(scan.getTransactionId(),
+                new HeapPageId(scan.getTableId(), next), Permissions.READ_ONLY);
+        body.run(page, ctx);
+        return true;
+    }
+
+    protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+        if (fellBack) {
+            return plan.hasNext() ? plan.next() : null;
+        }
+        while (!it.hasNext()) {
+            if (aggregating()) {
+                return null;
+            }
+            out.clear();
+            boolean more = runPage();
+            it = out.iterator();
+            if (!more) {
+                return null;
+            }
+        }
+        return it.next();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        if (fellBack) {
+            plan.rewind();
+        } else if (aggregating()) {
+            it = out.iterator();
+        } else {
+            out.clear();
+            it = out.iterator();
+            startPages();
+        }
+    }
+
+    public void close() {
+        super.close();
+        if (fellBack) {
+            plan.close();
+            fellBack = false;
+        } else {
+            for (OpIterator b : builds) {
+                b.close();
+            }
+        }
+        ctx = null;
+        out.clear();
+        it = null;
+        releasePages();
+    }
+
+    /**
+     * The only child of a CompiledPipeline is the plan it was compiled from,
+     * so that the plan is still shown and estimated as a tree.
+     */
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[]{plan};
+    }
+
+    /** The generated code cannot be given a new plan; only plan itself is accepted */
+    @Override
+    public void setChildren(OpIterator[] children) {
+        if (children.length != 1 || children[0] != plan) {
+            throw new UnsupportedOperationException("CompiledPipeline runs generated code");
+        }
+    }
+}
@@ -0,0 +1,599 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.io.Serializable;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Exchange connects parts of a plan that run on different threads, for
+ * intra-query parallelism.  Each input of an exchange is run by a task on
+ * the shared workers of the {@link Scheduler}, which pushes the input's
+ * tuples, in batches, into bounded queues, one per output of the exchange;
+ * the task reschedules itself every {@link #MORSEL_BATCHES} batches, and
+ * waits without holding a worker while the queues are full.  The tasks are
+ * queued in the session of the query that opens the exchange, so that they
+ * get their share of the workers among concurrent queries.  Each output is an
+ * Exchange operator that returns the tuples of its queue.  There are three
+ * kinds of exchanges:
+ * <ul>
+ * <li>{@link #gather}: a single output, which returns the tuples of all
+ * the inputs, in no particular order;
+ * <li>{@link #repartition}: n outputs; each tuple goes to the output given
+ * by the hash of one of its fields, so that all the tuples with equal
+ * values of the field meet in the same output;
+ * <li>{@link #broadcast}: n outputs, each of which returns every tuple.
+ * </ul>
+ * The inputs start running when the first output of the exchange is
+ * opened, and are stopped and closed when the last one is closed.  The
+ * queues are bounded, so an output that is not read holds back the inputs:
+ * the outputs of a repartition or a broadcast must be read concurrently,
+ * for instance each under an input of a gather.
+ */
+public class Exchange extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    /** The kinds of exchanges */
+    public enum Kind { GATHER, REPARTITION, BROADCAST }
+
+    /** The number of batches of tuples each queue holds */
+    public static final int QUEUE_BATCHES = 16;
+
+    /** The number of batches a producer pushes before giving its turn to other tasks */
+    public static final int MORSEL_BATCHES = 4;
+
+    // the batch that ends the tuples of an input
+    private static final Tuple[] END = new Tuple[0];
+
+    /** What the outputs of an exchange share: the inputs and their run */
+    private static final class Hub implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        final Kind kind;
+        final int field;
+        final int outputs;
+        OpIterator[] inputs;
+
+        // the number of outputs open, and the run of the inputs while any is
+        private int open = 0;
+        private transient Run run;
+        // the session the inputs are scheduled in, that of the first open
+        private transient Scheduler.Session session;
+        // the runtime filters of the outputs, or null if there are none;
+        // replaced whole when one of them changes
+        private transient volatile TuplePredicate[] filters;
+
+        Hub(Kind kind, OpIterator[] inputs, int field, int outputs) {
+            if (inputs.length == 0 || outputs < 1) {
+                throw new IllegalArgumentException("an exchange needs inputs and outputs");
+            }
+            this.kind = kind;
+            this.inputs = inputs;
+            this.field = field;
+            this.outputs = outputs;
+        }
+
+        // open an output; the first one starts a run of the inputs
+        synchronized Run open() {
+            if (open++ == 0) {
+                // the inputs run in the session of the query that opens the
+                // exchange, or in a session of their own
+                if (session == null) {
+                    session = Scheduler.currentSession();
+                    if (session == null) {
+                        session = new Scheduler.Session();
+                    }
+                }
+                run = new Run(this, session);
+            }
+            return run;
+        }
+
+        synchronized void setFilter(int output, TuplePredicate filter) {
+            TuplePredicate[] f = filters == null ? new TuplePredicate[outputs] : filters.clone();
+            f[output] = filter;
+            filters = f;
+        }
+
+        // close an output of run; the last one stops the run
+        void close(Run run, int output) {
+            synchronized (this) {
+                if (--open > 0) {
+                    run.closeOutput(output);
+                    return;
+                }
+                this.run = null;
+            }
+            // wait without holding the hub, which the other outputs lock
+            // to be opened or closed
+            run.stop();
+        }
+    }
+
+    /**
+     * A run of the inputs of an exchange, from the first open of its outputs
+     * to the last close: the tasks that run the inputs and the queues they
+     * push into.
+     */
+    private static final class Run {
+        final Hub hub;
+        final List<BlockingQueue<Tuple[]>> queues;
+        // the outputs closed while the inputs run, whose tuples are dropped
+        final AtomicIntegerArray closed;
+        final Producer[] producers;
+        // counted down by each producer once it is done with its input
+        final CountDownLatch finished;
+        volatile boolean stopped = false;
+        // the first error of an input, rethrown by the outputs
+        final AtomicReference<Throwable> error = new AtomicReference<>();
+
+        Run(Hub hub, Scheduler.Session session) {
+            this.hub = hub;
+            queues = new ArrayList<>(hub.outputs);
+            for (int i = 0; i < hub.outputs; i++) {
+                queues.add(new ArrayBlockingQueue<>(QUEUE_BATCHES));
+            }
+            closed = new AtomicIntegerArray(hub.outputs);
+            finished = new CountDownLatch(hub.inputs.length);
+            producers = new Producer[hub.inputs.length];
+            for (int i = 0; i < producers.length; i++) {
+                producers[i] = new Producer(this, session, hub.inputs[i]);
+            }
+            for (Producer p : producers) {
+                Scheduler.submit(session, p);
+            }
+        }
+
+        // let the inputs go on without an output
+        void closeOutput(int output) {
+            closed.set(output, 1);
+            queues.get(output).clear();
+            wakeProducers();
+        }
+
+        // stop the inputs and wait until they are closed
+        void stop() {
+            stopped = true;
+            wakeProducers();
+            Scheduler.await(finished);
+        }
+
+        void wakeProducers() {
+            for (Producer p : producers) {
+                p.wake();
+            }
+        }
+
+        // the next batch of an output
+        Tuple[] take(int q) throws DbException {
+            BlockingQueue<Tuple[]> queue = queues.get(q);
+            Tuple[] batch = queue.poll();
+            if (batch == null) {
+                Taker taker = new Taker(queue);
+                try {
+                    Scheduler.block(taker);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new DbException("interrupted while waiting for an exchange");
+                }
+                batch = taker.batch;
+            }
+            // the producers waiting for room go on once half the queue is free
+            if (queue.remainingCapacity() >= QUEUE_BATCHES / 2) {
+                wakeProducers();
+            }
+            return batch;
+        }
+
+        // rethrow the error of an input, if any
+        void check() throws DbException, TransactionAbortedException {
+            Throwable e = error.get();
+            if (e == null) {
+                return;
+            }
+            if (e instanceof DbException) {
+                throw (DbException) e;
+            } else if (e instanceof TransactionAbortedException) {
+                throw (TransactionAbortedException) e;
+            } else if (e instanceof RuntimeException) {
+                throw (RuntimeException) e;
+            } else if (e instanceof Error) {
+                throw (Error) e;
+            }
+            throw new DbException(e.toString());
+        }
+    }
+
+    /**
+     * The task that runs an input of an exchange: each run pushes up to
+     * {@link #MORSEL_BATCHES} batches of the input into the queues and then
+     * reschedules itself.  Rather than waiting for room in a full queue, it
+     * keeps the batches it could not push and stops until a consumer wakes
+     * it up.
+     */
+    private static final class Producer implements Runnable {
+        private final Run run;
+        private final Hub hub;
+        private final Scheduler.Session session;
+        private final OpIterator input;
+        // the batches of each output not pushed yet
+        private final List<ArrayDeque<Tuple[]>> outbox;
+        // whether the task is queued or running, rather than waiting
+        private final AtomicBoolean scheduled = new AtomicBoolean(true);
+        private boolean started = false, opened = false, ended = false, done = false;
+
+        Producer(Run run, Scheduler.Session session, OpIterator input) {
+            this.run = run;
+            this.hub = run.hub;
+            this.session = session;
+            this.input = input;
+            this.outbox = new ArrayList<>(hub.outputs);
+            for (int q = 0; q < hub.outputs; q++) {
+                outbox.add(new ArrayDeque<>());
+            }
+        }
+
+        // schedule the task again if it is waiting
+        void wake() {
+            if (scheduled.compareAndSet(false, true)) {
+                Scheduler.submit(session, this);
+            }
+        }
+
+        @Override
+        public void run() {
+            if (done) {
+                return;
+            }
+            try {
+                if (!started) {
+                    // the input is opened even if the run was stopped
+                    // meanwhile, since closing it is what lets the exchanges
+                    // below it know that it is done
+                    started = true;
+                    opened = true;
+                    input.open();
+                }
+                for (int i = 0; i < MORSEL_BATCHES && !run.stopped; i++) {
+                    if (!flush()) {
+                        // wait for a consumer, unless one made room meanwhile
+                        scheduled.set(false);
+                        if (canFlush() || run.stopped) {
+                            wake();
+                        }
+                        return;
+                    }
+                    if (ended) {
+                        finish();
+                        return;
+                    }
+                    produce();
+                }
+            } catch (Throwable e) {
+                run.error.compareAndSet(null, e);
+                end();
+            }
+            if (run.stopped) {
+                finish();
+            } else {
+                Scheduler.submit(session, this);
+            }
+        }
+
+        // read a batch of the input into the outbox
+        private void produce() throws DbException, TransactionAbortedException {
+            Tuple[] batch = new Tuple[BATCH_SIZE];
+            int n = input.nextBatch(batch);
+            if (n == 0) {
+                end();
+                return;
+            }
+            TuplePredicate[] filters = hub.filters;
+            if (hub.kind == Kind.REPARTITION) {
+                Tuple[][] parts = new Tuple[hub.outputs][];
+                int[] sizes = new int[hub.outputs];
+                for (int i = 0; i < n; i++) {
+                    int q = Math.floorMod(batch[i].getField(hub.field).hashCode(), hub.outputs);
+                    if (filters != null && filters[q] != null && !filters[q].test(batch[i])) {
+                        continue;
+                    }
+                    if (parts[q] == null) {
+                        parts[q] = new Tuple[n];
+                    }
+                    parts[q][sizes[q]++] = batch[i];
+                }
+                for (int q = 0; q < parts.length; q++) {
+                    if (sizes[q] > 0) {
+                        outbox.get(q).add(Arrays.copyOf(parts[q], sizes[q]));
+                    }
+                }
+            } else {
+                Tuple[] copy = n == batch.length ? batch : Arrays.copyOf(batch, n);
+                for (int q = 0; q < outbox.size(); q++) {
+                    Tuple[] out = filters == null || filters[q] == null ? copy : filter(copy, filters[q]);
+                    if (out.length > 0) {
+                        outbox.get(q).add(out);
+                    }
+                }
+            }
+        }
+
+        // the tuples of batch that pass filter
+        private static Tuple[] filter(Tuple[] batch, TuplePredicate filter) {
+            Tuple[] out = new Tuple[batch.length];
+            int m = 0;
+            for (Tuple t : batch) {
+                if (filter.test(t)) {
+                    out[m++] = t;
+                }
+            }
+            return m == out.length ? out : Arrays.copyOf(out, m);
+        }
+
+        // close the input and end the tuples of each output
+        private void end() {
+            ended = true;
+            closeInput();
+            for (ArrayDeque<Tuple[]> out : outbox) {
+                out.add(END);
+            }
+        }
+
+        private void closeInput() {
+            if (opened) {
+                opened = false;
+                input.close();
+            }
+        }
+
+        // push the outbox into the queues; false if a queue is full
+        private boolean flush() {
+            boolean flushed = true;
+            for (int q = 0; q < outbox.size(); q++) {
+                while (!outbox.get(q).isEmpty()) {
+                    if (run.closed.get(q) != 0) {
+                        outbox.get(q).clear();
+                    } else if (run.queues.get(q).offer(outbox.get(q).peek())) {
+                        outbox.get(q).poll();
+                    } else {
+                        flushed = false;
+                        break;
+                    }
+                }
+            }
+            return flushed;
+        }
+
+        private boolean canFlush() {
+            for (int q = 0; q < outbox.size(); q++) {
+                if (!outbox.get(q).isEmpty()
+                        && (run.closed.get(q) != 0 || run.queues.get(q).remainingCapacity() > 0)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private void finish() {
+            if (!done) {
+                done = true;
+                closeInput();
+                run.finished.countDown();
+            }
+        }
+    }
+
+    /** Waits for a batch of a queue */
+    private static final class Taker implements ForkJoinPool.ManagedBlocker {
+        private final BlockingQueue<Tuple[]> queue;
+        Tuple[] batch;
+
+        Taker(BlockingQueue<Tuple[]> queue) {
+            this.queue = queue;
+        }
+
+        public boolean block() throws InterruptedException {
+            if (batch == null) {
+                batch = queue.take();
+            }
+            return true;
+        }
+
+        public boolean isReleasable() {
+            return batch != null || (batch = queue.poll()) != null;
+        }
+    }
+
+    /** Waits for the producers of an exchange to be done */
+    private final Hub hub;
+    private final int output;
+    // the run of the inputs the output is open in, if it is open
+    private transient Run run;
+    // the batch being returned, the next tuple in it, and the number of
+    // inputs that have ended
+    private transient Tuple[] current;
+    private int pos;
+    private int ended;
+
+    private Exchange(Hub hub, int output) {
+        this.hub = hub;
+        this.output = output;
+    }
+
+    /**
+     * Create an exchange that returns the tuples of all the inputs, which
+     * must have the same TupleDesc.
+     */
+    public static Exchange gather(OpIterator... inputs) {
+        return new Exchange(new Hub(Kind.GATHER, inputs, -1, 1), 0);
+    }
+
+    /**
+     * Create an exchange that distributes the tuples of the inputs among n
+     * outputs by the hash of one of their fields.
+     *
+     * @param field the index of the field the tuples are distributed by
+     * @return the outputs
+     */
+    public static Exchange[] repartition(OpIterator[] inputs, int field, int n) {
+        return outputs(new Hub(Kind.REPARTITION, inputs, field, n));
+    }
+
+    /**
+     * Create an exchange that sends every tuple of the inputs to each of n
+     * outputs.
+     *
+     * @return the outputs
+     */
+    public static Exchange[] broadcast(OpIterator[] inputs, int n) {
+        return outputs(new Hub(Kind.BROADCAST, inputs, -1, n));
+    }
+
+    private static Exchange[] outputs(Hub hub) {
+        Exchange[] outputs = new Exchange[hub.outputs];
+        for (int i = 0; i < outputs.length; i++) {
+            outputs[i] = new Exchange(hub, i);
+        }
+        return outputs;
+    }
+
+    /** @return the kind of the exchange */
+    public Kind getKind() {
+        return hub.kind;
+    }
+
+    /** @return the number of outputs of the exchange this is one of */
+    public int numOutputs() {
+        return hub.outputs;
+    }
+
+    /**
+     * Have the inputs drop the tuples for this output that do not pass
+     * filter, rather than queue them; null drops none.  Tuples queued
+     * already are returned whatever the filter.
+     */
+    public void setRuntimeFilter(TuplePredicate filter) {
+        hub.setFilter(output, filter);
+    }
+
+    /** @return the index of the field a repartition distributes tuples by, or -1 */
+    public int getField() {
+        return hub.field;
+    }
+
+    /** @return a short description of the exchange, for plans */
+    public String getName() {
+        String name = hub.kind.name().toLowerCase();
+        if (hub.kind == Kind.REPARTITION) {
+            name += "(" + hub.inputs[0].getTupleDesc().getFieldName(hub.field) + ")";
+        }
+        return name + " " + hub.inputs.length + ":" + hub.outputs;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return hub.inputs[0].getTupleDesc();
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        if (run == null) {
+            run = hub.open();
+        }
+        current = null;
+        pos = 0;
+        ended = 0;
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        if (run != null) {
+            Run r = run;
+            run = null;
+            hub.close(r, output);
+        }
+        current = null;
+    }
+
+    /**
+     * Runs the inputs again.  Only a gather can be rewound, since the other
+     * outputs of a repartition or a broadcast may still be reading.
+     */
+    public void rewind() throws DbException, TransactionAbortedException {
+        if (hub.outputs > 1) {
+            throw new DbException("an output of a " + hub.kind.name().toLowerCase()
+                    + " cannot be rewound");
+        }
+        close();
+        open();
+    }
+
+    // make current a batch with tuples left; false if all the inputs ended
+    private boolean advance() throws DbException, TransactionAbortedException {
+        while (current == null || pos == current.length) {
+            if (ended == hub.inputs.length) {
+                return false;
+            }
+            current = run.take(output);
+            pos = 0;
+            if (current == END) {
+                ended++;
+                run.check();
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Operator.fetchNext implementation. Returns the next tuple pushed by
+     * the inputs.
+     *
+     * @return The next tuple, or null if all the inputs have ended
+     */
+    protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+        return advance() ? current[pos++] : null;
+    }
+
+    /**
+     * Operator.fetchNextBatch implementation. Copies the batches pushed by
+     * the inputs.
+     */
+    protected int fetchNextBatch(Tuple[] batch, int off)
+            throws DbException, TransactionAbortedException {
+        int n = off;
+        while (n < batch.length && advance()) {
+            int c = Math.min(batch.length - n, current.length - pos);
+            System.arraycopy(current, pos, batch, n, c);
+            pos += c;
+            n += c;
+        }
+        return n - off;
+    }
+
+    /** @return the inputs of the exchange, shared by all its outputs */
+    @Override
+    public OpIterator[] getChildren() {
+        return hub.inputs.clone();
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        hub.inputs = children.clone();
+    }
+
+}
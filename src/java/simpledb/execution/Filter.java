@@ -15,8 +15,12 @@ public class Filter extends Operator {
     private static final long serialVersionUID = 1L;
 
     private final Predicate predicate;
+    private final TuplePredicate test;
     private final TupleDesc td;
     private OpIterator child;
+    private transient Tuple[] in;
+    // a test pushed down by a parent operator, checked before the predicate
+    private transient TuplePredicate runtimeFilter;
     /**
      * Constructor accepts a predicate to apply and a child operator to read
      * tuples to filter from.
@@ -29,6 +33,7 @@ public class Filter extends Operator {
     public Filter(Predicate p, OpIterator child) {
         // some code goes here
         this.predicate = p;
+        this.test = PredicateCompiler.compile(p);
         this.child = child;
         this.td = child.getTupleDesc();
     }
@@ -43,6 +48,16 @@ public class Filter extends Operator {
         return this.td;
     }
 
+    /**
+     * Set a test that the tuples must pass in addition to the predicate,
+     * such as the {@link BloomFilter} of a join above this filter.
+     *
+     * @param filter the test, or null to remove it
+     */
+    public void setRuntimeFilter(TuplePredicate filter) {
+        this.runtimeFilter = filter;
+    }
+
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException {
         // some code goes here
@@ -65,6 +80,7 @@ public class Filter extends Operator {
      * AbstractDbIterator.readNext implementation. Iterates over tuples from the
      * child operator, applying the predicate to them and returning those that
      * pass the predicate (i.e. for which the Predicate.filter() returns true.)
+     * The predicate is evaluated in its compiled form.
      * 
      * @return The next tuple that passes the filter, or null if there are no
      *         more tuples
@@ -75,7 +91,10 @@ public class Filter extends Operator {
         // some code goes here
         while (child.hasNext()){
             Tuple next = child.next();
-            if (!this.predicate.filter(next)){
+            if (runtimeFilter != null && !runtimeFilter.test(next)){
+                continue;
+            }
+            if (!this.test.test(next)){
                 continue;
             }
             return next;
@@ -83,6 +102,32 @@ public class Filter extends Operator {
         return null;
     }
 
+    /**
+     * Operator.fetchNextBatch implementation. Reads the child's tuples a
+     * batch at a time and keeps those that pass the predicate, until at
+     * least one tuple passes or the child has no more tuples.
+     */
+    protected int fetchNextBatch(Tuple[] batch, int off)
+            throws TransactionAbortedException, DbException {
+        int room = batch.length - off;
+        if (in == null || in.length != room) {
+            in = new Tuple[room];
+        }
+        int n = off;
+        while (n == off) {
+            int got = child.nextBatch(in);
+            if (got == 0) {
+                break;
+            }
+            for (int i = 0; i < got; i++) {
+                if ((runtimeFilter == null || runtimeFilter.test(in[i])) && this.test.test(in[i])) {
+                    batch[n++] = in[i];
+                }
+            }
+        }
+        return n - off;
+    }
+
     @Override
     public OpIterator[] getChildren() {
         // some code goes here
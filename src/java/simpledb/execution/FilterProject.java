@@ -0,0 +1,136 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * FilterProject fuses a chain of {@link Filter}s and the {@link Project}
+ * above them into one operator.  The conjunction of the filters'
+ * predicates is compiled by {@link PredicateCompiler}, and a tuple is only
+ * copied into an output tuple once it has passed all of them, so the
+ * tuples that are dropped never cross an operator boundary.
+ */
+public class FilterProject extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final List<Predicate> predicates;
+    private final TuplePredicate test;
+    private final int[] fieldIds;
+    private final TupleDesc td;
+    private OpIterator child;
+    private transient Tuple[] in;
+
+    /**
+     * @param predicates the predicates a tuple must all pass, in the order
+     *                   they are evaluated
+     * @param fieldList the ids of the fields of child's TupleDesc to output
+     * @param types the types of the output fields
+     * @param child the operator to read tuples from
+     */
+    public FilterProject(List<Predicate> predicates, List<Integer> fieldList, Type[] types,
+                         OpIterator child) {
+        this.predicates = new ArrayList<>(predicates);
+        this.test = PredicateCompiler.compile(this.predicates);
+        this.child = child;
+        this.fieldIds = new int[fieldList.size()];
+        String[] fieldAr = new String[fieldIds.length];
+        TupleDesc childtd = child.getTupleDesc();
+        for (int i = 0; i < fieldIds.length; i++) {
+            fieldIds[i] = fieldList.get(i);
+            fieldAr[i] = childtd.getFieldName(fieldIds[i]);
+        }
+        this.td = new TupleDesc(types, fieldAr);
+    }
+
+    public List<Predicate> getPredicates() {
+        return predicates;
+    }
+
+    /** @return the ids of the fields of the child's TupleDesc projected out */
+    public List<Integer> getFieldList() {
+        List<Integer> fields = new ArrayList<>(fieldIds.length);
+        for (int f : fieldIds) {
+            fields.add(f);
+        }
+        return fields;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        child.open();
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        child.close();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child.rewind();
+    }
+
+    private Tuple project(Tuple t) {
+        Tuple newTuple = new Tuple(td);
+        newTuple.setRecordId(t.getRecordId());
+        for (int i = 0; i < fieldIds.length; i++) {
+            newTuple.setField(i, t.getField(fieldIds[i]));
+        }
+        return newTuple;
+    }
+
+    protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+        while (child.hasNext()) {
+            Tuple t = child.next();
+            if (test.test(t)) {
+                return project(t);
+            }
+        }
+        return null;
+    }
+
+    protected int fetchNextBatch(Tuple[] batch, int off)
+            throws DbException, TransactionAbortedException {
+        int room = batch.length - off;
+        if (in == null || in.length != room) {
+            in = new Tuple[room];
+        }
+        int n = off;
+        while (n == off) {
+            int got = child.nextBatch(in);
+            if (got == 0) {
+                break;
+            }
+            for (int i = 0; i < got; i++) {
+                if (test.test(in[i])) {
+                    batch[n++] = project(in[i]);
+                }
+            }
+        }
+        return n - off;
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[]{this.child};
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        if (this.child != children[0]) {
+            this.child = children[0];
+        }
+    }
+}
@@ -0,0 +1,154 @@
+package simpledb.execution;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * GroupAccumulators keeps the running state of an aggregate (count, sum,
+ * min and max) for each group, in flat arrays indexed by the group's id in
+ * an {@link IntHashTable}.  Groups are identified by an int key; string
+ * group values are mapped to keys with a {@link StringDictionary}.
+ * <p>
+ * Memory use is proportional to the number of groups, not to the number
+ * of values aggregated.
+ * <p>
+ * A table may hold several aggregates per group (see
+ * {@link GroupAggregator}): aggregate i of the group with id g is in slot
+ * g * width + i of the arrays, so all of a group's state is found with a
+ * single lookup of its key.
+ */
+public final class GroupAccumulators implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    final IntHashTable groups = new IntHashTable();
+    final int width;
+    long[] counts;
+    long[] sums;
+    int[] mins;
+    int[] maxs;
+
+    /** Create a table with one aggregate per group */
+    public GroupAccumulators() {
+        this(1);
+    }
+
+    /** Create a table with the specified number of aggregates per group */
+    public GroupAccumulators(int width) {
+        this.width = width;
+        counts = new long[16 * width];
+        sums = new long[16 * width];
+        mins = new int[16 * width];
+        maxs = new int[16 * width];
+    }
+
+    /**
+     * @return the id of the group with the specified key, adding an empty
+     *         group if it is new
+     */
+    public int group(int key) {
+        int numGroups = groups.size();
+        int id = groups.put(key);
+        if (id == numGroups) {
+            int slot = id * width;
+            if (slot == counts.length) {
+                int capacity = counts.length * 2;
+                counts = Arrays.copyOf(counts, capacity);
+                sums = Arrays.copyOf(sums, capacity);
+                mins = Arrays.copyOf(mins, capacity);
+                maxs = Arrays.copyOf(maxs, capacity);
+            }
+            Arrays.fill(mins, slot, slot + width, Integer.MAX_VALUE);
+            Arrays.fill(maxs, slot, slot + width, Integer.MIN_VALUE);
+        }
+        return id;
+    }
+
+    /** @return the id of the group with the specified key, or -1 if it is new */
+    public int find(int key) {
+        return groups.get(key);
+    }
+
+    /** Add a value to the group with the specified id */
+    public void add(int id, int value) {
+        add(id, 0, value);
+    }
+
+    /** Add a value to aggregate i of the group with the specified id */
+    public void add(int id, int i, int value) {
+        int slot = id * width + i;
+        counts[slot]++;
+        sums[slot] += value;
+        if (value < mins[slot]) {
+            mins[slot] = value;
+        }
+        if (value > maxs[slot]) {
+            maxs[slot] = value;
+        }
+    }
+
+    /** Count a row of the group with the specified id, without a value */
+    public void count(int id) {
+        counts[id * width]++;
+    }
+
+    /** Count a row in aggregate i of the group with the specified id */
+    public void count(int id, int i) {
+        counts[id * width + i]++;
+    }
+
+    /**
+     * Add the aggregates of group otherId of another table with the same
+     * width to those of the group with the specified id
+     */
+    public void combine(int id, GroupAccumulators other, int otherId) {
+        int slot = id * width;
+        int otherSlot = otherId * width;
+        for (int i = 0; i < width; i++) {
+            counts[slot + i] += other.counts[otherSlot + i];
+            sums[slot + i] += other.sums[otherSlot + i];
+            mins[slot + i] = Math.min(mins[slot + i], other.mins[otherSlot + i]);
+            maxs[slot + i] = Math.max(maxs[slot + i], other.maxs[otherSlot + i]);
+        }
+    }
+
+    /** @return the number of groups */
+    public int size() {
+        return groups.size();
+    }
+
+    /** @return the key of the group with the specified id */
+    public int key(int id) {
+        return groups.key(id);
+    }
+
+    /**
+     * @return the value of the aggregate op for the group with the
+     *         specified id, computed as {@link IntegerAggregator} does
+     */
+    public int result(int id, Aggregator.Op op) {
+        return result(id, 0, op);
+    }
+
+    /**
+     * @return the value of the aggregate op for aggregate i of the group
+     *         with the specified id
+     */
+    public int result(int id, int i, Aggregator.Op op) {
+        int slot = id * width + i;
+        switch (op) {
+        case MIN:
+            return mins[slot];
+        case MAX:
+            return maxs[slot];
+        case SUM:
+            return (int) sums[slot];
+        case AVG:
+            return (int) ((double) sums[slot] / counts[slot]);
+        case COUNT:
+            return (int) counts[slot];
+        default:
+            throw new UnsupportedOperationException("unsupported aggregate " + op);
+        }
+    }
+}
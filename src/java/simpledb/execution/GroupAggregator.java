@@ -0,0 +1,244 @@
+package simpledb.execution;
+
+import simpledb.common.Type;
+import simpledb.storage.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Knows how to compute several aggregates at once, grouped by any number of
+ * fields.  The aggregates of all groups are kept in one
+ * {@link GroupAccumulators} table with one slot per aggregate, so each
+ * tuple is merged with a single lookup of its group.
+ * <p>
+ * A group is identified by an int key: the value of its group-by field if
+ * there is a single INT_TYPE one, its code in a {@link StringDictionary}
+ * for a STRING_TYPE one, and for several group-by fields, the code of the
+ * combination of their keys.
+ */
+public class GroupAggregator implements Aggregator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int[] gfields;
+    private final int[] afields;
+    private final Op[] ops;
+    private final TupleDesc td;
+    private final GroupAccumulators groups;
+    // the dictionary of each STRING_TYPE group-by field, or null
+    private final StringDictionary[] dicts;
+    // the codes of the combinations of keys, when there are several
+    // group-by fields, and the keys of each code
+    private final Map<Key, Integer> combinations = new HashMap<>();
+    private final List<int[]> combinationKeys = new ArrayList<>();
+
+    /** The keys of the group-by fields of a tuple */
+    private static final class Key {
+        final int[] keys;
+
+        Key(int[] keys) {
+            this.keys = keys;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Key && Arrays.equals(keys, ((Key) o).keys);
+        }
+
+        @Override
+        public int hashCode() {
+            return Arrays.hashCode(keys);
+        }
+    }
+
+    /**
+     * Aggregate constructor
+     *
+     * @param childTd
+     *            the TupleDesc of the tuples to aggregate
+     * @param gfields
+     *            the 0-based indexes of the group-by fields, empty if there is
+     *            no grouping
+     * @param afields
+     *            the 0-based indexes of the aggregate fields
+     * @param ops
+     *            the aggregation operator of each aggregate field
+     * @throws UnsupportedOperationException
+     *            if an aggregate over a STRING_TYPE field is not a COUNT
+     */
+    public GroupAggregator(TupleDesc childTd, int[] gfields, int[] afields, Op[] ops) {
+        if (afields.length != ops.length) {
+            throw new IllegalArgumentException("one operator is needed per aggregate field");
+        }
+        for (int i = 0; i < afields.length; i++) {
+            if (childTd.getFieldType(afields[i]) == Type.STRING_TYPE && ops[i] != Op.COUNT) {
+                throw new UnsupportedOperationException("only COUNT is supported over strings");
+            }
+        }
+        this.gfields = gfields;
+        this.afields = afields;
+        this.ops = ops;
+        this.td = Aggregate.aggregateTupleDesc(childTd, gfields, ops);
+        this.groups = new GroupAccumulators(afields.length);
+        this.dicts = new StringDictionary[gfields.length];
+        for (int i = 0; i < gfields.length; i++) {
+            if (childTd.getFieldType(gfields[i]) == Type.STRING_TYPE) {
+                dicts[i] = new StringDictionary();
+            }
+        }
+    }
+
+    // the key of group-by field i of the tuple
+    private int key(Tuple tup, int i) {
+        Field f = tup.getField(gfields[i]);
+        return dicts[i] != null ? dicts[i].encode(((StringField) f).getValue())
+                : ((IntField) f).getValue();
+    }
+
+    // false if group-by field i of the tuple is a string that has no code
+    private boolean hasKey(Tuple tup, int i) {
+        return dicts[i] == null || dicts[i].contains(((StringField) tup.getField(gfields[i])).getValue());
+    }
+
+    // the id of the group of the tuple, adding the group if it is new and
+    // add is true; nothing is added for a new group if add is false
+    private int groupId(Tuple tup, boolean add) {
+        int key = 0;
+        if (gfields.length == 1) {
+            if (!add && !hasKey(tup, 0)) {
+                return -1;
+            }
+            key = key(tup, 0);
+        } else if (gfields.length > 1) {
+            int[] keys = new int[gfields.length];
+            for (int i = 0; i < keys.length; i++) {
+                if (!add && !hasKey(tup, i)) {
+                    return -1;
+                }
+                keys[i] = key(tup, i);
+            }
+            Integer code = combinations.get(new Key(keys));
+            if (code == null) {
+                if (!add) {
+                    return -1;
+                }
+                code = combine(keys);
+            }
+            key = code;
+        }
+        return add ? groups.group(key) : groups.find(key);
+    }
+
+    // the code of a combination of keys, adding it if it is new
+    private int combine(int[] keys) {
+        Integer code = combinations.get(new Key(keys));
+        if (code == null) {
+            code = combinationKeys.size();
+            combinations.put(new Key(keys), code);
+            combinationKeys.add(keys);
+        }
+        return code;
+    }
+
+    // the keys of the group-by fields of the group with the specified id
+    private int[] keys(int id) {
+        int key = groups.key(id);
+        return gfields.length > 1 ? combinationKeys.get(key) : new int[]{key};
+    }
+
+    /**
+     * Merge a new tuple into the aggregates of its group
+     *
+     * @param tup
+     *            the Tuple containing the aggregate and group-by fields
+     */
+    public void mergeTupleIntoGroup(Tuple tup) {
+        if (tup == null) return;
+        merge(tup, groupId(tup, true));
+    }
+
+    /**
+     * Merge a new tuple into the aggregates of its group, unless the group
+     * is new and there already are maxGroups groups.
+     *
+     * @return false if the tuple was not merged
+     */
+    public boolean mergeTupleIntoGroup(Tuple tup, int maxGroups) {
+        int id = groupId(tup, groups.size() < maxGroups);
+        if (id < 0) {
+            return false;
+        }
+        merge(tup, id);
+        return true;
+    }
+
+    /**
+     * Merge the groups of another aggregator, with the same fields and
+     * operators, into those of this one; used to combine partial
+     * aggregates of different parts of the input.
+     */
+    public void merge(GroupAggregator other) {
+        for (int otherId = 0; otherId < other.groups.size(); otherId++) {
+            int[] keys = other.keys(otherId).clone();
+            for (int i = 0; i < gfields.length; i++) {
+                if (dicts[i] != null) {
+                    keys[i] = dicts[i].encode(other.dicts[i].decode(keys[i]));
+                }
+            }
+            int key = gfields.length == 0 ? 0 : gfields.length == 1 ? keys[0] : combine(keys);
+            groups.combine(groups.group(key), other.groups, otherId);
+        }
+    }
+
+    /** @return the number of groups */
+    public int numGroups() {
+        return groups.size();
+    }
+
+    private void merge(Tuple tup, int id) {
+        for (int i = 0; i < afields.length; i++) {
+            Field f = tup.getField(afields[i]);
+            if (f instanceof IntField) {
+                groups.add(id, i, ((IntField) f).getValue());
+            } else {
+                groups.count(id, i);
+            }
+        }
+    }
+
+    /** @return the TupleDesc of the results: the group-by fields, then the aggregates */
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /**
+     * Create a OpIterator over group aggregate results.
+     *
+     * @return a OpIterator whose tuples are the group-by values followed by
+     *         the value of each aggregate
+     */
+    public OpIterator iterator() {
+        return new TupleIterator(td, generateAggTuples());
+    }
+
+    public List<Tuple> generateAggTuples() {
+        List<Tuple> aggTuples = new ArrayList<>();
+        for (int id = 0; id < groups.size(); id++) {
+            Tuple tuple = new Tuple(td);
+            int[] keys = keys(id);
+            for (int i = 0; i < gfields.length; i++) {
+                tuple.setField(i, dicts[i] == null ? new IntField(keys[i])
+                        : new StringField(dicts[i].decode(keys[i]), Type.STRING_LEN));
+            }
+            for (int i = 0; i < ops.length; i++) {
+                tuple.setField(gfields.length + i, new IntField(groups.result(id, i, ops[i])));
+            }
+            aggTuples.add(tuple);
+        }
+        return aggTuples;
+    }
+}
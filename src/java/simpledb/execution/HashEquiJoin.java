@@ -2,6 +2,7 @@ package simpledb.execution;
 
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.common.DbException;
+import simpledb.storage.Field;
 import simpledb.storage.Tuple;
 import simpledb.storage.TupleDesc;
 
@@ -31,7 +32,20 @@ public class HashEquiJoin extends Operator {
      *            Iterator for the right(inner) relation to join
      */
     public HashEquiJoin(JoinPredicate p, OpIterator child1, OpIterator child2) {
+        this(p, child1, child2, MAP_SIZE);
+    }
+
+    /**
+     * Constructor with a memory budget.  If child1 has more than maxTuples
+     * tuples, both children are partitioned by the hash of their join field
+     * into temporary files, and the join is done one partition at a time;
+     * each input is then read about twice, whatever its size.
+     *
+     * @param maxTuples the number of child1 tuples to keep in memory
+     */
+    public HashEquiJoin(JoinPredicate p, OpIterator child1, OpIterator child2, int maxTuples) {
         this.pred = p;
+        this.maxTuples = maxTuples;
         this.child1 = child1;
         this.child2 = child2;
         comboTD = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
@@ -41,6 +55,11 @@ public class HashEquiJoin extends Operator {
         return pred;
     }
 
+    /** @return the number of child1 tuples the join keeps in memory */
+    public int maxTuples() {
+        return maxTuples;
+    }
+
     public TupleDesc getTupleDesc() {
         return comboTD;
     }
@@ -55,28 +74,289 @@ public class HashEquiJoin extends Operator {
 	return this.child2.getTupleDesc().getFieldName(this.pred.getField2());
     }
     
-    final Map<Object, List<Tuple>> map = new HashMap<>();
+    // the build tuples in memory, chained by key in flat arrays; INT_TYPE
+    // keys are hashed without boxing them
+    transient private JoinTable map = null;
+    /** The default number of build tuples the join keeps in memory */
     public final static int MAP_SIZE = 20000;
+    /** The number of partitions each input is split into when spilling */
+    public final static int FANOUT = 16;
+    /** How many times a partition is split again before it is joined in chunks */
+    public final static int MAX_LEVELS = 3;
+
+    private final int maxTuples;
+
+    // a pair of build and probe files whose tuples hash to the same partition
+    private static final class Partition {
+        final SpillFile build, probe;
+        final int level;
+
+        Partition(SpillFile build, SpillFile probe, int level) {
+            this.build = build;
+            this.probe = probe;
+            this.level = level;
+        }
+
+        void delete() {
+            build.delete();
+            probe.delete();
+        }
+    }
+
+    // null until the build side has overflowed the map
+    transient private Deque<Partition> partitions = null;
+    transient private Partition current = null;
+    transient private SpillFile.Reader buildIn = null;
+    transient private SpillFile.Reader probeIn = null;
 
-    private boolean loadMap() throws DbException, TransactionAbortedException {
+    // the partition of a key at a partitioning level
+    private static int partition(Field key, int level) {
+        int h = key.hashCode() * (0x9E3779B9 + 2 * level);
+        h ^= h >>> 16;
+        return h & (FANOUT - 1);
+    }
+
+    private void add(Tuple t) {
+        map.add(t, pred.getField1());
+    }
+
+    // the operator under child2 checking the Bloom filter of child1's keys
+    transient private OpIterator filtered = null;
+
+    /**
+     * Have the first scan or filter under child2 drop the tuples whose key
+     * is not in the filter, so they are not read up to the join only to miss
+     * in the map.  The filter can go through projections, whose fields it
+     * maps back, and filters; it stops at any other operator.  An exchange
+     * drops the tuples before they are queued for the output under the join.
+     *
+     * @return the operator the filter was given to, or null
+     */
+    static OpIterator pushRuntimeFilter(OpIterator op, int field, BloomFilter filter) {
+        if (op instanceof SeqScan) {
+            ((SeqScan) op).setRuntimeFilter(filter.on(field));
+            return op;
+        } else if (op instanceof Exchange) {
+            ((Exchange) op).setRuntimeFilter(filter.on(field));
+            return op;
+        } else if (op instanceof Filter) {
+            Filter f = (Filter) op;
+            OpIterator target = pushRuntimeFilter(f.getChildren()[0], field, filter);
+            if (target == null) {
+                f.setRuntimeFilter(filter.on(field));
+                target = f;
+            }
+            return target;
+        } else if (op instanceof Project) {
+            return pushRuntimeFilter(((Project) op).getChildren()[0],
+                    ((Project) op).getFieldList().get(field), filter);
+        } else if (op instanceof FilterProject) {
+            return pushRuntimeFilter(((FilterProject) op).getChildren()[0],
+                    ((FilterProject) op).getFieldList().get(field), filter);
+        }
+        return null;
+    }
+
+    private void setRuntimeFilter(BloomFilter filter) {
+        clearRuntimeFilter();
+        filtered = pushRuntimeFilter(child2, pred.getField2(), filter);
+    }
+
+    private void clearRuntimeFilter() {
+        clearRuntimeFilter(filtered);
+        filtered = null;
+    }
+
+    /** Take the runtime filter back from the operator it was given to */
+    static void clearRuntimeFilter(OpIterator target) {
+        if (target instanceof SeqScan) {
+            ((SeqScan) target).setRuntimeFilter(null);
+        } else if (target instanceof Exchange) {
+            ((Exchange) target).setRuntimeFilter(null);
+        } else if (target instanceof Filter) {
+            ((Filter) target).setRuntimeFilter(null);
+        }
+    }
+
+    /**
+     * Read child1 into the map.  If it does not fit, partition both children
+     * into spill files, to be joined one partition at a time.  child2 is
+     * opened, or rewound, only once it has the runtime filter, so that an
+     * exchange under it does not queue the tuples the filter drops.
+     *
+     * @param open whether child2 is to be opened rather than rewound
+     */
+    private void build(boolean open) throws DbException, TransactionAbortedException {
+        if (map == null) {
+            map = new JoinTable(child1.getTupleDesc().getFieldType(pred.getField1()));
+        }
+        map.clear();
         int cnt = 0;
+        while (child1.hasNext()) {
+            if (cnt++ == maxTuples) {
+                spill(open);
+                return;
+            }
+            add(child1.next());
+        }
+        BloomFilter filter = new BloomFilter(map.size());
+        for (int r = 0; r < map.size(); r++) {
+            filter.add(map.row(r).getField(pred.getField1()));
+        }
+        setRuntimeFilter(filter);
+        startProbe(open);
+    }
+
+    private void startProbe(boolean open) throws DbException, TransactionAbortedException {
+        if (open) {
+            child2.open();
+        } else {
+            child2.rewind();
+        }
+    }
+
+    private void spill(boolean open) throws DbException, TransactionAbortedException {
+        SpillFile[] build = new SpillFile[FANOUT];
+        SpillFile[] probe = new SpillFile[FANOUT];
+        for (int i = 0; i < FANOUT; i++) {
+            build[i] = new SpillFile(child1.getTupleDesc());
+            probe[i] = new SpillFile(child2.getTupleDesc());
+        }
+        for (int r = 0; r < map.size(); r++) {
+            Tuple t = map.row(r);
+            build[partition(t.getField(pred.getField1()), 0)].add(t);
+        }
         map.clear();
         while (child1.hasNext()) {
-            t1 = child1.next();
-            List<Tuple> list = map.computeIfAbsent(t1.getField(pred.getField1()), k -> new ArrayList<>());
-            list.add(t1);
-            if (cnt++ == MAP_SIZE)
-                return true;
+            Tuple t = child1.next();
+            build[partition(t.getField(pred.getField1()), 0)].add(t);
+        }
+        // the filter is sized to the whole build side, so it is filled by
+        // reading the build partitions back rather than by keeping a key of
+        // every tuple in memory
+        int n = 0;
+        for (SpillFile f : build) {
+            n += f.size();
+        }
+        BloomFilter filter = new BloomFilter(n);
+        for (SpillFile f : build) {
+            SpillFile.Reader in = f.reader();
+            for (Tuple t; (t = in.next()) != null; ) {
+                filter.add(t.getField(pred.getField1()));
+            }
+        }
+        setRuntimeFilter(filter);
+        startProbe(open);
+        while (child2.hasNext()) {
+            Tuple t = child2.next();
+            probe[partition(t.getField(pred.getField2()), 0)].add(t);
+        }
+        partitions = new ArrayDeque<>();
+        addPartitions(build, probe, 1);
+    }
+
+    private void addPartitions(SpillFile[] build, SpillFile[] probe, int level) {
+        for (int i = 0; i < FANOUT; i++) {
+            if (build[i].size() > 0 && probe[i].size() > 0) {
+                partitions.push(new Partition(build[i], probe[i], level));
+            } else {
+                build[i].delete();
+                probe[i].delete();
+            }
+        }
+    }
+
+    /**
+     * Move on to the next part of a spilled join: the next chunk of the
+     * current partition's build side, or else the next partition.
+     *
+     * @return false if there is nothing left to join
+     */
+    private boolean nextPartition() throws DbException {
+        if (partitions == null) {
+            return false;
+        }
+        if (buildIn != null && loadChunk()) {
+            probeIn = current.probe.reader();
+            return true;
+        }
+        if (current != null) {
+            current.delete();
+            current = null;
+        }
+        while (!partitions.isEmpty()) {
+            Partition p = partitions.pop();
+            if (p.build.size() > maxTuples && p.level < MAX_LEVELS) {
+                // split it again, with another hash function
+                SpillFile[] build = new SpillFile[FANOUT];
+                SpillFile[] probe = new SpillFile[FANOUT];
+                for (int i = 0; i < FANOUT; i++) {
+                    build[i] = new SpillFile(child1.getTupleDesc());
+                    probe[i] = new SpillFile(child2.getTupleDesc());
+                }
+                SpillFile.Reader in = p.build.reader();
+                for (Tuple t; (t = in.next()) != null; ) {
+                    build[partition(t.getField(pred.getField1()), p.level)].add(t);
+                }
+                in = p.probe.reader();
+                for (Tuple t; (t = in.next()) != null; ) {
+                    probe[partition(t.getField(pred.getField2()), p.level)].add(t);
+                }
+                p.delete();
+                addPartitions(build, probe, p.level + 1);
+                continue;
+            }
+            // a partition that still does not fit (its keys are skewed) is
+            // joined a chunk of its build side at a time
+            current = p;
+            buildIn = p.build.reader();
+            loadChunk();
+            probeIn = p.probe.reader();
+            return true;
+        }
+        return false;
+    }
+
+    // load the next chunk of the current build side into the map
+    private boolean loadChunk() throws DbException {
+        map.clear();
+        int cnt = 0;
+        Tuple t;
+        while (cnt < maxTuples && (t = buildIn.next()) != null) {
+            add(t);
+            cnt++;
+        }
+        if (cnt < maxTuples) {
+            buildIn = null;
         }
         return cnt > 0;
+    }
 
+    private void closePartitions() {
+        if (buildIn != null) {
+            buildIn.close();
+            buildIn = null;
+        }
+        if (probeIn != null) {
+            probeIn.close();
+            probeIn = null;
+        }
+        if (current != null) {
+            current.delete();
+            current = null;
+        }
+        if (partitions != null) {
+            for (Partition p : partitions) {
+                p.delete();
+            }
+            partitions = null;
+        }
     }
 
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException {
         child1.open();
-        child2.open();
-        loadMap();
+        build(true);
         super.open();
     }
 
@@ -86,16 +366,25 @@ public class HashEquiJoin extends Operator {
         child1.close();
         this.t1=null;
         this.t2=null;
-        this.listIt=null;
-        this.map.clear();
+        this.row=-1;
+        this.map=null;
+        clearRuntimeFilter();
+        closePartitions();
     }
 
     public void rewind() throws DbException, TransactionAbortedException {
-        child1.rewind();
-        child2.rewind();
+        row = -1;
+        if (partitions == null) {
+            child2.rewind();
+        } else {
+            closePartitions();
+            child1.rewind();
+            build(false);
+        }
     }
 
-    transient Iterator<Tuple> listIt = null;
+    // the next build row matching t2, or -1
+    transient private int row = -1;
 
     /**
      * Returns the next tuple generated by the join, or null if there are no
@@ -116,7 +405,8 @@ public class HashEquiJoin extends Operator {
      * @see JoinPredicate#filter
      */
     private Tuple processList() {
-        t1 = listIt.next();
+        t1 = map.row(row);
+        row = map.next(row);
 
         int td1n = t1.getTupleDesc().numFields();
         int td2n = t2.getTupleDesc().numFields();
@@ -131,33 +421,29 @@ public class HashEquiJoin extends Operator {
 
     }
 
-    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
-        if (listIt != null && listIt.hasNext()) {
-            return processList();
-        }
-
-        // loop around child2
-        while (child2.hasNext()) {
-            t2 = child2.next();
-
-            // if match, create a combined tuple and fill it with the values
-            // from both tuples
-            List<Tuple> l = map.get(t2.getField(pred.getField2()));
-            if (l == null)
-                continue;
-            listIt = l.iterator();
-
-            return processList();
-
+    // the next tuple of the probe side: child2, or the current partition
+    private Tuple nextProbe() throws DbException, TransactionAbortedException {
+        if (partitions == null) {
+            return child2.hasNext() ? child2.next() : null;
         }
+        return probeIn == null ? null : probeIn.next();
+    }
 
-        // child2 is done: advance child1
-        child2.rewind();
-        if (loadMap()) {
-            return fetchNext();
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        while (true) {
+            if (row >= 0) {
+                return processList();
+            }
+            Tuple t = nextProbe();
+            if (t != null) {
+                // if match, create a combined tuple and fill it with the
+                // values from both tuples
+                t2 = t;
+                row = map.first(t2.getField(pred.getField2()));
+            } else if (!nextPartition()) {
+                return null;
+            }
         }
-
-        return null;
     }
 
     @Override
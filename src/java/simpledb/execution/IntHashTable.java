@@ -0,0 +1,116 @@
+package simpledb.execution;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * IntHashTable maps int keys to dense ids 0, 1, 2, ... in the order the keys
+ * were first added.  Operators keep their per-key state (row chains of a
+ * hash join, accumulators of an aggregate) in flat arrays indexed by these
+ * ids, so neither the keys nor the state are ever boxed.
+ * <p>
+ * The table uses open addressing with linear probing over a power-of-two
+ * array of slots, and doubles when it becomes more than half full.
+ */
+public class IntHashTable implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final int EMPTY = -1;
+
+    private int[] slots;  // id of the key in each slot, or EMPTY
+    private int[] keys;   // key of each id
+    private int size;
+    private int mask;
+
+    public IntHashTable() {
+        this(16);
+    }
+
+    /**
+     * @param expected the number of keys the table should hold without
+     *                 growing
+     */
+    public IntHashTable(int expected) {
+        int capacity = Integer.highestOneBit(Math.max(expected, 8) * 2 - 1) << 1;
+        slots = new int[capacity];
+        Arrays.fill(slots, EMPTY);
+        keys = new int[Math.max(expected, 8)];
+        mask = capacity - 1;
+    }
+
+    // spread the bits of the key so sequential keys do not form long runs
+    static int hash(int key) {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * @return the id of key, or -1 if the key was never added
+     */
+    public int get(int key) {
+        int slot = hash(key) & mask;
+        int id;
+        while ((id = slots[slot]) != EMPTY) {
+            if (keys[id] == key) {
+                return id;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    /**
+     * Add key to the table if it is not there yet.
+     * @return the id of key
+     */
+    public int put(int key) {
+        int slot = hash(key) & mask;
+        int id;
+        while ((id = slots[slot]) != EMPTY) {
+            if (keys[id] == key) {
+                return id;
+            }
+            slot = (slot + 1) & mask;
+        }
+        id = size++;
+        if (id == keys.length) {
+            keys = Arrays.copyOf(keys, keys.length * 2);
+        }
+        keys[id] = key;
+        slots[slot] = id;
+        if (size * 2 > slots.length) {
+            grow();
+        }
+        return id;
+    }
+
+    private void grow() {
+        slots = new int[slots.length * 2];
+        Arrays.fill(slots, EMPTY);
+        mask = slots.length - 1;
+        for (int id = 0; id < size; id++) {
+            int slot = hash(keys[id]) & mask;
+            while (slots[slot] != EMPTY) {
+                slot = (slot + 1) & mask;
+            }
+            slots[slot] = id;
+        }
+    }
+
+    /** @return the key with the specified id */
+    public int key(int id) {
+        return keys[id];
+    }
+
+    /** @return the number of distinct keys in the table */
+    public int size() {
+        return size;
+    }
+
+    /** Remove all keys from the table */
+    public void clear() {
+        Arrays.fill(slots, EMPTY);
+        size = 0;
+    }
+}
@@ -5,9 +5,6 @@ import simpledb.storage.*;
 
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentMap;
 
 /**
  * Knows how to compute some aggregate over a set of IntFields.
@@ -15,13 +12,16 @@ import java.util.concurrent.ConcurrentMap;
 public class IntegerAggregator implements Aggregator {
 
     private static final long serialVersionUID = 1L;
-    private static final Field NO_GROUPING_FIELD = new IntField(NO_GROUPING);
 
     private final int gbfield;
     private final Type gbfieldType;
     private final int afield;
     private final Op what;
-    private final ConcurrentMap<Field, List<Tuple>> groups = new ConcurrentHashMap();
+    // the running count, sum, min and max of each group, keyed by the
+    // group-by value, or by its code in groupDict for a STRING_TYPE group-by
+    // field, so memory use is proportional to the number of groups
+    private final GroupAccumulators groups = new GroupAccumulators();
+    private final StringDictionary groupDict;
     /**
      * Aggregate constructor
      * 
@@ -43,6 +43,8 @@ public class IntegerAggregator implements Aggregator {
         this.gbfieldType = gbfieldtype;
         this.afield = afield;
         this.what = what;
+        this.groupDict = gbfield != NO_GROUPING && gbfieldtype == Type.STRING_TYPE
+                ? new StringDictionary() : null;
     }
 
     /**
@@ -55,18 +57,15 @@ public class IntegerAggregator implements Aggregator {
     public void mergeTupleIntoGroup(Tuple tup) {
         // some code goes here
         if (tup == null) return;
-        // No group
-        if (this.gbfield == NO_GROUPING){
-            List<Tuple> groupTuples = groups.getOrDefault(NO_GROUPING_FIELD, new ArrayList<Tuple>());
-            groupTuples.add(tup);
-            groups.put(NO_GROUPING_FIELD,groupTuples);
-        }
-        // add to special group
-        else{
-            List<Tuple> groupTuples = groups.getOrDefault(tup.getField(gbfield), new ArrayList<Tuple>());
-            groupTuples.add(tup);
-            groups.put(tup.getField(gbfield),groupTuples);
+        int key;
+        if (gbfield == NO_GROUPING){
+            key = 0;
+        }else if (groupDict != null){
+            key = groupDict.encode(((StringField) tup.getField(gbfield)).getValue());
+        }else{
+            key = ((IntField) tup.getField(gbfield)).getValue();
         }
+        groups.add(groups.group(key), ((IntField) tup.getField(afield)).getValue());
     }
 
     /**
@@ -85,44 +84,21 @@ public class IntegerAggregator implements Aggregator {
 
     public List<Tuple> generateAggTuples(TupleDesc td){
         List<Tuple> aggTuples = new ArrayList<>();
-        for (Map.Entry<Field, List<Tuple>> entry : groups.entrySet()) {
-            int aggregateVal = getAggResult(entry.getValue());
+        for (int id = 0; id < groups.size(); id++) {
+            Tuple tuple = new Tuple(td);
+            IntField aggregateVal = new IntField(groups.result(id, what));
             if (gbfield == NO_GROUPING){
                 // (aggregateVal)
-                Tuple tuple = new Tuple(td);
-                tuple.setField(0,new IntField(aggregateVal));
-                aggTuples.add(tuple);
+                tuple.setField(0,aggregateVal);
             }else{
                 // (groupVal, aggregateVal)
-                Tuple tuple = new Tuple(td);
-                tuple.setField(0,entry.getKey());
-                tuple.setField(1,new IntField(aggregateVal));
-                aggTuples.add(tuple);
+                int key = groups.key(id);
+                tuple.setField(0,groupDict == null ? new IntField(key)
+                        : new StringField(groupDict.decode(key), Type.STRING_LEN));
+                tuple.setField(1,aggregateVal);
             }
+            aggTuples.add(tuple);
         }
         return aggTuples;
     }
-
-    private int getAggResult(List<Tuple> groupTuples){
-        if (what == Op.COUNT){
-            return groupTuples.size();
-        }else if (what == Op.MAX){
-            return groupTuples.stream()
-                    .mapToInt(s -> ((IntField) s.getField(afield)).getValue())
-                    .max().getAsInt();
-        }else if (what == Op.MIN){
-            return groupTuples.stream()
-                    .mapToInt(s -> ((IntField) s.getField(afield)).getValue())
-                    .min().getAsInt();
-        }else if (what == Op.SUM){
-            return groupTuples.stream()
-                    .mapToInt(s -> ((IntField) s.getField(afield)).getValue())
-                    .sum();
-        }else if (what == Op.AVG){
-            return (int)groupTuples.stream()
-                    .mapToInt(s -> ((IntField) s.getField(afield)).getValue())
-                    .average().getAsDouble();
-        }
-        throw new UnsupportedOperationException("unknown op type");
-    }
 }
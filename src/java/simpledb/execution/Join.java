@@ -2,6 +2,7 @@ package simpledb.execution;
 
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.common.DbException;
+import simpledb.storage.BufferPool;
 import simpledb.storage.Tuple;
 import simpledb.storage.TupleDesc;
 
@@ -9,21 +10,32 @@ import java.util.*;
 
 /**
  * The Join operator implements the relational join operation.
+ * <p>
+ * It is a block nested-loops join: it reads child1 a block of tuples at a
+ * time, and scans child2 once for each block rather than once for each
+ * child1 tuple, so child2 is read ceil(|child1| / block size) times.
  */
 public class Join extends Operator {
 
     private static final long serialVersionUID = 1L;
 
+    /** The default number of pages of child1 tuples the join buffers */
+    public static final int BLOCK_PAGES = 8;
+
     private final JoinPredicate p;
     private final TupleDesc td;
     private final int numField1;
     private final int numField2;
+    private final int blockPages;
     private OpIterator child1;
     private OpIterator child2;
-    /**
-    * to save the currentTuple of left children OpIterator.
-    */
-    private Tuple curTupleLeft;
+
+    // the current block of child1 tuples, the current child2 tuple and the
+    // next tuple of the block to compare it with
+    private transient List<Tuple> block;
+    private transient int blockIdx;
+    private transient Tuple curTupleRight;
+    private transient boolean rewindRight;
 
 
     /**
@@ -38,10 +50,21 @@ public class Join extends Operator {
      *            Iterator for the right(inner) relation to join
      */
     public Join(JoinPredicate p, OpIterator child1, OpIterator child2) {
+        this(p, child1, child2, BLOCK_PAGES);
+    }
+
+    /**
+     * Constructor for a join that buffers the specified number of pages
+     * worth of child1 tuples.
+     *
+     * @param blockPages the number of pages of child1 tuples in a block
+     */
+    public Join(JoinPredicate p, OpIterator child1, OpIterator child2, int blockPages) {
         // some code goes here
         this.p = p;
         this.child1 = child1;
         this.child2 = child2;
+        this.blockPages = blockPages;
         TupleDesc td1 = child1.getTupleDesc();
         TupleDesc td2 = child2.getTupleDesc();
         this.td = TupleDesc.merge(td1,td2);
@@ -49,6 +72,15 @@ public class Join extends Operator {
         this.numField2 = td2.numFields();
     }
 
+    /**
+     * @return the number of tuples of the specified type in a block of the
+     *         specified number of pages
+     */
+    public static int blockSize(TupleDesc td, int blockPages) {
+        int perPage = (BufferPool.getPageSize() * 8) / (td.getSize() * 8 + 1);
+        return Math.max(1, blockPages * perPage);
+    }
+
     public JoinPredicate getJoinPredicate() {
         // some code goes here
         return this.p;
@@ -88,6 +120,10 @@ public class Join extends Operator {
         // some code goes here
         child1.open();
         child2.open();
+        block = new ArrayList<>();
+        blockIdx = 0;
+        curTupleRight = null;
+        rewindRight = false;
         super.open();
     }
 
@@ -96,12 +132,35 @@ public class Join extends Operator {
         super.close();
         child1.close();
         child2.close();
+        block = null;
+        curTupleRight = null;
     }
 
     public void rewind() throws DbException, TransactionAbortedException {
         // some code goes here
         child1.rewind();
         child2.rewind();
+        block.clear();
+        curTupleRight = null;
+        rewindRight = false;
+    }
+
+    // read the next block of child1, rewinding child2 to scan it again;
+    // false if child1 is done
+    private boolean nextBlock() throws DbException, TransactionAbortedException {
+        block.clear();
+        int size = blockSize(child1.getTupleDesc(), blockPages);
+        while (block.size() < size && child1.hasNext()) {
+            block.add(child1.next());
+        }
+        if (block.isEmpty()) {
+            return false;
+        }
+        if (rewindRight) {
+            child2.rewind();
+        }
+        rewindRight = true;
+        return true;
     }
 
     /**
@@ -124,27 +183,30 @@ public class Join extends Operator {
      */
     protected Tuple fetchNext() throws TransactionAbortedException, DbException {
         // some code goes here
-        while (child1.hasNext() || this.curTupleLeft != null){
-            if (this.curTupleLeft == null && child1.hasNext()){
-                this.curTupleLeft = child1.next();
-            }
-            while (child2.hasNext()){
-                Tuple t2 = child2.next();
-                if (this.p.filter(this.curTupleLeft,t2)){
-                    Tuple tuple = new Tuple(this.td);
-                    for (int i = 0; i < numField1; i++) {
-                        tuple.setField(i,this.curTupleLeft.getField(i));
-                    }
-                    for (int i = 0; i < numField2; i++) {
-                        tuple.setField(i+numField1,t2.getField(i));
+        while (true) {
+            if (curTupleRight != null) {
+                while (blockIdx < block.size()) {
+                    Tuple t1 = block.get(blockIdx++);
+                    if (this.p.filter(t1, curTupleRight)) {
+                        Tuple tuple = new Tuple(this.td);
+                        for (int i = 0; i < numField1; i++) {
+                            tuple.setField(i,t1.getField(i));
+                        }
+                        for (int i = 0; i < numField2; i++) {
+                            tuple.setField(i+numField1,curTupleRight.getField(i));
+                        }
+                        return tuple;
                     }
-                    return tuple;
                 }
+                curTupleRight = null;
+            }
+            if (!block.isEmpty() && child2.hasNext()) {
+                curTupleRight = child2.next();
+                blockIdx = 0;
+            } else if (!nextBlock()) {
+                return null;
             }
-            this.curTupleLeft = null;
-            child2.rewind();
         }
-        return null;
     }
 
     @Override
@@ -0,0 +1,165 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.storage.Field;
+import simpledb.storage.IntField;
+import simpledb.storage.StringField;
+import simpledb.storage.Tuple;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * JoinTable is the build side of a hash join, for code that probes it one
+ * key at a time.  It holds the tuples of the build side, chained by their
+ * value of the key field: {@link #first} returns the first row with a key
+ * and {@link #next} the row after it, so matches are visited in the order
+ * the build side returned them.  INT_TYPE keys are hashed with an
+ * {@link IntHashTable}, so probing them allocates nothing, and the chains
+ * are kept in flat arrays of row ids rather than in a list per key.
+ * <p>
+ * A table made by {@link #build} also keeps a {@link BloomFilter} of its
+ * keys, which {@link #first} checks before it looks a key up, so that most
+ * probes without a match never touch the hash table.
+ */
+public final class JoinTable {
+
+    private final IntHashTable intKeys;
+    private final Map<String, Integer> stringKeys;
+    private Tuple[] rows = new Tuple[64];
+    private int[] next = new int[64];
+    private int[] head = new int[16];
+    private int[] tail = new int[16];
+    private int size;
+    // the keys of a table made by build, or null
+    private BloomFilter filter;
+
+    /** Create an empty table for keys of the specified type */
+    JoinTable(Type keyType) {
+        if (keyType == Type.INT_TYPE) {
+            intKeys = new IntHashTable();
+            stringKeys = null;
+        } else {
+            intKeys = null;
+            stringKeys = new HashMap<>();
+        }
+    }
+
+    /**
+     * Read all the tuples of child into a new JoinTable, unless there are
+     * more than maxTuples of them.  child must be open; it is read until it
+     * is drained or the table is full, but not closed.
+     *
+     * @param child the build side of the join
+     * @param field the index of the key field in child's TupleDesc
+     * @param maxTuples the number of tuples the table may hold
+     * @return the table, or null if child has more than maxTuples tuples
+     */
+    public static JoinTable build(OpIterator child, int field, int maxTuples)
+            throws DbException, TransactionAbortedException {
+        JoinTable table = new JoinTable(child.getTupleDesc().getFieldType(field));
+        Tuple[] batch = new Tuple[OpIterator.BATCH_SIZE];
+        int n;
+        while ((n = child.nextBatch(batch)) > 0) {
+            if (n > maxTuples - table.size) {
+                return null;
+            }
+            for (int i = 0; i < n; i++) {
+                table.add(batch[i], field);
+            }
+        }
+        table.filter = new BloomFilter(table.size);
+        for (int r = 0; r < table.size; r++) {
+            table.filter.add(table.rows[r].getField(field));
+        }
+        return table;
+    }
+
+    /** Add a tuple, with its key in the specified field, to the table */
+    void add(Tuple t, int field) {
+        int numKeys = intKeys != null ? intKeys.size() : stringKeys.size();
+        int id;
+        if (intKeys != null) {
+            id = intKeys.put(((IntField) t.getField(field)).getValue());
+        } else {
+            String key = ((StringField) t.getField(field)).getValue();
+            Integer old = stringKeys.putIfAbsent(key, numKeys);
+            id = old == null ? numKeys : old;
+        }
+        if (size == rows.length) {
+            rows = Arrays.copyOf(rows, size * 2);
+            next = Arrays.copyOf(next, size * 2);
+        }
+        rows[size] = t;
+        next[size] = -1;
+        if (id == numKeys) {
+            if (id == head.length) {
+                head = Arrays.copyOf(head, id * 2);
+                tail = Arrays.copyOf(tail, id * 2);
+            }
+            head[id] = size;
+        } else {
+            next[tail[id]] = size;
+        }
+        tail[id] = size;
+        size++;
+    }
+
+    /** Remove all rows from the table */
+    void clear() {
+        if (intKeys != null) {
+            intKeys.clear();
+        } else {
+            stringKeys.clear();
+        }
+        Arrays.fill(rows, 0, size, null);
+        size = 0;
+    }
+
+    /** @return the first row with the specified key, or -1 if there is none */
+    public int first(Field key) {
+        return intKeys != null ? first(((IntField) key).getValue())
+                : first(((StringField) key).getValue());
+    }
+
+    /** @return the first row with the specified key, or -1 if there is none */
+    public int first(int key) {
+        if (filter != null && !filter.mightContain(key)) {
+            return -1;
+        }
+        int id = intKeys.get(key);
+        return id < 0 ? -1 : head[id];
+    }
+
+    /** @return the first row with the specified key, or -1 if there is none */
+    public int first(String key) {
+        if (filter != null && !filter.mightContain(key.hashCode())) {
+            return -1;
+        }
+        Integer id = stringKeys.get(key);
+        return id == null ? -1 : head[id];
+    }
+
+    /** @return the row after row with the same key, or -1 if there is none */
+    public int next(int row) {
+        return next[row];
+    }
+
+    /** @return the tuple of the specified row */
+    public Tuple row(int row) {
+        return rows[row];
+    }
+
+    /** @return the filter of the keys of a table made by build, or null */
+    BloomFilter filter() {
+        return filter;
+    }
+
+    /** @return the number of rows in the table */
+    public int size() {
+        return size;
+    }
+}
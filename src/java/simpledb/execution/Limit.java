@@ -0,0 +1,134 @@
+package simpledb.execution;
+
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.common.DbException;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+
+import java.util.NoSuchElementException;
+
+/**
+ * Limit is an operator that implements a relational LIMIT ... OFFSET: it
+ * skips the first offset tuples of its child and returns at most limit of
+ * the following ones.  It stops pulling from the child as soon as it has
+ * returned limit tuples, so a query for the first few rows of a pipeline
+ * only reads as much of its input as those rows need.
+ */
+public class Limit extends Operator {
+
+    private static final long serialVersionUID = 1L;
+    private OpIterator child;
+    private final int limit;
+    private final int offset;
+    // the number of tuples of the child read so far, skipped ones included
+    private int read;
+    private transient Tuple[] in;
+
+    /**
+     * Constructor.
+     *
+     * @param child
+     *            the tuples to limit
+     * @param limit
+     *            the most tuples to return
+     * @param offset
+     *            the number of tuples to skip first
+     */
+    public Limit(OpIterator child, int limit, int offset) {
+        if (limit < 0 || offset < 0) {
+            throw new IllegalArgumentException("LIMIT and OFFSET cannot be negative");
+        }
+        this.child = child;
+        this.limit = limit;
+        this.offset = offset;
+    }
+
+    /** @return the most tuples returned */
+    public int getLimit() {
+        return limit;
+    }
+
+    /** @return the number of tuples skipped */
+    public int getOffset() {
+        return offset;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return child.getTupleDesc();
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        child.open();
+        read = 0;
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        child.close();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child.rewind();
+        read = 0;
+    }
+
+    // the number of tuples the child may still be asked for
+    private long remaining() {
+        return (long) offset + limit - read;
+    }
+
+    // skip the first offset tuples of the child
+    private void skip() throws DbException, TransactionAbortedException {
+        while (read < offset && child.hasNext()) {
+            child.next();
+            read++;
+        }
+    }
+
+    /**
+     * Operator.fetchNext implementation. Returns the next tuple of the child,
+     * until limit tuples have been returned.
+     *
+     * @return The next tuple, or null if there are no more tuples
+     */
+    protected Tuple fetchNext() throws NoSuchElementException,
+            TransactionAbortedException, DbException {
+        skip();
+        if (remaining() <= 0 || !child.hasNext()) return null;
+        read++;
+        return child.next();
+    }
+
+    /**
+     * Operator.fetchNextBatch implementation. Asks the child for no more
+     * tuples than are left to return.
+     */
+    protected int fetchNextBatch(Tuple[] batch, int off)
+            throws TransactionAbortedException, DbException {
+        skip();
+        int room = (int) Math.min(batch.length - off, remaining());
+        if (room <= 0 || read < offset) {
+            return 0;
+        }
+        if (in == null || in.length != room) {
+            in = new Tuple[room];
+        }
+        int got = child.nextBatch(in);
+        System.arraycopy(in, 0, batch, off, got);
+        read += got;
+        return got;
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[]{this.child};
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        this.child = children[0];
+    }
+
+}
@@ -16,6 +16,9 @@ import java.util.*;
  * should call its children's close methods.
  */
 public interface OpIterator extends Serializable{
+  /** Number of tuples callers typically ask for in one {@link #nextBatch} call */
+  int BATCH_SIZE = 256;
+
   /**
    * Opens the iterator. This must be called before any of the other methods.
    * @throws DbException when there are problems opening/accessing the database.
@@ -39,6 +42,26 @@ public interface OpIterator extends Serializable{
    */
   Tuple next() throws DbException, TransactionAbortedException, NoSuchElementException;
 
+  /**
+   * Returns up to batch.length of the next tuples from the operator, stored
+   * at the front of batch.  This lets a consumer move many tuples per call
+   * and process them in a tight loop.  The default implementation adapts
+   * hasNext()/next(), so every operator supports it; operators that can
+   * produce tuples more cheaply in bulk override it.  Batch and tuple calls
+   * may be mixed freely.
+   *
+   * @param batch the array to store the tuples in
+   * @return the number of tuples stored; 0 only if there are no more tuples.
+   * @throws IllegalStateException If the iterator has not been opened
+   */
+  default int nextBatch(Tuple[] batch) throws DbException, TransactionAbortedException {
+    int n = 0;
+    while (n < batch.length && hasNext()) {
+      batch[n++] = next();
+    }
+    return n;
+  }
+
   /**
    * Resets the iterator to the start.
    * @throws DbException when rewind is unsupported.
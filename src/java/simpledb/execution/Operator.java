@@ -38,6 +38,41 @@ public abstract class Operator implements OpIterator {
         return result;
     }
 
+    public int nextBatch(Tuple[] batch) throws DbException,
+            TransactionAbortedException {
+        if (!this.open)
+            throw new IllegalStateException("Operator not yet open");
+
+        int n = 0;
+        if (next != null && batch.length > 0) {
+            // hand out the tuple hasNext() looked ahead at first
+            batch[n++] = next;
+            next = null;
+        }
+        if (n < batch.length)
+            n += fetchNextBatch(batch, n);
+        return n;
+    }
+
+    /**
+     * Stores the next tuples of the iterator in batch, starting at index
+     * off. Operator uses this method to implement <code>nextBatch</code>.
+     * The default implementation calls <code>fetchNext</code> once per
+     * tuple; subclasses that can work on whole batches of their child's
+     * tuples should override it.
+     *
+     * @return the number of tuples stored, or 0 if the iteration is
+     *         finished.
+     */
+    protected int fetchNextBatch(Tuple[] batch, int off) throws DbException,
+            TransactionAbortedException {
+        int n = off;
+        Tuple t;
+        while (n < batch.length && (t = fetchNext()) != null)
+            batch[n++] = t;
+        return n - off;
+    }
+
     /**
      * Returns the next Tuple in the iterator, or null if the iteration is
      * finished. Operator uses this method to implement both <code>next</code>
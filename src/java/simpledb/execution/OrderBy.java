@@ -2,14 +2,19 @@ package simpledb.execution;
 
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.common.DbException;
-import simpledb.storage.Field;
 import simpledb.storage.Tuple;
 import simpledb.storage.TupleDesc;
 
 import java.util.*;
 
 /**
- * OrderBy is an operator that implements a relational ORDER BY.
+ * OrderBy is an operator that implements a relational ORDER BY, on any
+ * number of fields, each in ascending or descending order.
+ * <p>
+ * If the child has more tuples than fit in memory, OrderBy is an external
+ * merge sort: the child is read in sorted runs of at most maxTuples tuples,
+ * which are written to temporary files, and the runs are merged with a
+ * heap, {@link #MERGE_FANIN} at a time.
  */
 public class OrderBy extends Operator {
 
@@ -17,14 +22,39 @@ public class OrderBy extends Operator {
     private OpIterator child;
     private final TupleDesc td;
     private final List<Tuple> childTups = new ArrayList<>();
-    private final int orderByField;
+    private final int[] orderByFields;
     private final String orderByFieldName;
     private Iterator<Tuple> it;
-    private final boolean asc;
+    private final boolean[] asc;
+    private final int maxTuples;
+
+    /** The default number of tuples the sort keeps in memory */
+    public final static int MAX_TUPLES = 100000;
+    /** The most runs merged at once */
+    public final static int MERGE_FANIN = 64;
+
+    // the sorted runs on disk, null if the child fit in memory
+    transient private List<SpillFile> runs = null;
+    // the next tuple of each run being merged, ordered by the sort keys
+    // and then by run, so that the sort is stable
+    transient private PriorityQueue<Head> heads = null;
+
+    // the next tuple of a run
+    private static final class Head {
+        final Tuple t;
+        final int run;
+        final SpillFile.Reader in;
+
+        Head(Tuple t, int run, SpillFile.Reader in) {
+            this.t = t;
+            this.run = run;
+            this.in = in;
+        }
+    }
 
     /**
      * Creates a new OrderBy node over the tuples from the iterator.
-     * 
+     *
      * @param orderbyField
      *            the field to which the sort is applied.
      * @param asc
@@ -33,28 +63,72 @@ public class OrderBy extends Operator {
      *            the tuples to sort.
      */
     public OrderBy(int orderbyField, boolean asc, OpIterator child) {
+        this(new int[]{orderbyField}, new boolean[]{asc}, child);
+    }
+
+    /**
+     * Creates a new OrderBy node sorting on several fields: tuples are
+     * ordered by the first field, then those with equal first fields by the
+     * second, and so on.
+     *
+     * @param orderbyFields
+     *            the fields to which the sort is applied.
+     * @param asc
+     *            for each field, true if the sort order is ascending.
+     * @param child
+     *            the tuples to sort.
+     */
+    public OrderBy(int[] orderbyFields, boolean[] asc, OpIterator child) {
+        this(orderbyFields, asc, child, MAX_TUPLES);
+    }
+
+    /**
+     * Constructor with a memory budget.  If the child has more than
+     * maxTuples tuples, they are sorted in runs of maxTuples tuples that are
+     * spilled to temporary files and merged.
+     *
+     * @param maxTuples the number of tuples to keep in memory
+     */
+    public OrderBy(int[] orderbyFields, boolean[] asc, OpIterator child, int maxTuples) {
+        if (orderbyFields.length == 0 || orderbyFields.length != asc.length) {
+            throw new IllegalArgumentException("one order is needed per sort field");
+        }
+        if (maxTuples < 1) {
+            throw new IllegalArgumentException("at least one tuple must fit in memory");
+        }
         this.child = child;
         td = child.getTupleDesc();
-        this.orderByField = orderbyField;
-        this.orderByFieldName = td.getFieldName(orderbyField);
+        this.orderByFields = orderbyFields;
+        this.orderByFieldName = td.getFieldName(orderbyFields[0]);
         this.asc = asc;
+        this.maxTuples = maxTuples;
     }
-    
+
     public boolean isASC()
     {
-	return this.asc;
+	return this.asc[0];
     }
-    
+
     public int getOrderByField()
     {
-        return this.orderByField;
+        return this.orderByFields[0];
     }
-    
+
     public String getOrderFieldName()
     {
 	return this.orderByFieldName;
     }
-    
+
+    /** @return the fields the sort is applied to, in order */
+    public int[] getOrderByFields() {
+        return this.orderByFields;
+    }
+
+    /** @return for each sort field, true if the order is ascending */
+    public boolean[] getAscending() {
+        return this.asc;
+    }
+
     public TupleDesc getTupleDesc() {
         return td;
     }
@@ -62,31 +136,142 @@ public class OrderBy extends Operator {
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException {
         child.open();
-        // load all the tuples in a collection, and sort it
-        while (child.hasNext())
-            childTups.add(child.next());
-        childTups.sort(new TupleComparator(orderByField, asc));
-        it = childTups.iterator();
+        // load the tuples in a collection, sorting and spilling it whenever
+        // it is full
+        TupleComparator comparator = new TupleComparator(orderByFields, asc);
+        deleteRuns();
+        childTups.clear();
+        Tuple[] batch = new Tuple[BATCH_SIZE];
+        int n;
+        while ((n = child.nextBatch(batch)) > 0) {
+            for (int i = 0; i < n; i++) {
+                if (childTups.size() == maxTuples) {
+                    spillRun(comparator);
+                }
+                childTups.add(batch[i]);
+            }
+        }
+        if (runs != null) {
+            spillRun(comparator);
+            while (runs.size() > MERGE_FANIN) {
+                mergeRuns(comparator);
+            }
+            startMerge(comparator);
+        } else {
+            childTups.sort(comparator);
+            it = childTups.iterator();
+        }
         super.open();
     }
 
+    // sort the tuples in memory into a new run on disk
+    private void spillRun(TupleComparator comparator) throws DbException {
+        if (runs == null) {
+            runs = new ArrayList<>();
+        }
+        childTups.sort(comparator);
+        SpillFile run = new SpillFile(td);
+        for (Tuple t : childTups) {
+            run.add(t);
+        }
+        childTups.clear();
+        runs.add(run);
+    }
+
+    // start merging the runs, from their first tuples
+    private void startMerge(TupleComparator comparator) throws DbException {
+        heads = new PriorityQueue<>(Math.max(1, runs.size()), (a, b) -> {
+            int c = comparator.compare(a.t, b.t);
+            return c != 0 ? c : Integer.compare(a.run, b.run);
+        });
+        for (int i = 0; i < runs.size(); i++) {
+            SpillFile.Reader in = runs.get(i).reader();
+            Tuple t = in.next();
+            if (t != null) {
+                heads.add(new Head(t, i, in));
+            }
+        }
+    }
+
+    // the next tuple of the merge, or null if the runs are exhausted
+    private Tuple nextMerged() throws DbException {
+        Head h = heads.poll();
+        if (h == null) {
+            return null;
+        }
+        Tuple next = h.in.next();
+        if (next != null) {
+            heads.add(new Head(next, h.run, h.in));
+        }
+        return h.t;
+    }
+
+    // merge the first MERGE_FANIN runs into one run, at the front of the
+    // list, since its tuples came before those of the runs left
+    private void mergeRuns(TupleComparator comparator) throws DbException {
+        List<SpillFile> all = runs;
+        runs = new ArrayList<>(all.subList(0, MERGE_FANIN));
+        startMerge(comparator);
+        SpillFile merged = new SpillFile(td);
+        Tuple t;
+        while ((t = nextMerged()) != null) {
+            merged.add(t);
+        }
+        for (SpillFile run : runs) {
+            run.delete();
+        }
+        runs = new ArrayList<>(all.size() - MERGE_FANIN + 1);
+        runs.add(merged);
+        runs.addAll(all.subList(MERGE_FANIN, all.size()));
+        heads = null;
+    }
+
+    private void closeMerge() {
+        if (heads != null) {
+            for (Head h : heads) {
+                h.in.close();
+            }
+            heads = null;
+        }
+    }
+
+    private void deleteRuns() {
+        closeMerge();
+        if (runs != null) {
+            for (SpillFile run : runs) {
+                run.delete();
+            }
+            runs = null;
+        }
+    }
+
     public void close() {
         super.close();
+        child.close();
         it = null;
+        deleteRuns();
     }
 
-    public void rewind() {
-        it = childTups.iterator();
+    public void rewind() throws DbException {
+        if (runs != null) {
+            closeMerge();
+            startMerge(new TupleComparator(orderByFields, asc));
+        } else {
+            it = childTups.iterator();
+        }
     }
 
     /**
      * Operator.fetchNext implementation. Returns tuples from the child operator
      * in order
-     * 
+     *
      * @return The next tuple in the ordering, or null if there are no more
      *         tuples
      */
-    protected Tuple fetchNext() throws NoSuchElementException {
+    protected Tuple fetchNext() throws NoSuchElementException, DbException {
+        if (heads != null) {
+            return nextMerged();
+        }
         if (it != null && it.hasNext()) {
             return it.next();
         } else
@@ -104,25 +289,3 @@ public class OrderBy extends Operator {
     }
 
 }
-
-class TupleComparator implements Comparator<Tuple> {
-    final int field;
-    final boolean asc;
-
-    public TupleComparator(int field, boolean asc) {
-        this.field = field;
-        this.asc = asc;
-    }
-
-    public int compare(Tuple o1, Tuple o2) {
-        Field t1 = (o1).getField(field);
-        Field t2 = (o2).getField(field);
-        if (t1.compare(Predicate.Op.EQUALS, t2))
-            return 0;
-        if (t1.compare(Predicate.Op.GREATER_THAN, t2))
-            return asc ? 1 : -1;
-        else
-            return asc ? -1 : 1;
-    }
-    
-}
@@ -0,0 +1,202 @@
+package simpledb.execution;
+
+import simpledb.common.Database;
+import simpledb.common.Type;
+import simpledb.storage.DbFile;
+import simpledb.storage.HeapFile;
+import simpledb.storage.PageMorsels;
+import simpledb.storage.TupleDesc;
+
+/**
+ * ParallelPlanner inserts {@link Exchange}s into a physical plan so that it
+ * runs on several threads.
+ * <p>
+ * A part of the plan is split into partitions, which are run in parallel
+ * and produce disjoint parts of its output:
+ * <ul>
+ * <li>a {@link SeqScan} of a large enough {@link HeapFile} is split into
+ * scans that take morsels of its pages as they go (see {@link PageMorsels}),
+ * so that the work is balanced among them;
+ * <li>a {@link Filter} or a {@link Project} is applied to each partition
+ * of its child;
+ * <li>a {@link HashEquiJoin} or a {@link RadixHashJoin} whose children both
+ * split is a join of each pair of outputs of repartitions of the children
+ * by their join fields; if only one child splits, the other one is
+ * broadcast to its partitions;
+ * <li>an {@link Aggregate} with grouping is an aggregate of each output of
+ * a repartition of its child by its first group-by field.
+ * </ul>
+ * The partitions of the highest parts of the plan that split are gathered
+ * into one stream.  Aggregates that are computed in parallel by themselves
+ * (see {@link Aggregate#setParallel}) and pipelines that
+ * {@link PipelineCompiler} or {@link PushPlanner} has translated already,
+ * such as a subquery's, are left as they are.
+ */
+public class ParallelPlanner {
+
+    /** The fewest pages of a table for each scan it is split into */
+    public static final int MIN_PARTITION_PAGES = 8;
+
+    private final int degree;
+
+    private ParallelPlanner(int degree) {
+        this.degree = degree;
+    }
+
+    /**
+     * Insert exchanges into plan to run its parts that split on up to
+     * degree threads each.
+     *
+     * @return the parallel plan, which may be plan itself
+     */
+    public static OpIterator parallelize(OpIterator plan, int degree) {
+        return degree > 1 ? new ParallelPlanner(degree).rewrite(plan) : plan;
+    }
+
+    /**
+     * @return true if a scan of the table, or a plan over one, is split
+     *         into parts that run in parallel on up to degree threads
+     */
+    public static boolean splits(int tableId, int degree) {
+        return partitions(tableId, degree) >= 2;
+    }
+
+    // the number of scans a scan of the table is split into, or 0
+    private static int partitions(int tableId, int degree) {
+        DbFile f = Database.getCatalog().getDatabaseFile(tableId);
+        if (!(f instanceof HeapFile)) {
+            return 0;
+        }
+        return Math.min(degree, ((HeapFile) f).numPages() / MIN_PARTITION_PAGES);
+    }
+
+    private OpIterator rewrite(OpIterator op) {
+        if (op instanceof Aggregate && ((Aggregate) op).aggregatesInParallel()
+                || op instanceof CompiledPipeline || op instanceof PushPipeline) {
+            return op;
+        }
+        OpIterator[] parts = split(op);
+        if (parts != null) {
+            return Exchange.gather(parts);
+        }
+        if (op instanceof Operator) {
+            OpIterator[] children = ((Operator) op).getChildren();
+            boolean changed = false;
+            for (int i = 0; i < children.length; i++) {
+                OpIterator child = rewrite(children[i]);
+                changed |= child != children[i];
+                children[i] = child;
+            }
+            if (changed) {
+                ((Operator) op).setChildren(children);
+            }
+        }
+        return op;
+    }
+
+    // the partitions of op, or null if it does not split
+    private OpIterator[] split(OpIterator op) {
+        if (op instanceof SeqScan) {
+            return splitScan((SeqScan) op);
+        } else if (op instanceof Filter) {
+            Filter f = (Filter) op;
+            OpIterator[] parts = split(f.getChildren()[0]);
+            if (parts == null) {
+                return null;
+            }
+            for (int i = 0; i < parts.length; i++) {
+                parts[i] = new Filter(f.getPredicate(), parts[i]);
+            }
+            return parts;
+        } else if (op instanceof FilterProject) {
+            FilterProject p = (FilterProject) op;
+            OpIterator[] parts = split(p.getChildren()[0]);
+            if (parts == null) {
+                return null;
+            }
+            for (int i = 0; i < parts.length; i++) {
+                parts[i] = new FilterProject(p.getPredicates(), p.getFieldList(), types(p.getTupleDesc()), parts[i]);
+            }
+            return parts;
+        } else if (op instanceof Project) {
+            Project p = (Project) op;
+            OpIterator[] parts = split(p.getChildren()[0]);
+            if (parts == null) {
+                return null;
+            }
+            for (int i = 0; i < parts.length; i++) {
+                parts[i] = new Project(p.getFieldList(), types(p.getTupleDesc()), parts[i]);
+            }
+            return parts;
+        } else if (op instanceof HashEquiJoin || op instanceof RadixHashJoin) {
+            return splitJoin((Operator) op);
+        } else if (op instanceof Aggregate) {
+            Aggregate a = (Aggregate) op;
+            if (a.groupFields().length == 0 || a.aggregatesInParallel()) {
+                return null;
+            }
+            OpIterator[] parts = split(a.getChildren()[0]);
+            if (parts == null) {
+                return null;
+            }
+            Exchange[] outputs = Exchange.repartition(parts, a.groupFields()[0], degree);
+            OpIterator[] aggs = new OpIterator[degree];
+            for (int i = 0; i < degree; i++) {
+                aggs[i] = new Aggregate(outputs[i], a.aggregateFields(), a.aggregateOps(), a.groupFields(),
+                        a.maxGroups());
+            }
+            return aggs;
+        }
+        return null;
+    }
+
+    // scans sharing the morsels of the pages of the table of scan
+    private OpIterator[] splitScan(SeqScan scan) {
+        if (scan.getMorsels() != null || scan.getFromPage() != 0 || scan.getToPage() >= 0) {
+            return null;
+        }
+        int n = partitions(scan.getTableId(), degree);
+        if (n < 2) {
+            return null;
+        }
+        PageMorsels morsels = new PageMorsels(scan.getTableId(), n);
+        OpIterator[] parts = new OpIterator[n];
+        for (int i = 0; i < n; i++) {
+            parts[i] = new SeqScan(scan.getTransactionId(), scan.getAlias(), morsels);
+        }
+        return parts;
+    }
+
+    private OpIterator[] splitJoin(Operator j) {
+        OpIterator[] children = j.getChildren();
+        OpIterator[] build = split(children[0]);
+        OpIterator[] probe = split(children[1]);
+        JoinPredicate p = j instanceof HashEquiJoin ? ((HashEquiJoin) j).getJoinPredicate()
+                : ((RadixHashJoin) j).getJoinPredicate();
+        if (build != null && probe != null) {
+            build = Exchange.repartition(build, p.getField1(), degree);
+            probe = Exchange.repartition(probe, p.getField2(), degree);
+        } else if (probe != null) {
+            build = Exchange.broadcast(new OpIterator[]{rewrite(children[0])}, probe.length);
+        } else if (build != null) {
+            probe = Exchange.broadcast(new OpIterator[]{rewrite(children[1])}, build.length);
+        } else {
+            return null;
+        }
+        OpIterator[] joins = new OpIterator[build.length];
+        for (int i = 0; i < joins.length; i++) {
+            joins[i] = j instanceof HashEquiJoin
+                    ? new HashEquiJoin(p, build[i], probe[i], ((HashEquiJoin) j).maxTuples())
+                    : new RadixHashJoin(p, build[i], probe[i]);
+        }
+        return joins;
+    }
+
+    private static Type[] types(TupleDesc td) {
+        Type[] types = new Type[td.numFields()];
+        for (int i = 0; i < types.length; i++) {
+            types[i] = td.getFieldType(i);
+        }
+        return types;
+    }
+}
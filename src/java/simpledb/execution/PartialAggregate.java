@@ -0,0 +1,123 @@
+package simpledb.execution;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Permissions;
+import simpledb.storage.HeapPage;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.Tuple;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import java.util.Iterator;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * PartialAggregate aggregates a morsel of at most {@link #MORSEL_PAGES}
+ * pages of a HeapFile, for {@link Aggregate}'s parallel mode.  The morsels
+ * of a table are run by {@link Scheduler#invokeAll}, as tasks of the
+ * query's session, so that they share the workers with the other queries;
+ * the pages are read through the BufferPool, with shared locks, under the
+ * transaction of the scan.
+ * <p>
+ * A task aggregates its morsel into one of the partial states of the job,
+ * which it takes for as long as it runs, so that there are no more partial
+ * states than tasks running at once; they are merged once all the morsels
+ * are done.  If a partial state grows past the aggregate's budget of
+ * groups, the morsels not started yet are skipped and the merged state is
+ * null, so that the caller can fall back to the serial aggregation, which
+ * spills.
+ */
+final class PartialAggregate implements Callable<Boolean> {
+
+    /** The number of pages of a morsel */
+    static final int MORSEL_PAGES = 4;
+
+    /** What the tasks of one aggregation share */
+    static final class Job {
+        final Aggregate agg;
+        final TransactionId tid;
+        final int tableId;
+        final TuplePredicate test;
+        final int maxGroups;
+        // the partial states not taken by a task
+        private final ConcurrentLinkedQueue<GroupAggregator> states = new ConcurrentLinkedQueue<>();
+        private volatile boolean full = false;
+
+        /**
+         * @param test the test of the filters between the aggregate and the
+         *             scan, or null if there are none
+         */
+        Job(Aggregate agg, TransactionId tid, int tableId, TuplePredicate test, int maxGroups) {
+            this.agg = agg;
+            this.tid = tid;
+            this.tableId = tableId;
+            this.test = test;
+            this.maxGroups = maxGroups;
+        }
+
+        /**
+         * @return the partial states merged into one, or null if they do not
+         *         fit in the budget of groups
+         */
+        GroupAggregator merge() {
+            if (full) {
+                return null;
+            }
+            GroupAggregator result = states.poll();
+            if (result == null) {
+                return agg.newAggregator();
+            }
+            for (GroupAggregator state; (state = states.poll()) != null; ) {
+                result.merge(state);
+                if (result.numGroups() > maxGroups) {
+                    return null;
+                }
+            }
+            return result;
+        }
+    }
+
+    private final Job job;
+    private final int from, to;
+
+    /** A task aggregating pages [from, to) */
+    PartialAggregate(Job job, int from, int to) {
+        this.job = job;
+        this.from = from;
+        this.to = to;
+    }
+
+    /** @return false if the groups grew past the budget */
+    @Override
+    public Boolean call() throws DbException, TransactionAbortedException {
+        if (job.full) {
+            return false;
+        }
+        GroupAggregator state = job.states.poll();
+        if (state == null) {
+            state = job.agg.newAggregator();
+        }
+        try {
+            for (int pageNo = from; pageNo < to; pageNo++) {
+                HeapPage page = (HeapPage) Database.getBufferPool().getPage(job.tid,
+                        new HeapPageId(job.tableId, pageNo), Permissions.READ_ONLY);
+                Iterator<Tuple> it = page.iterator();
+                while (it.hasNext()) {
+                    Tuple t = it.next();
+                    if (job.test != null && !job.test.test(t)) {
+                        continue;
+                    }
+                    if (!state.mergeTupleIntoGroup(t, job.maxGroups)) {
+                        job.full = true;
+                        return false;
+                    }
+                }
+            }
+        } finally {
+            job.states.add(state);
+        }
+        return true;
+    }
+}
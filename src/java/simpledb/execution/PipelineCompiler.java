@@ -0,0 +1,463 @@
+package simpledb.execution;
+
+import simpledb.common.Database;
+import simpledb.common.Type;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPage;
+import simpledb.storage.IntField;
+import simpledb.storage.StringField;
+import simpledb.storage.TupleDesc;
+
+import javax.tools.FileObject;
+import javax.tools.ForwardingJavaFileManager;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileManager;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.ToolProvider;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * PipelineCompiler performs whole-stage code generation: it replaces the
+ * pipelines of a physical plan with {@link CompiledPipeline}s that run each
+ * pipeline as one generated loop.
+ * <p>
+ * A pipeline is a chain of {@link Filter}s, {@link Project}s,
+ * {@link FilterProject}s and the probe sides of {@link HashEquiJoin}s over a
+ * {@link SeqScan} of a {@link HeapFile}, optionally topped by an
+ * {@link Aggregate}.  It is translated into the Java source of a method that
+ * loops over the tuples of a page, with an if-block per predicate, a loop
+ * over the matching build rows per join, and the aggregate update or the
+ * construction of the output tuple innermost.  Fields are read straight
+ * from the scanned and build tuples, so no intermediate tuple is created.
+ * <p>
+ * The source depends only on the shape of the pipeline; its constants are
+ * read from a {@link PipelineContext}, so queries that differ only in their
+ * constants share a compiled class.  Sources are compiled in memory with the
+ * system Java compiler.  If no compiler is available (on a JRE) or the
+ * pipeline cannot be compiled, the plan is left as it is.
+ */
+public class PipelineCompiler {
+
+    /** The generated code of a pipeline */
+    public interface Body {
+        /** Run the pipeline over the tuples of page */
+        void run(HeapPage page, PipelineContext ctx);
+    }
+
+    private static final String CLASS_NAME = "GeneratedPipeline";
+
+    private static final Map<String, Class<?>> classes = new ConcurrentHashMap<>();
+    private static final AtomicInteger numClasses = new AtomicInteger();
+
+    /**
+     * Replace the pipelines of plan with compiled pipelines.  The build
+     * sides of joins are compiled as pipelines of their own.
+     *
+     * @return the compiled plan, which may be plan itself
+     */
+    public static OpIterator compile(OpIterator plan) {
+        if (ToolProvider.getSystemJavaCompiler() == null) {
+            return plan;
+        }
+        return rewrite(plan);
+    }
+
+    /** @return the number of distinct pipeline shapes compiled so far */
+    public static int numCompiled() {
+        return classes.size();
+    }
+
+    private static OpIterator rewrite(OpIterator op) {
+        if (op instanceof CompiledPipeline || op instanceof PushPipeline) {
+            // a subquery's plan, compiled or translated already
+            return op;
+        }
+        OpIterator top = op instanceof Aggregate ? ((Aggregate) op).getChildren()[0] : op;
+        List<OpIterator> chain = chain(top);
+        if (chain != null && (op instanceof Aggregate ? aggregatable((Aggregate) op) : chain.size() > 1)) {
+            for (OpIterator o : chain) {
+                if (o instanceof HashEquiJoin) {
+                    OpIterator[] children = ((HashEquiJoin) o).getChildren();
+                    ((HashEquiJoin) o).setChildren(new OpIterator[]{rewrite(children[0]), children[1]});
+                }
+            }
+            CompiledPipeline compiled = new Generator(op, chain).generate();
+            return compiled != null ? compiled : op;
+        }
+        if (op instanceof Operator) {
+            OpIterator[] children = ((Operator) op).getChildren();
+            boolean changed = false;
+            for (int i = 0; i < children.length; i++) {
+                OpIterator child = rewrite(children[i]);
+                changed |= child != children[i];
+                children[i] = child;
+            }
+            if (changed) {
+                ((Operator) op).setChildren(children);
+            }
+        }
+        return op;
+    }
+
+    // the operators of the pipeline ending at top, from the top down to its
+    // scan, or null if top is not the top of a pipeline
+    private static List<OpIterator> chain(OpIterator top) {
+        List<OpIterator> chain = new ArrayList<>();
+        OpIterator o = top;
+        while (true) {
+            chain.add(o);
+            if (o instanceof SeqScan) {
+                SeqScan scan = (SeqScan) o;
+                return Database.getCatalog().getDatabaseFile(scan.getTableId()) instanceof HeapFile
+                        ? chain : null;
+            } else if (o instanceof Filter || o instanceof Project || o instanceof FilterProject) {
+                o = ((Operator) o).getChildren()[0];
+            } else if (o instanceof HashEquiJoin) {
+                o = ((HashEquiJoin) o).getChildren()[1];
+            } else {
+                return null;
+            }
+        }
+    }
+
+    // an aggregate that runs in parallel by itself is compiled into a
+    // pipeline that does so too
+    private static boolean aggregatable(Aggregate agg) {
+        if (agg.aggregateFields().length != 1 || agg.groupFields().length > 1) {
+            return false;
+        }
+        return agg.aggregateOp() == Aggregator.Op.COUNT
+                || agg.getChildren()[0].getTupleDesc().getFieldType(agg.aggregateField()) == Type.INT_TYPE;
+    }
+
+    // Generates the source of one pipeline
+    private static class Generator {
+        private final OpIterator root;
+        private final List<OpIterator> chain;
+        private final StringBuilder locals = new StringBuilder();
+        private final StringBuilder body = new StringBuilder();
+        private final List<Integer> ints = new ArrayList<>();
+        private final List<String> strings = new ArrayList<>();
+        private final List<OpIterator> builds = new ArrayList<>();
+        private final List<Integer> buildFields = new ArrayList<>();
+        private final List<Integer> buildLimits = new ArrayList<>();
+        private int depth = 2;
+        private int blocks;
+
+        Generator(OpIterator root, List<OpIterator> chain) {
+            this.root = root;
+            this.chain = chain;
+        }
+
+        CompiledPipeline generate() {
+            SeqScan scan = (SeqScan) chain.get(chain.size() - 1);
+            line("int slots = page.getNumSlots();");
+            open("for (int s = 0; s < slots; s++) {");
+            line("Tuple t = page.getTuple(s);");
+            open("if (t != null) {");
+            String[] cols = new String[scan.getTupleDesc().numFields()];
+            for (int i = 0; i < cols.length; i++) {
+                cols[i] = "t.getField(" + i + ")";
+            }
+            boolean joined = false;
+            for (int i = chain.size() - 2; i >= 0; i--) {
+                OpIterator o = chain.get(i);
+                if (o instanceof Filter) {
+                    Predicate p = ((Filter) o).getPredicate();
+                    open("if (" + term(p, cols[p.getField()]) + ") {");
+                } else if (o instanceof Project) {
+                    cols = project(cols, ((Project) o).getFieldList());
+                } else if (o instanceof FilterProject) {
+                    FilterProject fp = (FilterProject) o;
+                    for (Predicate p : fp.getPredicates()) {
+                        open("if (" + term(p, cols[p.getField()]) + ") {");
+                    }
+                    cols = project(cols, fp.getFieldList());
+                } else {
+                    cols = probe((HashEquiJoin) o, cols);
+                    joined = true;
+                }
+            }
+            Type gtype = null;
+            if (root instanceof Aggregate) {
+                gtype = aggregate((Aggregate) root, cols);
+            } else {
+                emit(cols, !joined);
+            }
+            while (blocks > 0) {
+                close();
+            }
+
+            String source = "import simpledb.execution.*;\n"
+                    + "import simpledb.storage.*;\n\n"
+                    + "public final class " + CLASS_NAME + " implements PipelineCompiler.Body {\n"
+                    + "    public void run(HeapPage page, PipelineContext ctx) {\n"
+                    + locals + body
+                    + "    }\n"
+                    + "}\n";
+            Class<?> c = load(source);
+            if (c == null) {
+                return null;
+            }
+            Body generated;
+            try {
+                generated = (Body) c.getDeclaredConstructor().newInstance();
+            } catch (ReflectiveOperationException e) {
+                return null;
+            }
+
+            int[] intAr = new int[ints.size()];
+            for (int i = 0; i < intAr.length; i++) {
+                intAr[i] = ints.get(i);
+            }
+            int[] fieldAr = new int[buildFields.size()];
+            int[] limitAr = new int[buildLimits.size()];
+            for (int i = 0; i < fieldAr.length; i++) {
+                fieldAr[i] = buildFields.get(i);
+                limitAr[i] = buildLimits.get(i);
+            }
+            Aggregate agg = root instanceof Aggregate ? (Aggregate) root : null;
+            return new CompiledPipeline(root, source, generated, scan, intAr,
+                    strings.toArray(new String[0]), builds.toArray(new OpIterator[0]), fieldAr, limitAr,
+                    agg == null ? Aggregator.NO_GROUPING : agg.groupField(), gtype,
+                    agg == null ? null : agg.aggregateOp(), agg != null && agg.aggregatesInParallel());
+        }
+
+        private void line(String s) {
+            for (int i = 0; i < depth; i++) {
+                body.append("    ");
+            }
+            body.append(s).append('\n');
+        }
+
+        private void open(String s) {
+            line(s);
+            depth++;
+            blocks++;
+        }
+
+        private void close() {
+            depth--;
+            blocks--;
+            line("}");
+        }
+
+        private static String[] project(String[] cols, List<Integer> fields) {
+            String[] projected = new String[fields.size()];
+            for (int i = 0; i < projected.length; i++) {
+                projected[i] = cols[fields.get(i)];
+            }
+            return projected;
+        }
+
+        private static String intValue(String field) {
+            return "((IntField) " + field + ").getValue()";
+        }
+
+        private static String stringValue(String field) {
+            return "((StringField) " + field + ").getValue()";
+        }
+
+        // the condition of a predicate over the specified field
+        private String term(Predicate p, String field) {
+            if (p.getOperand().getType() == Type.INT_TYPE) {
+                String c = "c" + ints.size();
+                ints.add(((IntField) p.getOperand()).getValue());
+                locals.append("        final int ").append(c).append(" = ctx.intConstant(")
+                        .append(ints.size() - 1).append(");\n");
+                String v = intValue(field);
+                switch (p.getOp()) {
+                case EQUALS:
+                case LIKE:
+                    return v + " == " + c;
+                case NOT_EQUALS:
+                    return v + " != " + c;
+                case GREATER_THAN:
+                    return v + " > " + c;
+                case GREATER_THAN_OR_EQ:
+                    return v + " >= " + c;
+                case LESS_THAN:
+                    return v + " < " + c;
+                case LESS_THAN_OR_EQ:
+                    return v + " <= " + c;
+                default:
+                    throw new IllegalArgumentException("unknown operator " + p.getOp());
+                }
+            }
+            String c = "s" + strings.size();
+            strings.add(((StringField) p.getOperand()).getValue());
+            locals.append("        final String ").append(c).append(" = ctx.stringConstant(")
+                    .append(strings.size() - 1).append(");\n");
+            String v = stringValue(field);
+            switch (p.getOp()) {
+            case EQUALS:
+                return v + ".equals(" + c + ")";
+            case NOT_EQUALS:
+                return "!" + v + ".equals(" + c + ")";
+            case GREATER_THAN:
+                return v + ".compareTo(" + c + ") > 0";
+            case GREATER_THAN_OR_EQ:
+                return v + ".compareTo(" + c + ") >= 0";
+            case LESS_THAN:
+                return v + ".compareTo(" + c + ") < 0";
+            case LESS_THAN_OR_EQ:
+                return v + ".compareTo(" + c + ") <= 0";
+            case LIKE:
+                return v + ".contains(" + c + ")";
+            default:
+                throw new IllegalArgumentException("unknown operator " + p.getOp());
+            }
+        }
+
+        // loop over the build rows matching the probe tuple; the output has
+        // the build side's fields followed by the probe side's
+        private String[] probe(HashEquiJoin j, String[] cols) {
+            int k = builds.size();
+            OpIterator build = j.getChildren()[0];
+            JoinPredicate p = j.getJoinPredicate();
+            builds.add(build);
+            buildFields.add(p.getField1());
+            buildLimits.add(j.maxTuples());
+            locals.append("        final JoinTable j").append(k).append(" = ctx.table(")
+                    .append(k).append(");\n");
+            String key = j.getChildren()[1].getTupleDesc().getFieldType(p.getField2()) == Type.INT_TYPE
+                    ? intValue(cols[p.getField2()]) : stringValue(cols[p.getField2()]);
+            String r = "r" + k;
+            open("for (int " + r + " = j" + k + ".first(" + key + "); " + r + " >= 0; "
+                    + r + " = j" + k + ".next(" + r + ")) {");
+            line("Tuple b" + k + " = j" + k + ".row(" + r + ");");
+            TupleDesc btd = build.getTupleDesc();
+            String[] joined = new String[btd.numFields() + cols.length];
+            for (int i = 0; i < btd.numFields(); i++) {
+                joined[i] = "b" + k + ".getField(" + i + ")";
+            }
+            System.arraycopy(cols, 0, joined, btd.numFields(), cols.length);
+            return joined;
+        }
+
+        private void emit(String[] cols, boolean keepRecordId) {
+            locals.append("        final TupleDesc td = ctx.outputDesc();\n");
+            line("Tuple o = new Tuple(td);");
+            if (keepRecordId) {
+                line("o.setRecordId(t.getRecordId());");
+            }
+            for (int i = 0; i < cols.length; i++) {
+                line("o.setField(" + i + ", " + cols[i] + ");");
+            }
+            line("ctx.emit(o);");
+        }
+
+        // update the aggregate; returns the type of the group field
+        private Type aggregate(Aggregate agg, String[] cols) {
+            locals.append("        final GroupAccumulators acc = ctx.accumulators();\n");
+            TupleDesc childtd = agg.getChildren()[0].getTupleDesc();
+            Type gtype = null;
+            String group;
+            if (agg.groupField() == Aggregator.NO_GROUPING) {
+                group = "0";
+            } else if ((gtype = childtd.getFieldType(agg.groupField())) == Type.INT_TYPE) {
+                group = intValue(cols[agg.groupField()]);
+            } else {
+                locals.append("        final StringDictionary groups = ctx.groups();\n");
+                group = "groups.encode(" + stringValue(cols[agg.groupField()]) + ")";
+            }
+            if (agg.aggregateOp() == Aggregator.Op.COUNT) {
+                line("acc.count(acc.group(" + group + "));");
+            } else {
+                line("acc.add(acc.group(" + group + "), " + intValue(cols[agg.aggregateField()]) + ");");
+            }
+            return gtype;
+        }
+    }
+
+    // the class compiled from source, or null if it cannot be compiled
+    private static Class<?> load(String source) {
+        Class<?> c = classes.get(source);
+        if (c == null) {
+            c = javac(source);
+            if (c == null) {
+                return null;
+            }
+            Class<?> old = classes.putIfAbsent(source, c);
+            if (old != null) {
+                c = old;
+            }
+        }
+        return c;
+    }
+
+    private static Class<?> javac(String source) {
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        if (compiler == null) {
+            return null;
+        }
+        String name = CLASS_NAME + numClasses.getAndIncrement();
+        String renamed = source.replace("class " + CLASS_NAME + " ", "class " + name + " ");
+        JavaFileObject file = new SimpleJavaFileObject(
+                URI.create("string:///" + name + JavaFileObject.Kind.SOURCE.extension),
+                JavaFileObject.Kind.SOURCE) {
+            @Override
+            public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+                return renamed;
+            }
+        };
+        Map<String, ByteArrayOutputStream> output = new HashMap<>();
+        JavaFileManager files = new ForwardingJavaFileManager<JavaFileManager>(
+                compiler.getStandardFileManager(null, null, null)) {
+            @Override
+            public JavaFileObject getJavaFileForOutput(Location location, String className,
+                                                       JavaFileObject.Kind kind, FileObject sibling) {
+                return new SimpleJavaFileObject(URI.create("mem:///" + className + kind.extension), kind) {
+                    @Override
+                    public OutputStream openOutputStream() {
+                        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                        output.put(className, bytes);
+                        return bytes;
+                    }
+                };
+            }
+        };
+        String classpath = System.getProperty("java.class.path");
+        try {
+            String here = new File(PipelineCompiler.class.getProtectionDomain().getCodeSource()
+                    .getLocation().toURI()).getPath();
+            classpath = here + File.pathSeparator + classpath;
+        } catch (Exception ignored) {
+        }
+        StringWriter errors = new StringWriter();
+        List<String> options = Arrays.asList("-classpath", classpath, "-g:none", "-nowarn");
+        Boolean ok = compiler.getTask(errors, files, null, options, null,
+                Collections.singletonList(file)).call();
+        if (ok == null || !ok || !output.containsKey(name)) {
+            return null;
+        }
+        byte[] bytes = output.get(name).toByteArray();
+        ClassLoader loader = new ClassLoader(PipelineCompiler.class.getClassLoader()) {
+            @Override
+            protected Class<?> findClass(String className) throws ClassNotFoundException {
+                if (!className.equals(name)) {
+                    throw new ClassNotFoundException(className);
+                }
+                return defineClass(name, bytes, 0, bytes.length);
+            }
+        };
+        try {
+            return loader.loadClass(name);
+        } catch (ClassNotFoundException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package simpledb.execution;
+
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+
+import java.util.List;
+
+/**
+ * PipelineContext holds the state a compiled pipeline reads and writes while
+ * it processes a page: the constants of its predicates, the build sides of
+ * its joins, and either its aggregate accumulators or the list its output
+ * tuples are emitted to.  Generated code lives in a class loader of its
+ * own, so this state is reached through public methods; the generated code
+ * reads them once per page, into locals.
+ *
+ * @see PipelineCompiler
+ */
+public final class PipelineContext {
+
+    private final int[] ints;
+    private final String[] strings;
+    private final JoinTable[] tables;
+    private final TupleDesc td;
+    private final GroupAccumulators accumulators;
+    private final StringDictionary groups;
+    private final List<Tuple> out;
+
+    PipelineContext(int[] ints, String[] strings, JoinTable[] tables, TupleDesc td,
+                    GroupAccumulators accumulators, StringDictionary groups, List<Tuple> out) {
+        this.ints = ints;
+        this.strings = strings;
+        this.tables = tables;
+        this.td = td;
+        this.accumulators = accumulators;
+        this.groups = groups;
+        this.out = out;
+    }
+
+    /** @return the specified integer constant */
+    public int intConstant(int i) {
+        return ints[i];
+    }
+
+    /** @return the specified string constant */
+    public String stringConstant(int i) {
+        return strings[i];
+    }
+
+    /** @return the build side of the specified join */
+    public JoinTable table(int i) {
+        return tables[i];
+    }
+
+    /** @return the TupleDesc of emitted tuples */
+    public TupleDesc outputDesc() {
+        return td;
+    }
+
+    /** @return the accumulators of an aggregating pipeline */
+    public GroupAccumulators accumulators() {
+        return accumulators;
+    }
+
+    /** @return the dictionary of string group values */
+    public StringDictionary groups() {
+        return groups;
+    }
+
+    /** Emit an output tuple */
+    public void emit(Tuple t) {
+        out.add(t);
+    }
+}
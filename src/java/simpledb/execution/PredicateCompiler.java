@@ -0,0 +1,236 @@
+package simpledb.execution;
+
+import simpledb.common.Type;
+import simpledb.storage.Field;
+import simpledb.storage.IntField;
+import simpledb.storage.StringField;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * PredicateCompiler turns conjunctions of {@link Predicate}s into
+ * {@link TuplePredicate}s specialized for their fields, operators and
+ * operand types.  A compiled term reads its field and compares it with an
+ * unboxed constant using the operator directly, instead of interpreting the
+ * Predicate through the virtual {@link Field#compare} and its switch on the
+ * operator for every tuple.
+ * <p>
+ * Compilation is split in two steps.  The shape of a conjunction (the
+ * field, operator and operand type of each term) is compiled once into a
+ * {@link Template} and cached, and a template is bound to the operand
+ * values of a particular query.  Queries that differ only in their
+ * constants therefore share compiled code.
+ */
+public class PredicateCompiler {
+
+    /** Compiled code for a conjunction shape, waiting for its operands */
+    public interface Template {
+        /**
+         * @param operands the operand of each term of the conjunction, in
+         *                 order
+         * @return the conjunction with the specified operands
+         */
+        TuplePredicate bind(Field[] operands);
+    }
+
+    // compiled code for a single term, waiting for its operand
+    private interface TermTemplate {
+        TuplePredicate bind(Field operand);
+    }
+
+    private static final Map<String, Template> templates = new ConcurrentHashMap<>();
+
+    /** @return the conjunction of the specified predicates, compiled */
+    public static TuplePredicate compile(List<Predicate> conjunction) {
+        Field[] operands = new Field[conjunction.size()];
+        for (int i = 0; i < operands.length; i++) {
+            operands[i] = conjunction.get(i).getOperand();
+        }
+        return template(conjunction).bind(operands);
+    }
+
+    /** @return the specified predicate, compiled */
+    public static TuplePredicate compile(Predicate p) {
+        return compile(Collections.singletonList(p));
+    }
+
+    /** @return the compiled template for the shape of the conjunction */
+    public static Template template(List<Predicate> conjunction) {
+        StringBuilder shape = new StringBuilder();
+        for (Predicate p : conjunction) {
+            shape.append(p.getField()).append(' ').append(p.getOp().name()).append(' ')
+                    .append(p.getOperand().getType()).append(';');
+        }
+        return templates.computeIfAbsent(shape.toString(), s -> compileShape(conjunction));
+    }
+
+    /** @return the number of distinct conjunction shapes compiled so far */
+    public static int numTemplates() {
+        return templates.size();
+    }
+
+    private static Template compileShape(List<Predicate> conjunction) {
+        TermTemplate[] terms = new TermTemplate[conjunction.size()];
+        for (int i = 0; i < terms.length; i++) {
+            Predicate p = conjunction.get(i);
+            terms[i] = p.getOperand().getType() == Type.INT_TYPE
+                    ? intTerm(p.getField(), p.getOp())
+                    : stringTerm(p.getField(), p.getOp());
+        }
+        switch (terms.length) {
+        case 0:
+            return operands -> t -> true;
+        case 1: {
+            TermTemplate a = terms[0];
+            return operands -> a.bind(operands[0]);
+        }
+        case 2: {
+            TermTemplate a = terms[0], b = terms[1];
+            return operands -> and(a.bind(operands[0]), b.bind(operands[1]));
+        }
+        default:
+            return operands -> {
+                TuplePredicate[] bound = new TuplePredicate[terms.length];
+                for (int i = 0; i < bound.length; i++) {
+                    bound[i] = terms[i].bind(operands[i]);
+                }
+                return t -> {
+                    for (TuplePredicate p : bound) {
+                        if (!p.test(t)) {
+                            return false;
+                        }
+                    }
+                    return true;
+                };
+            };
+        }
+    }
+
+    private static TuplePredicate and(TuplePredicate a, TuplePredicate b) {
+        return t -> a.test(t) && b.test(t);
+    }
+
+    // Each term checks for a missing field first, as Predicate.filter does
+
+    private static TermTemplate intTerm(int f, Predicate.Op op) {
+        switch (op) {
+        case EQUALS:
+        case LIKE:
+            return operand -> {
+                int c = ((IntField) operand).getValue();
+                return t -> {
+                    Field v = t.getField(f);
+                    return v != null && ((IntField) v).getValue() == c;
+                };
+            };
+        case NOT_EQUALS:
+            return operand -> {
+                int c = ((IntField) operand).getValue();
+                return t -> {
+                    Field v = t.getField(f);
+                    return v != null && ((IntField) v).getValue() != c;
+                };
+            };
+        case GREATER_THAN:
+            return operand -> {
+                int c = ((IntField) operand).getValue();
+                return t -> {
+                    Field v = t.getField(f);
+                    return v != null && ((IntField) v).getValue() > c;
+                };
+            };
+        case GREATER_THAN_OR_EQ:
+            return operand -> {
+                int c = ((IntField) operand).getValue();
+                return t -> {
+                    Field v = t.getField(f);
+                    return v != null && ((IntField) v).getValue() >= c;
+                };
+            };
+        case LESS_THAN:
+            return operand -> {
+                int c = ((IntField) operand).getValue();
+                return t -> {
+                    Field v = t.getField(f);
+                    return v != null && ((IntField) v).getValue() < c;
+                };
+            };
+        case LESS_THAN_OR_EQ:
+            return operand -> {
+                int c = ((IntField) operand).getValue();
+                return t -> {
+                    Field v = t.getField(f);
+                    return v != null && ((IntField) v).getValue() <= c;
+                };
+            };
+        default:
+            throw new IllegalArgumentException("unknown operator " + op);
+        }
+    }
+
+    private static TermTemplate stringTerm(int f, Predicate.Op op) {
+        switch (op) {
+        case EQUALS:
+            return operand -> {
+                String c = ((StringField) operand).getValue();
+                return t -> {
+                    Field v = t.getField(f);
+                    return v != null && ((StringField) v).getValue().equals(c);
+                };
+            };
+        case NOT_EQUALS:
+            return operand -> {
+                String c = ((StringField) operand).getValue();
+                return t -> {
+                    Field v = t.getField(f);
+                    return v != null && !((StringField) v).getValue().equals(c);
+                };
+            };
+        case GREATER_THAN:
+            return operand -> {
+                String c = ((StringField) operand).getValue();
+                return t -> {
+                    Field v = t.getField(f);
+                    return v != null && ((StringField) v).getValue().compareTo(c) > 0;
+                };
+            };
+        case GREATER_THAN_OR_EQ:
+            return operand -> {
+                String c = ((StringField) operand).getValue();
+                return t -> {
+                    Field v = t.getField(f);
+                    return v != null && ((StringField) v).getValue().compareTo(c) >= 0;
+                };
+            };
+        case LESS_THAN:
+            return operand -> {
+                String c = ((StringField) operand).getValue();
+                return t -> {
+                    Field v = t.getField(f);
+                    return v != null && ((StringField) v).getValue().compareTo(c) < 0;
+                };
+            };
+        case LESS_THAN_OR_EQ:
+            return operand -> {
+                String c = ((StringField) operand).getValue();
+                return t -> {
+                    Field v = t.getField(f);
+                    return v != null && ((StringField) v).getValue().compareTo(c) <= 0;
+                };
+            };
+        case LIKE:
+            return operand -> {
+                String c = ((StringField) operand).getValue();
+                return t -> {
+                    Field v = t.getField(f);
+                    return v != null && ((StringField) v).getValue().contains(c);
+                };
+            };
+        default:
+            throw new IllegalArgumentException("unknown operator " + op);
+        }
+    }
+}
@@ -17,6 +17,8 @@ public class Project extends Operator {
     private OpIterator child;
     private final TupleDesc td;
     private final List<Integer> outFieldIds;
+    private final int[] fieldIds;
+    private transient Tuple[] in;
 
     /**
      * Constructor accepts a child operator to read tuples to apply projection
@@ -35,6 +37,10 @@ public class Project extends Operator {
                    OpIterator child) {
         this.child = child;
         outFieldIds = fieldList;
+        fieldIds = new int[fieldList.size()];
+        for (int i = 0; i < fieldIds.length; i++) {
+            fieldIds[i] = fieldList.get(i);
+        }
         String[] fieldAr = new String[fieldList.size()];
         TupleDesc childtd = child.getTupleDesc();
 
@@ -44,6 +50,11 @@ public class Project extends Operator {
         td = new TupleDesc(types, fieldAr);
     }
 
+    /** @return the ids of the fields of the child's TupleDesc projected out */
+    public List<Integer> getFieldList() {
+        return outFieldIds;
+    }
+
     public TupleDesc getTupleDesc() {
         return td;
     }
@@ -81,6 +92,30 @@ public class Project extends Operator {
         return newTuple;
     }
 
+    /**
+     * Operator.fetchNextBatch implementation. Projects a whole batch of the
+     * child's tuples at a time.
+     */
+    protected int fetchNextBatch(Tuple[] batch, int off)
+            throws TransactionAbortedException, DbException {
+        int room = batch.length - off;
+        if (in == null || in.length != room) {
+            in = new Tuple[room];
+        }
+        int got = child.nextBatch(in);
+        int numFields = fieldIds.length;
+        for (int j = 0; j < got; j++) {
+            Tuple t = in[j];
+            Tuple newTuple = new Tuple(td);
+            newTuple.setRecordId(t.getRecordId());
+            for (int i = 0; i < numFields; i++) {
+                newTuple.setField(i, t.getField(fieldIds[i]));
+            }
+            batch[off + j] = newTuple;
+        }
+        return got;
+    }
+
     @Override
     public OpIterator[] getChildren() {
         return new OpIterator[]{this.child};
@@ -0,0 +1,412 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * PushPipeline runs a pipeline of operators that {@link PushPlanner} has
+ * translated into a chain of sinks.  Batches are read from the pipeline's
+ * source and pushed into the first sink; each sink filters, projects or
+ * joins the tuples of a batch and pushes the batch it makes into the next
+ * one, down to the last sink, which either collects the tuples that come
+ * out of the pipeline or folds them into the groups of an aggregate.  A
+ * batch is thus carried through the whole pipeline by one call per sink,
+ * rather than pulled up through it by calls from each operator to the one
+ * below.
+ * <p>
+ * The build sides of the joins are ordinary operators, which are drained
+ * into {@link JoinTable}s when the pipeline is opened; the Bloom filter of
+ * a table's keys is given to the pipeline's scan if the join's probe side
+ * reaches it through filters and projections only.  If the build side of
+ * a join does not fit in the join's budget, or the groups of an aggregate in
+ * the aggregate's, the plan the pipeline was translated from is run by
+ * itself instead, so that it spills.
+ */
+public class PushPipeline extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    /** A consumer of the batches pushed down a pipeline */
+    abstract static class Sink {
+        /** Prepare to be pushed tuples */
+        void open() throws DbException, TransactionAbortedException {
+        }
+
+        /**
+         * Consume the first n tuples of batch.  The sink may overwrite
+         * them, since the batch is not used again by the caller.
+         */
+        abstract void push(Tuple[] batch, int n) throws DbException, TransactionAbortedException;
+
+        void close() {
+        }
+    }
+
+    // passes on the tuples that pass all of a list of predicates
+    static final class FilterSink extends Sink {
+        private final TuplePredicate test;
+        private final Sink next;
+
+        FilterSink(List<Predicate> predicates, Sink next) {
+            this.test = PredicateCompiler.compile(predicates);
+            this.next = next;
+        }
+
+        void push(Tuple[] batch, int n) throws DbException, TransactionAbortedException {
+            int m = 0;
+            for (int i = 0; i < n; i++) {
+                if (test.test(batch[i])) {
+                    batch[m++] = batch[i];
+                }
+            }
+            if (m > 0) {
+                next.push(batch, m);
+            }
+        }
+    }
+
+    // passes on a projection of each tuple
+    static final class ProjectSink extends Sink {
+        private final int[] fieldIds;
+        private final TupleDesc td;
+        private final Sink next;
+
+        ProjectSink(List<Integer> fieldList, TupleDesc td, Sink next) {
+            this.fieldIds = new int[fieldList.size()];
+            for (int i = 0; i < fieldIds.length; i++) {
+                fieldIds[i] = fieldList.get(i);
+            }
+            this.td = td;
+            this.next = next;
+        }
+
+        void push(Tuple[] batch, int n) throws DbException, TransactionAbortedException {
+            for (int i = 0; i < n; i++) {
+                Tuple t = batch[i];
+                Tuple newTuple = new Tuple(td);
+                newTuple.setRecordId(t.getRecordId());
+                for (int j = 0; j < fieldIds.length; j++) {
+                    newTuple.setField(j, t.getField(fieldIds[j]));
+                }
+                batch[i] = newTuple;
+            }
+            next.push(batch, n);
+        }
+    }
+
+    // probes the build side of a hash join with each tuple and passes on
+    // the joined tuples, a batch at a time
+    static final class ProbeSink extends Sink {
+        private final OpIterator build;
+        private final int buildField;
+        private final int probeField;
+        private final TupleDesc td;
+        private final int buildFields;
+        private final int maxTuples;
+        private final OpIterator probe;
+        private final Sink next;
+        private final Tuple[] out = new Tuple[BATCH_SIZE];
+        private JoinTable table;
+        // the scan given the filter of the table's keys, if any
+        private OpIterator filtered;
+
+        ProbeSink(HashEquiJoin join, Sink next) {
+            this.build = join.getChildren()[0];
+            this.probe = join.getChildren()[1];
+            this.buildField = join.getJoinPredicate().getField1();
+            this.probeField = join.getJoinPredicate().getField2();
+            this.td = join.getTupleDesc();
+            this.buildFields = build.getTupleDesc().numFields();
+            this.maxTuples = join.maxTuples();
+            this.next = next;
+        }
+
+        void open() throws DbException, TransactionAbortedException {
+            build.open();
+            table = JoinTable.build(build, buildField, maxTuples);
+            if (table != null) {
+                // the filters and projections above the scan are sinks,
+                // which do not check a runtime filter
+                filtered = HashEquiJoin.pushRuntimeFilter(probe, probeField, table.filter());
+                if (!(filtered instanceof SeqScan)) {
+                    HashEquiJoin.clearRuntimeFilter(filtered);
+                    filtered = null;
+                }
+            }
+        }
+
+        void push(Tuple[] batch, int n) throws DbException, TransactionAbortedException {
+            int m = 0;
+            for (int i = 0; i < n; i++) {
+                Tuple t2 = batch[i];
+                for (int row = table.first(t2.getField(probeField)); row >= 0; row = table.next(row)) {
+                    Tuple t1 = table.row(row);
+                    Tuple t = new Tuple(td);
+                    for (int j = 0; j < buildFields; j++) {
+                        t.setField(j, t1.getField(j));
+                    }
+                    for (int j = 0; j < td.numFields() - buildFields; j++) {
+                        t.setField(buildFields + j, t2.getField(j));
+                    }
+                    out[m++] = t;
+                    if (m == out.length) {
+                        next.push(out, m);
+                        m = 0;
+                    }
+                }
+            }
+            if (m > 0) {
+                next.push(out, m);
+            }
+        }
+
+        void close() {
+            build.close();
+            table = null;
+            HashEquiJoin.clearRuntimeFilter(filtered);
+            filtered = null;
+        }
+    }
+
+    // collects the tuples that come out of the pipeline
+    static final class CollectSink extends Sink {
+        private final List<Tuple> out;
+
+        CollectSink(List<Tuple> out) {
+            this.out = out;
+        }
+
+        void push(Tuple[] batch, int n) {
+            for (int i = 0; i < n; i++) {
+                out.add(batch[i]);
+            }
+        }
+    }
+
+    // folds the tuples into the groups of an aggregate, until there are
+    // more groups than its budget
+    static final class AggregateSink extends Sink {
+        private final Aggregate agg;
+        private GroupAggregator aggregator;
+        private boolean full;
+
+        AggregateSink(Aggregate agg) {
+            this.agg = agg;
+        }
+
+        void open() {
+            aggregator = agg.newAggregator();
+            full = false;
+        }
+
+        void push(Tuple[] batch, int n) {
+            for (int i = 0; i < n && !full; i++) {
+                full = !aggregator.mergeTupleIntoGroup(batch[i], agg.maxGroups());
+            }
+        }
+
+        void close() {
+            aggregator = null;
+        }
+    }
+
+    private final OpIterator plan;
+    private final OpIterator source;
+    private final transient List<Sink> sinks;
+    private final transient Sink head;
+    private final transient AggregateSink aggregate;
+    private final List<Tuple> out = new ArrayList<>();
+    private int pos;
+    private transient Tuple[] in;
+    // whether a join or aggregate ran out of budget and the plan is run by itself
+    private boolean fellBack = false;
+
+    /**
+     * @param plan the plan the pipeline was translated from
+     * @param chain the filters, projects and joins of the pipeline, from the
+     *              top down, under the aggregate if plan is one
+     * @param source the operator the pipeline reads its batches from
+     */
+    PushPipeline(OpIterator plan, List<OpIterator> chain, OpIterator source) {
+        this.plan = plan;
+        this.source = source;
+        this.aggregate = plan instanceof Aggregate ? new AggregateSink((Aggregate) plan) : null;
+        List<Sink> sinks = new ArrayList<>();
+        Sink sink = aggregate != null ? aggregate : new CollectSink(out);
+        sinks.add(sink);
+        for (OpIterator op : chain) {
+            if (op instanceof Filter) {
+                sink = new FilterSink(Collections.singletonList(((Filter) op).getPredicate()), sink);
+            } else if (op instanceof FilterProject) {
+                FilterProject p = (FilterProject) op;
+                sink = new FilterSink(p.getPredicates(), new ProjectSink(p.getFieldList(), p.getTupleDesc(), sink));
+            } else if (op instanceof Project) {
+                sink = new ProjectSink(((Project) op).getFieldList(), op.getTupleDesc(), sink);
+            } else if (op instanceof HashEquiJoin) {
+                sink = new ProbeSink((HashEquiJoin) op, sink);
+            } else {
+                throw new IllegalArgumentException("cannot push into " + op.getClass().getSimpleName());
+            }
+            sinks.add(sink);
+        }
+        this.sinks = sinks;
+        this.head = sink;
+    }
+
+    /** @return the plan this pipeline was translated from */
+    public OpIterator getPlan() {
+        return plan;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return plan.getTupleDesc();
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        out.clear();
+        pos = 0;
+        fellBack = false;
+        if (!openSinks()) {
+            plan.open();
+            fellBack = true;
+            super.open();
+            return;
+        }
+        in = new Tuple[BATCH_SIZE];
+        source.open();
+        if (aggregate != null) {
+            while (!aggregate.full && pushBatch()) {
+                // aggregate every batch before returning anything
+            }
+            if (aggregate.full) {
+                closeSinks();
+                plan.open();
+                fellBack = true;
+            } else {
+                out.addAll(aggregate.aggregator.generateAggTuples());
+            }
+        }
+        super.open();
+    }
+
+    // open the sinks; false, with none of them left open, if the build side
+    // of a join does not fit in its budget
+    private boolean openSinks() throws DbException, TransactionAbortedException {
+        for (int i = 0; i < sinks.size(); i++) {
+            Sink s = sinks.get(i);
+            s.open();
+            if (s instanceof ProbeSink && ((ProbeSink) s).table == null) {
+                for (int j = 0; j <= i; j++) {
+                    sinks.get(j).close();
+                }
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // read a batch of the source and push it down the sinks; false at the
+    // end of the source
+    private boolean pushBatch() throws DbException, TransactionAbortedException {
+        int n = source.nextBatch(in);
+        if (n == 0) {
+            return false;
+        }
+        head.push(in, n);
+        return true;
+    }
+
+    // true if there are collected tuples left to return, after pushing
+    // batches down the pipeline if need be
+    private boolean fill() throws DbException, TransactionAbortedException {
+        while (pos == out.size()) {
+            if (aggregate != null) {
+                return false;
+            }
+            out.clear();
+            pos = 0;
+            if (!pushBatch()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+        if (fellBack) {
+            return plan.hasNext() ? plan.next() : null;
+        }
+        return fill() ? out.get(pos++) : null;
+    }
+
+    @Override
+    protected int fetchNextBatch(Tuple[] batch, int off)
+            throws DbException, TransactionAbortedException {
+        if (fellBack) {
+            return super.fetchNextBatch(batch, off);
+        }
+        int n = off;
+        if (fill()) {
+            while (n < batch.length && pos < out.size()) {
+                batch[n++] = out.get(pos++);
+            }
+        }
+        return n - off;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        if (fellBack) {
+            plan.rewind();
+        } else if (aggregate != null) {
+            pos = 0;
+        } else {
+            out.clear();
+            pos = 0;
+            source.rewind();
+        }
+    }
+
+    private void closeSinks() {
+        source.close();
+        for (Sink s : sinks) {
+            s.close();
+        }
+    }
+
+    public void close() {
+        super.close();
+        if (fellBack) {
+            plan.close();
+        } else {
+            closeSinks();
+        }
+        out.clear();
+        in = null;
+        fellBack = false;
+    }
+
+    /**
+     * The only child of a PushPipeline is the plan it was translated from,
+     * so that the plan is still shown and estimated as a tree.
+     */
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[]{plan};
+    }
+
+    /** The sinks cannot be given a new plan; only plan itself is accepted */
+    @Override
+    public void setChildren(OpIterator[] children) {
+        if (children.length != 1 || children[0] != plan) {
+            throw new UnsupportedOperationException("PushPipeline runs a chain of sinks");
+        }
+    }
+}
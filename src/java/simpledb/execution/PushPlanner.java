@@ -0,0 +1,105 @@
+package simpledb.execution;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * PushPlanner translates the pipelines of a physical plan into
+ * {@link PushPipeline}s, which push the batches of their sources through
+ * their operators rather than pulling them up.
+ * <p>
+ * A pipeline is a chain of {@link Filter}s, {@link Project}s,
+ * {@link FilterProject}s and the probe sides of {@link HashEquiJoin}s over
+ * any other operator, its source, optionally topped by an
+ * {@link Aggregate}; it is only translated if it has at least two
+ * operators.  The build sides of the joins and the sources are translated
+ * as plans of their own.  Pipelines that {@link PipelineCompiler} has
+ * compiled already and aggregates that are computed in parallel by
+ * themselves (see {@link Aggregate#setParallel}) are left as they are.  An
+ * aggregate is only pushed into if its pipeline's source can be read again
+ * by itself, in case it has to spill; this is not the case of an
+ * {@link Exchange} or of a scan that shares morsels of pages with others
+ * (see {@link SeqScan#getMorsels}).
+ */
+public class PushPlanner {
+
+    private PushPlanner() {
+    }
+
+    /**
+     * Replace the pipelines of plan with push pipelines.
+     *
+     * @return the translated plan, which may be plan itself
+     */
+    public static OpIterator translate(OpIterator plan) {
+        if (plan instanceof CompiledPipeline || plan instanceof PushPipeline) {
+            // a subquery's plan, compiled or translated already
+            return plan;
+        }
+        if (plan instanceof Aggregate && !((Aggregate) plan).aggregatesInParallel()) {
+            OpIterator top = ((Aggregate) plan).getChildren()[0];
+            List<OpIterator> chain = chain(top);
+            if (!chain.isEmpty() && rereadable(source(chain))) {
+                return pipeline(plan, chain);
+            }
+        }
+        List<OpIterator> chain = chain(plan);
+        if (chain.size() > 1) {
+            return pipeline(plan, chain);
+        }
+        if (plan instanceof Operator) {
+            OpIterator[] children = ((Operator) plan).getChildren();
+            boolean changed = false;
+            for (int i = 0; i < children.length; i++) {
+                OpIterator child = translate(children[i]);
+                changed |= child != children[i];
+                children[i] = child;
+            }
+            if (changed) {
+                ((Operator) plan).setChildren(children);
+            }
+        }
+        return plan;
+    }
+
+    private static PushPipeline pipeline(OpIterator plan, List<OpIterator> chain) {
+        for (OpIterator o : chain) {
+            if (o instanceof HashEquiJoin) {
+                OpIterator[] children = ((HashEquiJoin) o).getChildren();
+                ((HashEquiJoin) o).setChildren(new OpIterator[]{translate(children[0]), children[1]});
+            }
+        }
+        Operator bottom = (Operator) chain.get(chain.size() - 1);
+        OpIterator[] children = bottom.getChildren();
+        int input = bottom instanceof HashEquiJoin ? 1 : 0;
+        OpIterator source = translate(children[input]);
+        if (source != children[input]) {
+            children[input] = source;
+            bottom.setChildren(children);
+        }
+        return new PushPipeline(plan, chain, source);
+    }
+
+    // the operators of the pipeline ending at top, from the top down to the
+    // one over its source; empty if top is not the top of a pipeline
+    private static List<OpIterator> chain(OpIterator top) {
+        List<OpIterator> chain = new ArrayList<>();
+        OpIterator o = top;
+        while (o instanceof Filter || o instanceof Project || o instanceof FilterProject
+                || o instanceof HashEquiJoin) {
+            chain.add(o);
+            o = ((Operator) o).getChildren()[o instanceof HashEquiJoin ? 1 : 0];
+        }
+        return chain;
+    }
+
+    private static OpIterator source(List<OpIterator> chain) {
+        OpIterator bottom = chain.get(chain.size() - 1);
+        return ((Operator) bottom).getChildren()[bottom instanceof HashEquiJoin ? 1 : 0];
+    }
+
+    private static boolean rereadable(OpIterator source) {
+        return !(source instanceof Exchange)
+                && !(source instanceof SeqScan && ((SeqScan) source).getMorsels() != null);
+    }
+}
@@ -59,7 +59,13 @@ public class Query implements Serializable {
 
     public void start() throws DbException,
             TransactionAbortedException {
-        op.open();
+        // the parallel work of the query is scheduled in a session of its own
+        Scheduler.Session previous = Scheduler.setSession(new Scheduler.Session());
+        try {
+            op.open();
+        } finally {
+            Scheduler.setSession(previous);
+        }
 
         started = true;
     }
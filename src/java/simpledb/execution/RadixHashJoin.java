@@ -0,0 +1,330 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.storage.Field;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
+
+/**
+ * RadixHashJoin is an in-memory equi-join for build sides much larger than
+ * the CPU caches.  Probing one large hash table misses the cache on almost
+ * every probe; instead, both children are partitioned on the low bits of
+ * the hash of their join keys, so that the tuples that can match are in
+ * partitions with the same number, each small enough for its hash table to
+ * stay in the L2 cache.  The partitioning is a counting sort, done in two
+ * passes when there are more than {@link #PASS_BITS} bits so that each pass
+ * writes to few enough partitions at once; the partitions are then joined
+ * independently, a wave of {@link Scheduler#PARALLELISM} of them at a time
+ * in parallel on the workers of the {@link Scheduler}, as the output is
+ * read, so that only the output of one wave is held at once.
+ * <p>
+ * Both children are read into memory when the join is opened, so it is
+ * only suited to inputs that fit; {@link HashEquiJoin} is the join that
+ * keeps to a memory budget.  {@link simpledb.optimizer.JoinOptimizer} plans
+ * a RadixHashJoin for an equi-join whose build side is estimated to be
+ * larger than a partition, if its children are estimated to have at most
+ * {@link #MAX_TUPLES} tuples together, and a HashEquiJoin otherwise.  Like
+ * HashEquiJoin, the output tuples are the fields of child1's tuple followed
+ * by those of child2's, but in partition order.
+ */
+public class RadixHashJoin extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    /** The number of build tuples a partition is sized for */
+    public static final int PARTITION_TUPLES = 4096;
+    /** The most partitioning bits done in one pass */
+    public static final int PASS_BITS = 8;
+    /** The most partitioning bits */
+    public static final int MAX_BITS = 2 * PASS_BITS;
+    /** The most tuples of both children that a join is planned for */
+    public static final int MAX_TUPLES = 100000;
+
+    private final JoinPredicate pred;
+    private OpIterator child1, child2;
+    private final TupleDesc comboTD;
+    private final int radixBits;
+
+    // the partitioned children, and the number of bits they are partitioned on
+    private transient Side build, probe;
+    private transient int bits;
+    // the outputs of the partitions of the current wave, the first partition
+    // of the next wave, and where fetchNext is in the wave
+    private transient List<List<Tuple>> wave;
+    private transient int nextPart;
+    private transient int part;
+    private transient int idx;
+
+    /**
+     * @param p the predicate to join the children on; its operator must be
+     *          EQUALS
+     * @param child1 the build side
+     * @param child2 the probe side
+     */
+    public RadixHashJoin(JoinPredicate p, OpIterator child1, OpIterator child2) {
+        this(p, child1, child2, -1);
+    }
+
+    /**
+     * Constructor for a join that partitions on the specified number of
+     * bits, rather than on as many as the size of child1 requires.
+     *
+     * @param radixBits the number of bits to partition on, at most
+     *                  {@link #MAX_BITS}, or -1
+     */
+    public RadixHashJoin(JoinPredicate p, OpIterator child1, OpIterator child2, int radixBits) {
+        if (p.getOperator() != Predicate.Op.EQUALS) {
+            throw new IllegalArgumentException("cannot hash join on " + p.getOperator());
+        }
+        if (radixBits > MAX_BITS) {
+            throw new IllegalArgumentException("at most " + MAX_BITS + " radix bits");
+        }
+        this.pred = p;
+        this.child1 = child1;
+        this.child2 = child2;
+        this.radixBits = radixBits;
+        comboTD = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return pred;
+    }
+
+    public String getJoinField1Name() {
+        return child1.getTupleDesc().getFieldName(pred.getField1());
+    }
+
+    public String getJoinField2Name() {
+        return child2.getTupleDesc().getFieldName(pred.getField2());
+    }
+
+    public TupleDesc getTupleDesc() {
+        return comboTD;
+    }
+
+    // the hash a key is partitioned on, with its bits spread out so that
+    // the low bits of consecutive integer keys differ
+    private static int hash(Field key) {
+        int h = key.hashCode();
+        h ^= h >>> 16;
+        h *= 0x85EBCA6B;
+        h ^= h >>> 13;
+        h *= 0xC2B2AE35;
+        h ^= h >>> 16;
+        return h;
+    }
+
+    /** The tuples of one side, with the hashes of their keys */
+    private static final class Side {
+        Tuple[] tuples = new Tuple[OpIterator.BATCH_SIZE];
+        int[] hashes = new int[OpIterator.BATCH_SIZE];
+        int size;
+        // partition i is [starts[i], starts[i + 1])
+        int[] starts;
+
+        Side(OpIterator child, int field) throws DbException, TransactionAbortedException {
+            Tuple[] batch = new Tuple[OpIterator.BATCH_SIZE];
+            int n;
+            while ((n = child.nextBatch(batch)) > 0) {
+                if (size + n > tuples.length) {
+                    int len = Math.max(size + n, tuples.length * 2);
+                    tuples = Arrays.copyOf(tuples, len);
+                    hashes = Arrays.copyOf(hashes, len);
+                }
+                for (int i = 0; i < n; i++) {
+                    tuples[size] = batch[i];
+                    hashes[size++] = hash(batch[i].getField(field));
+                }
+            }
+        }
+
+        /**
+         * Partition the tuples on the low bits of their hashes, in one pass
+         * or two
+         */
+        void partition(int bits) {
+            Tuple[] tmpTuples = new Tuple[size];
+            int[] tmpHashes = new int[size];
+            if (bits <= PASS_BITS) {
+                starts = scatter(tuples, hashes, tmpTuples, tmpHashes, 0, size, 0, bits);
+                tuples = tmpTuples;
+                hashes = tmpHashes;
+                return;
+            }
+            int bits1 = bits / 2;
+            int bits2 = bits - bits1;
+            int[] first = scatter(tuples, hashes, tmpTuples, tmpHashes, 0, size, 0, bits1);
+            // partition (p << bits2 | q) holds the tuples with bits p in the
+            // first pass and q in the second, so they are in number order
+            starts = new int[(1 << bits) + 1];
+            for (int p = 0; p < (1 << bits1); p++) {
+                int[] second = scatter(tmpTuples, tmpHashes, tuples, hashes,
+                        first[p], first[p + 1], bits1, bits2);
+                System.arraycopy(second, 0, starts, p << bits2, 1 << bits2);
+            }
+            starts[1 << bits] = size;
+        }
+    }
+
+    /**
+     * Counting sort of in[from, to) into out[from, to) on hash bits
+     * [shift, shift + bits).
+     *
+     * @return the starts of the partitions in out, and to
+     */
+    private static int[] scatter(Tuple[] inTuples, int[] inHashes, Tuple[] outTuples, int[] outHashes,
+                                 int from, int to, int shift, int bits) {
+        int fanout = 1 << bits;
+        int mask = fanout - 1;
+        int[] starts = new int[fanout + 1];
+        for (int i = from; i < to; i++) {
+            starts[((inHashes[i] >>> shift) & mask) + 1]++;
+        }
+        starts[0] = from;
+        for (int p = 0; p < fanout; p++) {
+            starts[p + 1] += starts[p];
+        }
+        int[] pos = Arrays.copyOf(starts, fanout);
+        for (int i = from; i < to; i++) {
+            int p = (inHashes[i] >>> shift) & mask;
+            outTuples[pos[p]] = inTuples[i];
+            outHashes[pos[p]++] = inHashes[i];
+        }
+        return starts;
+    }
+
+    // join partition p of the two sides
+    private List<Tuple> joinPartition(Side build, Side probe, int p, int bits) {
+        List<Tuple> out = new ArrayList<>();
+        int bFrom = build.starts[p], bTo = build.starts[p + 1];
+        int pFrom = probe.starts[p], pTo = probe.starts[p + 1];
+        if (bFrom == bTo || pFrom == pTo) {
+            return out;
+        }
+        // the keys of a partition share their low bits, so the table is
+        // indexed by the bits above them
+        int size = Integer.highestOneBit(Math.max(1, (bTo - bFrom) * 2 - 1)) << 1;
+        int[] head = new int[size];
+        Arrays.fill(head, -1);
+        int[] next = new int[bTo - bFrom];
+        for (int i = bFrom; i < bTo; i++) {
+            int b = (build.hashes[i] >>> bits) & (size - 1);
+            next[i - bFrom] = head[b];
+            head[b] = i - bFrom;
+        }
+        int f1 = pred.getField1(), f2 = pred.getField2();
+        int td1n = child1.getTupleDesc().numFields();
+        int td2n = child2.getTupleDesc().numFields();
+        for (int i = pFrom; i < pTo; i++) {
+            int h = probe.hashes[i];
+            Tuple t2 = probe.tuples[i];
+            Field key = t2.getField(f2);
+            for (int r = head[(h >>> bits) & (size - 1)]; r >= 0; r = next[r]) {
+                Tuple t1 = build.tuples[bFrom + r];
+                if (build.hashes[bFrom + r] == h && t1.getField(f1).equals(key)) {
+                    Tuple t = new Tuple(comboTD);
+                    for (int j = 0; j < td1n; j++)
+                        t.setField(j, t1.getField(j));
+                    for (int j = 0; j < td2n; j++)
+                        t.setField(td1n + j, t2.getField(j));
+                    out.add(t);
+                }
+            }
+        }
+        return out;
+    }
+
+    /** @return the number of bits to partition a build side of n tuples on */
+    static int radixBits(int n) {
+        int bits = 0;
+        while (bits < MAX_BITS && ((long) PARTITION_TUPLES << bits) < n) {
+            bits++;
+        }
+        return bits;
+    }
+
+    // join the partitions of the next wave; false if there are none left
+    private boolean nextWave() throws DbException, TransactionAbortedException {
+        int numParts = 1 << bits;
+        if (nextPart == numParts) {
+            return false;
+        }
+        int to = Math.min(numParts, nextPart + Scheduler.PARALLELISM);
+        List<Callable<List<Tuple>>> joins = new ArrayList<>();
+        for (int p = nextPart; p < to; p++) {
+            int partition = p;
+            joins.add(() -> joinPartition(build, probe, partition, bits));
+        }
+        wave = Scheduler.invokeAll(joins);
+        nextPart = to;
+        part = 0;
+        idx = 0;
+        return true;
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        child1.open();
+        child2.open();
+        build = new Side(child1, pred.getField1());
+        probe = new Side(child2, pred.getField2());
+        bits = radixBits >= 0 ? radixBits : radixBits(build.size);
+        build.partition(bits);
+        probe.partition(bits);
+        wave = Collections.emptyList();
+        nextPart = 0;
+        part = 0;
+        idx = 0;
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        child2.close();
+        child1.close();
+        build = null;
+        probe = null;
+        wave = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        wave = Collections.emptyList();
+        nextPart = 0;
+        part = 0;
+        idx = 0;
+    }
+
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        while (true) {
+            if (part < wave.size()) {
+                List<Tuple> out = wave.get(part);
+                if (idx < out.size()) {
+                    return out.get(idx++);
+                }
+                part++;
+                idx = 0;
+            } else if (!nextWave()) {
+                return null;
+            }
+        }
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[]{this.child1, this.child2};
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        this.child1 = children[0];
+        this.child2 = children[1];
+    }
+}
@@ -0,0 +1,264 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Scheduler runs the parallel work of all the queries on one shared pool of
+ * worker threads, so that concurrent queries share the cores rather than
+ * each starting threads of its own.
+ * <p>
+ * The work is made of small tasks, such as a producer of an
+ * {@link Exchange} reading a few batches of its input, which reschedule
+ * themselves to go on.  The tasks of each query are queued in the query's
+ * {@link Session}; whenever a worker is free, it runs the next task of the
+ * next session in turn, so that the workers are shared fairly among the
+ * queries that have work to do, however much each has queued.
+ * <p>
+ * Work split into parts up front, such as the morsels of a parallel
+ * aggregate, is run by {@link #invokeAll}, which queues each part as a task
+ * of the session too.  A task that waits, for instance for a batch of an
+ * exchange, waits through {@link #block}, which gives its turn to other
+ * tasks and lets the pool, a ForkJoinPool, start a spare worker meanwhile.
+ */
+public final class Scheduler {
+
+    /** The number of tasks that run at once */
+    public static final int PARALLELISM = Runtime.getRuntime().availableProcessors();
+
+    private static final AtomicInteger numWorkers = new AtomicInteger();
+    private static final ForkJoinPool pool = new ForkJoinPool(PARALLELISM, p -> {
+        ForkJoinWorkerThread t = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(p);
+        t.setName("scheduler-" + numWorkers.incrementAndGet());
+        t.setDaemon(true);
+        return t;
+    }, null, true);
+
+    // the sessions with tasks queued, in turn, and the number of tasks
+    // running, guarded by the class
+    private static final ArrayDeque<Session> ready = new ArrayDeque<>();
+    private static int running = 0;
+
+    // the session of the task or query the thread runs, and whether the
+    // task holds one of the PARALLELISM turns
+    private static final ThreadLocal<Session> current = new ThreadLocal<>();
+    private static final ThreadLocal<boolean[]> holding = ThreadLocal.withInitial(() -> new boolean[1]);
+
+    private Scheduler() {
+    }
+
+    /** The tasks of one query, which get their share of the workers */
+    public static final class Session {
+        // guarded by Scheduler.class
+        private final ArrayDeque<Runnable> tasks = new ArrayDeque<>();
+        private boolean queued = false;
+    }
+
+    /** @return the session of the task or query the thread runs, or null */
+    public static Session currentSession() {
+        return current.get();
+    }
+
+    /**
+     * Make session the session of the query the thread runs, so that the
+     * tasks it starts are queued in it.
+     *
+     * @param session the session, or null for none
+     * @return the previous session of the thread, to be set back
+     */
+    public static Session setSession(Session session) {
+        Session previous = current.get();
+        current.set(session);
+        return previous;
+    }
+
+    /** Queue a task of a session */
+    public static void submit(Session session, Runnable task) {
+        synchronized (Scheduler.class) {
+            session.tasks.add(task);
+            if (!session.queued) {
+                session.queued = true;
+                ready.add(session);
+            }
+        }
+        dispatch();
+    }
+
+    /**
+     * Run tasks in parallel and return their results, in order.  The tasks
+     * are queued in the session of the calling thread, or in a session of
+     * their own, so that they share the workers with the other queries like
+     * any other tasks, while the calling thread waits for them through
+     * {@link #block}.  Once a task has thrown, the tasks not started yet are
+     * skipped and the exception is rethrown.
+     */
+    public static <T> List<T> invokeAll(List<? extends Callable<T>> tasks)
+            throws DbException, TransactionAbortedException {
+        Session session = currentSession();
+        if (session == null) {
+            session = new Session();
+        }
+        Invocation<T> invocation = new Invocation<>(tasks);
+        for (int i = 0; i < tasks.size(); i++) {
+            submit(session, invocation::runNext);
+        }
+        await(invocation.done);
+        Throwable e = invocation.error.get();
+        if (e instanceof DbException) {
+            throw (DbException) e;
+        } else if (e instanceof TransactionAbortedException) {
+            throw (TransactionAbortedException) e;
+        } else if (e instanceof RuntimeException) {
+            throw (RuntimeException) e;
+        } else if (e instanceof Error) {
+            throw (Error) e;
+        } else if (e != null) {
+            throw new DbException("parallel task failed: " + e);
+        }
+        return invocation.results();
+    }
+
+    // the tasks of one invokeAll, which the workers take in order
+    private static final class Invocation<T> {
+        final List<? extends Callable<T>> tasks;
+        final Object[] results;
+        final AtomicInteger next = new AtomicInteger();
+        final CountDownLatch done;
+        final AtomicReference<Throwable> error = new AtomicReference<>();
+
+        Invocation(List<? extends Callable<T>> tasks) {
+            this.tasks = tasks;
+            this.results = new Object[tasks.size()];
+            this.done = new CountDownLatch(tasks.size());
+        }
+
+        // run the next task not started yet; false if there is none
+        boolean runNext() {
+            int i = next.getAndIncrement();
+            if (i >= tasks.size()) {
+                return false;
+            }
+            try {
+                if (error.get() == null) {
+                    results[i] = tasks.get(i).call();
+                }
+            } catch (Throwable e) {
+                error.compareAndSet(null, e);
+            } finally {
+                done.countDown();
+            }
+            return true;
+        }
+
+        @SuppressWarnings("unchecked")
+        List<T> results() {
+            return (List<T>) Arrays.asList(results);
+        }
+    }
+
+    /**
+     * Wait until latch is released, through {@link #block}.  An interrupt
+     * does not stop the wait, but is set again afterwards.
+     */
+    static void await(CountDownLatch latch) {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                block(new ForkJoinPool.ManagedBlocker() {
+                    public boolean block() throws InterruptedException {
+                        latch.await();
+                        return true;
+                    }
+
+                    public boolean isReleasable() {
+                        return latch.getCount() == 0;
+                    }
+                });
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // run the next tasks of the sessions in turn while there are free turns
+    private static void dispatch() {
+        while (true) {
+            Session session;
+            Runnable task;
+            synchronized (Scheduler.class) {
+                if (running >= PARALLELISM || ready.isEmpty()) {
+                    return;
+                }
+                session = ready.poll();
+                task = session.tasks.poll();
+                if (session.tasks.isEmpty()) {
+                    session.queued = false;
+                } else {
+                    ready.add(session);
+                }
+                running++;
+            }
+            pool.execute(() -> run(session, task));
+        }
+    }
+
+    private static void run(Session session, Runnable task) {
+        Session previous = setSession(session);
+        boolean[] held = holding.get();
+        held[0] = true;
+        try {
+            task.run();
+        } finally {
+            setSession(previous);
+            if (held[0]) {
+                synchronized (Scheduler.class) {
+                    running--;
+                }
+            }
+            held[0] = false;
+            dispatch();
+        }
+    }
+
+    /**
+     * Wait until blocker is releasable.  A task gives its turn to other
+     * tasks while it waits and takes one again afterwards.
+     */
+    public static void block(ForkJoinPool.ManagedBlocker blocker) throws InterruptedException {
+        boolean[] held = holding.get();
+        boolean gaveTurn = held[0];
+        if (gaveTurn) {
+            held[0] = false;
+            synchronized (Scheduler.class) {
+                running--;
+            }
+            dispatch();
+        }
+        try {
+            ForkJoinPool.managedBlock(blocker);
+        } finally {
+            if (gaveTurn) {
+                // over the limit for a while rather than waiting for a turn,
+                // since the tasks holding them may be waiting for this one
+                synchronized (Scheduler.class) {
+                    running++;
+                }
+                held[0] = true;
+            }
+        }
+    }
+}
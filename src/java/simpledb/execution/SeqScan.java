@@ -1,12 +1,14 @@
 package simpledb.execution;
 
 import simpledb.common.Database;
-import simpledb.storage.HeapFile;
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
 import simpledb.common.Type;
 import simpledb.common.DbException;
+import simpledb.storage.DbFile;
 import simpledb.storage.DbFileIterator;
+import simpledb.storage.HeapFile;
+import simpledb.storage.PageMorsels;
 import simpledb.storage.Tuple;
 import simpledb.storage.TupleDesc;
 
@@ -26,6 +28,14 @@ public class SeqScan implements OpIterator {
     private int tableId;
     private String tableAlias;
     private DbFileIterator iterator;
+    // the pages scanned, from fromPage to toPage - 1; toPage is -1 to scan
+    // up to the last page
+    private int fromPage = 0, toPage = -1;
+    // the morsels of pages the scan shares with others, if not null
+    private PageMorsels morsels;
+    // a test pushed down by a parent operator, and the next tuple passing it
+    private transient TuplePredicate runtimeFilter;
+    private transient Tuple pending;
     /**
      * Creates a sequential scan over the specified table as a part of the
      * specified transaction.
@@ -47,7 +57,7 @@ public class SeqScan implements OpIterator {
         this.tid = tid;
         this.tableId = tableid;
         this.tableAlias = tableAlias;
-        this.iterator = new HeapFile.HeapFileIterator((HeapFile)Database.getCatalog().getDatabaseFile(tableid),tid);
+        this.iterator = Database.getCatalog().getDatabaseFile(tableid).iterator(tid);
     }
 
     /**
@@ -68,6 +78,16 @@ public class SeqScan implements OpIterator {
         return this.tableAlias;
     }
 
+    /** @return the id of the table this operator scans */
+    public int getTableId() {
+        return this.tableId;
+    }
+
+    /** @return the transaction this operator scans the table for */
+    public TransactionId getTransactionId() {
+        return this.tid;
+    }
+
     /**
      * Reset the tableid, and tableAlias of this operator.
      * @param tableid
@@ -90,8 +110,79 @@ public class SeqScan implements OpIterator {
         this(tid, tableId, Database.getCatalog().getTableName(tableId));
     }
 
+    /**
+     * Creates a sequential scan over a range of pages of the specified
+     * HeapFile, so that a table can be scanned in parts by several scans.
+     *
+     * @param fromPage
+     *            the first page to scan.
+     * @param toPage
+     *            the page after the last one to scan, or -1 to scan up to
+     *            the last page of the table when the scan is opened.
+     * @throws IllegalArgumentException
+     *            if the table is not a HeapFile
+     */
+    public SeqScan(TransactionId tid, int tableId, String tableAlias, int fromPage, int toPage) {
+        this.tid = tid;
+        this.tableId = tableId;
+        this.tableAlias = tableAlias;
+        DbFile file = Database.getCatalog().getDatabaseFile(tableId);
+        if (!(file instanceof HeapFile)) {
+            throw new IllegalArgumentException("only a HeapFile can be scanned by pages");
+        }
+        this.fromPage = fromPage;
+        this.toPage = toPage;
+        this.iterator = ((HeapFile) file).iterator(tid, fromPage, toPage);
+    }
+
+    /**
+     * Creates one of several sequential scans of a HeapFile that read it
+     * together, each taking morsels of pages from morsels until the file is
+     * read.
+     *
+     * @param morsels
+     *            the morsels of the table shared by the scans.
+     */
+    public SeqScan(TransactionId tid, String tableAlias, PageMorsels morsels) {
+        this.tid = tid;
+        this.tableId = morsels.getTableId();
+        this.tableAlias = tableAlias;
+        this.morsels = morsels;
+        this.iterator = ((HeapFile) Database.getCatalog().getDatabaseFile(tableId)).iterator(tid, morsels);
+    }
+
+    /** @return the morsels the scan shares with others, or null */
+    public PageMorsels getMorsels() {
+        return this.morsels;
+    }
+
+    /** @return the first page the scan reads */
+    public int getFromPage() {
+        return this.fromPage;
+    }
+
+    /**
+     * @return the page after the last one the scan reads, or -1 if it reads
+     *         up to the last page of the table
+     */
+    public int getToPage() {
+        return this.toPage;
+    }
+
+    /**
+     * Set a test that the tuples of the scan must pass, such as the
+     * {@link BloomFilter} of a join above it; the tuples that fail it are
+     * skipped by the scan.  It applies from the next tuple read.
+     *
+     * @param filter the test, or null to return every tuple again
+     */
+    public void setRuntimeFilter(TuplePredicate filter) {
+        this.runtimeFilter = filter;
+    }
+
     public void open() throws DbException, TransactionAbortedException {
         // some code goes here
+        pending = null;
         iterator.open();
     }
 
@@ -120,23 +211,61 @@ public class SeqScan implements OpIterator {
 
     public boolean hasNext() throws TransactionAbortedException, DbException {
         // some code goes here
-        return iterator.hasNext();
+        if (pending != null) {
+            return true;
+        }
+        if (runtimeFilter == null) {
+            return iterator.hasNext();
+        }
+        while (iterator.hasNext()) {
+            Tuple t = iterator.next();
+            if (runtimeFilter.test(t)) {
+                pending = t;
+                return true;
+            }
+        }
+        return false;
     }
 
     public Tuple next() throws NoSuchElementException,
             TransactionAbortedException, DbException {
         // some code goes here
+        if (runtimeFilter != null && !hasNext()) {
+            throw new NoSuchElementException();
+        }
+        if (pending != null) {
+            Tuple t = pending;
+            pending = null;
+            return t;
+        }
         return iterator.next();
     }
 
+    public int nextBatch(Tuple[] batch) throws TransactionAbortedException, DbException {
+        int n = 0;
+        if (pending != null && batch.length > 0) {
+            batch[n++] = pending;
+            pending = null;
+        }
+        while (n < batch.length && iterator.hasNext()) {
+            Tuple t = iterator.next();
+            if (runtimeFilter == null || runtimeFilter.test(t)) {
+                batch[n++] = t;
+            }
+        }
+        return n;
+    }
+
     public void close() {
         // some code goes here
+        pending = null;
         iterator.close();
     }
 
     public void rewind() throws DbException, NoSuchElementException,
             TransactionAbortedException {
         // some code goes here
+        pending = null;
         iterator.rewind();
     }
 }
@@ -0,0 +1,211 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.storage.Field;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * SortMergeJoin joins two children that are both sorted in ascending order
+ * of their join fields, as the output of an ascending {@link OrderBy} or a
+ * B+ tree scan of the key field is.
+ * <p>
+ * An EQUALS join merges the two inputs in one pass over each: it only
+ * buffers the child2 tuples that share the current key, so it streams with
+ * memory bounded by the largest group of duplicate keys.  A range join
+ * (LESS_THAN, LESS_THAN_OR_EQ, GREATER_THAN or GREATER_THAN_OR_EQ) uses the
+ * fact that the tuples of one side matching a tuple of the other are a
+ * prefix of that side: for each tuple of the outer side, the inner side is
+ * rewound and read only until the first tuple that does not match, so the
+ * work done is proportional to the size of the output.
+ * <p>
+ * Like {@link Join}, the output tuples are the fields of child1's tuple
+ * followed by those of child2's.
+ */
+public class SortMergeJoin extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final JoinPredicate pred;
+    private OpIterator child1, child2;
+    private final TupleDesc comboTD;
+
+    // EQUALS: the current child1 tuple, the child2 tuples with its key and
+    // the first child2 tuple after them
+    private transient Tuple left;
+    private transient List<Tuple> group;
+    private transient int groupIdx;
+    private transient Tuple right;
+
+    // range joins: the current tuple of the outer side
+    private transient Tuple outer;
+    private transient boolean rewindInner;
+
+    /**
+     * @param p the predicate to join the children on
+     * @param child1 the left relation, in ascending order of p's field1
+     * @param child2 the right relation, in ascending order of p's field2
+     * @throws IllegalArgumentException if p's operator cannot be merged
+     */
+    public SortMergeJoin(JoinPredicate p, OpIterator child1, OpIterator child2) {
+        if (!supports(p.getOperator())) {
+            throw new IllegalArgumentException("cannot merge join on " + p.getOperator());
+        }
+        this.pred = p;
+        this.child1 = child1;
+        this.child2 = child2;
+        comboTD = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+    }
+
+    /** @return true if a SortMergeJoin can join on the specified operator */
+    public static boolean supports(Predicate.Op op) {
+        return op != Predicate.Op.NOT_EQUALS && op != Predicate.Op.LIKE;
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return pred;
+    }
+
+    public String getJoinField1Name() {
+        return child1.getTupleDesc().getFieldName(pred.getField1());
+    }
+
+    public String getJoinField2Name() {
+        return child2.getTupleDesc().getFieldName(pred.getField2());
+    }
+
+    public TupleDesc getTupleDesc() {
+        return comboTD;
+    }
+
+    // a range join reads child2 for each child1 tuple if its matches are a
+    // prefix of child2, and child1 for each child2 tuple otherwise
+    private boolean outerIsChild1() {
+        return pred.getOperator() == Predicate.Op.GREATER_THAN
+                || pred.getOperator() == Predicate.Op.GREATER_THAN_OR_EQ;
+    }
+
+    private void reset() throws DbException, TransactionAbortedException {
+        left = null;
+        outer = null;
+        rewindInner = false;
+        group = new ArrayList<>();
+        groupIdx = 0;
+        if (pred.getOperator() == Predicate.Op.EQUALS) {
+            right = child2.hasNext() ? child2.next() : null;
+        }
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        child1.open();
+        child2.open();
+        reset();
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        child2.close();
+        child1.close();
+        left = right = outer = null;
+        group = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child1.rewind();
+        child2.rewind();
+        reset();
+    }
+
+    private Tuple merge(Tuple t1, Tuple t2) {
+        int td1n = t1.getTupleDesc().numFields();
+        int td2n = t2.getTupleDesc().numFields();
+        Tuple t = new Tuple(comboTD);
+        for (int i = 0; i < td1n; i++)
+            t.setField(i, t1.getField(i));
+        for (int i = 0; i < td2n; i++)
+            t.setField(td1n + i, t2.getField(i));
+        return t;
+    }
+
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        return pred.getOperator() == Predicate.Op.EQUALS ? fetchNextEquals() : fetchNextRange();
+    }
+
+    private Tuple fetchNextEquals() throws TransactionAbortedException, DbException {
+        while (true) {
+            if (left != null && groupIdx < group.size()) {
+                return merge(left, group.get(groupIdx++));
+            }
+            if (!child1.hasNext()) {
+                return null;
+            }
+            left = child1.next();
+            groupIdx = 0;
+            Field key = left.getField(pred.getField1());
+            if (!group.isEmpty()
+                    && group.get(0).getField(pred.getField2()).compare(Predicate.Op.EQUALS, key)) {
+                // a duplicate key on the left matches the same group again
+                continue;
+            }
+            group.clear();
+            while (right != null
+                    && right.getField(pred.getField2()).compare(Predicate.Op.LESS_THAN, key)) {
+                right = child2.hasNext() ? child2.next() : null;
+            }
+            if (right == null) {
+                // child2 is done, so nothing else matches
+                left = null;
+                return null;
+            }
+            while (right != null
+                    && right.getField(pred.getField2()).compare(Predicate.Op.EQUALS, key)) {
+                group.add(right);
+                right = child2.hasNext() ? child2.next() : null;
+            }
+        }
+    }
+
+    private Tuple fetchNextRange() throws TransactionAbortedException, DbException {
+        boolean outerIsChild1 = outerIsChild1();
+        OpIterator outerChild = outerIsChild1 ? child1 : child2;
+        OpIterator innerChild = outerIsChild1 ? child2 : child1;
+        while (true) {
+            if (outer != null && innerChild.hasNext()) {
+                Tuple inner = innerChild.next();
+                Tuple t1 = outerIsChild1 ? outer : inner;
+                Tuple t2 = outerIsChild1 ? inner : outer;
+                if (pred.filter(t1, t2)) {
+                    return merge(t1, t2);
+                }
+            }
+            // the prefix of the inner side matching outer is done
+            if (!outerChild.hasNext()) {
+                outer = null;
+                return null;
+            }
+            outer = outerChild.next();
+            if (rewindInner) {
+                innerChild.rewind();
+            }
+            rewindInner = true;
+        }
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[]{this.child1, this.child2};
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        this.child1 = children[0];
+        this.child2 = children[1];
+    }
+}
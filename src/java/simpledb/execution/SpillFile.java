@@ -0,0 +1,144 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.storage.IntField;
+import simpledb.storage.StringField;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * SpillFile is a temporary file of tuples, for operators that have to move
+ * part of their input out of memory.  Tuples are appended with {@link #add}
+ * and read back, in the order they were added, with a {@link Reader}; a
+ * file may be read any number of times once it is complete.  Fields are
+ * stored compactly, not in their page format: an int in 4 bytes, and a
+ * string as its length and its characters rather than padded to
+ * {@link Type#STRING_LEN}.  Record ids are not kept.
+ * <p>
+ * The file is only created when the first tuple is added, and is deleted
+ * only by {@link #delete}, which its owner must call when it is closed or
+ * rewound.
+ */
+final class SpillFile {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final TupleDesc td;
+    private File file;
+    private DataOutputStream out;
+    private int size;
+
+    SpillFile(TupleDesc td) {
+        this.td = td;
+    }
+
+    /** Append a tuple to the file */
+    void add(Tuple t) throws DbException {
+        try {
+            if (out == null) {
+                if (file == null) {
+                    file = File.createTempFile("spill", ".tmp");
+                }
+                out = new DataOutputStream(new BufferedOutputStream(
+                        new FileOutputStream(file, true), BUFFER_SIZE));
+            }
+            for (int i = 0; i < td.numFields(); i++) {
+                if (td.getFieldType(i) == Type.INT_TYPE) {
+                    out.writeInt(((IntField) t.getField(i)).getValue());
+                } else {
+                    out.writeUTF(((StringField) t.getField(i)).getValue());
+                }
+            }
+        } catch (IOException e) {
+            throw new DbException("cannot write spill file: " + e.getMessage());
+        }
+        size++;
+    }
+
+    /** @return the number of tuples in the file */
+    int size() {
+        return size;
+    }
+
+    /** @return a reader over the tuples of the file, from the first one */
+    Reader reader() throws DbException {
+        try {
+            if (out != null) {
+                out.close();
+                out = null;
+            }
+            return new Reader(file == null ? null : new DataInputStream(
+                    new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE)));
+        } catch (IOException e) {
+            throw new DbException("cannot read spill file: " + e.getMessage());
+        }
+    }
+
+    /** Delete the file; it must not be used afterwards */
+    void delete() {
+        try {
+            if (out != null) {
+                out.close();
+                out = null;
+            }
+        } catch (IOException ignored) {
+        }
+        if (file != null) {
+            file.delete();
+            file = null;
+        }
+        size = 0;
+    }
+
+    /** Reads the tuples of a SpillFile back */
+    final class Reader {
+        private DataInputStream in;
+        private int remaining = size;
+
+        private Reader(DataInputStream in) {
+            this.in = in;
+        }
+
+        /** @return the next tuple, or null if there are no more tuples */
+        Tuple next() throws DbException {
+            if (remaining == 0) {
+                close();
+                return null;
+            }
+            Tuple t = new Tuple(td);
+            try {
+                for (int i = 0; i < td.numFields(); i++) {
+                    if (td.getFieldType(i) == Type.INT_TYPE) {
+                        t.setField(i, new IntField(in.readInt()));
+                    } else {
+                        t.setField(i, new StringField(in.readUTF(), Type.STRING_LEN));
+                    }
+                }
+            } catch (IOException e) {
+                throw new DbException("cannot read spill file: " + e.getMessage());
+            }
+            remaining--;
+            return t;
+        }
+
+        void close() {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException ignored) {
+                }
+                in = null;
+            }
+        }
+    }
+}
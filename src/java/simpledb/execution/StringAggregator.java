@@ -5,9 +5,6 @@ import simpledb.storage.*;
 
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentMap;
 
 /**
  * Knows how to compute some aggregate over a set of StringFields.
@@ -16,12 +13,13 @@ public class StringAggregator implements Aggregator {
 
     private static final long serialVersionUID = 1L;
 
-    private static final Field NO_GROUPING_FIELD = new IntField(NO_GROUPING);
     private final int gbfield;
     private final Type gbfieldType;
     private final int afield;
     private final Op what;
-    private final ConcurrentMap<Field, List<Tuple>> groups = new ConcurrentHashMap();
+    // the running count of each group, keyed as in IntegerAggregator
+    private final GroupAccumulators groups = new GroupAccumulators();
+    private final StringDictionary groupDict;
     /**
      * Aggregate constructor
      * @param gbfield the 0-based index of the group-by field in the tuple, or NO_GROUPING if there is no grouping
@@ -38,6 +36,8 @@ public class StringAggregator implements Aggregator {
         this.afield = afield;
         if (what != Op.COUNT) { throw new UnsupportedOperationException("StringAggregator only supports COUNT op"); }
         this.what = what;
+        this.groupDict = gbfield != NO_GROUPING && gbfieldtype == Type.STRING_TYPE
+                ? new StringDictionary() : null;
     }
 
     /**
@@ -47,18 +47,15 @@ public class StringAggregator implements Aggregator {
     public void mergeTupleIntoGroup(Tuple tup) {
         // some code goes here
         if (tup == null) return;
-        // No group
-        if (this.gbfield == NO_GROUPING){
-            List<Tuple> groupTuples = groups.getOrDefault(NO_GROUPING_FIELD, new ArrayList<Tuple>());
-            groupTuples.add(tup);
-            groups.put(NO_GROUPING_FIELD,groupTuples);
-        }
-        // add to special group
-        else{
-            List<Tuple> groupTuples = groups.getOrDefault(tup.getField(gbfield), new ArrayList<Tuple>());
-            groupTuples.add(tup);
-            groups.put(tup.getField(gbfield),groupTuples);
+        int key;
+        if (gbfield == NO_GROUPING){
+            key = 0;
+        }else if (groupDict != null){
+            key = groupDict.encode(((StringField) tup.getField(gbfield)).getValue());
+        }else{
+            key = ((IntField) tup.getField(gbfield)).getValue();
         }
+        groups.count(groups.group(key));
     }
 
     /**
@@ -77,20 +74,20 @@ public class StringAggregator implements Aggregator {
 
     public List<Tuple> generateAggTuples(TupleDesc td){
         List<Tuple> aggTuples = new ArrayList<>();
-        for (Map.Entry<Field, List<Tuple>> entry : groups.entrySet()) {
-            int aggregateVal = entry.getValue().size();
+        for (int id = 0; id < groups.size(); id++) {
+            Tuple tuple = new Tuple(td);
+            IntField aggregateVal = new IntField(groups.result(id, what));
             if (gbfield == NO_GROUPING){
                 // (aggregateVal)
-                Tuple tuple = new Tuple(td);
-                tuple.setField(0,new IntField(aggregateVal));
-                aggTuples.add(tuple);
+                tuple.setField(0,aggregateVal);
             }else{
                 // (groupVal, aggregateVal)
-                Tuple tuple = new Tuple(td);
-                tuple.setField(0,entry.getKey());
-                tuple.setField(1,new IntField(aggregateVal));
-                aggTuples.add(tuple);
+                int key = groups.key(id);
+                tuple.setField(0,groupDict == null ? new IntField(key)
+                        : new StringField(groupDict.decode(key), Type.STRING_LEN));
+                tuple.setField(1,aggregateVal);
             }
+            aggTuples.add(tuple);
         }
         return aggTuples;
     }
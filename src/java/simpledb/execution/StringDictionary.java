@@ -0,0 +1,46 @@
+package simpledb.execution;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * StringDictionary assigns each distinct string of a column a dense int
+ * code, so string columns can be stored in a {@link ColumnBatch} as int
+ * vectors.  Codes stay valid for as long as the dictionary is used.
+ */
+public class StringDictionary implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final Map<String, Integer> codes = new HashMap<>();
+    private final List<String> values = new ArrayList<>();
+
+    /** @return the code of s, adding s to the dictionary if necessary */
+    public int encode(String s) {
+        Integer code = codes.get(s);
+        if (code == null) {
+            code = values.size();
+            codes.put(s, code);
+            values.add(s);
+        }
+        return code;
+    }
+
+    /** @return true if s has a code in the dictionary */
+    public boolean contains(String s) {
+        return codes.containsKey(s);
+    }
+
+    /** @return the string with the specified code */
+    public String decode(int code) {
+        return values.get(code);
+    }
+
+    /** @return the number of distinct strings in the dictionary */
+    public int size() {
+        return values.size();
+    }
+}
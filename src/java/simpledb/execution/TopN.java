@@ -0,0 +1,155 @@
+package simpledb.execution;
+
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.common.DbException;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+
+import java.util.*;
+
+/**
+ * TopN is an operator that implements ORDER BY ... LIMIT n: it returns the
+ * first n tuples of its child in the order an {@link OrderBy} on the same
+ * fields would return them.  Rather than sorting the whole child, it keeps
+ * the n first tuples seen so far in a heap whose head is the last of them,
+ * so it needs memory for n tuples only and O(log n) work per tuple.
+ */
+public class TopN extends Operator {
+
+    private static final long serialVersionUID = 1L;
+    private OpIterator child;
+    private final TupleDesc td;
+    private final int[] orderByFields;
+    private final boolean[] asc;
+    private final int n;
+    private final List<Tuple> top = new ArrayList<>();
+    private Iterator<Tuple> it;
+
+    // a tuple of the child, with its position in the child, so that ties
+    // are returned in the order of the child, as OrderBy does
+    private static final class Entry {
+        final Tuple t;
+        final long seq;
+
+        Entry(Tuple t, long seq) {
+            this.t = t;
+            this.seq = seq;
+        }
+    }
+
+    /**
+     * Creates a new TopN node over the tuples from the iterator.
+     *
+     * @param orderbyFields
+     *            the fields to which the sort is applied.
+     * @param asc
+     *            for each field, true if the sort order is ascending.
+     * @param child
+     *            the tuples to sort.
+     * @param n
+     *            the number of tuples to return.
+     */
+    public TopN(int[] orderbyFields, boolean[] asc, OpIterator child, int n) {
+        if (orderbyFields.length == 0 || orderbyFields.length != asc.length) {
+            throw new IllegalArgumentException("one order is needed per sort field");
+        }
+        if (n < 0) {
+            throw new IllegalArgumentException("the number of tuples cannot be negative");
+        }
+        this.child = child;
+        this.td = child.getTupleDesc();
+        this.orderByFields = orderbyFields;
+        this.asc = asc;
+        this.n = n;
+    }
+
+    /** @return the fields the sort is applied to, in order */
+    public int[] getOrderByFields() {
+        return this.orderByFields;
+    }
+
+    /** @return for each sort field, true if the order is ascending */
+    public boolean[] getAscending() {
+        return this.asc;
+    }
+
+    /** @return the number of tuples returned, at most */
+    public int getLimit() {
+        return this.n;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        child.open();
+        TupleComparator tc = new TupleComparator(orderByFields, asc);
+        Comparator<Entry> order = (a, b) -> {
+            int c = tc.compare(a.t, b.t);
+            return c != 0 ? c : Long.compare(a.seq, b.seq);
+        };
+        // the head is the last of the tuples kept
+        PriorityQueue<Entry> heap = new PriorityQueue<>(Math.max(1, Math.min(n, BATCH_SIZE)),
+                order.reversed());
+        long seq = 0;
+        Tuple[] batch = new Tuple[BATCH_SIZE];
+        int got;
+        while (n > 0 && (got = child.nextBatch(batch)) > 0) {
+            for (int i = 0; i < got; i++) {
+                if (heap.size() < n) {
+                    heap.add(new Entry(batch[i], seq));
+                } else if (tc.compare(batch[i], heap.peek().t) < 0) {
+                    heap.poll();
+                    heap.add(new Entry(batch[i], seq));
+                }
+                seq++;
+            }
+        }
+        List<Entry> entries = new ArrayList<>(heap);
+        entries.sort(order);
+        top.clear();
+        for (Entry e : entries) {
+            top.add(e.t);
+        }
+        it = top.iterator();
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        child.close();
+        it = null;
+        top.clear();
+    }
+
+    public void rewind() {
+        it = top.iterator();
+    }
+
+    /**
+     * Operator.fetchNext implementation. Returns the first n tuples of the
+     * child in order
+     *
+     * @return The next tuple in the ordering, or null if there are no more
+     *         tuples
+     */
+    protected Tuple fetchNext() throws NoSuchElementException {
+        if (it != null && it.hasNext()) {
+            return it.next();
+        } else
+            return null;
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[] { this.child };
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        this.child = children[0];
+    }
+
+}
@@ -0,0 +1,16 @@
+package simpledb.execution;
+
+import simpledb.storage.Tuple;
+
+import java.io.Serializable;
+
+/**
+ * A test on a single tuple.  Instances are produced by
+ * {@link PredicateCompiler} from {@link Predicate}s.
+ */
+@FunctionalInterface
+public interface TuplePredicate extends Serializable {
+
+    /** @return true if t satisfies the predicate */
+    boolean test(Tuple t);
+}
@@ -0,0 +1,186 @@
+package simpledb.index;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Permissions;
+import simpledb.execution.IndexPredicate;
+import simpledb.execution.Predicate.Op;
+import simpledb.storage.AbstractDbFileIterator;
+import simpledb.storage.Field;
+import simpledb.storage.Tuple;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Helper class that implements the DbFileIterator for search tuples on a
+ * B+ Tree File
+ */
+class BTreeSearchIterator extends AbstractDbFileIterator {
+
+	Iterator<Tuple> it = null;
+	BTreeLeafPage curp = null;
+
+	final TransactionId tid;
+	final BTreeFile f;
+	final IndexPredicate ipred;
+	final BTreePageId hint;
+	BTreePageId start = null;
+
+	/**
+	 * Constructor for this iterator
+	 * @param f - the BTreeFile containing the tuples
+	 * @param tid - the transaction id
+	 * @param ipred - the predicate to filter on
+	 */
+	public BTreeSearchIterator(BTreeFile f, TransactionId tid, IndexPredicate ipred) {
+		this(f, tid, ipred, null);
+	}
+
+	/**
+	 * Constructor for an iterator that starts from a leaf page a previous search
+	 * started from, if that page is still the right place to start, instead of
+	 * searching the tree from the root
+	 * @param f - the BTreeFile containing the tuples
+	 * @param tid - the transaction id
+	 * @param ipred - the predicate to filter on
+	 * @param hint - the leaf page to try first, or null
+	 */
+	BTreeSearchIterator(BTreeFile f, TransactionId tid, IndexPredicate ipred, BTreePageId hint) {
+		this.f = f;
+		this.tid = tid;
+		this.ipred = ipred;
+		this.hint = hint;
+	}
+
+	/**
+	 * @return the leaf page this iterator started from, or null if it has not been opened
+	 */
+	BTreePageId startPage() {
+		return start;
+	}
+
+	/**
+	 * Open this iterator by getting an iterator on the first leaf page applicable
+	 * for the given predicate operation
+	 */
+	public void open() throws DbException, TransactionAbortedException {
+		curp = hint == null ? null : startFromHint();
+		if (curp != null) {
+			start = curp.getId();
+			it = curp.iterator();
+			return;
+		}
+		BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) Database.getBufferPool().getPage(
+				tid, BTreeRootPtrPage.getId(f.getId()), Permissions.READ_ONLY);
+		BTreePageId root = rootPtr.getRootId();
+		if(ipred.getOp() == Op.EQUALS || ipred.getOp() == Op.GREATER_THAN
+				|| ipred.getOp() == Op.GREATER_THAN_OR_EQ) {
+			curp = f.findLeafPage(tid, root, ipred.getField());
+		}
+		else {
+			curp = f.findLeafPage(tid, root, null);
+		}
+		start = curp.getId();
+		it = curp.iterator();
+	}
+
+	/**
+	 * The search can start from a leaf page if no tuple before it can match the
+	 * predicate: for a less than predicate that is the left-most leaf, and otherwise
+	 * a leaf whose first key is less than the predicate's field, or the right sibling
+	 * of a leaf whose keys are all less than it.
+	 *
+	 * @return the hint page or its right sibling if the search can start there,
+	 * or null if the tree has to be searched from the root
+	 */
+	private BTreeLeafPage startFromHint() throws DbException, TransactionAbortedException {
+		BTreeLeafPage leaf = (BTreeLeafPage) Database.getBufferPool().getPage(tid,
+				hint, Permissions.READ_ONLY);
+		if(ipred.getOp() == Op.LESS_THAN || ipred.getOp() == Op.LESS_THAN_OR_EQ) {
+			return leaf.getLeftSiblingId() == null ? leaf : null;
+		}
+		Field field = ipred.getField();
+		if(leaf.getNumTuples() == 0 ||
+				!leaf.iterator().next().getField(f.keyField()).compare(Op.LESS_THAN, field)) {
+			return null;
+		}
+		if(leaf.reverseIterator().next().getField(f.keyField()).compare(Op.GREATER_THAN_OR_EQ, field)) {
+			return leaf;
+		}
+		BTreePageId nextp = leaf.getRightSiblingId();
+		if(nextp == null) {
+			// nothing in the tree matches
+			return leaf;
+		}
+		BTreeLeafPage next = (BTreeLeafPage) Database.getBufferPool().getPage(tid,
+				nextp, Permissions.READ_ONLY);
+		if(next.getNumTuples() > 0 &&
+				next.reverseIterator().next().getField(f.keyField()).compare(Op.GREATER_THAN_OR_EQ, field)) {
+			return next;
+		}
+		return null;
+	}
+
+	/**
+	 * Read the next tuple either from the current page if it has more tuples matching
+	 * the predicate or from the next page by following the right sibling pointer.
+	 *
+	 * @return the next tuple matching the predicate, or null if none exists
+	 */
+	@Override
+	protected Tuple readNext() throws TransactionAbortedException, DbException,
+	NoSuchElementException {
+		while (it != null) {
+
+			while (it.hasNext()) {
+				Tuple t = it.next();
+				if (t.getField(f.keyField()).compare(ipred.getOp(), ipred.getField())) {
+					return t;
+				}
+				else if(ipred.getOp() == Op.LESS_THAN || ipred.getOp() == Op.LESS_THAN_OR_EQ) {
+					// if the predicate was not satisfied and the operation is less than, we have
+					// hit the end
+					return null;
+				}
+				else if(ipred.getOp() == Op.EQUALS &&
+						t.getField(f.keyField()).compare(Op.GREATER_THAN, ipred.getField())) {
+					// if the tuple is now greater than the field passed in and the operation
+					// is equals, we have reached the end
+					return null;
+				}
+			}
+
+			BTreePageId nextp = curp.getRightSiblingId();
+			// if there are no more pages to the right, end the iteration
+			if(nextp == null) {
+				return null;
+			}
+			else {
+				curp = (BTreeLeafPage) Database.getBufferPool().getPage(tid,
+						nextp, Permissions.READ_ONLY);
+				it = curp.iterator();
+			}
+		}
+
+		return null;
+	}
+
+	/**
+	 * rewind this iterator back to the beginning of the tuples
+	 */
+	public void rewind() throws DbException, TransactionAbortedException {
+		close();
+		open();
+	}
+
+	/**
+	 * close the iterator
+	 */
+	public void close() {
+		super.close();
+		it = null;
+	}
+}
@@ -0,0 +1,174 @@
+package simpledb.index;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.execution.IndexPredicate;
+import simpledb.execution.JoinPredicate;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Operator;
+import simpledb.execution.Predicate.Op;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.util.NoSuchElementException;
+
+/**
+ * IndexNestedLoopJoin joins its outer child with a table stored in a
+ * BTreeFile whose key field is the join field: instead of scanning the whole
+ * table for each outer tuple, it searches the B+ tree for the tuples matching
+ * that outer tuple, so it reads only a few pages per outer tuple.
+ * <p>
+ * Each search starts from the leaf page the previous search started from
+ * when that page is still the right place to start, so outer tuples with
+ * close keys (or in key order) do not walk down the tree from the root again.
+ * <p>
+ * Like {@link simpledb.execution.Join}, the output tuples are the fields of
+ * child1's tuple followed by those of child2's.
+ */
+public class IndexNestedLoopJoin extends Operator {
+
+	private static final long serialVersionUID = 1L;
+
+	private final JoinPredicate pred;
+	private OpIterator child1;
+	private BTreeScan child2;
+	private final TupleDesc comboTD;
+
+	private transient Tuple outer;
+	private transient BTreeSearchIterator probe;
+	private transient BTreePageId hint;
+
+	/**
+	 * @param p the predicate to join the children on
+	 * @param child1 the outer relation
+	 * @param child2 a scan of the indexed relation; p's field2 must be the key
+	 *               field of its BTreeFile.  It is only used for its table
+	 *               and is never opened.
+	 * @throws IllegalArgumentException if p's operator cannot be searched for
+	 *             or p's field2 is not the key field
+	 */
+	public IndexNestedLoopJoin(JoinPredicate p, OpIterator child1, BTreeScan child2) {
+		if (!supports(p.getOperator())) {
+			throw new IllegalArgumentException("cannot search an index on " + p.getOperator());
+		}
+		BTreeFile f = (BTreeFile) Database.getCatalog().getDatabaseFile(child2.getTableId());
+		if (f.keyField() != p.getField2()) {
+			throw new IllegalArgumentException("field " + p.getField2() + " is not the key field of "
+					+ child2.getTableName());
+		}
+		this.pred = p;
+		this.child1 = child1;
+		this.child2 = child2;
+		comboTD = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+	}
+
+	/** @return true if an IndexNestedLoopJoin can join on the specified operator */
+	public static boolean supports(Op op) {
+		return op != Op.NOT_EQUALS && op != Op.LIKE;
+	}
+
+	public JoinPredicate getJoinPredicate() {
+		return pred;
+	}
+
+	public String getJoinField1Name() {
+		return child1.getTupleDesc().getFieldName(pred.getField1());
+	}
+
+	public String getJoinField2Name() {
+		return child2.getTupleDesc().getFieldName(pred.getField2());
+	}
+
+	public TupleDesc getTupleDesc() {
+		return comboTD;
+	}
+
+	// the index predicate on child2's key equivalent to "outer op key"
+	private static Op indexOp(Op op) {
+		switch (op) {
+		case LESS_THAN:
+			return Op.GREATER_THAN;
+		case LESS_THAN_OR_EQ:
+			return Op.GREATER_THAN_OR_EQ;
+		case GREATER_THAN:
+			return Op.LESS_THAN;
+		case GREATER_THAN_OR_EQ:
+			return Op.LESS_THAN_OR_EQ;
+		default:
+			return op;
+		}
+	}
+
+	public void open() throws DbException, NoSuchElementException,
+			TransactionAbortedException {
+		child1.open();
+		outer = null;
+		hint = null;
+		super.open();
+	}
+
+	public void close() {
+		super.close();
+		if (probe != null) {
+			probe.close();
+			probe = null;
+		}
+		child1.close();
+		outer = null;
+		hint = null;
+	}
+
+	public void rewind() throws DbException, TransactionAbortedException {
+		if (probe != null) {
+			probe.close();
+			probe = null;
+		}
+		child1.rewind();
+		outer = null;
+	}
+
+	private Tuple merge(Tuple t1, Tuple t2) {
+		int td1n = t1.getTupleDesc().numFields();
+		int td2n = t2.getTupleDesc().numFields();
+		Tuple t = new Tuple(comboTD);
+		for (int i = 0; i < td1n; i++)
+			t.setField(i, t1.getField(i));
+		for (int i = 0; i < td2n; i++)
+			t.setField(td1n + i, t2.getField(i));
+		return t;
+	}
+
+	protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+		while (true) {
+			if (probe != null && probe.hasNext()) {
+				return merge(outer, probe.next());
+			}
+			if (probe != null) {
+				probe.close();
+				probe = null;
+			}
+			if (!child1.hasNext()) {
+				outer = null;
+				return null;
+			}
+			outer = child1.next();
+			BTreeFile f = (BTreeFile) Database.getCatalog().getDatabaseFile(child2.getTableId());
+			probe = new BTreeSearchIterator(f, child2.getTransactionId(),
+					new IndexPredicate(indexOp(pred.getOperator()), outer.getField(pred.getField1())), hint);
+			probe.open();
+			hint = probe.startPage();
+		}
+	}
+
+	@Override
+	public OpIterator[] getChildren() {
+		return new OpIterator[]{this.child1, this.child2};
+	}
+
+	@Override
+	public void setChildren(OpIterator[] children) {
+		this.child1 = children[0];
+		this.child2 = (BTreeScan) children[1];
+	}
+}
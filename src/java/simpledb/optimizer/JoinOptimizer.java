@@ -3,6 +3,12 @@ package simpledb.optimizer;
 import simpledb.common.Database;
 import simpledb.ParsingException;
 import simpledb.execution.*;
+import simpledb.common.Type;
+import simpledb.index.BTreeFile;
+import simpledb.index.BTreeScan;
+import simpledb.index.IndexNestedLoopJoin;
+import simpledb.storage.BufferPool;
+import simpledb.storage.DbFile;
 import simpledb.storage.Field;
 import simpledb.storage.TupleDesc;
 
@@ -50,6 +56,41 @@ public class JoinOptimizer {
      */
     public static OpIterator instantiateJoin(LogicalJoinNode lj,
                                              OpIterator plan1, OpIterator plan2) throws ParsingException {
+        return instantiateJoin(lj, plan1, plan2, -1);
+    }
+
+    /**
+     * Return best iterator for computing a given logical join, knowing the
+     * estimated cardinality of the left subplan: if it is small enough that
+     * searching a B+ tree index of the right table once for each of its
+     * tuples reads fewer pages than scanning that table, the join is an
+     * {@link IndexNestedLoopJoin}.
+     *
+     * @param lj
+     *            The join being considered
+     * @param plan1
+     *            The left join node's child
+     * @param plan2
+     *            The right join node's child
+     * @param card1
+     *            The estimated cardinality of plan1, or -1 if it is unknown
+     */
+    public static OpIterator instantiateJoin(LogicalJoinNode lj,
+                                             OpIterator plan1, OpIterator plan2, int card1) throws ParsingException {
+        return instantiateJoin(lj, plan1, plan2, card1, -1);
+    }
+
+    /**
+     * Return best iterator for computing a given logical join, knowing the
+     * estimated cardinalities of its subplans: an equi-join whose left
+     * subplan is larger than a partition of a {@link RadixHashJoin}, but
+     * fits in memory with the right subplan, is a RadixHashJoin.
+     *
+     * @param card2
+     *            The estimated cardinality of plan2, or -1 if it is unknown
+     */
+    public static OpIterator instantiateJoin(LogicalJoinNode lj, OpIterator plan1, OpIterator plan2,
+                                             int card1, int card2) throws ParsingException {
 
         int t1id = 0, t2id = 0;
         OpIterator j;
@@ -76,16 +117,39 @@ public class JoinOptimizer {
 
         if (lj.p == Predicate.Op.EQUALS) {
 
-            try {
-                // dynamically load HashEquiJoin -- if it doesn't exist, just
-                // fall back on regular join
-                Class<?> c = Class.forName("simpledb.execution.HashEquiJoin");
-                java.lang.reflect.Constructor<?> ct = c.getConstructors()[0];
-                j = (OpIterator) ct
-                        .newInstance(new Object[] { p, plan1, plan2 });
-            } catch (Exception e) {
-                j = new Join(p, plan1, plan2);
+            BTreeFile index = indexOn(plan2, t2id);
+            if (index != null && card1 >= 0
+                    && card1 * estimateIndexSearchCost(index) < index.numPages()) {
+                // a few outer tuples: search the index for each of them
+                SeqScan scan = (SeqScan) plan2;
+                j = new IndexNestedLoopJoin(p, plan1, new BTreeScan(scan.getTransactionId(),
+                        scan.getTableId(), scan.getAlias(), null));
+            } else if (sortedOn(plan1, t1id) && sortedOn(plan2, t2id)) {
+                // both inputs come out in key order: merge them
+                j = new SortMergeJoin(p, plan1, plan2);
+            } else if (card1 > RadixHashJoin.PARTITION_TUPLES && card2 >= 0
+                    && (long) card1 + card2 <= RadixHashJoin.MAX_TUPLES) {
+                // a hash table of the build side would not stay in the
+                // cache, but both inputs fit in memory: join them partition
+                // by partition
+                j = new RadixHashJoin(p, plan1, plan2);
+            } else {
+                try {
+                    // dynamically load HashEquiJoin -- if it doesn't exist, just
+                    // fall back on regular join
+                    Class<?> c = Class.forName("simpledb.execution.HashEquiJoin");
+                    java.lang.reflect.Constructor<?> ct = c.getConstructor(
+                            JoinPredicate.class, OpIterator.class, OpIterator.class);
+                    j = (OpIterator) ct
+                            .newInstance(new Object[] { p, plan1, plan2 });
+                } catch (Exception e) {
+                    j = new Join(p, plan1, plan2);
+                }
             }
+        } else if (lj.sortMerge && SortMergeJoin.supports(lj.p)) {
+            // orderJoins estimated that sorting the inputs and merging them
+            // costs less than a nested-loops join
+            j = new SortMergeJoin(p, sorted(plan1, t1id), sorted(plan2, t2id));
         } else {
             j = new Join(p, plan1, plan2);
         }
@@ -94,6 +158,58 @@ public class JoinOptimizer {
 
     }
 
+    /**
+     * @return true if plan returns its tuples in ascending order of field:
+     *         it is an ascending OrderBy on the field, a B+ tree scan of the
+     *         field, or a filter or projection of such a plan
+     */
+    static boolean sortedOn(OpIterator plan, int field) {
+        if (plan instanceof OrderBy) {
+            OrderBy o = (OrderBy) plan;
+            return o.isASC() && o.getOrderByField() == field;
+        } else if (plan instanceof BTreeScan) {
+            DbFile f = Database.getCatalog().getDatabaseFile(
+                    Database.getCatalog().getTableId(((BTreeScan) plan).getTableName()));
+            return f instanceof BTreeFile && ((BTreeFile) f).keyField() == field;
+        } else if (plan instanceof Filter) {
+            return sortedOn(((Filter) plan).getChildren()[0], field);
+        } else if (plan instanceof Project) {
+            return sortedOn(((Project) plan).getChildren()[0],
+                    ((Project) plan).getFieldList().get(field));
+        } else if (plan instanceof FilterProject) {
+            return sortedOn(((FilterProject) plan).getChildren()[0],
+                    ((FilterProject) plan).getFieldList().get(field));
+        }
+        return false;
+    }
+
+    /**
+     * @return the BTreeFile plan scans if plan is a scan of a BTreeFile whose
+     *         key field is field, or null
+     */
+    static BTreeFile indexOn(OpIterator plan, int field) {
+        if (!(plan instanceof SeqScan)) {
+            return null;
+        }
+        DbFile f = Database.getCatalog().getDatabaseFile(((SeqScan) plan).getTableId());
+        return f instanceof BTreeFile && ((BTreeFile) f).keyField() == field ? (BTreeFile) f : null;
+    }
+
+    /**
+     * Estimate the number of pages read by one search of a B+ tree: one
+     * internal page for each level of the tree, and a leaf page.
+     */
+    static double estimateIndexSearchCost(BTreeFile f) {
+        Type keyType = f.getTupleDesc().getFieldType(f.keyField());
+        int fanout = BufferPool.getPageSize() / (keyType.getLen() + Type.INT_TYPE.getLen());
+        return 1 + Math.ceil(Math.log(Math.max(f.numPages(), 1)) / Math.log(fanout));
+    }
+
+    // plan, sorted in ascending order of field if it is not already
+    private static OpIterator sorted(OpIterator plan, int field) {
+        return sortedOn(plan, field) ? plan : new OrderBy(field, true, plan);
+    }
+
     /**
      * Estimate the cost of a join.
      * 
@@ -122,17 +238,140 @@ public class JoinOptimizer {
      */
     public double estimateJoinCost(LogicalJoinNode j, int card1, int card2,
             double cost1, double cost2) {
+        return estimateJoinCost(j, card1, card2, cost1, cost2,
+                Collections.<LogicalJoinNode>emptyList());
+    }
+
+    /**
+     * Estimate the cost of a join whose left-hand side is left, the joins of
+     * a subplan, if they join j.t1Alias, or else the table of j.t1Alias
+     */
+    private double estimateJoinCost(LogicalJoinNode j, int card1, int card2,
+            double cost1, double cost2, List<LogicalJoinNode> left) {
         if (j instanceof LogicalSubplanJoinNode) {
             // A LogicalSubplanJoinNode represents a subquery.
             // You do not need to implement proper support for these for Lab 3.
             return card1 + cost1 + cost2;
         } else {
-            // Insert your code here.
-            // HINT: You may need to use the variable "j" if you implemented
-            // a join algorithm that's more complicated than a basic
-            // nested-loops join.
-            return card1 * card2 * 1.0 + cost1 + card1 * cost2;
+            return Math.min(estimateNestedLoopsCost(j, card1, card2, cost1, cost2, left),
+                    estimateSortMergeCost(j, card1, card2, cost1, cost2, left));
+        }
+    }
+
+    /**
+     * Estimate the cost of a {@link Join}: a block nested-loops join scans
+     * the right-hand side once for each block of left-hand tuples, and
+     * compares every pair; a last, partial block costs a whole scan, so the
+     * number of blocks is rounded up.
+     */
+    private double estimateNestedLoopsCost(LogicalJoinNode j, int card1, int card2,
+            double cost1, double cost2, List<LogicalJoinNode> left) {
+        TupleDesc td = leftTupleDesc(j, left);
+        int blockSize = td == null ? 1 : Join.blockSize(td, Join.BLOCK_PAGES);
+        double blocks = Math.ceil((double) card1 / blockSize);
+        return card1 * card2 * 1.0 + cost1 + blocks * cost2;
+    }
+
+    /**
+     * Estimate the cost of a {@link SortMergeJoin} of a range join, whose
+     * inputs are sorted by {@link OrderBy}s: sorting both sides, reading the
+     * outer side once and, for each outer tuple, rewinding the inner side
+     * and reading it up to the first tuple that does not match.  A rewind
+     * of an inner side that spilled its sorted runs reopens every run, and
+     * reads a page of each.
+     *
+     * @return the cost, or infinity if j is not a range join
+     */
+    private double estimateSortMergeCost(LogicalJoinNode j, int card1, int card2,
+            double cost1, double cost2, List<LogicalJoinNode> left) {
+        if (j instanceof LogicalSubplanJoinNode || j.p == Predicate.Op.EQUALS
+                || !SortMergeJoin.supports(j.p)) {
+            return Double.POSITIVE_INFINITY;
+        }
+        // as in SortMergeJoin, the outer side is the left-hand side if the
+        // tuples it matches are a prefix of the right-hand side
+        boolean outerIsLeft = j.p == Predicate.Op.GREATER_THAN
+                || j.p == Predicate.Op.GREATER_THAN_OR_EQ;
+        int outerCard = outerIsLeft ? card1 : card2;
+        int innerCard = outerIsLeft ? card2 : card1;
+        double innerCost = outerIsLeft ? cost2 : cost1;
+        int card = estimateTableJoinCardinality(j.p, j.t1Alias, j.t2Alias, j.f1PureName,
+                j.f2PureName, card1, card2, false, false, null, null);
+        // each outer tuple reads its matches and the first inner tuple
+        // that fails
+        double cost = cost1 + cost2 + estimateSortCost(card1, cost1) + estimateSortCost(card2, cost2)
+                + outerCard + card + outerCard;
+        if (innerCard > OrderBy.MAX_TUPLES) {
+            TupleDesc td = outerIsLeft ? tupleDesc(j.t2Alias) : leftTupleDesc(j, left);
+            int perPage = td == null ? 1 : Join.blockSize(td, 1);
+            double runs = Math.min(OrderBy.MERGE_FANIN, Math.ceil((double) innerCard / OrderBy.MAX_TUPLES));
+            cost += outerCard * runs * perPage * (innerCost / innerCard);
+        }
+        return cost;
+    }
+
+    /**
+     * Estimate the cost of sorting card tuples, which cost cost to read,
+     * with an {@link OrderBy}: card log card comparisons and, if they do not
+     * fit in memory, writing the sorted runs and reading them back once per
+     * pass of merges.
+     */
+    static double estimateSortCost(int card, double cost) {
+        if (card <= 1) {
+            return 0;
         }
+        double sortCost = card * Math.log(card) / Math.log(2);
+        if (card > OrderBy.MAX_TUPLES) {
+            double runs = Math.ceil((double) card / OrderBy.MAX_TUPLES);
+            double passes = Math.max(1, Math.ceil(Math.log(runs) / Math.log(OrderBy.MERGE_FANIN)));
+            sortCost += 2 * passes * cost;
+        }
+        return sortCost;
+    }
+
+    /**
+     * @return true if a {@link SortMergeJoin} is estimated to cost less than
+     *         a {@link Join} for j
+     */
+    private boolean sortMergeIsCheaper(LogicalJoinNode j, int card1, int card2,
+            double cost1, double cost2, List<LogicalJoinNode> left) {
+        return !(j instanceof LogicalSubplanJoinNode)
+                && estimateSortMergeCost(j, card1, card2, cost1, cost2, left)
+                < estimateNestedLoopsCost(j, card1, card2, cost1, cost2, left);
+    }
+
+    // the tuple descriptor of the table of alias, or null
+    private TupleDesc tupleDesc(String alias) {
+        Integer tableId = p.getTableId(alias);
+        return tableId == null ? null : Database.getCatalog().getTupleDesc(tableId);
+    }
+
+    /**
+     * @return the tuple descriptor of the left-hand tuples of j, those of
+     *         the joins in left if they join j.t1Alias, or else those of the
+     *         table of j.t1Alias, or null if a table is unknown
+     */
+    private TupleDesc leftTupleDesc(LogicalJoinNode j, List<LogicalJoinNode> left) {
+        Set<String> aliases = new LinkedHashSet<>();
+        if (doesJoin(left, j.t1Alias)) {
+            for (LogicalJoinNode lj : left) {
+                aliases.add(lj.t1Alias);
+                if (lj.t2Alias != null) {
+                    aliases.add(lj.t2Alias);
+                }
+            }
+        } else {
+            aliases.add(j.t1Alias);
+        }
+        TupleDesc td = null;
+        for (String alias : aliases) {
+            TupleDesc t = tupleDesc(alias);
+            if (t == null) {
+                return null;
+            }
+            td = td == null ? t : TupleDesc.merge(td, t);
+        }
+        return td;
     }
 
     /**
@@ -438,10 +677,12 @@ public class JoinOptimizer {
         }
 
         // case where prevbest is left
-        double cost1 = estimateJoinCost(j, t1card, t2card, t1cost, t2cost);
+        double cost1 = estimateJoinCost(j, t1card, t2card, t1cost, t2cost, prevBest);
+
+        boolean sortMerge = sortMergeIsCheaper(j, t1card, t2card, t1cost, t2cost, prevBest);
 
         LogicalJoinNode j2 = j.swapInnerOuter();
-        double cost2 = estimateJoinCost(j2, t2card, t1card, t2cost, t1cost);
+        double cost2 = estimateJoinCost(j2, t2card, t1card, t2cost, t1cost, prevBest);
         if (cost2 < cost1) {
             boolean tmp;
             j = j2;
@@ -449,9 +690,18 @@ public class JoinOptimizer {
             tmp = rightPkey;
             rightPkey = leftPkey;
             leftPkey = tmp;
+            sortMerge = sortMergeIsCheaper(j2, t2card, t1card, t2cost, t1cost, prevBest);
         }
         if (cost1 >= bestCostSoFar)
             return null;
+        if (sortMerge) {
+            // joinToRemove is shared by the other subplans, so the choice is
+            // recorded on a copy
+            if (j == joinToRemove) {
+                j = new LogicalJoinNode(j.t1Alias, j.t2Alias, j.f1PureName, j.f2PureName, j.p);
+            }
+            j.sortMerge = true;
+        }
 
         CostCard cc = new CostCard();
 
@@ -25,6 +25,11 @@ public class LogicalJoinNode {
     /** The join predicate */
     public Predicate.Op p;
 
+    /** Whether the join is a sort-merge join, which
+     * {@link JoinOptimizer#orderJoins} sets on a range join that it
+     * estimates to cost less that way than as a nested-loops join */
+    public boolean sortMerge;
+
     public LogicalJoinNode() {
     }
 
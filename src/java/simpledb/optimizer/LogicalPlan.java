@@ -32,15 +32,72 @@ public class LogicalPlan {
     private final Map<String,Integer> tableMap;
 
     private final List<LogicalSelectListNode> selectList;
-    private String groupByField = null;
+    private List<String> groupByFields = new ArrayList<>();
     private boolean hasAgg = false;
-    private String aggOp;
-    private String aggField;
-    private boolean oByAsc, hasOrderBy = false;
-    private String oByField;
+    private List<String> aggOps = new ArrayList<>();
+    private List<String> aggFields = new ArrayList<>();
+    private final List<String> oByFields = new ArrayList<>();
+    private final List<Boolean> oByAsc = new ArrayList<>();
+    private int limit = -1, offset = 0;
     private String query;
 //    private Query owner;
 
+    private static boolean vectorize = true;
+
+    /** Set whether {@link #physicalPlan} may run aggregate queries over a
+        table, or a join of two tables, on the vectorized operators (see
+        {@link ColumnOperator}).
+        On by default. */
+    public static void setVectorize(boolean v) {
+        vectorize = v;
+    }
+
+    private static boolean parallelAggregates = true;
+
+    /** Set whether the Aggregates of the plans built by {@link #physicalPlan}
+        aggregate the table they scan in parallel (see
+        {@link Aggregate#setParallel}).  On by default. */
+    public static void setParallelAggregates(boolean p) {
+        parallelAggregates = p;
+    }
+
+    private static int maxGroups = Aggregate.MAX_GROUPS;
+
+    /** Set the number of groups the aggregates of the plans built by
+        {@link #physicalPlan} keep in memory before they spill (see
+        {@link Aggregate}).  {@link Aggregate#MAX_GROUPS} by default. */
+    public static void setMaxGroups(int m) {
+        maxGroups = m;
+    }
+
+    private static int parallelism = Runtime.getRuntime().availableProcessors();
+
+    /** Set the number of threads {@link #physicalPlan} may run each part
+        of its plans on, by inserting {@link Exchange}s into them (see
+        {@link ParallelPlanner}); 1 runs plans on the calling thread only.
+        The number of processors by default. */
+    public static void setParallelism(int p) {
+        parallelism = Math.max(1, p);
+    }
+
+    private static boolean compilePipelines = true;
+
+    /** Set whether {@link #physicalPlan} compiles the pipelines of its
+        plans into generated code (see {@link PipelineCompiler}).  On by
+        default. */
+    public static void setCompilePipelines(boolean c) {
+        compilePipelines = c;
+    }
+
+    private static boolean pushPipelines = true;
+
+    /** Set whether {@link #physicalPlan} runs the pipelines of its plans
+        that are not compiled by pushing batches through them (see
+        {@link PushPlanner}).  On by default. */
+    public static void setPushPipelines(boolean p) {
+        pushPipelines = p;
+    }
+
     /** Constructor -- generate an empty logical plan */
     public LogicalPlan() {
         joins = new ArrayList<>();
@@ -189,34 +246,63 @@ public class LogicalPlan {
     }
     
     /** Add an aggregate over the field with the specified grouping to
-        the query.  SimpleDb only supports a single aggregate
-        expression and GROUP BY field.
+        the query, replacing any aggregates added before.
         @param op the aggregation operator
         @param afield the field to aggregate over
-        @param gfield the field to group by
+        @param gfield the field to group by, or null
      * @throws ParsingException 
     */
     public void addAggregate(String op, String afield, String gfield) throws ParsingException {
-        afield=disambiguateName(afield);
-        if (gfield!=null)
-            gfield=disambiguateName(gfield);
-        aggOp = op;
-        aggField = afield;
-        groupByField = gfield;
+        addAggregate(Collections.singletonList(op), Collections.singletonList(afield),
+                gfield == null ? Collections.emptyList() : Collections.singletonList(gfield));
+    }
+
+    /** Add aggregates over the fields with the specified grouping to the
+        query, replacing any aggregates added before.  They are all
+        computed by one Aggregate operator.
+        @param ops the aggregation operator of each aggregate
+        @param afields the field each aggregate is over
+        @param gfields the fields to group by, empty if there is no grouping
+     * @throws ParsingException 
+    */
+    public void addAggregate(List<String> ops, List<String> afields, List<String> gfields) throws ParsingException {
+        if (ops.isEmpty() || ops.size() != afields.size())
+            throw new ParsingException("One aggregation operator is needed per aggregate field");
+        aggOps = new ArrayList<>(ops);
+        aggFields = new ArrayList<>();
+        for (String afield : afields)
+            aggFields.add(disambiguateName(afield));
+        groupByFields = new ArrayList<>();
+        for (String gfield : gfields)
+            groupByFields.add(disambiguateName(gfield));
         hasAgg = true;
     }
 
-    /** Add an ORDER BY expression in the specified order on the specified field.  SimpleDb only supports
-        a single ORDER BY field.
+    /** Add an ORDER BY expression in the specified order on the specified field.  The output is
+        ordered by the fields in the order they are added: by the first one, then by the second
+        among tuples with equal first fields, and so on.
         @param field the field to order by
         @param asc true if should be ordered in ascending order, false for descending order
      * @throws ParsingException 
     */
     public void addOrderBy(String field, boolean asc) throws ParsingException {
         field=disambiguateName(field);
-        oByField = field;
-        oByAsc = asc;
-        hasOrderBy = true;
+        oByFields.add(field);
+        oByAsc.add(asc);
+    }
+
+    /** Add a LIMIT clause: the output is the limit tuples that follow the first offset ones.
+        With an ORDER BY, they are taken in its order.
+        @param limit the most tuples to return
+        @param offset the number of tuples to skip
+     * @throws ParsingException if limit or offset is negative
+    */
+    public void addLimit(int limit, int offset) throws ParsingException {
+        if (limit < 0 || offset < 0) {
+            throw new ParsingException("LIMIT and OFFSET cannot be negative");
+        }
+        this.limit = limit;
+        this.offset = offset;
     }
 
     /** Given a name of a field, try to figure out what table it belongs to by looking
@@ -381,7 +467,14 @@ public class LogicalPlan {
                 throw new ParsingException("Unknown table in WHERE clause " + lj.t2Alias);
 
             OpIterator j;
-            j = JoinOptimizer.instantiateJoin(lj, plan1, plan2);
+            if (!isSubqueryJoin) {
+                // plan2 may be searched through its index instead of
+                // scanned, or the join may be partitioned
+                j = JoinOptimizer.instantiateJoin(lj, plan1, plan2, estimateCardinality(plan1, statsMap),
+                        estimateCardinality(plan2, statsMap));
+            } else {
+                j = JoinOptimizer.instantiateJoin(lj, plan1, plan2);
+            }
             subplanMap.put(t1name, j);
 
             if (!isSubqueryJoin) {
@@ -413,7 +506,13 @@ public class LogicalPlan {
         for (int i = 0; i < selectList.size(); i++) {
             LogicalSelectListNode si = selectList.get(i);
             if (si.aggOp != null) {
-                outFields.add(groupByField!=null?1:0);
+                int agg = 0;
+                while (agg < aggOps.size() && !(aggOps.get(agg).equalsIgnoreCase(si.aggOp) && aggFields.get(agg).equals(si.fname)))
+                    agg++;
+                if (agg == aggOps.size()) {
+                    throw new ParsingException("Aggregate " + si.aggOp + "(" + si.fname + ") is not computed by the query");
+                }
+                outFields.add(groupByFields.size() + agg);
                 TupleDesc td = node.getTupleDesc();
 //                int  id;
                 try {
@@ -425,16 +524,17 @@ public class LogicalPlan {
                 outTypes.add(Type.INT_TYPE);  //the type of all aggregate functions is INT
 
             } else if (hasAgg) {
-                    if (groupByField == null) {
+                    int group = groupByFields.indexOf(si.fname);
+                    if (group < 0) {
                         throw new ParsingException("Field " + si.fname + " does not appear in GROUP BY list");
                     }
-                    outFields.add(0);
+                    outFields.add(group);
                     TupleDesc td = node.getTupleDesc();
                     int  id;
                     try {
-                        id = td.fieldNameToIndex(groupByField);
+                        id = td.fieldNameToIndex(si.fname);
                     } catch (NoSuchElementException e) {
-                        throw new ParsingException("Unknown field " +  groupByField + " in GROUP BY statement");
+                        throw new ParsingException("Unknown field " +  si.fname + " in GROUP BY statement");
                     }
                     outTypes.add(td.getFieldType(id));
             } else if (si.fname.equals("null.*")) {
@@ -459,23 +559,181 @@ public class LogicalPlan {
 
         if (hasAgg) {
             TupleDesc td = node.getTupleDesc();
-            Aggregate aggNode;
+            OpIterator aggNode;
             try {
-                aggNode = new Aggregate(node,
-                                        td.fieldNameToIndex(aggField),
-                                        groupByField == null?Aggregator.NO_GROUPING:td.fieldNameToIndex(groupByField),
-                                getAggOp(aggOp));
+                int[] afields = new int[aggFields.size()];
+                Aggregator.Op[] aops = new Aggregator.Op[aggOps.size()];
+                for (int i = 0; i < afields.length; i++) {
+                    afields[i] = td.fieldNameToIndex(aggFields.get(i));
+                    aops[i] = getAggOp(aggOps.get(i));
+                }
+                int[] gfields = new int[groupByFields.size()];
+                for (int i = 0; i < gfields.length; i++)
+                    gfields[i] = td.fieldNameToIndex(groupByFields.get(i));
+                Aggregate agg = new Aggregate(node, afields, aops, gfields, maxGroups);
+                agg.setParallel(parallelAggregates);
+                aggNode = agg;
+                // the vectorized aggregate runs in parallel too, unless it
+                // groups by a string field, which is left to the Aggregate
+                // if that runs in parallel
+                if (afields.length == 1 && gfields.length <= 1) {
+                    ColumnAggregate vectorized = vectorizedAggregate(t, node, agg);
+                    if (vectorized != null
+                            && (vectorized.aggregatesInParallel() || !agg.aggregatesInParallel()))
+                        aggNode = vectorized;
+                }
             } catch (NoSuchElementException | IllegalArgumentException e) {
                 throw new simpledb.ParsingException(e);
             }
             node = aggNode;
         }
 
-        if (hasOrderBy) {
-            node = new OrderBy(node.getTupleDesc().fieldNameToIndex(oByField), oByAsc, node);
+        if (!oByFields.isEmpty()) {
+            int[] fields = new int[oByFields.size()];
+            boolean[] asc = new boolean[fields.length];
+            for (int i = 0; i < fields.length; i++) {
+                try {
+                    fields[i] = node.getTupleDesc().fieldNameToIndex(oByFields.get(i));
+                } catch (NoSuchElementException e) {
+                    throw new ParsingException("Unknown field " + oByFields.get(i) + " in ORDER BY statement");
+                }
+                asc[i] = oByAsc.get(i);
+            }
+            if (limit >= 0) {
+                // only the first offset + limit tuples are ever returned
+                node = new TopN(fields, asc, node, (int) Math.min(Integer.MAX_VALUE, (long) offset + limit));
+            } else {
+                node = new OrderBy(fields, asc, node);
+            }
+        }
+
+        if (node instanceof Filter) {
+            // fuse the projection with the filters below it
+            List<Predicate> chain = new ArrayList<>();
+            while (node instanceof Filter) {
+                chain.add(0, ((Filter) node).getPredicate());
+                node = ((Filter) node).getChildren()[0];
+            }
+            node = new FilterProject(chain, outFields, outTypes.toArray(new Type[0]), node);
+        } else {
+            node = new Project(outFields, outTypes, node);
+        }
+        node = ParallelPlanner.parallelize(node, parallelism);
+        if (compilePipelines) {
+            node = PipelineCompiler.compile(node);
+        }
+        if (pushPipelines) {
+            node = PushPlanner.translate(node);
+        }
+        return limit >= 0 ? new Limit(node, limit, offset) : node;
+    }
+
+    /** @return the estimated cardinality of a subplan of this plan, or -1
+          if there are no statistics for one of its tables
+     */
+    private int estimateCardinality(OpIterator plan, Map<String,TableStats> statsMap) {
+        if (plan instanceof SeqScan) {
+            TableStats s = statsMap.get(((SeqScan) plan).getTableName());
+            return s == null ? -1 : s.estimateTableCardinality(1.0);
+        }
+        for (int id : tableMap.values()) {
+            if (statsMap.get(Database.getCatalog().getTableName(id)) == null)
+                return -1;
+        }
+        OperatorCardinality.updateOperatorCardinality((Operator) plan, tableMap, statsMap);
+        return ((Operator) plan).getEstimatedCardinality();
+    }
+
+    /** Build the vectorized equivalent of agg, an Aggregate over node:
+        filters over a scan of a table, or a hash join (or a
+        {@link RadixHashJoin}, whose budget it keeps) on int fields of two
+        of them that {@link ParallelPlanner} does not split.  The sides of
+        the join are projected onto the fields that the join and agg read,
+        so that the join copies no others.  agg is run instead if its
+        groups, or the build side of the join, do not fit in their budgets.
+        It runs in parallel if aggregates may.
+        @return the aggregate, or null if node cannot be vectorized
+     */
+    private ColumnAggregate vectorizedAggregate(TransactionId t, OpIterator node, Aggregate agg) {
+        int afield = agg.aggregateField();
+        int gfield = agg.groupField();
+        Aggregator.Op op = agg.aggregateOp();
+        if (!vectorize)
+            return null;
+        if (op != Aggregator.Op.COUNT && node.getTupleDesc().getFieldType(afield) != Type.INT_TYPE)
+            return null;
+        ColumnOperator col;
+        if (node instanceof HashEquiJoin || node instanceof RadixHashJoin) {
+            Operator j = (Operator) node;
+            JoinPredicate p = j instanceof HashEquiJoin ? ((HashEquiJoin) j).getJoinPredicate()
+                    : ((RadixHashJoin) j).getJoinPredicate();
+            ColumnOperator col1 = columnScan(t, j.getChildren()[0]);
+            ColumnOperator col2 = columnScan(t, j.getChildren()[1]);
+            if (col1 == null || col2 == null
+                    || col1.getTupleDesc().getFieldType(p.getField1()) != Type.INT_TYPE
+                    || col2.getTupleDesc().getFieldType(p.getField2()) != Type.INT_TYPE
+                    || ParallelPlanner.splits(tableId(col1), parallelism)
+                    || ParallelPlanner.splits(tableId(col2), parallelism))
+                return null;
+            // the fields of each side that are read, the join field first
+            int numFields1 = col1.getTupleDesc().numFields();
+            List<Integer> fields1 = new ArrayList<>(Collections.singletonList(p.getField1()));
+            List<Integer> fields2 = new ArrayList<>(Collections.singletonList(p.getField2()));
+            for (int f : new int[]{afield, gfield}) {
+                if (f == Aggregator.NO_GROUPING)
+                    continue;
+                List<Integer> fields = f < numFields1 ? fields1 : fields2;
+                int i = f < numFields1 ? f : f - numFields1;
+                if (!fields.contains(i))
+                    fields.add(i);
+            }
+            col = new ColumnHashJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 0),
+                    new ColumnProject(toArray(fields1), col1), new ColumnProject(toArray(fields2), col2),
+                    j instanceof HashEquiJoin ? ((HashEquiJoin) j).maxTuples() : RadixHashJoin.MAX_TUPLES);
+            afield = afield < numFields1 ? fields1.indexOf(afield)
+                    : fields1.size() + fields2.indexOf(afield - numFields1);
+            if (gfield != Aggregator.NO_GROUPING)
+                gfield = gfield < numFields1 ? fields1.indexOf(gfield)
+                        : fields1.size() + fields2.indexOf(gfield - numFields1);
+        } else {
+            col = columnScan(t, node);
+            if (col == null)
+                return null;
         }
+        ColumnAggregate vectorized = new ColumnAggregate(col, afield, gfield, op, agg);
+        vectorized.setParallel(parallelAggregates);
+        return vectorized;
+    }
+
+    /** @return the vectorized equivalent of plan, filters over a scan of
+          a whole HeapFile, or null if plan is not such a plan
+     */
+    private static ColumnOperator columnScan(TransactionId t, OpIterator plan) {
+        if (plan instanceof Filter) {
+            ColumnOperator child = columnScan(t, ((Filter) plan).getChildren()[0]);
+            return child == null ? null : new ColumnFilter(((Filter) plan).getPredicate(), child);
+        }
+        if (!(plan instanceof SeqScan))
+            return null;
+        SeqScan scan = (SeqScan) plan;
+        if (!(Database.getCatalog().getDatabaseFile(scan.getTableId()) instanceof HeapFile)
+                || scan.getMorsels() != null || scan.getFromPage() != 0 || scan.getToPage() >= 0)
+            return null;
+        return new ColumnScan(t, scan.getTableId(), scan.getAlias());
+    }
+
+    /** @return the table scanned under the filters of col */
+    private static int tableId(ColumnOperator col) {
+        while (col instanceof ColumnFilter)
+            col = ((ColumnFilter) col).getChild();
+        return ((ColumnScan) col).getTableId();
+    }
 
-        return new Project(outFields, outTypes, node);
+    private static int[] toArray(List<Integer> fields) {
+        int[] a = new int[fields.size()];
+        for (int i = 0; i < a.length; i++)
+            a[i] = fields.get(i);
+        return a;
     }
 
     public static void main(String[] argv) {
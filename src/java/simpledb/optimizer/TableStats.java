@@ -5,6 +5,7 @@ import simpledb.common.DbException;
 import simpledb.common.Type;
 import simpledb.execution.Predicate;
 import simpledb.execution.SeqScan;
+import simpledb.index.BTreeFile;
 import simpledb.storage.*;
 import simpledb.transaction.Transaction;
 import simpledb.transaction.TransactionAbortedException;
@@ -74,7 +75,7 @@ public class TableStats {
     private final int pagesNum;
     private final int tuplesNum;
     private final TupleDesc td;
-    private final HeapFile dbFile;
+    private final DbFile dbFile;
     private final ConcurrentHashMap<Integer,IntHistogram> intHistMap;
     private final ConcurrentHashMap<Integer,StringHistogram> strHistMap;
     private final ConcurrentHashMap<Integer,Integer> minMap;
@@ -101,8 +102,9 @@ public class TableStats {
         // some code goes here
         this.tableId = tableid;
         this.ioCostPerPage = ioCostPerPage;
-        this.dbFile = (HeapFile) Database.getCatalog().getDatabaseFile(tableid);
-        this.pagesNum = this.dbFile.numPages();
+        this.dbFile = Database.getCatalog().getDatabaseFile(tableid);
+        this.pagesNum = dbFile instanceof BTreeFile ? ((BTreeFile) dbFile).numPages()
+                : ((HeapFile) dbFile).numPages();
         this.td = dbFile.getTupleDesc();
         this.intHistMap = new ConcurrentHashMap<>();
         this.strHistMap = new ConcurrentHashMap<>();
@@ -37,6 +37,12 @@ public class BufferPool {
     private final LRUCache<PageId,Page> lruCache;
 
     private final LockManager lockManager;
+
+    // the pages asynchronous commits left dirty in the pool, with their
+    // committing transactions; they are written once the log holding
+    // their records has been forced (see flushCommittedPages)
+    private final Map<PageId, TransactionId> committedPages = new HashMap<>(); // guarded by this
+
     /**
      * Creates a BufferPool that caches up to numPages pages.
      *
@@ -90,15 +96,22 @@ public class BufferPool {
             }catch (InterruptedException e){
                 System.out.println("getPage()获取锁异常:"+e);
             }
-            if (this.lruCache.get(pid) != null){
-                return this.lruCache.get(pid);
-            }else{
-                // need to be add to buffer pool
-                DbFile file = Database.getCatalog().getDatabaseFile(pid.getTableId());
-                Page page = file.readPage(pid);
-                lruCache.put(pid,page);
+            // a single lookup, since the page may be evicted between two
+            Page page = this.lruCache.get(pid);
+            if (page != null){
                 return page;
             }
+            // need to be add to buffer pool; the page is read and added in
+            // one step, so that threads missing it at once share one copy
+            synchronized (this){
+                page = this.lruCache.get(pid);
+                if (page == null){
+                    DbFile file = Database.getCatalog().getDatabaseFile(pid.getTableId());
+                    page = file.readPage(pid);
+                    putPage(pid,page);
+                }
+            }
+            return page;
         }
         // todo
         return null;
@@ -147,9 +160,23 @@ public class BufferPool {
     public void transactionComplete(TransactionId tid, boolean commit) {
         // some code goes here
         // not necessary for lab1|lab2
+        transactionComplete(tid, commit, false);
+    }
+
+    /**
+     * Commit or abort a given transaction; release all locks associated to
+     * the transaction.  The pages of an asynchronous commit are logged but
+     * not forced to disk: they stay in the pool, and are written after the
+     * log has been forced, which the log does in the background.
+     *
+     * @param tid the ID of the transaction requesting the unlock
+     * @param commit a flag indicating whether we should commit or abort
+     * @param async whether a commit is asynchronous
+     */
+    public void transactionComplete(TransactionId tid, boolean commit, boolean async) {
         if (commit){
             try {
-                flushPagesAndSetImg(tid);
+                flushPagesAndSetImg(tid, async);
             }catch (IOException e){
                 e.printStackTrace();
             }
@@ -171,6 +198,14 @@ public class BufferPool {
         List<Page> pages = getPagesByTid(tid);
         for (Page page : pages) {
             PageId pageId = page.getId();
+            TransactionId committer = committedPages.get(pageId);
+            if (committer != null) {
+                // the committed page is not on disk yet
+                Page originPage = page.getBeforeImage();
+                originPage.markDirty(true, committer);
+                lruCache.put(pageId, originPage);
+                continue;
+            }
             Page originPage = Database.getCatalog().getDatabaseFile(pageId.getTableId()).readPage(pageId);
             // recovery page
             lruCache.put(pageId,originPage);
@@ -225,7 +260,27 @@ public class BufferPool {
     private void updateBufferPool(List<Page> pages,TransactionId tid) throws DbException{
         for (Page page : pages) {
             page.markDirty(true,tid);
-            lruCache.put(page.getId(),page);
+            putPage(page.getId(),page);
+        }
+    }
+
+    // add a page to the cache; if every page in it is dirty, write the
+    // pages of asynchronous commits first to make room
+    private void putPage(PageId pid, Page page) throws DbException {
+        try {
+            lruCache.put(pid, page);
+        } catch (DbException e) {
+            synchronized (this) {
+                if (committedPages.isEmpty()) {
+                    throw e;
+                }
+                try {
+                    flushCommittedPages();
+                } catch (IOException ioe) {
+                    throw new DbException("could not write committed pages: " + ioe.getMessage());
+                }
+            }
+            lruCache.put(pid, page);
         }
     }
 
@@ -254,6 +309,7 @@ public class BufferPool {
         // some code goes here
         // not necessary for lab1
         this.lruCache.remove(pid);
+        committedPages.remove(pid);
     }
 
     /**
@@ -266,6 +322,14 @@ public class BufferPool {
         Page page = lruCache.get(pid);
         if (page == null) { return; }
         TransactionId tid = page.isDirty();
+        if (tid != null && tid.equals(committedPages.get(pid))) {
+            // logged by an asynchronous commit already
+            Database.getLogFile().force();
+            page.markDirty(false, null);
+            Database.getCatalog().getDatabaseFile(pid.getTableId()).writePage(page);
+            committedPages.remove(pid);
+            return;
+        }
         // dirty
         if (tid != null){
             Database.getLogFile().logWrite(tid,page.getBeforeImage(),page);
@@ -288,14 +352,42 @@ public class BufferPool {
         }
     }
 
-    private synchronized void flushPagesAndSetImg(TransactionId tid) throws IOException{
+    private synchronized void flushPagesAndSetImg(TransactionId tid, boolean async) throws IOException{
         List<Page> pages = getPagesByTid(tid);
         for (Page page : pages) {
             Database.getLogFile().logWrite(tid,page.getBeforeImage(),page);
+            if (async) {
+                // still dirty, so it is not evicted before it is written
+                page.setBeforeImage();
+                committedPages.put(page.getId(), tid);
+                continue;
+            }
             Database.getLogFile().force();
             page.markDirty(false,null);
             Database.getCatalog().getDatabaseFile(page.getId().getTableId()).writePage(page);
             page.setBeforeImage();
+            committedPages.remove(page.getId());
+        }
+    }
+
+    /**
+     * Force the log, then write the pages asynchronous commits left in the
+     * pool.  A page that another transaction has dirtied since is left to
+     * that transaction.
+     */
+    public synchronized void flushCommittedPages() throws IOException {
+        Database.getLogFile().forceCommitted();
+        Iterator<Map.Entry<PageId, TransactionId>> it = committedPages.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<PageId, TransactionId> e = it.next();
+            LRUNode<PageId, Page> node = lruCache.data.get(e.getKey());
+            if (node == null || node.value.isDirty() == null) {
+                it.remove();
+            } else if (node.value.isDirty().equals(e.getValue())) {
+                node.value.markDirty(false, null);
+                Database.getCatalog().getDatabaseFile(e.getKey().getTableId()).writePage(node.value);
+                it.remove();
+            }
         }
     }
 
@@ -169,22 +169,91 @@ public class HeapFile implements DbFile {
         return new HeapFileIterator(this,tid);
     }
 
+    /**
+     * Returns an iterator over the tuples of pages fromPage to toPage - 1 of
+     * this file, so that several iterators can scan parts of it.
+     *
+     * @param toPage the page after the last one to scan, or -1 to scan up to
+     *               the last page of the file when the iterator is opened
+     */
+    public DbFileIterator iterator(TransactionId tid, int fromPage, int toPage) {
+        return new HeapFileIterator(this, tid, fromPage, toPage);
+    }
+
+    /**
+     * Returns an iterator over the tuples of the morsels of pages it takes
+     * from morsels, so that several iterators can scan this file together.
+     */
+    public DbFileIterator iterator(TransactionId tid, PageMorsels morsels) {
+        return new HeapFileIterator(this, tid, morsels);
+    }
+
     public static final class HeapFileIterator implements DbFileIterator{
 
         private final HeapFile file;
         private final TransactionId tid;
+        // the pages scanned, from fromPage to toPage - 1; toPage is -1 to
+        // scan up to the last page
+        private final int fromPage, toPage;
+        // the morsels of pages to scan instead of a range, if not null, the
+        // end of the current morsel, and whether the iterator is open
+        private final PageMorsels morsels;
+        private int morselEnd;
+        private boolean opened = false;
         private int pageNo;
         private Iterator<Tuple> iterator;
 
         public HeapFileIterator(HeapFile file, TransactionId tid) {
+            this(file, tid, 0, -1);
+        }
+
+        public HeapFileIterator(HeapFile file, TransactionId tid, int fromPage, int toPage) {
+            this.file = file;
+            this.tid = tid;
+            this.fromPage = fromPage;
+            this.toPage = toPage;
+            this.morsels = null;
+        }
+
+        public HeapFileIterator(HeapFile file, TransactionId tid, PageMorsels morsels) {
             this.file = file;
             this.tid = tid;
+            this.fromPage = 0;
+            this.toPage = -1;
+            this.morsels = morsels;
+        }
+
+        // the page after the last one to scan
+        private int endPage() {
+            return toPage < 0 ? file.numPages() : Math.min(toPage, file.numPages());
+        }
+
+        // the page to scan after pageNo, taking a new morsel if the current
+        // one is done, or -1 if there is none
+        private int nextPage() {
+            if (pageNo + 1 < morselEnd) {
+                return pageNo + 1;
+            }
+            int from = morsels.next();
+            if (from >= 0) {
+                morselEnd = morsels.end(from);
+            }
+            return from;
         }
 
         @Override
         public void open() throws DbException, TransactionAbortedException {
-            this.pageNo = 0;
-            this.iterator = getPageIterator(pageNo);
+            if (morsels != null) {
+                opened = true;
+                this.pageNo = -1;
+                this.morselEnd = 0;
+                this.pageNo = nextPage();
+                this.iterator = pageNo < 0 ? null : getPageIterator(pageNo);
+                return;
+            }
+            this.pageNo = fromPage;
+            // an empty range of pages of a partial scan has no tuples
+            this.iterator = toPage >= 0 && pageNo >= endPage() ? null : getPageIterator(pageNo);
         }
 
         private Iterator<Tuple> getPageIterator(int pageNo) throws TransactionAbortedException,DbException{
@@ -199,7 +268,10 @@ public class HeapFile implements DbFile {
         public boolean hasNext() throws DbException, TransactionAbortedException {
             // current page is over,try next page
             while (iterator !=null && !iterator.hasNext()){
-                if (pageNo < file.numPages()-1){
+                if (morsels != null) {
+                    pageNo = nextPage();
+                    iterator = pageNo < 0 ? null : getPageIterator(pageNo);
+                } else if (pageNo < endPage()-1){
                     pageNo++;
                     iterator = getPageIterator(pageNo);
                 }else{
@@ -226,6 +298,10 @@ public class HeapFile implements DbFile {
         @Override
         public void close() {
             iterator = null;
+            if (opened) {
+                opened = false;
+                morsels.release();
+            }
         }
     }
 }
@@ -357,6 +357,54 @@ public class HeapPage implements Page {
         }
     }
 
+    /**
+     * Copy the values of an integer field of the tuples on this page into
+     * out, in slot order and skipping empty slots.  Column-at-a-time scans
+     * use this to read a page without going through Tuple and Field.
+     *
+     * @param field the index of an INT_TYPE field
+     * @param out the array to store the values in
+     * @param off the index of out to store the first value at
+     * @return the number of values stored
+     */
+    public int readIntColumn(int field, int[] out, int off) {
+        int n = off;
+        for (int i = 0; i < numSlots; i++) {
+            if (isSlotUsed(i)) {
+                out[n++] = ((IntField) tuples[i].getField(field)).getValue();
+            }
+        }
+        return n - off;
+    }
+
+    /**
+     * Copy the values of a string field of the tuples on this page into
+     * out, in slot order and skipping empty slots.
+     *
+     * @see #readIntColumn(int, int[], int)
+     */
+    public int readStringColumn(int field, String[] out, int off) {
+        int n = off;
+        for (int i = 0; i < numSlots; i++) {
+            if (isSlotUsed(i)) {
+                out[n++] = ((StringField) tuples[i].getField(field)).getValue();
+            }
+        }
+        return n - off;
+    }
+
+    /**
+     * @return the tuple in the specified slot, or null if the slot is empty
+     */
+    public Tuple getTuple(int i) {
+        return isSlotUsed(i) ? tuples[i] : null;
+    }
+
+    /** @return the number of tuple slots on this page */
+    public int getNumSlots() {
+        return numSlots;
+    }
+
     /**
      * @return an iterator over all tuples on this page (calling remove on this iterator throws an UnsupportedOperationException)
      * (note that this iterator shouldn't return tuples in empty slots!)
@@ -5,10 +5,11 @@ import simpledb.common.Database;
 import simpledb.transaction.TransactionId;
 import simpledb.common.Debug;
 
-import javax.xml.crypto.Data;
 import java.io.*;
 import java.util.*;
-import java.lang.reflect.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 /*
 LogFile implements the recovery subsystem of SimpleDb.  This class is
@@ -44,17 +45,22 @@ must not be declared synchronized and must begin with a block like:
 
 <ul>
 
-<li> The first long integer of the file represents the offset of the
-last written checkpoint, or -1 if there are no checkpoints
+<li> The log file itself only holds two long integers: the offset of the
+last written checkpoint, or -1 if there are no checkpoints, and the
+offset of the first record of the log.
 
-<li> All additional data in the log consists of log records.  Log
+<li> The log records are stored in fixed-size segment files next to the
+log file (see LogSegments).  Offsets in the log keep growing across
+segments and are never reused, so truncating the log retires whole
+segments instead of rewriting the records that are still needed.  Log
 records are variable length.
 
 <li> Each log record begins with an integer type and a long integer
 transaction id.
 
 <li> Each log record ends with a long integer file offset representing
-the position in the log file where the record began.
+the position in the log file where the record began.  Recovery uses it
+to find the end of the log, since segments are preallocated and reused.
 
 <li> There are five record types: ABORT, COMMIT, UPDATE, BEGIN, and
 CHECKPOINT
@@ -62,9 +68,9 @@ CHECKPOINT
 <li> ABORT, COMMIT, and BEGIN records contain no additional data
 
 <li>UPDATE RECORDS consist of two entries, a before image and an
-after image.  These images are serialized Page objects, and can be
-accessed with the LogFile.readPageData() and LogFile.writePageData()
-methods.  See LogFile.print() for an example.
+after image.  These images are serialized Page objects, tagged with
+their PageType, and can be accessed with the LogFile.readPageData() and
+LogFile.writePageData() methods.  See LogFile.print() for an example.
 
 <li> CHECKPOINT records consist of active transactions at the time
 the checkpoint was taken and their first log record on disk.  The format
@@ -77,7 +83,8 @@ for each active transaction.
 public class LogFile {
 
     final File logFile;
-    private RandomAccessFile raf;
+    private final RandomAccessFile control;
+    private LogSegments segments;
     Boolean recoveryUndecided; // no call to recover() and no append to log
 
     static final int ABORT_RECORD = 1;
@@ -90,12 +97,49 @@ public class LogFile {
     final static int INT_SIZE = 4;
     final static int LONG_SIZE = 8;
 
+    /** Default size of the segment files holding the log records */
+    public static final int DEFAULT_SEGMENT_SIZE = 4 * 1024 * 1024;
+
     long currentOffset = -1;//protected by this
 //    int pageSize;
     int totalRecords = 0; // for PatchTest //protected by this
 
     final Map<Long,Long> tidToFirstLogRecord = new HashMap<>();
 
+    /** Default bound on the number of before images kept in memory for a
+        single transaction, see {@link #setMaxUndoPages(int)} */
+    public static final int DEFAULT_MAX_UNDO_PAGES = 64;
+
+    int maxUndoPages = DEFAULT_MAX_UNDO_PAGES; //protected by this
+
+    // undo buffer: the first before image of every page each live
+    // transaction logged, so rollback doesn't have to re-read the log.
+    // A transaction whose buffer outgrows maxUndoPages is moved to
+    // spilledUndo and rolled back from its log records instead.
+    final Map<Long,Map<PageId,Page>> tidToUndoPages = new HashMap<>(); //protected by this
+    final Set<Long> spilledUndo = new HashSet<>(); //protected by this
+
+    /** Default bound, in milliseconds, on how long the COMMIT record of an
+        asynchronous commit may stay unforced, see {@link #setMaxCommitDelay(long)} */
+    public static final long DEFAULT_MAX_COMMIT_DELAY_MS = 10;
+
+    long maxCommitDelayMs = DEFAULT_MAX_COMMIT_DELAY_MS; //protected by this
+    // an asynchronous COMMIT record was written but not yet forced
+    boolean unforcedCommits = false; //protected by this
+    // a background force of the log is scheduled
+    boolean forceScheduled = false; //protected by this
+    // why the last background force failed, reported by the next commit
+    IOException forceFailure = null; //protected by this
+    int totalForces = 0; //protected by this
+
+    // forces the log for asynchronous commits of every LogFile
+    private static final ScheduledExecutorService committer =
+        Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "LogFile committer");
+            t.setDaemon(true);
+            return t;
+        });
+
     /** Constructor.
         Initialize and back the log file with the specified file.
         We're not sure yet whether the caller is creating a brand new DB,
@@ -108,8 +152,20 @@ public class LogFile {
         @param f The log file's name
     */
     public LogFile(File f) throws IOException {
-	this.logFile = f;
-        raf = new RandomAccessFile(f, "rw");
+        this(f, DEFAULT_SEGMENT_SIZE);
+    }
+
+    /** Constructor.
+        Initialize and back the log file with the specified file, storing
+        log records in segment files of the specified size.
+
+        @param f The log file's name
+        @param segmentSize The size of each log segment file in bytes
+    */
+    public LogFile(File f, int segmentSize) throws IOException {
+        this.logFile = f;
+        control = new RandomAccessFile(f, "rw");
+        segments = new LogSegments(f, segmentSize);
         recoveryUndecided = true;
 
         // install shutdown hook to force cleanup on close
@@ -130,18 +186,69 @@ public class LogFile {
         totalRecords++;
         if(recoveryUndecided){
             recoveryUndecided = false;
-            raf.seek(0);
-            raf.setLength(0);
-            raf.writeLong(NO_CHECKPOINT_ID);
-            raf.seek(raf.length());
-            currentOffset = raf.getFilePointer();
+            currentOffset = segments.restart();
+            writeControl(NO_CHECKPOINT_ID, currentOffset);
         }
+        segments.seek(currentOffset);
+    }
+
+    // the checkpoint offset and first record offset from the log file
+    private long[] readControl() throws IOException {
+        control.seek(0);
+        return new long[] { control.readLong(), control.readLong() };
+    }
+
+    private void writeControl(long checkpoint, long start) throws IOException {
+        control.seek(0);
+        control.writeLong(checkpoint);
+        control.writeLong(start);
+        control.getChannel().force(true);
     }
 
     public synchronized int getTotalRecords() {
         return totalRecords;
     }
 
+    /** @return the number of times the log was forced to disk */
+    public synchronized int getTotalForces() {
+        return totalForces;
+    }
+
+    /** Set the maximum number of before images buffered in memory for a
+        single transaction.  Transactions that update more pages than this
+        are rolled back by reading their records from the log.
+
+        @param maxUndoPages the bound, 0 disables the undo buffer
+    */
+    public synchronized void setMaxUndoPages(int maxUndoPages) {
+        this.maxUndoPages = maxUndoPages;
+    }
+
+    // forget the undo state of a transaction that has finished
+    private void releaseUndo(Long tid) {
+        tidToUndoPages.remove(tid);
+        spilledUndo.remove(tid);
+    }
+
+    // remember the before image of a page written by tid, unless an
+    // earlier image of that page is already buffered
+    private void bufferUndo(Long tid, Page before) {
+        if (spilledUndo.contains(tid)) {
+            return;
+        }
+        Map<PageId,Page> undoPages = tidToUndoPages.computeIfAbsent(tid, k -> new LinkedHashMap<>());
+        if (undoPages.containsKey(before.getId())) {
+            return;
+        }
+        if (undoPages.size() >= maxUndoPages) {
+            // the before images are already in the log; fall back to it
+            tidToUndoPages.remove(tid);
+            spilledUndo.add(tid);
+            return;
+        }
+        undoPages.put(before.getId(), before);
+    }
+
     /** Write an abort record to the log for the specified tid, force
         the log to disk, and perform a rollback
         @param tid The aborting transaction.
@@ -161,12 +268,13 @@ public class LogFile {
                 // live transactions (needs tidToFirstLogRecord)
                 rollback(tid);
 
-                raf.writeInt(ABORT_RECORD);
-                raf.writeLong(tid.getId());
-                raf.writeLong(currentOffset);
-                currentOffset = raf.getFilePointer();
+                segments.writeInt(ABORT_RECORD);
+                segments.writeLong(tid.getId());
+                segments.writeLong(currentOffset);
+                currentOffset = segments.getFilePointer();
                 force();
                 tidToFirstLogRecord.remove(tid.getId());
+                releaseUndo(tid.getId());
             }
         }
     }
@@ -177,16 +285,82 @@ public class LogFile {
         @param tid The committing transaction.
     */
     public synchronized void logCommit(TransactionId tid) throws IOException {
+        logCommit(tid, false);
+    }
+
+    /** Write a commit record for the specified tid.  A synchronous
+        commit forces the log to disk before returning.  An asynchronous
+        commit returns as soon as the record is written, and the log is
+        forced in the background no later than the maximum commit delay
+        afterwards; if the system crashes in between, the transaction may
+        be rolled back by recovery.  If a background force fails, the next
+        commit fails with its error.
+
+        @param tid The committing transaction.
+        @param async Whether to defer forcing the log
+    */
+    public synchronized void logCommit(TransactionId tid, boolean async) throws IOException {
+        if (forceFailure != null) {
+            IOException e = new IOException("earlier asynchronous commits may not be durable", forceFailure);
+            forceFailure = null;
+            throw e;
+        }
         preAppend();
         Debug.log("COMMIT " + tid.getId());
         //should we verify that this is a live transaction?
 
-        raf.writeInt(COMMIT_RECORD);
-        raf.writeLong(tid.getId());
-        raf.writeLong(currentOffset);
-        currentOffset = raf.getFilePointer();
-        force();
+        segments.writeInt(COMMIT_RECORD);
+        segments.writeLong(tid.getId());
+        segments.writeLong(currentOffset);
+        currentOffset = segments.getFilePointer();
+        if (async) {
+            unforcedCommits = true;
+            scheduleForce();
+        } else {
+            force();
+        }
         tidToFirstLogRecord.remove(tid.getId());
+        releaseUndo(tid.getId());
+    }
+
+    /** Set the maximum time the COMMIT record of an asynchronous commit
+        may stay unforced.
+
+        @param millis the delay in milliseconds, 0 forces right away
+    */
+    public synchronized void setMaxCommitDelay(long millis) {
+        this.maxCommitDelayMs = millis;
+    }
+
+    // make sure the log is forced within maxCommitDelayMs
+    private void scheduleForce() throws IOException {
+        if (maxCommitDelayMs <= 0) {
+            force();
+            return;
+        }
+        if (!forceScheduled) {
+            forceScheduled = true;
+            committer.schedule(this::forceCommits, maxCommitDelayMs, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    // background task forcing asynchronous commits, and writing the pages
+    // they left in the buffer pool once their records are on disk
+    private void forceCommits() {
+        synchronized (this) {
+            forceScheduled = false;
+        }
+        try {
+            if (this == Database.getLogFile()) {
+                Database.getBufferPool().flushCommittedPages();
+            } else {
+                forceCommitted();
+            }
+        } catch (IOException e) {
+            synchronized (this) {
+                forceFailure = e;
+            }
+        }
     }
 
     /** Write an UPDATE record to disk for the specified tid and page
@@ -200,7 +374,7 @@ public class LogFile {
     public  synchronized void logWrite(TransactionId tid, Page before,
                                        Page after)
         throws IOException  {
-        Debug.log("WRITE, offset = " + raf.getFilePointer());
+        Debug.log("WRITE, offset = " + segments.getFilePointer());
         preAppend();
         /* update record conists of
 
@@ -210,83 +384,29 @@ public class LogFile {
            after page data
            start offset
         */
-        raf.writeInt(UPDATE_RECORD);
-        raf.writeLong(tid.getId());
+        segments.writeInt(UPDATE_RECORD);
+        segments.writeLong(tid.getId());
 
-        writePageData(raf,before);
-        writePageData(raf,after);
-        raf.writeLong(currentOffset);
-        currentOffset = raf.getFilePointer();
+        writePageData(segments,before);
+        writePageData(segments,after);
+        segments.writeLong(currentOffset);
+        currentOffset = segments.getFilePointer();
+        bufferUndo(tid.getId(), before);
 
         Debug.log("WRITE OFFSET = " + currentOffset);
     }
 
-    void writePageData(RandomAccessFile raf, Page p) throws IOException{
-        PageId pid = p.getId();
-        int[] pageInfo = pid.serialize();
-
+    void writePageData(DataOutput out, Page p) throws IOException{
         //page data is:
-        // page class name
-        // id class name
-        // id class bytes
-        // id class data
-        // page class bytes
-        // page class data
-
-        String pageClassName = p.getClass().getName();
-        String idClassName = pid.getClass().getName();
-
-        raf.writeUTF(pageClassName);
-        raf.writeUTF(idClassName);
-
-        raf.writeInt(pageInfo.length);
-        for (int j : pageInfo) {
-            raf.writeInt(j);
-        }
-        byte[] pageData = p.getPageData();
-        raf.writeInt(pageData.length);
-        raf.write(pageData);
-        //        Debug.log ("WROTE PAGE DATA, CLASS = " + pageClassName + ", table = " +  pid.getTableId() + ", page = " + pid.pageno());
+        // page type tag
+        // page id data
+        // page data length
+        // page data
+        PageType.writePage(out, p);
     }
 
-    Page readPageData(RandomAccessFile raf) throws IOException {
-        PageId pid;
-        Page newPage = null;
-
-        String pageClassName = raf.readUTF();
-        String idClassName = raf.readUTF();
-
-        try {
-            Class<?> idClass = Class.forName(idClassName);
-            Class<?> pageClass = Class.forName(pageClassName);
-
-            Constructor<?>[] idConsts = idClass.getDeclaredConstructors();
-            int numIdArgs = raf.readInt();
-            Object[] idArgs = new Object[numIdArgs];
-            for (int i = 0; i<numIdArgs;i++) {
-                idArgs[i] = raf.readInt();
-            }
-            pid = (PageId)idConsts[0].newInstance(idArgs);
-
-            Constructor<?>[] pageConsts = pageClass.getDeclaredConstructors();
-            int pageSize = raf.readInt();
-
-            byte[] pageData = new byte[pageSize];
-            raf.read(pageData); //read before image
-
-            Object[] pageArgs = new Object[2];
-            pageArgs[0] = pid;
-            pageArgs[1] = pageData;
-
-            newPage = (Page)pageConsts[0].newInstance(pageArgs);
-
-            //            Debug.log("READ PAGE OF TYPE " + pageClassName + ", table = " + newPage.getId().getTableId() + ", page = " + newPage.getId().pageno());
-        } catch (ClassNotFoundException | InvocationTargetException | IllegalAccessException | InstantiationException e){
-            e.printStackTrace();
-            throw new IOException();
-        }
-        return newPage;
-
+    Page readPageData(DataInput in) throws IOException {
+        return PageType.readPage(in);
     }
 
     /** Write a BEGIN record for the specified transaction
@@ -301,11 +421,11 @@ public class LogFile {
             throw new IOException("double logXactionBegin()");
         }
         preAppend();
-        raf.writeInt(BEGIN_RECORD);
-        raf.writeLong(tid.getId());
-        raf.writeLong(currentOffset);
+        segments.writeInt(BEGIN_RECORD);
+        segments.writeLong(tid.getId());
+        segments.writeLong(currentOffset);
         tidToFirstLogRecord.put(tid.getId(), currentOffset);
-        currentOffset = raf.getFilePointer();
+        currentOffset = segments.getFilePointer();
 
         Debug.log("BEGIN OFFSET = " + currentOffset);
     }
@@ -315,35 +435,34 @@ public class LogFile {
         //make sure we have buffer pool lock before proceeding
         synchronized (Database.getBufferPool()) {
             synchronized (this) {
-                //Debug.log("CHECKPOINT, offset = " + raf.getFilePointer());
+                //Debug.log("CHECKPOINT, offset = " + segments.getFilePointer());
                 preAppend();
-                long startCpOffset, endCpOffset;
+                long startCpOffset;
                 Set<Long> keys = tidToFirstLogRecord.keySet();
                 Iterator<Long> els = keys.iterator();
                 force();
                 Database.getBufferPool().flushAllPages();
-                startCpOffset = raf.getFilePointer();
-                raf.writeInt(CHECKPOINT_RECORD);
-                raf.writeLong(-1); //no tid , but leave space for convenience
+                startCpOffset = segments.getFilePointer();
+                segments.writeInt(CHECKPOINT_RECORD);
+                segments.writeLong(-1); //no tid , but leave space for convenience
 
                 //write list of outstanding transactions
-                raf.writeInt(keys.size());
+                segments.writeInt(keys.size());
                 while (els.hasNext()) {
                     Long key = els.next();
                     Debug.log("WRITING CHECKPOINT TRANSACTION ID: " + key);
-                    raf.writeLong(key);
+                    segments.writeLong(key);
                     //Debug.log("WRITING CHECKPOINT TRANSACTION OFFSET: " + tidToFirstLogRecord.get(key));
-                    raf.writeLong(tidToFirstLogRecord.get(key));
+                    segments.writeLong(tidToFirstLogRecord.get(key));
                 }
 
-                //once the CP is written, make sure the CP location at the
-                // beginning of the log file is updated
-                endCpOffset = raf.getFilePointer();
-                raf.seek(0);
-                raf.writeLong(startCpOffset);
-                raf.seek(endCpOffset);
-                raf.writeLong(currentOffset);
-                currentOffset = raf.getFilePointer();
+                segments.writeLong(currentOffset);
+                currentOffset = segments.getFilePointer();
+
+                //once the CP is written, make sure the CP location in
+                // the log file is updated
+                force();
+                writeControl(startCpOffset, segments.getFirst());
                 //Debug.log("CP OFFSET = " + currentOffset);
             }
         }
@@ -352,99 +471,48 @@ public class LogFile {
     }
 
     /** Truncate any unneeded portion of the log to reduce its space
-        consumption */
+        consumption.  Only whole segments before the oldest record still
+        needed for recovery are retired; no records are copied. */
     public synchronized void logTruncate() throws IOException {
         preAppend();
-        raf.seek(0);
-        long cpLoc = raf.readLong();
-
-        long minLogRecord = cpLoc;
-
-        if (cpLoc != -1L) {
-            raf.seek(cpLoc);
-            int cpType = raf.readInt();
-            @SuppressWarnings("unused")
-            long cpTid = raf.readLong();
-
-            if (cpType != CHECKPOINT_RECORD) {
-                throw new RuntimeException("Checkpoint pointer does not point to checkpoint record");
-            }
-
-            int numOutstanding = raf.readInt();
-
-            for (int i = 0; i < numOutstanding; i++) {
-                @SuppressWarnings("unused")
-                long tid = raf.readLong();
-                long firstLogRecord = raf.readLong();
-                if (firstLogRecord < minLogRecord) {
-                    minLogRecord = firstLogRecord;
-                }
-            }
+        long cpLoc = readControl()[0];
+        if (cpLoc == NO_CHECKPOINT_ID) {
+            return;
         }
+        long minLogRecord = minLiveRecord(cpLoc);
 
         // we can truncate everything before minLogRecord
-        File newFile = new File("logtmp" + System.currentTimeMillis());
-        RandomAccessFile logNew = new RandomAccessFile(newFile, "rw");
-        logNew.seek(0);
-        logNew.writeLong((cpLoc - minLogRecord) + LONG_SIZE);
-
-        raf.seek(minLogRecord);
-
-        //have to rewrite log records since offsets are different after truncation
-        while (true) {
-            try {
-                int type = raf.readInt();
-                long record_tid = raf.readLong();
-                long newStart = logNew.getFilePointer();
-
-                Debug.log("NEW START = " + newStart);
+        segments.truncateBefore(minLogRecord);
+        writeControl(cpLoc, segments.getFirst());
 
-                logNew.writeInt(type);
-                logNew.writeLong(record_tid);
+        Debug.log("TRUNCATING LOG; NEW START : " + segments.getFirst() + " NEW LENGTH: " + (segments.length() - segments.getFirst()));
+        segments.seek(currentOffset);
+    }
 
-                switch (type) {
-                case UPDATE_RECORD:
-                    Page before = readPageData(raf);
-                    Page after = readPageData(raf);
+    // the smaller of the checkpoint offset and the first record of every
+    // transaction that was active when the checkpoint was taken
+    private long minLiveRecord(long cpLoc) throws IOException {
+        long minLogRecord = cpLoc;
+        segments.seek(cpLoc);
+        int cpType = segments.readInt();
+        @SuppressWarnings("unused")
+        long cpTid = segments.readLong();
 
-                    writePageData(logNew, before);
-                    writePageData(logNew, after);
-                    break;
-                case CHECKPOINT_RECORD:
-                    int numXactions = raf.readInt();
-                    logNew.writeInt(numXactions);
-                    while (numXactions-- > 0) {
-                        long xid = raf.readLong();
-                        long xoffset = raf.readLong();
-                        logNew.writeLong(xid);
-                        logNew.writeLong((xoffset - minLogRecord) + LONG_SIZE);
-                    }
-                    break;
-                case BEGIN_RECORD:
-                    tidToFirstLogRecord.put(record_tid,newStart);
-                    break;
-                }
+        if (cpType != CHECKPOINT_RECORD) {
+            throw new RuntimeException("Checkpoint pointer does not point to checkpoint record");
+        }
 
-                //all xactions finish with a pointer
-                logNew.writeLong(newStart);
-                raf.readLong();
+        int numOutstanding = segments.readInt();
 
-            } catch (EOFException e) {
-                break;
+        for (int i = 0; i < numOutstanding; i++) {
+            @SuppressWarnings("unused")
+            long tid = segments.readLong();
+            long firstLogRecord = segments.readLong();
+            if (firstLogRecord < minLogRecord) {
+                minLogRecord = firstLogRecord;
             }
         }
-
-        Debug.log("TRUNCATING LOG;  WAS " + raf.length() + " BYTES ; NEW START : " + minLogRecord + " NEW LENGTH: " + (raf.length() - minLogRecord));
-
-        raf.close();
-        logFile.delete();
-        newFile.renameTo(logFile);
-        raf = new RandomAccessFile(logFile, "rw");
-        raf.seek(raf.length());
-        newFile.delete();
-
-        currentOffset = raf.getFilePointer();
-        //print();
+        return minLogRecord;
     }
 
     /** Rollback the specified transaction, setting the state of any
@@ -453,6 +521,9 @@ public class LogFile {
         transactions that have already committed (though this may not
         be enforced by this method.)
 
+        The before images come from the transaction's undo buffer when it
+        fits in memory, otherwise from its records in the log.
+
         @param tid The transaction to rollback
     */
     public void rollback(TransactionId tid)
@@ -460,40 +531,61 @@ public class LogFile {
         synchronized (Database.getBufferPool()) {
             synchronized(this) {
                 preAppend();
-                // some code goes here
-                //print();
-                Long lsn = tidToFirstLogRecord.get(tid.getId());
-                HashSet<PageId> set = new HashSet<>();
-                raf.seek(lsn);
-                while (true){
-                    try {
-                        int type = raf.readInt();
-                        long curTid = raf.readLong();
-                        switch (type){
-                            case CHECKPOINT_RECORD:
-                                int numXactions = raf.readInt();
-                                while (numXactions-- > 0) {
-                                    long xid = raf.readLong();
-                                    long xoffset = raf.readLong();
-                                }
-                                break;
-                            case UPDATE_RECORD:
-                                Page beforePage = readPageData(raf);
-                                Page curPage = readPageData(raf);
-                                if (curTid == tid.getId() && !set.contains(beforePage.getId())){
-                                    set.add(beforePage.getId());
-                                    DbFile dbFile = Database.getCatalog().getDatabaseFile(beforePage.getId().getTableId());
-                                    dbFile.writePage(beforePage);
-                                    Database.getBufferPool().discardPage(curPage.getId());
-                                }
+                Map<PageId,Page> undoPages = tidToUndoPages.get(tid.getId());
+                if (undoPages != null) {
+                    for (Page beforePage : undoPages.values()) {
+                        undoPage(beforePage);
+                    }
+                } else if (spilledUndo.contains(tid.getId())) {
+                    rollbackFromLog(tid);
+                }
+                // otherwise the transaction has not logged any update
+            }
+        }
+    }
+
+    // install a before image on disk and drop the page from the buffer pool
+    private void undoPage(Page beforePage) throws IOException {
+        DbFile dbFile = Database.getCatalog().getDatabaseFile(beforePage.getId().getTableId());
+        dbFile.writePage(beforePage);
+        Database.getBufferPool().discardPage(beforePage.getId());
+    }
+
+    // scan the log forward from the first record of tid, restoring the
+    // first before image of every page it updated
+    private void rollbackFromLog(TransactionId tid) throws IOException {
+        Long lsn = tidToFirstLogRecord.get(tid.getId());
+        if (lsn == null) {
+            throw new NoSuchElementException("no log records for transaction " + tid.getId());
+        }
+        HashSet<PageId> set = new HashSet<>();
+        segments.seek(lsn);
+        while (true){
+            try {
+                int type = segments.readInt();
+                long curTid = segments.readLong();
+                switch (type){
+                    case CHECKPOINT_RECORD:
+                        int numXactions = segments.readInt();
+                        while (numXactions-- > 0) {
+                            segments.readLong();
+                            segments.readLong();
                         }
-                        raf.readLong();
-                    }catch (EOFException E){
                         break;
-                    }
+                    case UPDATE_RECORD:
+                        Page beforePage = readPageData(segments);
+                        readPageData(segments);
+                        if (curTid == tid.getId() && !set.contains(beforePage.getId())){
+                            set.add(beforePage.getId());
+                            undoPage(beforePage);
+                        }
                 }
+                segments.readLong();
+            }catch (EOFException E){
+                break;
             }
         }
+        segments.seek(currentOffset);
     }
 
     /** Shutdown the logging system, writing out whatever state
@@ -503,39 +595,29 @@ public class LogFile {
     public synchronized void shutdown() {
         try {
             logCheckpoint();  //simple way to shutdown is to write a checkpoint record
-            raf.close();
+            segments.close();
+            control.close();
         } catch (IOException e) {
             System.out.println("ERROR SHUTTING DOWN -- IGNORING.");
             e.printStackTrace();
         }
     }
 
-    private synchronized long getRecoverOffset(){
-        try{
-            raf.seek(0);
-            long checkPoint = raf.readLong();
-            // no checkpoint
-            if (checkPoint == -1){
-                return -1L;
-            }else{
-                // 返回检查点记录的所有事务中第一条记录偏移量
-                // 即最小lsn
-                raf.seek(checkPoint);
-                raf.readInt();
-                raf.readLong();
-                long minXactionOffset = Long.MAX_VALUE;
-                int numXactions = raf.readInt();
-                while (numXactions-- > 0) {
-                    long xid = raf.readLong();
-                    long xoffset = raf.readLong();
-                    minXactionOffset = Math.min(minXactionOffset,xoffset);
-                }
-                return minXactionOffset;
-            }
-        }catch (IOException e){
-            e.printStackTrace();
-            throw new RuntimeException();
+    // the offset recovery has to start reading the log from
+    private synchronized long getRecoverOffset() throws IOException {
+        if (control.length() < 2 * LONG_SIZE) {
+            // no log was ever written
+            return -1L;
         }
+        long[] header = readControl();
+        long checkPoint = header[0];
+        // no checkpoint
+        if (checkPoint == NO_CHECKPOINT_ID){
+            return header[1];
+        }
+        // 返回检查点记录的所有事务中第一条记录偏移量
+        // 即最小lsn
+        return minLiveRecord(checkPoint);
     }
 
     /** Recover the database system by ensuring that the updates of
@@ -546,40 +628,73 @@ public class LogFile {
         synchronized (Database.getBufferPool()) {
             synchronized (this) {
                 recoveryUndecided = false;
+                tidToUndoPages.clear();
+                spilledUndo.clear();
                 // some code goes here
                 List<AbstractMap.SimpleEntry<Long, Page[]>> records = new ArrayList<>();
                 HashSet<Long> committed = new HashSet<>();
                 long recoverOffset = getRecoverOffset();
-                if (recoverOffset != -1L){
-                    raf.seek(recoverOffset);
+                if (recoverOffset == -1L){
+                    // nothing was ever logged
+                    currentOffset = segments.restart();
+                    writeControl(NO_CHECKPOINT_ID, currentOffset);
+                    return;
                 }
+                segments.seek(recoverOffset);
+                // the log ends at the first record that is incomplete or
+                // that was left behind in a recycled segment; either way
+                // its trailing offset doesn't match where it starts
+                long logEnd = recoverOffset;
                 while (true){
+                    long start = segments.getFilePointer();
+                    int type;
+                    long curTid;
+                    // check the framing of the record first; a record that
+                    // is cut short or does not end with its start offset is
+                    // the torn or stale tail of the log
                     try {
-                        int type = raf.readInt();
-                        Long curTid = raf.readLong();
+                        type = segments.readInt();
+                        curTid = segments.readLong();
                         switch (type){
+                            case ABORT_RECORD:
                             case COMMIT_RECORD:
-                                committed.add(curTid);
+                            case BEGIN_RECORD:
                                 break;
                             case CHECKPOINT_RECORD:
-                                int numXactions = raf.readInt();
+                                int numXactions = segments.readInt();
                                 while (numXactions-- > 0) {
-                                    raf.readLong();
-                                    raf.readLong();
+                                    segments.readLong();
+                                    segments.readLong();
                                 }
                                 break;
                             case UPDATE_RECORD:
-                                Page before = readPageData(raf);
-                                Page after = readPageData(raf);
-                                AbstractMap.SimpleEntry<Long, Page[]> record = new AbstractMap.SimpleEntry<>(curTid, new Page[]{before, after});
-                                records.add(record);
+                                PageType.skipPage(segments);
+                                PageType.skipPage(segments);
                                 break;
+                            default:
+                                throw new EOFException("no log record at offset " + start);
+                        }
+                        if (segments.readLong() != start) {
+                            break;
                         }
-                        raf.readLong();
-                    }catch (IOException e){
+                    } catch (EOFException e) {
                         break;
                     }
+                    logEnd = segments.getFilePointer();
+                    if (type == COMMIT_RECORD) {
+                        committed.add(curTid);
+                    } else if (type == UPDATE_RECORD) {
+                        // a whole record: failing to rebuild its pages is an
+                        // error, not the end of the log
+                        segments.seek(start + INT_SIZE + LONG_SIZE);
+                        Page before = readPageData(segments);
+                        Page after = readPageData(segments);
+                        records.add(new AbstractMap.SimpleEntry<>(curTid, new Page[]{before, after}));
+                        segments.seek(logEnd);
+                    }
                 }
+                segments.setLength(logEnd);
+                currentOffset = logEnd;
                 // undo first, and then redo
                 // undo —— recover in reverse order
                 for (int i = records.size() -1 ; i >= 0 ; i--) {
@@ -603,56 +718,58 @@ public class LogFile {
 
     /** Print out a human readable represenation of the log */
     public void print() throws IOException {
-        long curOffset = raf.getFilePointer();
+        long curOffset = segments.getFilePointer();
 
-        raf.seek(0);
+        long[] header = readControl();
+        System.out.println("0: checkpoint record at offset " + header[0]);
+        System.out.println(LONG_SIZE + ": first record at offset " + header[1]);
 
-        System.out.println("0: checkpoint record at offset " + raf.readLong());
+        segments.seek(segments.getFirst());
 
         while (true) {
             try {
-                int cpType = raf.readInt();
-                long cpTid = raf.readLong();
+                int cpType = segments.readInt();
+                long cpTid = segments.readLong();
 
-                System.out.println((raf.getFilePointer() - (INT_SIZE + LONG_SIZE)) + ": RECORD TYPE " + cpType);
-                System.out.println((raf.getFilePointer() - LONG_SIZE) + ": TID " + cpTid);
+                System.out.println((segments.getFilePointer() - (INT_SIZE + LONG_SIZE)) + ": RECORD TYPE " + cpType);
+                System.out.println((segments.getFilePointer() - LONG_SIZE) + ": TID " + cpTid);
 
                 switch (cpType) {
                 case BEGIN_RECORD:
                     System.out.println(" (BEGIN)");
-                    System.out.println(raf.getFilePointer() + ": RECORD START OFFSET: " + raf.readLong());
+                    System.out.println(segments.getFilePointer() + ": RECORD START OFFSET: " + segments.readLong());
                     break;
                 case ABORT_RECORD:
                     System.out.println(" (ABORT)");
-                    System.out.println(raf.getFilePointer() + ": RECORD START OFFSET: " + raf.readLong());
+                    System.out.println(segments.getFilePointer() + ": RECORD START OFFSET: " + segments.readLong());
                     break;
                 case COMMIT_RECORD:
                     System.out.println(" (COMMIT)");
-                    System.out.println(raf.getFilePointer() + ": RECORD START OFFSET: " + raf.readLong());
+                    System.out.println(segments.getFilePointer() + ": RECORD START OFFSET: " + segments.readLong());
                     break;
 
                 case CHECKPOINT_RECORD:
                     System.out.println(" (CHECKPOINT)");
-                    int numTransactions = raf.readInt();
-                    System.out.println((raf.getFilePointer() - INT_SIZE) + ": NUMBER OF OUTSTANDING RECORDS: " + numTransactions);
+                    int numTransactions = segments.readInt();
+                    System.out.println((segments.getFilePointer() - INT_SIZE) + ": NUMBER OF OUTSTANDING RECORDS: " + numTransactions);
 
                     while (numTransactions-- > 0) {
-                        long tid = raf.readLong();
-                        long firstRecord = raf.readLong();
-                        System.out.println((raf.getFilePointer() - (LONG_SIZE + LONG_SIZE)) + ": TID: " + tid);
-                        System.out.println((raf.getFilePointer() - LONG_SIZE) + ": FIRST LOG RECORD: " + firstRecord);
+                        long tid = segments.readLong();
+                        long firstRecord = segments.readLong();
+                        System.out.println((segments.getFilePointer() - (LONG_SIZE + LONG_SIZE)) + ": TID: " + tid);
+                        System.out.println((segments.getFilePointer() - LONG_SIZE) + ": FIRST LOG RECORD: " + firstRecord);
                     }
-                    System.out.println(raf.getFilePointer() + ": RECORD START OFFSET: " + raf.readLong());
+                    System.out.println(segments.getFilePointer() + ": RECORD START OFFSET: " + segments.readLong());
 
                     break;
                 case UPDATE_RECORD:
                     System.out.println(" (UPDATE)");
 
-                    long start = raf.getFilePointer();
-                    Page before = readPageData(raf);
+                    long start = segments.getFilePointer();
+                    Page before = readPageData(segments);
 
-                    long middle = raf.getFilePointer();
-                    Page after = readPageData(raf);
+                    long middle = segments.getFilePointer();
+                    Page after = readPageData(segments);
 
                     System.out.println(start + ": before image table id " + before.getId().getTableId());
                     System.out.println((start + INT_SIZE) + ": before image page number " + before.getId().getPageNumber());
@@ -660,9 +777,9 @@ public class LogFile {
 
                     System.out.println(middle + ": after image table id " + after.getId().getTableId());
                     System.out.println((middle + INT_SIZE) + ": after image page number " + after.getId().getPageNumber());
-                    System.out.println((middle + INT_SIZE) + " TO " + (raf.getFilePointer()) + ": page data");
+                    System.out.println((middle + INT_SIZE) + " TO " + (segments.getFilePointer()) + ": page data");
 
-                    System.out.println(raf.getFilePointer() + ": RECORD START OFFSET: " + raf.readLong());
+                    System.out.println(segments.getFilePointer() + ": RECORD START OFFSET: " + segments.readLong());
 
                     break;
                 }
@@ -674,11 +791,21 @@ public class LogFile {
         }
 
         // Return the file pointer to its original position
-        raf.seek(curOffset);
+        segments.seek(curOffset);
+    }
+
+    /** Force the log if asynchronous commits were written since it was
+        last forced */
+    synchronized void forceCommitted() throws IOException {
+        if (unforcedCommits) {
+            force();
+        }
     }
 
     public  synchronized void force() throws IOException {
-        raf.getChannel().force(true);
+        segments.force();
+        unforcedCommits = false;
+        totalForces++;
     }
 
 }
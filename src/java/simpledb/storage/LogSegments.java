@@ -0,0 +1,409 @@
+package simpledb.storage;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * LogSegments stores the records of a {@link LogFile} in a sequence of
+ * fixed-size segment files, and lets LogFile read and write them as if
+ * they were one RandomAccessFile.
+ * <p>
+ * Offsets in the log (log sequence numbers) only ever grow: the byte at
+ * offset lsn lives in segment lsn / segmentSize, at position
+ * lsn % segmentSize of that segment's file.  Because offsets are never
+ * reused, truncating the log is just a matter of retiring the segments
+ * that lie entirely before the oldest record that is still needed.
+ * Retired segments are kept as spare files and renamed into place the
+ * next time the log needs a new segment, so neither truncation nor
+ * growth copies log records.  New segments are preallocated to their
+ * full size.
+ * <p>
+ * A recycled segment still holds the records it was written with, so
+ * the bytes past the end of the log are not zero.  LogFile recognizes
+ * the end of the log after a crash by checking the start offset that
+ * ends each record.
+ * <p>
+ * Segment files are named after the log file, e.g. log.000000000003, and
+ * spare segments e.g. log.spare.0.
+ */
+class LogSegments implements DataInput, DataOutput {
+
+    /** Maximum number of retired segments kept around for reuse */
+    static final int MAX_SPARE_SEGMENTS = 4;
+
+    private static final String SPARE = ".spare.";
+
+    private final File dir;
+    private final String name;
+    private final Pattern segmentPattern;
+    private final Pattern sparePattern;
+    final int segmentSize;
+
+    // segment number -> open segment file
+    private final TreeMap<Long, RandomAccessFile> live = new TreeMap<>();
+    private final Deque<File> spares = new ArrayDeque<>();
+    // segments written since the last force()
+    private final Set<Long> unforced = new HashSet<>();
+
+    private long first; // first offset still stored in the log
+    private long end;   // offset one past the last byte of the log
+    private long pos;   // offset of the next read or write
+    // lowest segment number that was never used, spares included
+    private long nextSegment = 0;
+
+    private final byte[] scratch = new byte[8];
+    private final ByteBuffer scratchBuf = ByteBuffer.wrap(scratch);
+
+    /**
+     * Open the segments of the log stored next to the specified file.
+     * Until {@link #setLength(long)} or {@link #restart()} is called,
+     * the log is assumed to extend to the end of the last segment.
+     *
+     * @param f the log file the segments are named after
+     * @param segmentSize the size of each segment file in bytes
+     */
+    LogSegments(File f, int segmentSize) throws IOException {
+        this.dir = f.getAbsoluteFile().getParentFile();
+        this.name = f.getName();
+        this.segmentSize = segmentSize;
+        this.segmentPattern = Pattern.compile(Pattern.quote(name) + "\\.(\\d{12})");
+        this.sparePattern = Pattern.compile(Pattern.quote(name + SPARE) + "(\\d+)");
+
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                Matcher m = segmentPattern.matcher(file.getName());
+                Matcher spare = sparePattern.matcher(file.getName());
+                if (m.matches()) {
+                    long segment = Long.parseLong(m.group(1));
+                    live.put(segment, new RandomAccessFile(file, "rw"));
+                    nextSegment = Math.max(nextSegment, segment + 1);
+                } else if (spare.matches()) {
+                    spares.add(file);
+                    nextSegment = Math.max(nextSegment, Long.parseLong(spare.group(1)) + 1);
+                }
+            }
+        }
+        if (live.isEmpty()) {
+            first = end = 0;
+        } else {
+            first = live.firstKey() * segmentSize;
+            end = (live.lastKey() + 1) * segmentSize;
+        }
+        pos = first;
+    }
+
+    private File segmentFile(long segment) {
+        return new File(dir, String.format("%s.%012d", name, segment));
+    }
+
+    // the file of the specified segment, opening a new one if necessary
+    private RandomAccessFile segmentForWrite(long segment) throws IOException {
+        RandomAccessFile seg = live.get(segment);
+        if (seg != null) {
+            return seg;
+        }
+        File file = segmentFile(segment);
+        File spare = spares.poll();
+        if (spare != null && spare.renameTo(file)) {
+            seg = new RandomAccessFile(file, "rw");
+        } else {
+            seg = new RandomAccessFile(file, "rw");
+            seg.setLength(segmentSize);
+        }
+        live.put(segment, seg);
+        nextSegment = Math.max(nextSegment, segment + 1);
+        return seg;
+    }
+
+    // close a segment and keep its file as a spare, or delete it
+    private void retire(long segment) throws IOException {
+        RandomAccessFile seg = live.remove(segment);
+        seg.close();
+        unforced.remove(segment);
+        File file = segmentFile(segment);
+        if (spares.size() < MAX_SPARE_SEGMENTS) {
+            File spare = new File(dir, name + SPARE + segment);
+            if (file.renameTo(spare)) {
+                spares.add(spare);
+                return;
+            }
+        }
+        file.delete();
+    }
+
+    /** @return the first offset still stored in the log */
+    long getFirst() {
+        return first;
+    }
+
+    /** @return the offset one past the last byte of the log */
+    long length() {
+        return end;
+    }
+
+    /** @return the offset of the next read or write */
+    long getFilePointer() {
+        return pos;
+    }
+
+    /** Set the offset of the next read or write */
+    void seek(long lsn) throws IOException {
+        if (lsn < first) {
+            throw new IOException("log offset " + lsn + " was truncated, log starts at " + first);
+        }
+        pos = lsn;
+    }
+
+    /** Declare the log to end at the specified offset; anything stored
+        past it is ignored and will be overwritten. */
+    void setLength(long lsn) {
+        end = Math.max(first, lsn);
+        pos = Math.min(pos, end);
+    }
+
+    /**
+     * Throw away the whole log and start a new, empty one in a segment
+     * that was never used before, so records left in recycled segments
+     * can never be mistaken for new ones.
+     * @return the offset the new log starts at
+     */
+    long restart() throws IOException {
+        long start = nextSegment * segmentSize;
+        while (!live.isEmpty()) {
+            retire(live.firstKey());
+        }
+        first = end = pos = start;
+        return start;
+    }
+
+    /**
+     * Retire every segment that lies entirely before the specified
+     * offset.  The segment holding the end of the log is never retired.
+     */
+    void truncateBefore(long lsn) throws IOException {
+        long keep = Math.min(lsn / segmentSize, end / segmentSize);
+        while (!live.isEmpty() && live.firstKey() < keep) {
+            retire(live.firstKey());
+        }
+        first = Math.max(first, keep * segmentSize);
+        pos = Math.max(pos, first);
+    }
+
+    /** @return the number of segment files currently holding the log */
+    int numSegments() {
+        return live.size();
+    }
+
+    /** Force all segments written since the last call to disk */
+    void force() throws IOException {
+        for (Long segment : unforced) {
+            live.get(segment).getChannel().force(true);
+        }
+        unforced.clear();
+    }
+
+    void close() throws IOException {
+        for (RandomAccessFile seg : live.values()) {
+            seg.close();
+        }
+        live.clear();
+        unforced.clear();
+    }
+
+    // DataInput
+
+    public void readFully(byte[] b) throws IOException {
+        readFully(b, 0, b.length);
+    }
+
+    public void readFully(byte[] b, int off, int len) throws IOException {
+        if (pos + len > end) {
+            throw new EOFException();
+        }
+        while (len > 0) {
+            long segment = pos / segmentSize;
+            int segOff = (int) (pos % segmentSize);
+            int n = Math.min(len, segmentSize - segOff);
+            RandomAccessFile seg = live.get(segment);
+            if (seg == null) {
+                throw new EOFException();
+            }
+            seg.seek(segOff);
+            seg.readFully(b, off, n);
+            pos += n;
+            off += n;
+            len -= n;
+        }
+    }
+
+    private ByteBuffer readScratch(int len) throws IOException {
+        readFully(scratch, 0, len);
+        scratchBuf.clear();
+        return scratchBuf;
+    }
+
+    public int skipBytes(int n) {
+        int skipped = (int) Math.max(0, Math.min(n, end - pos));
+        pos += skipped;
+        return skipped;
+    }
+
+    public boolean readBoolean() throws IOException {
+        return readByte() != 0;
+    }
+
+    public byte readByte() throws IOException {
+        return readScratch(1).get(0);
+    }
+
+    public int readUnsignedByte() throws IOException {
+        return readByte() & 0xff;
+    }
+
+    public short readShort() throws IOException {
+        return readScratch(2).getShort(0);
+    }
+
+    public int readUnsignedShort() throws IOException {
+        return readShort() & 0xffff;
+    }
+
+    public char readChar() throws IOException {
+        return readScratch(2).getChar(0);
+    }
+
+    public int readInt() throws IOException {
+        return readScratch(4).getInt(0);
+    }
+
+    public long readLong() throws IOException {
+        return readScratch(8).getLong(0);
+    }
+
+    public float readFloat() throws IOException {
+        return readScratch(4).getFloat(0);
+    }
+
+    public double readDouble() throws IOException {
+        return readScratch(8).getDouble(0);
+    }
+
+    /**
+     * Read a line of bytes, as {@link RandomAccessFile#readLine()} does.
+     *
+     * @return the line without its terminator, or null at the end of the log
+     */
+    public String readLine() throws IOException {
+        if (pos >= end) {
+            return null;
+        }
+        StringBuilder line = new StringBuilder();
+        while (pos < end) {
+            int c = readUnsignedByte();
+            if (c == '\n') {
+                break;
+            }
+            if (c == '\r') {
+                if (pos < end && readUnsignedByte() != '\n') {
+                    pos--;
+                }
+                break;
+            }
+            line.append((char) c);
+        }
+        return line.toString();
+    }
+
+    public String readUTF() throws IOException {
+        return DataInputStream.readUTF(this);
+    }
+
+    // DataOutput
+
+    public void write(byte[] b) throws IOException {
+        write(b, 0, b.length);
+    }
+
+    public void write(byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            long segment = pos / segmentSize;
+            int segOff = (int) (pos % segmentSize);
+            int n = Math.min(len, segmentSize - segOff);
+            RandomAccessFile seg = segmentForWrite(segment);
+            seg.seek(segOff);
+            seg.write(b, off, n);
+            unforced.add(segment);
+            pos += n;
+            off += n;
+            len -= n;
+        }
+        end = Math.max(end, pos);
+    }
+
+    private void writeScratch(int len) throws IOException {
+        write(scratch, 0, len);
+    }
+
+    public void write(int b) throws IOException {
+        writeByte(b);
+    }
+
+    public void writeBoolean(boolean v) throws IOException {
+        writeByte(v ? 1 : 0);
+    }
+
+    public void writeByte(int v) throws IOException {
+        scratch[0] = (byte) v;
+        writeScratch(1);
+    }
+
+    public void writeShort(int v) throws IOException {
+        scratchBuf.putShort(0, (short) v);
+        writeScratch(2);
+    }
+
+    public void writeChar(int v) throws IOException {
+        scratchBuf.putChar(0, (char) v);
+        writeScratch(2);
+    }
+
+    public void writeInt(int v) throws IOException {
+        scratchBuf.putInt(0, v);
+        writeScratch(4);
+    }
+
+    public void writeLong(long v) throws IOException {
+        scratchBuf.putLong(0, v);
+        writeScratch(8);
+    }
+
+    public void writeFloat(float v) throws IOException {
+        writeInt(Float.floatToIntBits(v));
+    }
+
+    public void writeDouble(double v) throws IOException {
+        writeLong(Double.doubleToLongBits(v));
+    }
+
+    public void writeBytes(String s) throws IOException {
+        for (int i = 0; i < s.length(); i++) {
+            writeByte(s.charAt(i));
+        }
+    }
+
+    public void writeChars(String s) throws IOException {
+        for (int i = 0; i < s.length(); i++) {
+            writeChar(s.charAt(i));
+        }
+    }
+
+    public void writeUTF(String s) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        new DataOutputStream(bytes).writeUTF(s);
+        write(bytes.toByteArray());
+    }
+}
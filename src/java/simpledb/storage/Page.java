@@ -9,8 +9,8 @@ import simpledb.transaction.TransactionId;
  * Pages may be "dirty", indicating that they have been modified since they
  * were last written out to disk.
  *
- * For recovery purposes, pages MUST have a single constructor of the form:
- *     Page(PageId id, byte[] data)
+ * For recovery purposes, every Page implementation MUST be registered in
+ * {@link PageType}, which rebuilds pages from their id and data.
  */
 public interface Page {
 
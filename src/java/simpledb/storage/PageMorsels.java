@@ -0,0 +1,101 @@
+package simpledb.storage;
+
+import simpledb.common.Database;
+
+import java.io.Serializable;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * PageMorsels hands out the pages of a HeapFile to the scans that read it in
+ * parallel, in morsels of {@link #MORSEL_PAGES} consecutive pages.  Each
+ * scan takes a new morsel whenever it is done with the last one, so a scan
+ * that runs faster than the others reads more of the file, rather than
+ * every scan reading a fixed range of it.
+ * <p>
+ * The morsels are shared by a fixed number of scans.  When the last of them
+ * has been closed, the morsels start over from the first page, so that the
+ * scans can be run again together; a single scan of several cannot be
+ * rewound by itself.
+ */
+public class PageMorsels implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /** The default number of pages in a morsel */
+    public static final int MORSEL_PAGES = 4;
+
+    private final int tableId;
+    private final int scans;
+    private final int morselPages;
+    // the first page of the next morsel, and the number of scans closed
+    private final AtomicInteger next = new AtomicInteger();
+    private final AtomicInteger closed = new AtomicInteger();
+
+    /**
+     * @param tableId the HeapFile the pages are read from
+     * @param scans the number of scans that share the morsels
+     */
+    public PageMorsels(int tableId, int scans) {
+        this(tableId, scans, MORSEL_PAGES);
+    }
+
+    /**
+     * Constructor with a morsel size.
+     *
+     * @param morselPages the number of pages in a morsel
+     */
+    public PageMorsels(int tableId, int scans, int morselPages) {
+        if (scans < 1 || morselPages < 1) {
+            throw new IllegalArgumentException("morsels need scans and pages");
+        }
+        this.tableId = tableId;
+        this.scans = scans;
+        this.morselPages = morselPages;
+    }
+
+    /** @return the id of the table whose pages are handed out */
+    public int getTableId() {
+        return tableId;
+    }
+
+    /** @return the number of scans that share the morsels */
+    public int numScans() {
+        return scans;
+    }
+
+    private int numPages() {
+        return ((HeapFile) Database.getCatalog().getDatabaseFile(tableId)).numPages();
+    }
+
+    /**
+     * Take the next morsel.  Each page of the file is in exactly one
+     * morsel.
+     *
+     * @return the first page of the morsel, or -1 if every page was handed
+     *         out
+     */
+    public int next() {
+        int pages = numPages();
+        if (next.get() >= pages) {
+            return -1;
+        }
+        int from = next.getAndAdd(morselPages);
+        return from < pages ? from : -1;
+    }
+
+    /** @return the page after the last one of the morsel starting at from */
+    public int end(int from) {
+        return Math.min(from + morselPages, numPages());
+    }
+
+    /**
+     * Called by a scan when it is closed; the last of the scans to be closed
+     * makes the morsels start over.
+     */
+    public void release() {
+        if (closed.incrementAndGet() == scans) {
+            closed.set(0);
+            next.set(0);
+        }
+    }
+}
@@ -0,0 +1,190 @@
+package simpledb.storage;
+
+import simpledb.common.Database;
+import simpledb.index.BTreeFile;
+import simpledb.index.BTreeHeaderPage;
+import simpledb.index.BTreeInternalPage;
+import simpledb.index.BTreeLeafPage;
+import simpledb.index.BTreePageId;
+import simpledb.index.BTreeRootPtrPage;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * PageType is the registry of page implementations that can appear in
+ * the log.  Each page class is identified by a one byte tag and knows how
+ * to rebuild its page id and page from their serialized form, so the
+ * recovery code never has to look classes up by name or call constructors
+ * reflectively.
+ * <p>
+ * A serialized page is laid out as:
+ * <ul>
+ * <li> the one byte tag of the page type
+ * <li> the integers of the page id (see {@link PageId#serialize()}); the
+ *      number of integers is fixed by the page type
+ * <li> an integer length followed by the page data
+ * </ul>
+ */
+public enum PageType {
+
+    HEAP((byte) 1, HeapPage.class, 2) {
+        PageId newId(int[] args) {
+            return new HeapPageId(args[0], args[1]);
+        }
+
+        Page newPage(PageId pid, byte[] data) throws IOException {
+            return new HeapPage((HeapPageId) pid, data);
+        }
+    },
+
+    BTREE_ROOT_PTR((byte) 2, BTreeRootPtrPage.class, 3) {
+        Page newPage(PageId pid, byte[] data) throws IOException {
+            return new BTreeRootPtrPage((BTreePageId) pid, data);
+        }
+    },
+
+    BTREE_INTERNAL((byte) 3, BTreeInternalPage.class, 3) {
+        Page newPage(PageId pid, byte[] data) throws IOException {
+            return new BTreeInternalPage((BTreePageId) pid, data, keyField(pid));
+        }
+    },
+
+    BTREE_LEAF((byte) 4, BTreeLeafPage.class, 3) {
+        Page newPage(PageId pid, byte[] data) throws IOException {
+            return new BTreeLeafPage((BTreePageId) pid, data, keyField(pid));
+        }
+    },
+
+    BTREE_HEADER((byte) 5, BTreeHeaderPage.class, 3) {
+        Page newPage(PageId pid, byte[] data) throws IOException {
+            return new BTreeHeaderPage((BTreePageId) pid, data);
+        }
+    };
+
+    private static final PageType[] BY_TAG;
+    private static final Map<Class<?>, PageType> BY_CLASS = new HashMap<>();
+
+    static {
+        int maxTag = 0;
+        for (PageType type : values()) {
+            maxTag = Math.max(maxTag, type.tag);
+            BY_CLASS.put(type.pageClass, type);
+        }
+        BY_TAG = new PageType[maxTag + 1];
+        for (PageType type : values()) {
+            BY_TAG[type.tag] = type;
+        }
+    }
+
+    private final byte tag;
+    private final Class<? extends Page> pageClass;
+    private final int idLength;
+
+    PageType(byte tag, Class<? extends Page> pageClass, int idLength) {
+        this.tag = tag;
+        this.pageClass = pageClass;
+        this.idLength = idLength;
+    }
+
+    /** @return the byte written to the log for pages of this type */
+    public byte getTag() {
+        return tag;
+    }
+
+    /** Rebuild a page id of this type from its serialized integers.
+        The B+ tree page types share BTreePageId. */
+    PageId newId(int[] args) {
+        return new BTreePageId(args[0], args[1], args[2]);
+    }
+
+    /** Rebuild a page of this type from its id and page data */
+    abstract Page newPage(PageId pid, byte[] data) throws IOException;
+
+    private static int keyField(PageId pid) {
+        return ((BTreeFile) Database.getCatalog().getDatabaseFile(pid.getTableId())).keyField();
+    }
+
+    /**
+     * @return the type registered for the class of the specified page
+     * @throws IOException if the page's class is not registered
+     */
+    public static PageType of(Page p) throws IOException {
+        PageType type = BY_CLASS.get(p.getClass());
+        if (type == null) {
+            throw new IOException("unregistered page type " + p.getClass().getName());
+        }
+        return type;
+    }
+
+    /**
+     * @return the type with the specified tag
+     * @throws IOException if no type has that tag
+     */
+    public static PageType fromTag(byte tag) throws IOException {
+        if (tag <= 0 || tag >= BY_TAG.length || BY_TAG[tag] == null) {
+            throw new IOException("unknown page type tag " + tag);
+        }
+        return BY_TAG[tag];
+    }
+
+    /** Serialize the specified page (tag, page id and data) to out */
+    public static void writePage(DataOutput out, Page p) throws IOException {
+        PageType type = of(p);
+        int[] pageInfo = p.getId().serialize();
+        if (pageInfo.length != type.idLength) {
+            throw new IOException("page id of " + type + " has " + pageInfo.length + " fields");
+        }
+        out.writeByte(type.tag);
+        for (int j : pageInfo) {
+            out.writeInt(j);
+        }
+        byte[] pageData = p.getPageData();
+        out.writeInt(pageData.length);
+        out.write(pageData);
+    }
+
+    /**
+     * Read past a page written by {@link #writePage(DataOutput, Page)}
+     * without rebuilding it.
+     *
+     * @throws EOFException if in does not hold a whole serialized page
+     */
+    static void skipPage(DataInput in) throws IOException {
+        byte tag = in.readByte();
+        if (tag <= 0 || tag >= BY_TAG.length || BY_TAG[tag] == null) {
+            throw new EOFException("unknown page type tag " + tag);
+        }
+        for (int i = 0; i < BY_TAG[tag].idLength; i++) {
+            in.readInt();
+        }
+        int pageSize = in.readInt();
+        if (pageSize < 0 || pageSize > BufferPool.getPageSize()) {
+            throw new EOFException("bad page image length " + pageSize);
+        }
+        if (in.skipBytes(pageSize) != pageSize) {
+            throw new EOFException();
+        }
+    }
+
+    /** Read a page written by {@link #writePage(DataOutput, Page)} from in */
+    public static Page readPage(DataInput in) throws IOException {
+        PageType type = fromTag(in.readByte());
+        int[] idArgs = new int[type.idLength];
+        for (int i = 0; i < idArgs.length; i++) {
+            idArgs[i] = in.readInt();
+        }
+        PageId pid = type.newId(idArgs);
+        int pageSize = in.readInt();
+        if (pageSize < 0 || pageSize > BufferPool.getPageSize()) {
+            throw new IOException("bad page image length " + pageSize);
+        }
+        byte[] pageData = new byte[pageSize];
+        in.readFully(pageData);
+        return type.newPage(pid, pageData);
+    }
+}
@@ -12,6 +12,7 @@ import java.io.*;
 public class Transaction {
     private final TransactionId tid;
     volatile boolean started = false;
+    volatile boolean asyncCommit = false;
 
     public Transaction() {
         tid = new TransactionId();
@@ -31,6 +32,17 @@ public class Transaction {
         return tid;
     }
 
+    /** Choose whether commit() waits for the COMMIT record to reach disk.
+        An asynchronous commit returns before the log is forced, which
+        happens in the background within the log's maximum commit delay;
+        the transaction may be lost if the system crashes in between.
+
+        @see simpledb.storage.LogFile#setMaxCommitDelay(long)
+    */
+    public void setAsyncCommit(boolean asyncCommit) {
+        this.asyncCommit = asyncCommit;
+    }
+
     /** Finish the transaction */
     public void commit() throws IOException {
         transactionComplete(false);
@@ -51,11 +63,11 @@ public class Transaction {
             } 
 
             // Release locks and flush pages if needed
-            Database.getBufferPool().transactionComplete(tid, !abort); // release locks
+            Database.getBufferPool().transactionComplete(tid, !abort, asyncCommit); // release locks
 
             // write commit log record
             if (!abort) {
-                Database.getLogFile().logCommit(tid);
+                Database.getLogFile().logCommit(tid, asyncCommit);
             }
 
             //setting this here means we could possibly write multiple abort records -- OK?
@@ -191,6 +191,48 @@ public class AggregateTest extends SimpleDbTestBase {
     TestUtil.matchAllTuples(min, op);
   }
 
+  /**
+   * Unit test for Aggregate.getNext() computing several aggregates at once
+   */
+  @Test public void multipleAggregates() throws Exception {
+    Aggregate op = new Aggregate(scan1, new int[] { 1, 1, 1 },
+        new Aggregator.Op[] { Aggregator.Op.COUNT, Aggregator.Op.SUM, Aggregator.Op.MAX },
+        new int[] { 0 });
+    assertEquals(4, op.getTupleDesc().numFields());
+    op.open();
+    TestUtil.matchAllTuples(TestUtil.createTupleList(4,
+        new int[] { 1, 3, 12, 6,
+                    3, 3, 12, 6,
+                    5, 1, 7, 7 }), op);
+  }
+
+  /**
+   * Unit test for Aggregate.getNext() grouped by several fields, and with no
+   * grouping
+   */
+  @Test public void multipleGroupFields() throws Exception {
+    OpIterator scan = TestUtil.createTupleList(3,
+        new Object[] { "a", 1, 2,
+                       "a", 2, 4,
+                       "b", 1, 6,
+                       "a", 1, 8,
+                       "b", 1, 1 });
+    Aggregate op = new Aggregate(scan, new int[] { 2, 2 },
+        new Aggregator.Op[] { Aggregator.Op.SUM, Aggregator.Op.MIN }, new int[] { 0, 1 });
+    op.open();
+    TestUtil.matchAllTuples(TestUtil.createTupleList(4,
+        new Object[] { "a", 1, 10, 2,
+                       "a", 2, 4, 4,
+                       "b", 1, 7, 1 }), op);
+    op.close();
+
+    op = new Aggregate(scan, new int[] { 0, 2 },
+        new Aggregator.Op[] { Aggregator.Op.COUNT, Aggregator.Op.AVG }, new int[0]);
+    assertEquals(Aggregator.NO_GROUPING, op.groupField());
+    op.open();
+    TestUtil.matchAllTuples(TestUtil.createTupleList(2, new int[] { 5, 4 }), op);
+  }
+
   /**
    * JUnit suite target
    */
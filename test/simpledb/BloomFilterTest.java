@@ -0,0 +1,65 @@
+package simpledb;
+
+import org.junit.Test;
+
+import simpledb.common.Type;
+import simpledb.common.Utility;
+import simpledb.execution.BloomFilter;
+import simpledb.execution.TuplePredicate;
+import simpledb.storage.IntField;
+import simpledb.storage.StringField;
+import simpledb.systemtest.SimpleDbTestBase;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.assertFalse;
+import junit.framework.JUnit4TestAdapter;
+
+public class BloomFilterTest extends SimpleDbTestBase {
+
+  /**
+   * Every key added is in the filter, and few of the others are
+   */
+  @Test public void intKeys() {
+    BloomFilter f = new BloomFilter(1000);
+    for (int i = 0; i < 1000; i++) {
+      f.add(new IntField(i * 3));
+    }
+    for (int i = 0; i < 1000; i++) {
+      assertTrue(f.mightContain(new IntField(i * 3)));
+    }
+    int falsePositives = 0;
+    for (int i = 0; i < 10000; i++) {
+      if (f.mightContain(new IntField(100000 + i))) {
+        falsePositives++;
+      }
+    }
+    assertTrue(falsePositives < 500);
+  }
+
+  /**
+   * String keys are hashed by value
+   */
+  @Test public void stringKeys() {
+    BloomFilter f = new BloomFilter(10);
+    f.add(new StringField("simple", Type.STRING_LEN));
+    assertTrue(f.mightContain(new StringField("simple", Type.STRING_LEN)));
+  }
+
+  /**
+   * An empty filter contains nothing, and its tuple test passes nothing
+   */
+  @Test public void empty() {
+    BloomFilter f = new BloomFilter(0);
+    assertFalse(f.mightContain(new IntField(1)));
+    TuplePredicate test = f.on(0);
+    assertFalse(test.test(Utility.getHeapTuple(1)));
+    f.add(new IntField(1));
+    assertTrue(test.test(Utility.getHeapTuple(1)));
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(BloomFilterTest.class);
+  }
+}
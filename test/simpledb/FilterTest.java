@@ -126,6 +126,28 @@ public class FilterTest extends SimpleDbTestBase {
     op.close();
   }
 
+  /**
+   * Unit test for Filter.nextBatch() mixed with hasNext()/next(), using a
+   * batch smaller than the filter's output
+   */
+  @Test public void filterBatch() throws Exception {
+    Predicate pred = new Predicate(0, Predicate.Op.GREATER_THAN, TestUtil.getField(-3));
+    Filter op = new Filter(pred, scan);
+    op.open();
+    assertTrue(op.hasNext());
+    Tuple[] batch = new Tuple[3];
+    int expected = -2;
+    int n;
+    while ((n = op.nextBatch(batch)) > 0) {
+      for (int i = 0; i < n; i++) {
+        assertTrue(TestUtil.compareTuples(Utility.getHeapTuple(expected++, testWidth), batch[i]));
+      }
+    }
+    assertEquals(5, expected);
+    assertTrue(TestUtil.checkExhausted(op));
+    op.close();
+  }
+
   /**
    * JUnit suite target
    */
@@ -130,6 +130,37 @@ public class IntegerAggregatorTest extends SimpleDbTestBase {
     }
   }
 
+  /**
+   * Test IntegerAggregator.mergeTupleIntoGroup() and iterator() grouped by
+   * a string field
+   */
+  @Test public void mergeStringGroups() throws Exception {
+    OpIterator scan = TestUtil.createTupleList(2,
+        new Object[] { "a", 2,
+                       "b", 4,
+                       "a", 6,
+                       "c", 7,
+                       "b", 1 });
+    Object[][] expected = {
+      { "a", 8, "b", 5, "c", 7 },
+      { "a", 2, "b", 1, "c", 7 },
+      { "a", 6, "b", 4, "c", 7 },
+      { "a", 4, "b", 2, "c", 7 },
+      { "a", 2, "b", 2, "c", 1 },
+    };
+    Aggregator.Op[] ops = { Aggregator.Op.SUM, Aggregator.Op.MIN, Aggregator.Op.MAX,
+        Aggregator.Op.AVG, Aggregator.Op.COUNT };
+    for (int i = 0; i < ops.length; i++) {
+      IntegerAggregator agg = new IntegerAggregator(0, Type.STRING_TYPE, 1, ops[i]);
+      scan.rewind();
+      while (scan.hasNext())
+        agg.mergeTupleIntoGroup(scan.next());
+      OpIterator it = agg.iterator();
+      it.open();
+      TestUtil.matchAllTuples(TestUtil.createTupleList(2, expected[i]), it);
+    }
+  }
+
   /**
    * Test IntegerAggregator.iterator() for OpIterator behaviour
    */
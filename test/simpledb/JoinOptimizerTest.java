@@ -11,6 +11,7 @@ import org.junit.Test;
 import simpledb.common.Database;
 import simpledb.common.DbException;
 import simpledb.common.Utility;
+import simpledb.execution.OrderBy;
 import simpledb.execution.Predicate;
 import simpledb.optimizer.JoinOptimizer;
 import simpledb.optimizer.LogicalJoinNode;
@@ -214,6 +215,34 @@ public class JoinOptimizerTest extends SimpleDbTestBase {
         Assert.assertEquals(Boolean.TRUE, ret[0]);
     }
 
+    /**
+     * A range join costs the cheaper of a nested-loops join and a sort-merge
+     * join, whose rewinds of an inner side that spills cost more.
+     */
+    @Test
+    public void estimateRangeJoinCostTest() throws ParsingException, IOException {
+        TransactionId tid = new TransactionId();
+        Parser p = new Parser();
+        JoinOptimizer jo = new JoinOptimizer(p.generateLogicalPlan(tid, "SELECT * FROM "
+                + tableName1 + " t1, " + tableName2
+                + " t2 WHERE t1.c1 > t2.c2;"), new ArrayList<>());
+        LogicalJoinNode rangeJoinNode = new LogicalJoinNode("t1", "t2",
+                Integer.toString(1), Integer.toString(2), Predicate.Op.GREATER_THAN);
+
+        // a few outer tuples: a nested-loops join of every pair
+        Assert.assertEquals(2 * 1000 + 10.0 + 100.0,
+                jo.estimateJoinCost(rangeJoinNode, 2, 1000, 10.0, 100.0), 0.0);
+        // many: sorting them is cheaper than comparing every pair
+        Assert.assertTrue(jo.estimateJoinCost(rangeJoinNode, 5000, 5000, 100.0, 100.0)
+                < 5000.0 * 5000);
+
+        // the inner side spills: each of the outer tuples reopens its runs
+        int inner = OrderBy.MAX_TUPLES;
+        double inMemory = jo.estimateJoinCost(rangeJoinNode, 1000, inner, 1000.0, inner);
+        double spilled = jo.estimateJoinCost(rangeJoinNode, 1000, inner + 1, 1000.0, inner + 1);
+        Assert.assertTrue(spilled - inMemory > 1000 * 2);
+    }
+
     /**
      * Verify that the join cardinalities produced by estimateJoinCardinality()
      * are reasonable
@@ -0,0 +1,93 @@
+package simpledb;
+
+import simpledb.TestUtil.SkeletonFile;
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.index.BTreeFile;
+import simpledb.index.BTreeInternalPage;
+import simpledb.index.BTreeLeafPage;
+import simpledb.index.BTreePageId;
+import simpledb.index.BTreeRootPtrPage;
+import simpledb.index.BTreeUtility;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import java.io.*;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class PageTypeTest extends SimpleDbTestBase {
+
+    private static Page roundTrip(Page p) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        PageType.writePage(new DataOutputStream(bytes), p);
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+        Page read = PageType.readPage(in);
+        assertEquals(-1, in.read());
+        return read;
+    }
+
+    private static void assertSamePage(Page expected, Page actual) {
+        assertEquals(expected.getClass(), actual.getClass());
+        assertEquals(expected.getId(), actual.getId());
+        assertArrayEquals(expected.getPageData(), actual.getPageData());
+    }
+
+    /**
+     * Unit test for PageType.writePage() and readPage() on a HeapPage
+     */
+    @Test public void heapPage() throws Exception {
+        Database.getCatalog().addTable(new SkeletonFile(-1, Utility.getTupleDesc(2)), SystemTestUtil.getUUID());
+        HeapPage page = new HeapPage(new HeapPageId(-1, 3), HeapPageReadTest.EXAMPLE_DATA);
+        assertEquals(PageType.HEAP, PageType.of(page));
+        assertSamePage(page, roundTrip(page));
+    }
+
+    /**
+     * Unit test for PageType.writePage() and readPage() on B+ tree pages
+     */
+    @Test public void btreePages() throws Exception {
+        BTreeFile bf = BTreeUtility.createRandomBTreeFile(2, 2000, null, null, 1);
+        int tableId = bf.getId();
+
+        Page rootPtr = bf.readPage(BTreeRootPtrPage.getId(tableId));
+        assertEquals(PageType.BTREE_ROOT_PTR, PageType.of(rootPtr));
+        assertSamePage(rootPtr, roundTrip(rootPtr));
+
+        BTreePageId rootId = ((BTreeRootPtrPage) rootPtr).getRootId();
+        BTreeInternalPage root = (BTreeInternalPage) bf.readPage(rootId);
+        assertSamePage(root, roundTrip(root));
+
+        BTreePageId leafId = root.iterator().next().getLeftChild();
+        Page leaf = bf.readPage(leafId);
+        assertEquals(PageType.BTREE_LEAF, PageType.of(leaf));
+        BTreeLeafPage readLeaf = (BTreeLeafPage) roundTrip(leaf);
+        assertSamePage(leaf, readLeaf);
+        assertEquals(((BTreeLeafPage) leaf).getNumTuples(), readLeaf.getNumTuples());
+    }
+
+    /**
+     * Unit test for PageType.fromTag()
+     */
+    @Test public void tags() throws Exception {
+        for (PageType type : PageType.values()) {
+            assertEquals(type, PageType.fromTag(type.getTag()));
+        }
+        try {
+            PageType.fromTag((byte) 0);
+            fail("expected IOException for unknown tag");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PageTypeTest.class);
+    }
+}
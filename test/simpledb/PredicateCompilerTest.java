@@ -0,0 +1,102 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.common.Type;
+import simpledb.common.Utility;
+import simpledb.execution.*;
+import simpledb.storage.Field;
+import simpledb.storage.IntField;
+import simpledb.storage.StringField;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleIterator;
+import simpledb.systemtest.SimpleDbTestBase;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class PredicateCompilerTest extends SimpleDbTestBase {
+
+  /**
+   * Unit test for PredicateCompiler.compile() on every operator over int
+   * and string fields, against Predicate.filter()
+   */
+  @Test public void matchesPredicate() {
+    TupleIterator it = TestUtil.createTupleList(2,
+        new Object[] { 1, "apple", 2, "banana", 3, "cherry", 4, "applet" });
+    List<Tuple> tuples = new ArrayList<>();
+    it.open();
+    while (it.hasNext()) {
+      tuples.add(it.next());
+    }
+    Field[] intOperands = { new IntField(0), new IntField(2), new IntField(5) };
+    Field[] stringOperands = { new StringField("apple", Type.STRING_LEN),
+        new StringField("b", Type.STRING_LEN), new StringField("pl", Type.STRING_LEN) };
+    for (Predicate.Op op : Predicate.Op.values()) {
+      for (Field operand : intOperands) {
+        check(new Predicate(0, op, operand), tuples);
+      }
+      for (Field operand : stringOperands) {
+        check(new Predicate(1, op, operand), tuples);
+      }
+    }
+  }
+
+  private static void check(Predicate p, List<Tuple> tuples) {
+    TuplePredicate compiled = PredicateCompiler.compile(p);
+    for (Tuple t : tuples) {
+      assertEquals(p.toString() + t, p.filter(t), compiled.test(t));
+    }
+  }
+
+  /**
+   * Unit test for PredicateCompiler.template(): conjunctions that differ
+   * only in their operands share one template
+   */
+  @Test public void templateCache() {
+    Predicate a = new Predicate(0, Predicate.Op.GREATER_THAN, new IntField(3));
+    Predicate b = new Predicate(1, Predicate.Op.LESS_THAN, new IntField(7));
+    Predicate c = new Predicate(0, Predicate.Op.GREATER_THAN, new IntField(-4));
+    Predicate d = new Predicate(1, Predicate.Op.LESS_THAN, new IntField(100));
+    PredicateCompiler.Template t = PredicateCompiler.template(Arrays.asList(a, b));
+    assertSame(t, PredicateCompiler.template(Arrays.asList(c, d)));
+
+    TuplePredicate p = PredicateCompiler.compile(Arrays.asList(a, b));
+    assertEquals(true, p.test(Utility.getHeapTuple(new int[] { 4, 6 })));
+    assertEquals(false, p.test(Utility.getHeapTuple(new int[] { 3, 6 })));
+    assertEquals(false, p.test(Utility.getHeapTuple(new int[] { 4, 7 })));
+  }
+
+  /**
+   * Unit test for FilterProject against a Project over Filters
+   */
+  @Test public void filterProject() throws Exception {
+    List<Predicate> preds = Arrays.asList(
+        new Predicate(0, Predicate.Op.GREATER_THAN_OR_EQ, TestUtil.getField(-2)),
+        new Predicate(1, Predicate.Op.NOT_EQUALS, TestUtil.getField(3)));
+    List<Integer> fields = Arrays.asList(2, 0);
+    Type[] types = { Type.INT_TYPE, Type.INT_TYPE };
+
+    OpIterator expected = new Project(fields, types, new Filter(preds.get(1),
+        new Filter(preds.get(0), new TestUtil.MockScan(-5, 5, 3))));
+    OpIterator actual = new FilterProject(preds, fields, types, new TestUtil.MockScan(-5, 5, 3));
+    assertEquals(expected.getTupleDesc(), actual.getTupleDesc());
+    expected.open();
+    actual.open();
+    TestUtil.compareDbIterators(expected, actual);
+    actual.close();
+    expected.close();
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(PredicateCompilerTest.class);
+  }
+}
@@ -0,0 +1,142 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Utility;
+import simpledb.execution.Join;
+import simpledb.execution.JoinPredicate;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Predicate;
+import simpledb.execution.RadixHashJoin;
+import simpledb.storage.TupleDesc;
+import simpledb.systemtest.SimpleDbTestBase;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+public class RadixHashJoinTest extends SimpleDbTestBase {
+
+  final int width1 = 2;
+  final int width2 = 3;
+  OpIterator scan1;
+  OpIterator scan2;
+
+  /**
+   * Initialize each unit test; both inputs have duplicate keys
+   */
+  @Before public void createTupleLists() {
+    this.scan1 = TestUtil.createTupleList(width1,
+        new int[] { 5, 6,
+                    3, 4,
+                    1, 2,
+                    3, 5,
+                    7, 8 });
+    this.scan2 = TestUtil.createTupleList(width2,
+        new int[] { 3, 4, 5,
+                    1, 2, 3,
+                    6, 7, 8,
+                    3, 5, 6,
+                    2, 3, 4,
+                    3, 6, 7 });
+  }
+
+  private static List<String> drain(OpIterator it) throws Exception {
+    List<String> tuples = new ArrayList<>();
+    it.open();
+    while (it.hasNext()) {
+      tuples.add(it.next().toString());
+    }
+    it.close();
+    Collections.sort(tuples);
+    return tuples;
+  }
+
+  /**
+   * Unit test for RadixHashJoin.getTupleDesc()
+   */
+  @Test public void getTupleDesc() {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    RadixHashJoin op = new RadixHashJoin(pred, scan1, scan2);
+    TupleDesc expected = Utility.getTupleDesc(width1 + width2);
+    assertEquals(expected, op.getTupleDesc());
+  }
+
+  /**
+   * Unit test for RadixHashJoin.getNext() with one, several and two passes
+   * of partitions, against a nested-loops Join
+   */
+  @Test public void matchesJoin() throws Exception {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    List<String> expected = drain(new Join(pred, scan1, scan2));
+    // an equi-join with 2 * 3 matches of key 3
+    assertEquals(7, expected.size());
+    for (int bits : new int[] { 0, 3, RadixHashJoin.PASS_BITS + 2 }) {
+      createTupleLists();
+      assertEquals(expected, drain(new RadixHashJoin(pred, scan1, scan2, bits)));
+    }
+  }
+
+  /**
+   * Unit test for RadixHashJoin.rewind()
+   */
+  @Test public void rewind() throws Exception {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    RadixHashJoin op = new RadixHashJoin(pred, scan1, scan2);
+    op.open();
+    int count = 0;
+    while (op.hasNext()) {
+      assertNotNull(op.next());
+      count++;
+    }
+    assertTrue(TestUtil.checkExhausted(op));
+    op.rewind();
+    while (op.hasNext()) {
+      assertNotNull(op.next());
+      count--;
+    }
+    assertEquals(0, count);
+  }
+
+  /**
+   * A rewind after the partitions have been joined in several waves joins
+   * them again, from the first wave
+   */
+  @Test public void rewindAcrossWaves() throws Exception {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    List<String> expected = drain(new Join(pred, scan1, scan2));
+    createTupleLists();
+    RadixHashJoin op = new RadixHashJoin(pred, scan1, scan2, RadixHashJoin.PASS_BITS);
+    op.open();
+    for (int pass = 0; pass < 2; pass++) {
+      List<String> out = new ArrayList<>();
+      while (op.hasNext()) {
+        out.add(op.next().toString());
+      }
+      Collections.sort(out);
+      assertEquals(expected, out);
+      op.rewind();
+    }
+    op.close();
+  }
+
+  /**
+   * RadixHashJoin cannot hash join on LESS_THAN
+   */
+  @Test(expected = IllegalArgumentException.class) public void lessThan() {
+    new RadixHashJoin(new JoinPredicate(0, Predicate.Op.LESS_THAN, 0), scan1, scan2);
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(RadixHashJoinTest.class);
+  }
+}
@@ -0,0 +1,218 @@
+package simpledb;
+
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.execution.Aggregate;
+import simpledb.execution.Aggregator;
+import simpledb.execution.Exchange;
+import simpledb.execution.Scheduler;
+import simpledb.execution.SeqScan;
+import simpledb.storage.HeapFile;
+import simpledb.storage.PageMorsels;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+import simpledb.systemtest.SimpleDbTestBase;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class SchedulerTest extends SimpleDbTestBase {
+
+  /**
+   * A session that queues a task after another session queued many gets
+   * the next free turn rather than waiting for all of them
+   */
+  @Test public void fairSharing() throws Exception {
+    final int TASKS = 50;
+    Scheduler.Session busy = new Scheduler.Session();
+    Scheduler.Session other = new Scheduler.Session();
+    AtomicInteger starts = new AtomicInteger();
+    AtomicInteger otherStart = new AtomicInteger(-1);
+    CountDownLatch queued = new CountDownLatch(1);
+    CountDownLatch done = new CountDownLatch(TASKS + 1);
+    for (int i = 0; i < TASKS; i++) {
+      Scheduler.submit(busy, () -> {
+        starts.incrementAndGet();
+        try {
+          // the tasks that start first hold their turns until all are queued
+          queued.await();
+          Thread.sleep(2);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+        done.countDown();
+      });
+    }
+    Scheduler.submit(other, () -> {
+      otherStart.set(starts.incrementAndGet());
+      done.countDown();
+    });
+    queued.countDown();
+    assertTrue(done.await(10, TimeUnit.SECONDS));
+    assertTrue(otherStart.get() <= Scheduler.PARALLELISM + 2);
+  }
+
+  /**
+   * A task that waits for another through the scheduler does not hold up
+   * the task it waits for, even with every turn taken
+   */
+  @Test public void blockGivesTurn() throws Exception {
+    Scheduler.Session session = new Scheduler.Session();
+    CountDownLatch released = new CountDownLatch(1);
+    CountDownLatch done = new CountDownLatch(Scheduler.PARALLELISM);
+    for (int i = 0; i < Scheduler.PARALLELISM; i++) {
+      Scheduler.submit(session, () -> {
+        try {
+          Scheduler.block(new ForkJoinPool.ManagedBlocker() {
+            public boolean block() throws InterruptedException {
+              released.await();
+              return true;
+            }
+
+            public boolean isReleasable() {
+              return released.getCount() == 0;
+            }
+          });
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+        done.countDown();
+      });
+    }
+    Scheduler.submit(session, released::countDown);
+    assertTrue(done.await(10, TimeUnit.SECONDS));
+    assertEquals(0, released.getCount());
+  }
+
+  /**
+   * The tasks of an invokeAll, such as the morsels of a parallel aggregate,
+   * are queued in the session like any others: a session that queues a
+   * task afterwards gets the next free turn
+   */
+  @Test public void invokeAllSharesFairly() throws Exception {
+    final int TASKS = 50;
+    Scheduler.Session busy = new Scheduler.Session();
+    Scheduler.Session other = new Scheduler.Session();
+    AtomicInteger starts = new AtomicInteger();
+    AtomicInteger otherStart = new AtomicInteger(-1);
+    CountDownLatch started = new CountDownLatch(1);
+    CountDownLatch queued = new CountDownLatch(1);
+    CountDownLatch done = new CountDownLatch(1);
+    List<Callable<Integer>> tasks = new ArrayList<>();
+    for (int i = 0; i < TASKS; i++) {
+      int task = i;
+      tasks.add(() -> {
+        starts.incrementAndGet();
+        started.countDown();
+        queued.await();
+        Thread.sleep(2);
+        return task;
+      });
+    }
+    List<List<Integer>> results = new ArrayList<>();
+    Thread invoker = new Thread(() -> {
+      Scheduler.setSession(busy);
+      try {
+        results.add(Scheduler.invokeAll(tasks));
+      } catch (Exception e) {
+        throw new RuntimeException(e);
+      }
+    }, "invoker");
+    invoker.start();
+    assertTrue(started.await(10, TimeUnit.SECONDS));
+    Scheduler.submit(other, () -> {
+      otherStart.set(starts.incrementAndGet());
+      done.countDown();
+    });
+    queued.countDown();
+    invoker.join(10000);
+    assertTrue(done.await(10, TimeUnit.SECONDS));
+    assertTrue(otherStart.get() <= Scheduler.PARALLELISM + 2);
+    assertEquals(1, results.size());
+    for (int i = 0; i < TASKS; i++) {
+      assertEquals(i, results.get(0).get(i).intValue());
+    }
+  }
+
+  /**
+   * An exception of a task of an invokeAll is rethrown to the caller
+   */
+  @Test(expected = DbException.class) public void invokeAllThrows() throws Exception {
+    List<Callable<Integer>> tasks = new ArrayList<>();
+    for (int i = 0; i < 10; i++) {
+      int task = i;
+      tasks.add(() -> {
+        if (task == 5) {
+          throw new DbException("task " + task);
+        }
+        return task;
+      });
+    }
+    Scheduler.invokeAll(tasks);
+  }
+
+  /**
+   * A parallel aggregate and the exchange of another query run side by
+   * side on the workers, each in its own session
+   */
+  @Test public void parallelAggregateNextToExchange() throws Exception {
+    List<List<Integer>> created = new ArrayList<>();
+    HeapFile aggTable = SystemTestUtil.createRandomHeapFile(2, 20000, 100, null, null);
+    HeapFile scanTable = SystemTestUtil.createRandomHeapFile(2, 20000, 100, null, created);
+    TransactionId tid = new TransactionId();
+    Aggregate serial = new Aggregate(new SeqScan(tid, aggTable.getId(), ""), 1, 0, Aggregator.Op.COUNT);
+    serial.setParallel(false);
+    List<List<Integer>> expected = new ArrayList<>();
+    serial.open();
+    while (serial.hasNext()) {
+      expected.add(SystemTestUtil.tupleToList(serial.next()));
+    }
+    serial.close();
+
+    Aggregate parallel = new Aggregate(new SeqScan(tid, aggTable.getId(), ""), 1, 0, Aggregator.Op.COUNT);
+    parallel.setParallel(true);
+    assertTrue(parallel.aggregatesInParallel());
+    List<Throwable> errors = new ArrayList<>();
+    Thread aggregating = new Thread(() -> {
+      Scheduler.setSession(new Scheduler.Session());
+      try {
+        for (int i = 0; i < 5; i++) {
+          SystemTestUtil.matchTuples(parallel, expected);
+        }
+      } catch (Throwable e) {
+        errors.add(e);
+      }
+    });
+    aggregating.start();
+    Scheduler.Session previous = Scheduler.setSession(new Scheduler.Session());
+    try {
+      PageMorsels morsels = new PageMorsels(scanTable.getId(), 2);
+      for (int i = 0; i < 5; i++) {
+        SystemTestUtil.matchTuples(Exchange.gather(new SeqScan(tid, "", morsels),
+            new SeqScan(tid, "", morsels)), created);
+      }
+    } finally {
+      Scheduler.setSession(previous);
+    }
+    aggregating.join();
+    assertEquals(new ArrayList<Throwable>(), errors);
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(SchedulerTest.class);
+  }
+}
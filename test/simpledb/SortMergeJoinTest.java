@@ -0,0 +1,127 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Utility;
+import simpledb.execution.Join;
+import simpledb.execution.JoinPredicate;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Predicate;
+import simpledb.execution.SortMergeJoin;
+import simpledb.storage.TupleDesc;
+import simpledb.systemtest.SimpleDbTestBase;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+public class SortMergeJoinTest extends SimpleDbTestBase {
+
+  final int width1 = 2;
+  final int width2 = 3;
+  OpIterator scan1;
+  OpIterator scan2;
+
+  /**
+   * Initialize each unit test; both inputs are sorted on their first field,
+   * with duplicate keys on both sides
+   */
+  @Before public void createTupleLists() {
+    this.scan1 = TestUtil.createTupleList(width1,
+        new int[] { 1, 2,
+                    3, 4,
+                    3, 5,
+                    5, 6,
+                    7, 8 });
+    this.scan2 = TestUtil.createTupleList(width2,
+        new int[] { 1, 2, 3,
+                    2, 3, 4,
+                    3, 4, 5,
+                    3, 5, 6,
+                    3, 6, 7,
+                    6, 7, 8 });
+  }
+
+  private static List<String> drain(OpIterator it) throws Exception {
+    List<String> tuples = new ArrayList<>();
+    it.open();
+    while (it.hasNext()) {
+      tuples.add(it.next().toString());
+    }
+    it.close();
+    Collections.sort(tuples);
+    return tuples;
+  }
+
+  /**
+   * Unit test for SortMergeJoin.getTupleDesc()
+   */
+  @Test public void getTupleDesc() {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    SortMergeJoin op = new SortMergeJoin(pred, scan1, scan2);
+    TupleDesc expected = Utility.getTupleDesc(width1 + width2);
+    assertEquals(expected, op.getTupleDesc());
+  }
+
+  /**
+   * Unit test for SortMergeJoin.getNext() on every operator it supports,
+   * against a nested-loops Join
+   */
+  @Test public void matchesJoin() throws Exception {
+    for (Predicate.Op op : Predicate.Op.values()) {
+      if (!SortMergeJoin.supports(op)) {
+        continue;
+      }
+      JoinPredicate pred = new JoinPredicate(0, op, 0);
+      List<String> expected = drain(new Join(pred, scan1, scan2));
+      createTupleLists();
+      List<String> actual = drain(new SortMergeJoin(pred, scan1, scan2));
+      createTupleLists();
+      assertEquals(op.toString(), expected, actual);
+    }
+    // an equi-join with 2 * 3 matches of key 3
+    assertEquals(7, drain(new SortMergeJoin(
+        new JoinPredicate(0, Predicate.Op.EQUALS, 0), scan1, scan2)).size());
+  }
+
+  /**
+   * Unit test for SortMergeJoin.rewind()
+   */
+  @Test public void rewind() throws Exception {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    SortMergeJoin op = new SortMergeJoin(pred, scan1, scan2);
+    op.open();
+    int count = 0;
+    while (op.hasNext()) {
+      assertNotNull(op.next());
+      count++;
+    }
+    assertTrue(TestUtil.checkExhausted(op));
+    op.rewind();
+    while (op.hasNext()) {
+      assertNotNull(op.next());
+      count--;
+    }
+    assertEquals(0, count);
+  }
+
+  /**
+   * SortMergeJoin cannot merge on NOT_EQUALS
+   */
+  @Test(expected = IllegalArgumentException.class) public void notEquals() {
+    new SortMergeJoin(new JoinPredicate(0, Predicate.Op.NOT_EQUALS, 0), scan1, scan2);
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(SortMergeJoinTest.class);
+  }
+}
@@ -2,18 +2,31 @@ package simpledb.systemtest;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
 import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 import simpledb.common.Database;
 import simpledb.common.DbException;
 import simpledb.execution.Aggregate;
 import simpledb.execution.Aggregator;
+import simpledb.execution.ColumnAggregate;
+import simpledb.execution.CompiledPipeline;
+import simpledb.execution.Filter;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Operator;
+import simpledb.execution.Predicate;
 import simpledb.execution.SeqScan;
+import simpledb.optimizer.LogicalPlan;
+import simpledb.optimizer.TableStats;
 import simpledb.storage.DbFile;
 import simpledb.storage.HeapFile;
+import simpledb.storage.IntField;
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
 
@@ -121,6 +134,207 @@ public class AggregateTest extends SimpleDbTestBase {
         doAggregate(Aggregator.Op.AVG, Aggregator.NO_GROUPING);
     }
 
+    /**
+     * Aggregate a table with many more groups than the Aggregate keeps in
+     * memory, so that it has to spill, and rewind it.
+     */
+    @Test public void testSpilledAggregate() throws Exception {
+        List<List<Integer>> createdTuples = new ArrayList<>();
+        HeapFile table = SystemTestUtil.createRandomHeapFile(
+                COLUMNS, 2000, 1000, null, createdTuples);
+        for (Aggregator.Op operation : new Aggregator.Op[]{Aggregator.Op.SUM, Aggregator.Op.COUNT,
+                Aggregator.Op.MIN, Aggregator.Op.MAX, Aggregator.Op.AVG}) {
+            List<List<Integer>> expected = aggregate(createdTuples, operation, 0);
+            TransactionId tid = new TransactionId();
+            Aggregate ag = new Aggregate(new SeqScan(tid, table.getId(), ""), new int[]{1},
+                    new Aggregator.Op[]{operation}, new int[]{0}, 10);
+            SystemTestUtil.matchTuples(ag, expected);
+            ag.open();
+            for (int pass = 0; pass < 2; pass++) {
+                int groups = 0;
+                while (ag.hasNext()) {
+                    ag.next();
+                    groups++;
+                }
+                assertEquals(expected.size(), groups);
+                ag.rewind();
+            }
+            ag.close();
+            Database.getBufferPool().transactionComplete(tid);
+        }
+    }
+
+    /**
+     * Aggregate a table of many pages in parallel, under a filter, and with
+     * too many groups for the budget, so that it falls back to spilling.
+     */
+    @Test public void testParallelAggregate() throws Exception {
+        List<List<Integer>> createdTuples = new ArrayList<>();
+        HeapFile table = SystemTestUtil.createRandomHeapFile(
+                COLUMNS, 20000, 1000, null, createdTuples);
+        List<List<Integer>> filtered = new ArrayList<>();
+        for (List<Integer> t : createdTuples) {
+            if (t.get(2) > 500) filtered.add(t);
+        }
+        for (Aggregator.Op operation : new Aggregator.Op[]{Aggregator.Op.SUM, Aggregator.Op.COUNT,
+                Aggregator.Op.MIN, Aggregator.Op.MAX, Aggregator.Op.AVG}) {
+            TransactionId tid = new TransactionId();
+            Aggregate ag = new Aggregate(new SeqScan(tid, table.getId(), ""), new int[]{1},
+                    new Aggregator.Op[]{operation}, new int[]{0});
+            ag.setParallel(true);
+            SystemTestUtil.matchTuples(ag, aggregate(createdTuples, operation, 0));
+
+            ag = new Aggregate(new SeqScan(tid, table.getId(), ""), 1, Aggregator.NO_GROUPING, operation);
+            ag.setParallel(true);
+            SystemTestUtil.matchTuples(ag, aggregate(createdTuples, operation, Aggregator.NO_GROUPING));
+
+            OpIterator scan = new Filter(new Predicate(2, Predicate.Op.GREATER_THAN, new IntField(500)),
+                    new SeqScan(tid, table.getId(), ""));
+            ag = new Aggregate(scan, new int[]{1}, new Aggregator.Op[]{operation}, new int[]{0}, 10);
+            ag.setParallel(true);
+            SystemTestUtil.matchTuples(ag, aggregate(filtered, operation, 0));
+            Database.getBufferPool().transactionComplete(tid);
+        }
+    }
+
+    /** COUNT, SUM and MAX per (c0, c2) group of a query, in a single Aggregate */
+    @Test public void testLogicalPlanMultipleAggregates() throws Exception {
+        List<List<Integer>> createdTuples = new ArrayList<>();
+        HeapFile table = SystemTestUtil.createRandomHeapFile(
+                COLUMNS, ROWS, 8, null, createdTuples, "c");
+        Map<String, TableStats> stats = new HashMap<>();
+        stats.put(Database.getCatalog().getTableName(table.getId()), new TableStats(table.getId(), 1));
+
+        // (c2, count, c0, max, sum) per group
+        Map<List<Integer>, List<Integer>> groups = new HashMap<>();
+        for (List<Integer> t : createdTuples) {
+            List<Integer> key = Arrays.asList(t.get(0), t.get(2));
+            List<Integer> result = groups.get(key);
+            if (result == null) {
+                result = new ArrayList<>(Arrays.asList(t.get(2), 0, t.get(0), Integer.MIN_VALUE, 0));
+                groups.put(key, result);
+            }
+            result.set(1, result.get(1) + 1);
+            result.set(3, Math.max(result.get(3), t.get(1)));
+            result.set(4, result.get(4) + t.get(1));
+        }
+
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(table.getId(), "t");
+        lp.addAggregate(Arrays.asList("COUNT", "SUM", "MAX"), Arrays.asList("t.c1", "t.c1", "t.c1"),
+                Arrays.asList("t.c0", "t.c2"));
+        lp.addProjectField("t.c2", null);
+        lp.addProjectField("t.c1", "COUNT");
+        lp.addProjectField("t.c0", null);
+        lp.addProjectField("t.c1", "MAX");
+        lp.addProjectField("t.c1", "SUM");
+        TransactionId tid = new TransactionId();
+        OpIterator plan = lp.physicalPlan(tid, stats, false);
+        SystemTestUtil.matchTuples(plan, new ArrayList<>(groups.values()));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * A query's aggregate with more groups than the budget spills whether it
+     * is vectorized, compiled or neither; on a table of more than one morsel
+     * each of them runs in parallel.
+     */
+    @Test public void testLogicalPlanGroupBudget() throws Exception {
+        List<List<Integer>> createdTuples = new ArrayList<>();
+        HeapFile table = SystemTestUtil.createRandomHeapFile(
+                COLUMNS, 2000, 1000, null, createdTuples, "c");
+        Map<String, TableStats> stats = new HashMap<>();
+        stats.put(Database.getCatalog().getTableName(table.getId()), new TableStats(table.getId(), 1));
+        List<List<Integer>> expected = aggregate(createdTuples, Aggregator.Op.SUM, 0);
+
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(table.getId(), "t");
+        lp.addAggregate("SUM", "t.c1", "t.c0");
+        lp.addProjectField("t.c0", null);
+        lp.addProjectField("t.c1", "SUM");
+        TransactionId tid = new TransactionId();
+        try {
+            LogicalPlan.setMaxGroups(10);
+            LogicalPlan.setParallelism(1);
+            LogicalPlan.setPushPipelines(false);
+            Operator plan = (Operator) lp.physicalPlan(tid, stats, false);
+            assertTrue(plan.getChildren()[0] instanceof ColumnAggregate);
+            assertTrue(((ColumnAggregate) plan.getChildren()[0]).aggregatesInParallel());
+            SystemTestUtil.matchTuples(plan, expected);
+
+            LogicalPlan.setVectorize(false);
+            plan = (Operator) lp.physicalPlan(tid, stats, false);
+            assertTrue(plan.getChildren()[0] instanceof CompiledPipeline);
+            Aggregate compiled = (Aggregate) ((CompiledPipeline) plan.getChildren()[0]).getPlan();
+            assertTrue(compiled.aggregatesInParallel());
+            SystemTestUtil.matchTuples(plan, expected);
+
+            LogicalPlan.setCompilePipelines(false);
+            plan = (Operator) lp.physicalPlan(tid, stats, false);
+            assertTrue(plan.getChildren()[0] instanceof Aggregate);
+            assertTrue(((Aggregate) plan.getChildren()[0]).aggregatesInParallel());
+            SystemTestUtil.matchTuples(plan, expected);
+            LogicalPlan.setVectorize(true);
+
+            // a group-by over a join is split into aggregates of the
+            // repartitioned join, which each keep the budget
+            HeapFile table1 = SystemTestUtil.createRandomHeapFile(2, 10000, 10000, null, null, "c");
+            HeapFile table2 = SystemTestUtil.createRandomHeapFile(2, 10000, 10000, null, null, "c");
+            for (HeapFile t : new HeapFile[]{table1, table2}) {
+                stats.put(Database.getCatalog().getTableName(t.getId()), new TableStats(t.getId(), 1));
+            }
+            lp = new LogicalPlan();
+            lp.addScan(table1.getId(), "a");
+            lp.addScan(table2.getId(), "b");
+            lp.addJoin("a.c0", "b.c0", Predicate.Op.EQUALS);
+            lp.addAggregate("COUNT", "b.c1", "a.c1");
+            lp.addProjectField("a.c1", null);
+            lp.addProjectField("b.c1", "COUNT");
+            LogicalPlan.setCompilePipelines(false);
+            expected = drain(lp.physicalPlan(tid, stats, false));
+            LogicalPlan.setParallelism(2);
+            plan = (Operator) lp.physicalPlan(tid, stats, false);
+            List<Aggregate> aggs = new ArrayList<>();
+            findAggregates(plan, aggs);
+            assertTrue(aggs.size() > 1);
+            for (Aggregate a : aggs) {
+                assertEquals(10, a.maxGroups());
+            }
+            SystemTestUtil.matchTuples(plan, expected);
+        } finally {
+            LogicalPlan.setMaxGroups(Aggregate.MAX_GROUPS);
+            LogicalPlan.setParallelism(Runtime.getRuntime().availableProcessors());
+            LogicalPlan.setParallelAggregates(true);
+            LogicalPlan.setPushPipelines(true);
+            LogicalPlan.setVectorize(true);
+            LogicalPlan.setCompilePipelines(true);
+        }
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    private static List<List<Integer>> drain(OpIterator it)
+            throws DbException, TransactionAbortedException {
+        List<List<Integer>> tuples = new ArrayList<>();
+        it.open();
+        while (it.hasNext()) {
+            tuples.add(SystemTestUtil.tupleToList(it.next()));
+        }
+        it.close();
+        return tuples;
+    }
+
+    // the Aggregates of a plan
+    private static void findAggregates(OpIterator plan, List<Aggregate> aggs) {
+        if (plan instanceof Aggregate) {
+            aggs.add((Aggregate) plan);
+        }
+        if (plan instanceof Operator) {
+            for (OpIterator child : ((Operator) plan).getChildren()) {
+                findAggregates(child, aggs);
+            }
+        }
+    }
+
     /** Make test compatible with older version of ant. */
     public static junit.framework.Test suite() {
         return new junit.framework.JUnit4TestAdapter(AggregateTest.class);
@@ -0,0 +1,223 @@
+package simpledb.systemtest;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.execution.*;
+import simpledb.optimizer.LogicalPlan;
+import simpledb.optimizer.TableStats;
+import simpledb.storage.HeapFile;
+import simpledb.storage.IntField;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+/**
+ * Checks that the vectorized operators produce the same tuples as their
+ * tuple-at-a-time counterparts.
+ */
+public class ColumnOperatorTest extends SimpleDbTestBase {
+    private final static int ROWS = 5000;
+    private final static int MAX_VALUE = 100;
+    private final static int COLUMNS = 3;
+
+    private static List<List<Integer>> drain(OpIterator it)
+            throws DbException, TransactionAbortedException {
+        List<List<Integer>> tuples = new ArrayList<>();
+        it.open();
+        while (it.hasNext()) {
+            tuples.add(SystemTestUtil.tupleToList(it.next()));
+        }
+        it.close();
+        return tuples;
+    }
+
+    @Test public void testScanFilter()
+            throws IOException, DbException, TransactionAbortedException {
+        HeapFile table = SystemTestUtil.createRandomHeapFile(COLUMNS, ROWS, MAX_VALUE, null, null);
+        TransactionId tid = new TransactionId();
+        // the rows that pass are counted per value of their first field
+        for (Predicate.Op op : Predicate.Op.values()) {
+            Predicate p = new Predicate(1, op, new IntField(MAX_VALUE / 2));
+            List<List<Integer>> expected = drain(new Aggregate(
+                    new Filter(p, new SeqScan(tid, table.getId(), "")), 2, 0, Aggregator.Op.COUNT));
+            ColumnOperator col = new ColumnFilter(p, new ColumnScan(tid, table.getId(), ""));
+            SystemTestUtil.matchTuples(new ColumnAggregate(col, 2, 0, Aggregator.Op.COUNT), expected);
+        }
+
+        // two filters
+        Predicate p1 = new Predicate(0, Predicate.Op.GREATER_THAN, new IntField(10));
+        Predicate p2 = new Predicate(2, Predicate.Op.LESS_THAN_OR_EQ, new IntField(60));
+        List<List<Integer>> expected = drain(new Aggregate(
+                new Filter(p2, new Filter(p1, new SeqScan(tid, table.getId(), ""))), 2, 0, Aggregator.Op.COUNT));
+        ColumnOperator col = new ColumnFilter(p2, new ColumnFilter(p1, new ColumnScan(tid, table.getId(), "")));
+        SystemTestUtil.matchTuples(new ColumnAggregate(col, 2, 0, Aggregator.Op.COUNT), expected);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void testAggregate()
+            throws IOException, DbException, TransactionAbortedException {
+        HeapFile table = SystemTestUtil.createRandomHeapFile(COLUMNS, ROWS, MAX_VALUE, null, null);
+        TransactionId tid = new TransactionId();
+        Aggregator.Op[] ops = {Aggregator.Op.MIN, Aggregator.Op.MAX, Aggregator.Op.SUM,
+                Aggregator.Op.AVG, Aggregator.Op.COUNT};
+        Predicate p = new Predicate(2, Predicate.Op.GREATER_THAN, new IntField(20));
+        for (Aggregator.Op op : ops) {
+            for (int gfield : new int[]{Aggregator.NO_GROUPING, 0}) {
+                List<List<Integer>> expected = drain(new Aggregate(
+                        new Filter(p, new SeqScan(tid, table.getId(), "")), 1, gfield, op));
+                ColumnAggregate agg = new ColumnAggregate(
+                        new ColumnFilter(p, new ColumnScan(tid, table.getId(), "")), 1, gfield, op);
+                SystemTestUtil.matchTuples(agg, expected);
+            }
+        }
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void testProject()
+            throws IOException, DbException, TransactionAbortedException {
+        HeapFile table = SystemTestUtil.createRandomHeapFile(COLUMNS, ROWS, MAX_VALUE, null, null);
+        TransactionId tid = new TransactionId();
+        Predicate p = new Predicate(0, Predicate.Op.GREATER_THAN, new IntField(10));
+        List<List<Integer>> expected = drain(new Aggregate(
+                new Filter(p, new SeqScan(tid, table.getId(), "")), 0, 2, Aggregator.Op.SUM));
+        // fields 2 and 0, in that order
+        ColumnOperator col = new ColumnProject(new int[]{2, 0},
+                new ColumnFilter(p, new ColumnScan(tid, table.getId(), "")));
+        SystemTestUtil.matchTuples(new ColumnAggregate(col, 1, 0, Aggregator.Op.SUM), expected);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void testHashJoin()
+            throws IOException, DbException, TransactionAbortedException {
+        HeapFile table1 = SystemTestUtil.createRandomHeapFile(2, 500, MAX_VALUE, null, null);
+        HeapFile table2 = SystemTestUtil.createRandomHeapFile(COLUMNS, 1000, MAX_VALUE, null, null);
+        TransactionId tid = new TransactionId();
+        JoinPredicate p = new JoinPredicate(1, Predicate.Op.EQUALS, 0);
+        Aggregate plan = new Aggregate(new HashEquiJoin(p,
+                new SeqScan(tid, table1.getId(), "a"), new SeqScan(tid, table2.getId(), "b")),
+                4, 0, Aggregator.Op.SUM);
+        List<List<Integer>> expected = drain(plan);
+        ColumnOperator join = new ColumnHashJoin(p,
+                new ColumnScan(tid, table1.getId(), "a"), new ColumnScan(tid, table2.getId(), "b"));
+        SystemTestUtil.matchTuples(new ColumnAggregate(join, 4, 0, Aggregator.Op.SUM), expected);
+
+        // a build side over the join's budget runs the plan instead
+        join = new ColumnHashJoin(p, new ColumnScan(tid, table1.getId(), "a"),
+                new ColumnScan(tid, table2.getId(), "b"), 100);
+        SystemTestUtil.matchTuples(new ColumnAggregate(join, 4, 0, Aggregator.Op.SUM, plan), expected);
+        assertFalse(join.fits());
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void testLogicalPlan() throws Exception {
+        HeapFile table = SystemTestUtil.createRandomHeapFile(COLUMNS, ROWS, MAX_VALUE, null, null, "c");
+        Map<String, TableStats> stats = new HashMap<>();
+        String name = Database.getCatalog().getTableName(table.getId());
+        stats.put(name, new TableStats(table.getId(), 1));
+        TransactionId tid = new TransactionId();
+
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(table.getId(), "t");
+        lp.addFilter("t.c2", Predicate.Op.GREATER_THAN, "20");
+        lp.addAggregate("SUM", "t.c1", "t.c0");
+        lp.addProjectField("t.c0", null);
+        lp.addProjectField("t.c1", "SUM");
+        try {
+            LogicalPlan.setVectorize(false);
+            List<List<Integer>> expected = drain(lp.physicalPlan(tid, stats, false));
+            LogicalPlan.setVectorize(true);
+            Operator plan = (Operator) lp.physicalPlan(tid, stats, false);
+            assertTrue(plan.getChildren()[0] instanceof ColumnAggregate);
+            SystemTestUtil.matchTuples(plan, expected);
+
+            // run serially, it gives the same groups
+            LogicalPlan.setParallelAggregates(false);
+            plan = (Operator) lp.physicalPlan(tid, stats, false);
+            assertFalse(((ColumnAggregate) plan.getChildren()[0]).aggregatesInParallel());
+            SystemTestUtil.matchTuples(plan, expected);
+        } finally {
+            LogicalPlan.setVectorize(true);
+            LogicalPlan.setParallelAggregates(true);
+        }
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * With the default settings, an aggregate over a join of two tables that
+     * are not split into parallel scans is vectorized.
+     */
+    @Test public void testLogicalPlanJoin() throws Exception {
+        HeapFile table1 = SystemTestUtil.createRandomHeapFile(2, 500, MAX_VALUE, null, null, "c");
+        HeapFile table2 = SystemTestUtil.createRandomHeapFile(COLUMNS, 1000, MAX_VALUE, null, null, "c");
+        Map<String, TableStats> stats = new HashMap<>();
+        for (HeapFile table : new HeapFile[]{table1, table2}) {
+            stats.put(Database.getCatalog().getTableName(table.getId()), new TableStats(table.getId(), 1));
+        }
+        TransactionId tid = new TransactionId();
+
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(table1.getId(), "a");
+        lp.addScan(table2.getId(), "b");
+        lp.addJoin("a.c1", "b.c0", Predicate.Op.EQUALS);
+        lp.addFilter("b.c2", Predicate.Op.GREATER_THAN, "20");
+        lp.addAggregate("SUM", "b.c1", "a.c0");
+        lp.addProjectField("a.c0", null);
+        lp.addProjectField("b.c1", "SUM");
+        try {
+            LogicalPlan.setVectorize(false);
+            List<List<Integer>> expected = drain(lp.physicalPlan(tid, stats, false));
+            LogicalPlan.setVectorize(true);
+            Operator plan = (Operator) lp.physicalPlan(tid, stats, false);
+            assertTrue(plan.getChildren()[0] instanceof ColumnAggregate);
+            SystemTestUtil.matchTuples(plan, expected);
+        } finally {
+            LogicalPlan.setVectorize(true);
+        }
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * With the default settings, a scan and aggregate of a table of more
+     * than one morsel is vectorized, and runs in parallel.
+     */
+    @Test public void testLogicalPlanParallel() throws Exception {
+        List<List<Integer>> createdTuples = new ArrayList<>();
+        HeapFile table = SystemTestUtil.createRandomHeapFile(COLUMNS, ROWS, MAX_VALUE, null, createdTuples, "c");
+        assertTrue(table.numPages() > 4);
+        Map<String, TableStats> stats = new HashMap<>();
+        stats.put(Database.getCatalog().getTableName(table.getId()), new TableStats(table.getId(), 1));
+        TransactionId tid = new TransactionId();
+
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(table.getId(), "t");
+        lp.addAggregate("MAX", "t.c1", "t.c0");
+        lp.addProjectField("t.c0", null);
+        lp.addProjectField("t.c1", "MAX");
+        Map<Integer, Integer> max = new HashMap<>();
+        for (List<Integer> t : createdTuples) {
+            max.merge(t.get(0), t.get(1), Math::max);
+        }
+        List<List<Integer>> expected = new ArrayList<>();
+        for (Map.Entry<Integer, Integer> e : max.entrySet()) {
+            expected.add(Arrays.asList(e.getKey(), e.getValue()));
+        }
+        Operator plan = (Operator) lp.physicalPlan(tid, stats, false);
+        assertTrue(plan.getChildren()[0] instanceof ColumnAggregate);
+        assertTrue(((ColumnAggregate) plan.getChildren()[0]).aggregatesInParallel());
+        SystemTestUtil.matchTuples(plan, expected);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(ColumnOperatorTest.class);
+    }
+}
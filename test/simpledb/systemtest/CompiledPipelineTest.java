@@ -0,0 +1,193 @@
+package simpledb.systemtest;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.execution.*;
+import simpledb.optimizer.LogicalPlan;
+import simpledb.optimizer.TableStats;
+import simpledb.storage.HeapFile;
+import simpledb.storage.IntField;
+import simpledb.storage.Tuple;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+/**
+ * Checks that compiled pipelines produce the same tuples as the plans they
+ * were compiled from.
+ */
+public class CompiledPipelineTest extends SimpleDbTestBase {
+    private final static int MAX_VALUE = 100;
+
+    private static List<List<Integer>> drain(OpIterator it)
+            throws DbException, TransactionAbortedException {
+        List<List<Integer>> tuples = new ArrayList<>();
+        it.open();
+        while (it.hasNext()) {
+            tuples.add(SystemTestUtil.tupleToList(it.next()));
+        }
+        it.close();
+        return tuples;
+    }
+
+    // a join of table1 and table2 on table1.c1 = table2.c0, filtered on both sides
+    private static OpIterator join(TransactionId tid, HeapFile table1, HeapFile table2) {
+        Predicate p1 = new Predicate(0, Predicate.Op.GREATER_THAN, new IntField(10));
+        Predicate p2 = new Predicate(2, Predicate.Op.LESS_THAN_OR_EQ, new IntField(70));
+        return new HashEquiJoin(new JoinPredicate(1, Predicate.Op.EQUALS, 0),
+                new Filter(p1, new SeqScan(tid, table1.getId(), "a")),
+                new Filter(p2, new SeqScan(tid, table2.getId(), "b")));
+    }
+
+    @Test public void testFilterProject()
+            throws IOException, DbException, TransactionAbortedException {
+        HeapFile table = SystemTestUtil.createRandomHeapFile(3, 2000, MAX_VALUE, null, null);
+        TransactionId tid = new TransactionId();
+        List<Integer> fields = Arrays.asList(2, 0);
+        Type[] types = {Type.INT_TYPE, Type.INT_TYPE};
+        Predicate p = new Predicate(1, Predicate.Op.NOT_EQUALS, new IntField(MAX_VALUE / 2));
+        List<List<Integer>> expected = drain(new Project(fields, types,
+                new Filter(p, new SeqScan(tid, table.getId(), ""))));
+
+        OpIterator compiled = PipelineCompiler.compile(new Project(fields, types,
+                new Filter(p, new SeqScan(tid, table.getId(), ""))));
+        assertTrue(compiled instanceof CompiledPipeline);
+        SystemTestUtil.matchTuples(compiled, expected);
+
+        // the tuples of a scan keep their record ids, so they can be deleted
+        compiled.open();
+        while (compiled.hasNext()) {
+            Tuple t = compiled.next();
+            assertNotNull(t.getRecordId());
+            assertEquals(table.getId(), t.getRecordId().getPageId().getTableId());
+        }
+        compiled.close();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void testJoin()
+            throws IOException, DbException, TransactionAbortedException {
+        HeapFile table1 = SystemTestUtil.createRandomHeapFile(2, 500, MAX_VALUE, null, null);
+        HeapFile table2 = SystemTestUtil.createRandomHeapFile(3, 1000, MAX_VALUE, null, null);
+        TransactionId tid = new TransactionId();
+        List<List<Integer>> expected = drain(join(tid, table1, table2));
+        OpIterator compiled = PipelineCompiler.compile(join(tid, table1, table2));
+        assertTrue(compiled instanceof CompiledPipeline);
+        SystemTestUtil.matchTuples(compiled, expected);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void testJoinAggregate()
+            throws IOException, DbException, TransactionAbortedException {
+        HeapFile table1 = SystemTestUtil.createRandomHeapFile(2, 500, MAX_VALUE, null, null);
+        HeapFile table2 = SystemTestUtil.createRandomHeapFile(3, 1000, MAX_VALUE, null, null);
+        TransactionId tid = new TransactionId();
+        Aggregator.Op[] ops = {Aggregator.Op.MIN, Aggregator.Op.MAX, Aggregator.Op.SUM,
+                Aggregator.Op.AVG, Aggregator.Op.COUNT};
+        for (Aggregator.Op op : ops) {
+            for (int gfield : new int[]{Aggregator.NO_GROUPING, 0, 4}) {
+                List<List<Integer>> expected = drain(
+                        new Aggregate(join(tid, table1, table2), 3, gfield, op));
+                OpIterator compiled = PipelineCompiler.compile(
+                        new Aggregate(join(tid, table1, table2), 3, gfield, op));
+                assertTrue(compiled instanceof CompiledPipeline);
+                SystemTestUtil.matchTuples(compiled, expected);
+            }
+        }
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** A join whose build side does not fit in its budget is run by itself, so that it spills */
+    @Test public void testJoinOverBudget()
+            throws IOException, DbException, TransactionAbortedException {
+        HeapFile table1 = SystemTestUtil.createRandomHeapFile(2, 500, MAX_VALUE, null, null);
+        HeapFile table2 = SystemTestUtil.createRandomHeapFile(3, 1000, MAX_VALUE, null, null);
+        TransactionId tid = new TransactionId();
+        List<List<Integer>> expected = drain(join(tid, table1, table2));
+        HashEquiJoin j = (HashEquiJoin) join(tid, table1, table2);
+        OpIterator compiled = PipelineCompiler.compile(
+                new HashEquiJoin(j.getJoinPredicate(), j.getChildren()[0], j.getChildren()[1], 50));
+        assertTrue(compiled instanceof CompiledPipeline);
+        SystemTestUtil.matchTuples(compiled, expected);
+        SystemTestUtil.matchTuples(compiled, expected);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** A compiled pipeline, such as a subquery's, goes through the planners again unchanged */
+    @Test public void testPlanAgain()
+            throws IOException, DbException, TransactionAbortedException {
+        HeapFile table1 = SystemTestUtil.createRandomHeapFile(2, 5000, MAX_VALUE, null, null);
+        HeapFile table2 = SystemTestUtil.createRandomHeapFile(3, 10000, MAX_VALUE, null, null);
+        TransactionId tid = new TransactionId();
+        List<List<Integer>> expected = drain(join(tid, table1, table2));
+        OpIterator compiled = PipelineCompiler.compile(join(tid, table1, table2));
+        assertTrue(compiled instanceof CompiledPipeline);
+        assertSame(compiled, ParallelPlanner.parallelize(compiled, 4));
+        assertSame(compiled, PipelineCompiler.compile(compiled));
+        ((Operator) compiled).setChildren(((Operator) compiled).getChildren());
+        SystemTestUtil.matchTuples(compiled, expected);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void testLogicalPlan() throws Exception {
+        HeapFile table1 = SystemTestUtil.createRandomHeapFile(2, 500, MAX_VALUE, null, null, "c");
+        HeapFile table2 = SystemTestUtil.createRandomHeapFile(3, 1000, MAX_VALUE, null, null, "c");
+        Map<String, TableStats> stats = new HashMap<>();
+        for (HeapFile table : new HeapFile[]{table1, table2}) {
+            stats.put(Database.getCatalog().getTableName(table.getId()),
+                    new TableStats(table.getId(), 1));
+        }
+        TransactionId tid = new TransactionId();
+
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(table1.getId(), "a");
+        lp.addScan(table2.getId(), "b");
+        lp.addJoin("a.c1", "b.c0", Predicate.Op.EQUALS);
+        lp.addFilter("b.c2", Predicate.Op.GREATER_THAN, "20");
+        lp.addAggregate("SUM", "b.c1", "a.c0");
+        lp.addProjectField("a.c0", null);
+        lp.addProjectField("b.c1", "SUM");
+        try {
+            // the aggregate of a join of two small tables is vectorized otherwise
+            LogicalPlan.setVectorize(false);
+            LogicalPlan.setCompilePipelines(false);
+            List<List<Integer>> expected = drain(lp.physicalPlan(tid, stats, false));
+            LogicalPlan.setCompilePipelines(true);
+            Operator plan = (Operator) lp.physicalPlan(tid, stats, false);
+            assertTrue(plan.getChildren()[0] instanceof CompiledPipeline);
+            SystemTestUtil.matchTuples(plan, expected);
+
+            // a query that differs only in its constants reuses the compiled code
+            int compiled = PipelineCompiler.numCompiled();
+            lp = new LogicalPlan();
+            lp.addScan(table1.getId(), "a");
+            lp.addScan(table2.getId(), "b");
+            lp.addJoin("a.c1", "b.c0", Predicate.Op.EQUALS);
+            lp.addFilter("b.c2", Predicate.Op.GREATER_THAN, "25");
+            lp.addAggregate("SUM", "b.c1", "a.c0");
+            lp.addProjectField("a.c0", null);
+            lp.addProjectField("b.c1", "SUM");
+            plan = (Operator) lp.physicalPlan(tid, stats, false);
+            assertTrue(plan.getChildren()[0] instanceof CompiledPipeline);
+            assertEquals(compiled, PipelineCompiler.numCompiled());
+        } finally {
+            LogicalPlan.setVectorize(true);
+            LogicalPlan.setCompilePipelines(true);
+        }
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(CompiledPipelineTest.class);
+    }
+}
@@ -0,0 +1,233 @@
+package simpledb.systemtest;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import simpledb.common.Database;
+import simpledb.execution.Aggregate;
+import simpledb.execution.Aggregator;
+import simpledb.execution.Exchange;
+import simpledb.execution.Filter;
+import simpledb.execution.Limit;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Operator;
+import simpledb.execution.Predicate;
+import simpledb.execution.Query;
+import simpledb.execution.SeqScan;
+import simpledb.optimizer.LogicalPlan;
+import simpledb.optimizer.TableStats;
+import simpledb.storage.HeapFile;
+import simpledb.storage.IntField;
+import simpledb.transaction.TransactionId;
+
+public class ExchangeTest extends SimpleDbTestBase {
+    private static final int COLUMNS = 3;
+    private static final int ROWS = 20000;
+    private static final int MAX_VALUE = 1000;
+
+    // scans of n ranges of the pages of a table
+    private static OpIterator[] scans(TransactionId tid, HeapFile table, int n) {
+        OpIterator[] scans = new OpIterator[n];
+        int pages = table.numPages();
+        for (int i = 0; i < n; i++) {
+            scans[i] = new SeqScan(tid, table.getId(), "t", i * pages / n, i == n - 1 ? -1 : (i + 1) * pages / n);
+        }
+        return scans;
+    }
+
+    /** A gather returns the tuples of all its inputs, filtered on the workers */
+    @Test public void testGather() throws Exception {
+        List<List<Integer>> createdTuples = new ArrayList<>();
+        HeapFile table = SystemTestUtil.createRandomHeapFile(
+                COLUMNS, ROWS, MAX_VALUE, null, createdTuples);
+        List<List<Integer>> expected = new ArrayList<>();
+        for (List<Integer> t : createdTuples) {
+            if (t.get(1) < 300) expected.add(t);
+        }
+        TransactionId tid = new TransactionId();
+        OpIterator[] inputs = scans(tid, table, 4);
+        for (int i = 0; i < inputs.length; i++) {
+            inputs[i] = new Filter(new Predicate(1, Predicate.Op.LESS_THAN, new IntField(300)), inputs[i]);
+        }
+        Exchange gather = Exchange.gather(inputs);
+        SystemTestUtil.matchTuples(gather, expected);
+
+        // a rewind runs the inputs again
+        gather.open();
+        for (int pass = 0; pass < 2; pass++) {
+            int n = 0;
+            while (gather.hasNext()) {
+                gather.next();
+                n++;
+            }
+            assertEquals(expected.size(), n);
+            gather.rewind();
+        }
+        gather.close();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * A repartition sends all the tuples with a value of its field to the
+     * same output, and a broadcast sends every tuple to each output
+     */
+    @Test public void testRepartitionAndBroadcast() throws Exception {
+        List<List<Integer>> createdTuples = new ArrayList<>();
+        HeapFile table = SystemTestUtil.createRandomHeapFile(
+                COLUMNS, ROWS, MAX_VALUE, null, createdTuples);
+        Map<Integer, Integer> counts = new HashMap<>();
+        for (List<Integer> t : createdTuples) {
+            counts.merge(t.get(0), 1, Integer::sum);
+        }
+        List<List<Integer>> expected = new ArrayList<>();
+        for (Map.Entry<Integer, Integer> e : counts.entrySet()) {
+            List<Integer> group = new ArrayList<>();
+            group.add(e.getKey());
+            group.add(e.getValue());
+            expected.add(group);
+        }
+        TransactionId tid = new TransactionId();
+
+        // the counts per output are those of the whole table
+        Exchange[] outputs = Exchange.repartition(scans(tid, table, 3), 0, 4);
+        OpIterator[] aggs = new OpIterator[outputs.length];
+        for (int i = 0; i < outputs.length; i++) {
+            aggs[i] = new Aggregate(outputs[i], 1, 0, Aggregator.Op.COUNT);
+        }
+        SystemTestUtil.matchTuples(Exchange.gather(aggs), expected);
+
+        HeapFile small = SystemTestUtil.createRandomHeapFile(
+                COLUMNS, ROWS / 10, MAX_VALUE, null, createdTuples);
+        List<List<Integer>> broadcast = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            broadcast.addAll(createdTuples);
+        }
+        SystemTestUtil.matchTuples(Exchange.gather(Exchange.broadcast(scans(tid, small, 2), 3)), broadcast);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** Closing a gather early stops its inputs */
+    @Test public void testEarlyClose() throws Exception {
+        HeapFile table = SystemTestUtil.createRandomHeapFile(COLUMNS, ROWS, MAX_VALUE, null, null);
+        TransactionId tid = new TransactionId();
+        Exchange[] outputs = Exchange.repartition(scans(tid, table, 2), 0, 2);
+        Limit limit = new Limit(Exchange.gather(outputs), 10, 0);
+        limit.open();
+        int n = 0;
+        while (limit.hasNext()) {
+            limit.next();
+            n++;
+        }
+        limit.close();
+        assertEquals(10, n);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    // true if plan has an exchange
+    private static boolean hasExchange(OpIterator plan) {
+        if (plan instanceof Exchange) {
+            return true;
+        }
+        if (plan instanceof Operator) {
+            for (OpIterator child : ((Operator) plan).getChildren()) {
+                if (hasExchange(child)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /** A parallel plan of a join and an aggregate returns what the serial one does */
+    @Test public void testParallelPlan() throws Exception {
+        HeapFile table1 = SystemTestUtil.createRandomHeapFile(COLUMNS, ROWS, MAX_VALUE, null, null, "c");
+        HeapFile table2 = SystemTestUtil.createRandomHeapFile(COLUMNS, ROWS, MAX_VALUE, null, null, "c");
+        Map<String, TableStats> stats = new HashMap<>();
+        for (HeapFile table : new HeapFile[]{table1, table2}) {
+            stats.put(Database.getCatalog().getTableName(table.getId()),
+                    new TableStats(table.getId(), 1));
+        }
+        TransactionId tid = new TransactionId();
+        List<List<Integer>> expected = null;
+        try {
+            for (int parallelism : new int[]{1, 4}) {
+                LogicalPlan.setParallelism(parallelism);
+                LogicalPlan lp = new LogicalPlan();
+                lp.addScan(table1.getId(), "a");
+                lp.addScan(table2.getId(), "b");
+                lp.addJoin("a.c0", "b.c0", Predicate.Op.EQUALS);
+                lp.addFilter("b.c2", Predicate.Op.GREATER_THAN, "500");
+                lp.addAggregate("SUM", "b.c1", "a.c1");
+                lp.addProjectField("a.c1", null);
+                lp.addProjectField("b.c1", "SUM");
+                OpIterator plan = lp.physicalPlan(tid, stats, false);
+                assertEquals(parallelism > 1, hasExchange(plan));
+                if (expected == null) {
+                    expected = new ArrayList<>();
+                    plan.open();
+                    while (plan.hasNext()) {
+                        expected.add(SystemTestUtil.tupleToList(plan.next()));
+                    }
+                    plan.close();
+                    assertTrue(expected.size() > 0);
+                } else {
+                    SystemTestUtil.matchTuples(plan, expected);
+                }
+            }
+        } finally {
+            LogicalPlan.setParallelism(Runtime.getRuntime().availableProcessors());
+        }
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Queries that run at once share the workers of the scheduler, each
+     * through exchanges of its own
+     */
+    @Test public void testConcurrentQueries() throws Exception {
+        HeapFile table = SystemTestUtil.createRandomHeapFile(COLUMNS, ROWS, MAX_VALUE, null, null);
+        final int QUERIES = 4;
+        int[] counts = new int[QUERIES];
+        Throwable[] errors = new Throwable[QUERIES];
+        Thread[] threads = new Thread[QUERIES];
+        for (int i = 0; i < QUERIES; i++) {
+            final int q = i;
+            threads[i] = new Thread(() -> {
+                TransactionId tid = new TransactionId();
+                try {
+                    Exchange[] outputs = Exchange.repartition(scans(tid, table, 3), 0, 2);
+                    OpIterator[] aggs = new OpIterator[outputs.length];
+                    for (int j = 0; j < outputs.length; j++) {
+                        aggs[j] = new Aggregate(outputs[j], 1, Aggregator.NO_GROUPING, Aggregator.Op.COUNT);
+                    }
+                    Query query = new Query(Exchange.gather(aggs), tid);
+                    query.start();
+                    while (query.hasNext()) {
+                        counts[q] += ((IntField) query.next().getField(0)).getValue();
+                    }
+                    query.close();
+                    Database.getBufferPool().transactionComplete(tid);
+                } catch (Throwable e) {
+                    errors[q] = e;
+                }
+            });
+            threads[i].start();
+        }
+        for (int i = 0; i < QUERIES; i++) {
+            threads[i].join();
+            assertEquals(null, errors[i]);
+            assertEquals(ROWS, counts[i]);
+        }
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(ExchangeTest.class);
+    }
+}
@@ -0,0 +1,160 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.execution.Join;
+import simpledb.execution.JoinPredicate;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Operator;
+import simpledb.execution.OrderBy;
+import simpledb.execution.Predicate;
+import simpledb.execution.SeqScan;
+import simpledb.index.BTreeFile;
+import simpledb.index.BTreeScan;
+import simpledb.index.BTreeUtility;
+import simpledb.index.IndexNestedLoopJoin;
+import simpledb.optimizer.LogicalPlan;
+import simpledb.optimizer.TableStats;
+import simpledb.storage.BufferPool;
+import simpledb.storage.HeapFile;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionId;
+
+public class IndexNestedLoopJoinTest extends SimpleDbTestBase {
+    private static final int COLUMNS = 2;
+
+    private static List<String> drain(OpIterator it) throws Exception {
+        List<String> tuples = new ArrayList<>();
+        it.open();
+        while (it.hasNext()) {
+            tuples.add(it.next().toString());
+        }
+        it.close();
+        Collections.sort(tuples);
+        return tuples;
+    }
+
+    /** Every operator the join supports, with the outer side unsorted and sorted. */
+    @Test public void testMatchesJoin() throws Exception {
+        HeapFile outer = SystemTestUtil.createRandomHeapFile(COLUMNS, 30, 1000, null, null);
+        BTreeFile inner = BTreeUtility.createRandomBTreeFile(COLUMNS, 2000, 1000, null, null, 0);
+        TransactionId tid = new TransactionId();
+        for (Predicate.Op op : Predicate.Op.values()) {
+            if (!IndexNestedLoopJoin.supports(op)) {
+                continue;
+            }
+            JoinPredicate p = new JoinPredicate(1, op, 0);
+            List<String> expected = drain(new Join(p, new SeqScan(tid, outer.getId()),
+                    new BTreeScan(tid, inner.getId(), null)));
+            List<String> actual = drain(new IndexNestedLoopJoin(p, new SeqScan(tid, outer.getId()),
+                    new BTreeScan(tid, inner.getId(), null)));
+            assertEquals(op.toString(), expected, actual);
+            // in key order, each search may start from the leaf of the previous one
+            List<String> sorted = drain(new IndexNestedLoopJoin(p,
+                    new OrderBy(1, true, new SeqScan(tid, outer.getId())),
+                    new BTreeScan(tid, inner.getId(), null)));
+            assertEquals(op.toString(), expected, sorted);
+        }
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** Test that an equi-join reads only a few pages of the index per outer tuple */
+    @Test public void testReadPage() throws Exception {
+        final int LEAF_PAGES = 30;
+        final int OUTER = 5;
+
+        BTreeFile f = BTreeUtility.createBTreeFile(COLUMNS, LEAF_PAGES * 502, null, null, 0);
+        TupleDesc td = Utility.getTupleDesc(COLUMNS);
+        BTreeScanTest.InstrumentedBTreeFile table =
+                new BTreeScanTest.InstrumentedBTreeFile(f.getFile(), 0, td);
+        Database.getCatalog().addTable(table, SystemTestUtil.getUUID());
+        HeapFile outer = SystemTestUtil.createRandomHeapFile(COLUMNS, OUTER, LEAF_PAGES * 502, null, null);
+
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        table.readCount = 0;
+        TransactionId tid = new TransactionId();
+        JoinPredicate p = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+        List<String> actual = drain(new IndexNestedLoopJoin(p, new SeqScan(tid, outer.getId()),
+                new BTreeScan(tid, table.getId(), null)));
+        // keys are (i+1) so every outer key in range matches once
+        assertTrue(actual.size() <= OUTER);
+        // root pointer page, and a root and up to 2 leaf pages per outer tuple
+        assertTrue(table.readCount <= 1 + 3 * OUTER);
+        assertTrue(table.readCount < table.numPages());
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    private static boolean containsOperator(OpIterator plan, Class<?> c) {
+        if (c.isInstance(plan)) {
+            return true;
+        }
+        if (plan instanceof Operator) {
+            for (OpIterator child : ((Operator) plan).getChildren()) {
+                if (child != null && containsOperator(child, c)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /** A few outer tuples joined on the key of a large B+ tree are searched for in its index. */
+    @Test public void testLogicalPlan() throws Exception {
+        List<List<Integer>> t1Tuples = new ArrayList<>();
+        HeapFile table1 = SystemTestUtil.createRandomHeapFile(COLUMNS, 5, 20000, null, t1Tuples, "c");
+        List<List<Integer>> t2Tuples = new ArrayList<>();
+        BTreeFile created = BTreeUtility.createRandomBTreeFile(COLUMNS, 20000, 20000, null, t2Tuples, 0);
+        BTreeFile table2 = BTreeUtility.openBTreeFile(COLUMNS, "c", created.getFile(), 0);
+        Map<String, TableStats> stats = new HashMap<>();
+        for (int id : new int[]{table1.getId(), table2.getId()}) {
+            stats.put(Database.getCatalog().getTableName(id), new TableStats(id, 1));
+        }
+
+        int expected = 0;
+        for (List<Integer> t1 : t1Tuples) {
+            for (List<Integer> t2 : t2Tuples) {
+                if (t1.get(1).equals(t2.get(0))) {
+                    expected++;
+                }
+            }
+        }
+
+        TransactionId tid = new TransactionId();
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(table1.getId(), "a");
+        lp.addScan(table2.getId(), "b");
+        lp.addJoin("a.c1", "b.c0", Predicate.Op.EQUALS);
+        lp.addProjectField("null.*", null);
+        OpIterator plan = lp.physicalPlan(tid, stats, false);
+        assertTrue(containsOperator(plan, IndexNestedLoopJoin.class));
+
+        int f1 = plan.getTupleDesc().fieldNameToIndex("a.c1");
+        int f2 = plan.getTupleDesc().fieldNameToIndex("b.c0");
+        int actual = 0;
+        plan.open();
+        while (plan.hasNext()) {
+            List<Integer> t = SystemTestUtil.tupleToList(plan.next());
+            assertEquals(t.get(f1), t.get(f2));
+            actual++;
+        }
+        plan.close();
+        assertEquals(expected, actual);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(IndexNestedLoopJoinTest.class);
+    }
+}
@@ -7,14 +7,32 @@ import java.util.List;
 import java.util.Map;
 
 import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
 import simpledb.common.Database;
 import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.execution.Exchange;
+import simpledb.execution.Filter;
+import simpledb.execution.HashEquiJoin;
 import simpledb.execution.Join;
 import simpledb.execution.JoinPredicate;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Operator;
 import simpledb.execution.Predicate;
+import simpledb.execution.Project;
+import simpledb.execution.PushPipeline;
+import simpledb.execution.PushPlanner;
+import simpledb.execution.RadixHashJoin;
 import simpledb.execution.SeqScan;
+import simpledb.execution.SortMergeJoin;
+import simpledb.optimizer.LogicalPlan;
+import simpledb.optimizer.TableStats;
 import simpledb.storage.HeapFile;
+import simpledb.storage.IntField;
+import simpledb.storage.Tuple;
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
 
@@ -79,6 +97,428 @@ public class JoinTest extends SimpleDbTestBase {
         validateJoin(1, 3, 1, 3);
     }
 
+    /**
+     * Join two random tables with a HashEquiJoin that keeps at most
+     * maxTuples tuples in memory, so that it has to spill.
+     */
+    public void validateHashJoin(int table1Rows, int table2Rows, int maxValue,
+            Map<Integer, Integer> columnSpecification, int maxTuples)
+            throws IOException, DbException, TransactionAbortedException {
+        List<List<Integer>> t1Tuples = new ArrayList<>();
+        HeapFile table1 = SystemTestUtil.createRandomHeapFile(
+                COLUMNS, table1Rows, maxValue, columnSpecification, t1Tuples);
+        List<List<Integer>> t2Tuples = new ArrayList<>();
+        HeapFile table2 = SystemTestUtil.createRandomHeapFile(
+                COLUMNS, table2Rows, maxValue, columnSpecification, t2Tuples);
+
+        List<List<Integer>> expectedResults = new ArrayList<>();
+        for (List<Integer> t1 : t1Tuples) {
+            for (List<Integer> t2 : t2Tuples) {
+                if (t1.get(1).equals(t2.get(0))) {
+                    List<Integer> out = new ArrayList<>(t1);
+                    out.addAll(t2);
+                    expectedResults.add(out);
+                }
+            }
+        }
+
+        TransactionId tid = new TransactionId();
+        SeqScan ss1 = new SeqScan(tid, table1.getId(), "");
+        SeqScan ss2 = new SeqScan(tid, table2.getId(), "");
+        JoinPredicate p = new JoinPredicate(1, Predicate.Op.EQUALS, 0);
+        HashEquiJoin joinOp = new HashEquiJoin(p, ss1, ss2, maxTuples);
+        SystemTestUtil.matchTuples(joinOp, expectedResults);
+        joinOp.close();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void testSpilledHashJoin()
+            throws IOException, DbException, TransactionAbortedException {
+        validateHashJoin(600, 800, 100, null, 50);
+    }
+
+    @Test public void testSkewedSpilledHashJoin()
+            throws IOException, DbException, TransactionAbortedException {
+        // every tuple has the same key, so partitioning cannot split them
+        Map<Integer, Integer> columnSpecification = new HashMap<>();
+        columnSpecification.put(0, 7);
+        columnSpecification.put(1, 7);
+        validateHashJoin(30, 40, 100, columnSpecification, 10);
+    }
+
+    /**
+     * A RadixHashJoin of tables with many partitions finds every match.
+     */
+    @Test public void testRadixHashJoin() throws Exception {
+        List<List<Integer>> t1Tuples = new ArrayList<>();
+        HeapFile table1 = SystemTestUtil.createRandomHeapFile(
+                COLUMNS, 30000, 20000, null, t1Tuples);
+        List<List<Integer>> t2Tuples = new ArrayList<>();
+        HeapFile table2 = SystemTestUtil.createRandomHeapFile(
+                COLUMNS, 20000, 20000, null, t2Tuples);
+
+        Map<Integer, Integer> counts = new HashMap<>();
+        for (List<Integer> t1 : t1Tuples) {
+            counts.merge(t1.get(1), 1, Integer::sum);
+        }
+        int expected = 0;
+        for (List<Integer> t2 : t2Tuples) {
+            expected += counts.getOrDefault(t2.get(0), 0);
+        }
+
+        TransactionId tid = new TransactionId();
+        SeqScan ss1 = new SeqScan(tid, table1.getId(), "");
+        SeqScan ss2 = new SeqScan(tid, table2.getId(), "");
+        JoinPredicate p = new JoinPredicate(1, Predicate.Op.EQUALS, 0);
+        RadixHashJoin joinOp = new RadixHashJoin(p, ss1, ss2);
+        int actual = 0;
+        joinOp.open();
+        while (joinOp.hasNext()) {
+            List<Integer> t = SystemTestUtil.tupleToList(joinOp.next());
+            assertEquals(t.get(1), t.get(2));
+            actual++;
+        }
+        joinOp.close();
+        assertEquals(expected, actual);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * The keys of a small build side are pushed down to the probe side's
+     * scan as a Bloom filter, so that the scan drops most probe tuples.
+     */
+    @Test public void testBloomFilterPushdown() throws Exception {
+        List<List<Integer>> t1Tuples = new ArrayList<>();
+        HeapFile table1 = SystemTestUtil.createRandomHeapFile(
+                COLUMNS, 10, 10000, null, t1Tuples);
+        List<List<Integer>> t2Tuples = new ArrayList<>();
+        HeapFile table2 = SystemTestUtil.createRandomHeapFile(
+                COLUMNS, 2000, 10000, null, t2Tuples);
+
+        List<List<Integer>> expectedResults = new ArrayList<>();
+        for (List<Integer> t1 : t1Tuples) {
+            for (List<Integer> t2 : t2Tuples) {
+                if (t1.get(0).equals(t2.get(0))) {
+                    List<Integer> out = new ArrayList<>(t1);
+                    out.addAll(t2);
+                    expectedResults.add(out);
+                }
+            }
+        }
+
+        TransactionId tid = new TransactionId();
+        final int[] probed = {0};
+        SeqScan ss1 = new SeqScan(tid, table1.getId(), "");
+        SeqScan ss2 = new SeqScan(tid, table2.getId(), "") {
+            @Override
+            public Tuple next() throws TransactionAbortedException, DbException {
+                probed[0]++;
+                return super.next();
+            }
+        };
+        JoinPredicate p = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+        HashEquiJoin joinOp = new HashEquiJoin(p, ss1, ss2);
+        SystemTestUtil.matchTuples(joinOp, expectedResults);
+        joinOp.close();
+        // the matches, and about 1% of the other probe tuples
+        assertTrue(probed[0] < expectedResults.size() + 100);
+
+        // once the join is closed, the scan returns all its tuples again
+        probed[0] = 0;
+        ss2.open();
+        while (ss2.hasNext()) {
+            ss2.next();
+        }
+        ss2.close();
+        assertEquals(2000, probed[0]);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    // the tuples of t1 joined to those of t2 on their first fields
+    private static List<List<Integer>> equiJoin(List<List<Integer>> t1Tuples, List<List<Integer>> t2Tuples) {
+        List<List<Integer>> joined = new ArrayList<>();
+        for (List<Integer> t1 : t1Tuples) {
+            for (List<Integer> t2 : t2Tuples) {
+                if (t1.get(0).equals(t2.get(0))) {
+                    List<Integer> out = new ArrayList<>(t1);
+                    out.addAll(t2);
+                    joined.add(out);
+                }
+            }
+        }
+        return joined;
+    }
+
+    /**
+     * The Bloom filter of the build keys goes through an exchange on the
+     * probe side, which drops the tuples before it queues them.
+     */
+    @Test public void testBloomFilterThroughExchange() throws Exception {
+        List<List<Integer>> t1Tuples = new ArrayList<>();
+        HeapFile table1 = SystemTestUtil.createRandomHeapFile(
+                COLUMNS, 10, 10000, null, t1Tuples);
+        List<List<Integer>> t2Tuples = new ArrayList<>();
+        HeapFile table2 = SystemTestUtil.createRandomHeapFile(
+                COLUMNS, 2000, 10000, null, t2Tuples);
+        List<List<Integer>> expectedResults = equiJoin(t1Tuples, t2Tuples);
+
+        TransactionId tid = new TransactionId();
+        final int[] probed = {0};
+        List<Integer> fields = new ArrayList<>();
+        Type[] types = new Type[COLUMNS];
+        for (int i = 0; i < COLUMNS; i++) {
+            fields.add(i);
+            types[i] = Type.INT_TYPE;
+        }
+        OpIterator probe = new Project(fields, types,
+                Exchange.gather(new SeqScan(tid, table2.getId(), ""))) {
+            @Override
+            public Tuple next() throws TransactionAbortedException, DbException {
+                probed[0]++;
+                return super.next();
+            }
+        };
+        JoinPredicate p = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+        HashEquiJoin joinOp = new HashEquiJoin(p, new SeqScan(tid, table1.getId(), ""), probe);
+        SystemTestUtil.matchTuples(joinOp, expectedResults);
+        // the matches, and about 1% of the other probe tuples
+        assertTrue(probed[0] < expectedResults.size() + 100);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * A push pipeline gives the Bloom filter of the build keys to its scan,
+     * through the filters above it, and drops probe tuples without a match
+     * there.
+     */
+    @Test public void testBloomFilterPushPipeline() throws Exception {
+        List<List<Integer>> t1Tuples = new ArrayList<>();
+        HeapFile table1 = SystemTestUtil.createRandomHeapFile(
+                COLUMNS, 10, 10000, null, t1Tuples);
+        List<List<Integer>> t2Tuples = new ArrayList<>();
+        HeapFile table2 = SystemTestUtil.createRandomHeapFile(
+                COLUMNS, 2000, 10000, null, t2Tuples);
+        List<List<Integer>> expectedResults = equiJoin(t1Tuples, t2Tuples);
+
+        TransactionId tid = new TransactionId();
+        final int[] probed = {0};
+        SeqScan ss2 = new SeqScan(tid, table2.getId(), "") {
+            @Override
+            public int nextBatch(Tuple[] batch) throws TransactionAbortedException, DbException {
+                int n = super.nextBatch(batch);
+                probed[0] += n;
+                return n;
+            }
+        };
+        JoinPredicate p = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+        Predicate all = new Predicate(1, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(0));
+        OpIterator pushed = PushPlanner.translate(
+                new HashEquiJoin(p, new SeqScan(tid, table1.getId(), ""), new Filter(all, ss2)));
+        assertTrue(pushed instanceof PushPipeline);
+        SystemTestUtil.matchTuples(pushed, expectedResults);
+        assertTrue(probed[0] < expectedResults.size() + 100);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * A block nested-loops Join of one page per block scans child2 once for
+     * each page of child1.
+     */
+    @Test public void testBlockNestedLoopJoin() throws Exception {
+        List<List<Integer>> t1Tuples = new ArrayList<>();
+        HeapFile table1 = SystemTestUtil.createRandomHeapFile(
+                COLUMNS, 1200, 100, null, t1Tuples);
+        List<List<Integer>> t2Tuples = new ArrayList<>();
+        HeapFile table2 = SystemTestUtil.createRandomHeapFile(
+                COLUMNS, 300, 100, null, t2Tuples);
+
+        int expected = 0;
+        for (List<Integer> t1 : t1Tuples) {
+            for (List<Integer> t2 : t2Tuples) {
+                if (t1.get(1) < t2.get(0)) {
+                    expected++;
+                }
+            }
+        }
+
+        TransactionId tid = new TransactionId();
+        final int[] rewinds = {0};
+        SeqScan ss1 = new SeqScan(tid, table1.getId(), "");
+        SeqScan ss2 = new SeqScan(tid, table2.getId(), "") {
+            @Override
+            public void rewind() throws DbException, TransactionAbortedException {
+                rewinds[0]++;
+                super.rewind();
+            }
+        };
+        JoinPredicate p = new JoinPredicate(1, Predicate.Op.LESS_THAN, 0);
+        Join joinOp = new Join(p, ss1, ss2, 1);
+        int actual = 0;
+        joinOp.open();
+        while (joinOp.hasNext()) {
+            List<Integer> t = SystemTestUtil.tupleToList(joinOp.next());
+            assertTrue(t.get(1) < t.get(2));
+            actual++;
+        }
+        joinOp.close();
+        assertEquals(expected, actual);
+        int blocks = (1200 + Join.blockSize(ss1.getTupleDesc(), 1) - 1)
+                / Join.blockSize(ss1.getTupleDesc(), 1);
+        assertEquals(blocks - 1, rewinds[0]);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    private static boolean containsOperator(OpIterator plan, Class<?> c) {
+        if (c.isInstance(plan)) {
+            return true;
+        }
+        if (plan instanceof Operator) {
+            for (OpIterator child : ((Operator) plan).getChildren()) {
+                if (containsOperator(child, c)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    @Test public void testRangeJoinPlan() throws Exception {
+        List<List<Integer>> t1Tuples = new ArrayList<>();
+        HeapFile table1 = SystemTestUtil.createRandomHeapFile(
+                COLUMNS, 200, 100, null, t1Tuples, "c");
+        List<List<Integer>> t2Tuples = new ArrayList<>();
+        HeapFile table2 = SystemTestUtil.createRandomHeapFile(
+                COLUMNS, 300, 100, null, t2Tuples, "c");
+        Map<String, TableStats> stats = new HashMap<>();
+        for (HeapFile table : new HeapFile[]{table1, table2}) {
+            stats.put(Database.getCatalog().getTableName(table.getId()),
+                    new TableStats(table.getId(), 1));
+        }
+
+        int expected = 0;
+        for (List<Integer> t1 : t1Tuples) {
+            for (List<Integer> t2 : t2Tuples) {
+                if (t1.get(1) < t2.get(0)) {
+                    expected++;
+                }
+            }
+        }
+
+        TransactionId tid = new TransactionId();
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(table1.getId(), "a");
+        lp.addScan(table2.getId(), "b");
+        lp.addJoin("a.c1", "b.c0", Predicate.Op.LESS_THAN);
+        lp.addProjectField("null.*", null);
+        OpIterator plan = lp.physicalPlan(tid, stats, false);
+        assertTrue(containsOperator(plan, SortMergeJoin.class));
+
+        // the optimizer may swap the inputs, so find the fields by name
+        int f1 = plan.getTupleDesc().fieldNameToIndex("a.c1");
+        int f2 = plan.getTupleDesc().fieldNameToIndex("b.c0");
+        int actual = 0;
+        plan.open();
+        while (plan.hasNext()) {
+            List<Integer> t = SystemTestUtil.tupleToList(plan.next());
+            assertTrue(t.get(f1) < t.get(f2));
+            actual++;
+        }
+        plan.close();
+        assertEquals(expected, actual);
+
+        // with a few tuples of a, sorting b costs more than comparing
+        // every pair
+        expected = 0;
+        for (List<Integer> t1 : t1Tuples) {
+            for (List<Integer> t2 : t2Tuples) {
+                if (t1.get(0) == 7 && t1.get(1) < t2.get(0)) {
+                    expected++;
+                }
+            }
+        }
+        lp = new LogicalPlan();
+        lp.addScan(table1.getId(), "a");
+        lp.addScan(table2.getId(), "b");
+        lp.addFilter("a.c0", Predicate.Op.EQUALS, "7");
+        lp.addJoin("a.c1", "b.c0", Predicate.Op.LESS_THAN);
+        lp.addProjectField("null.*", null);
+        plan = lp.physicalPlan(tid, stats, false);
+        assertFalse(containsOperator(plan, SortMergeJoin.class));
+        assertTrue(containsOperator(plan, Join.class));
+        actual = 0;
+        plan.open();
+        while (plan.hasNext()) {
+            plan.next();
+            actual++;
+        }
+        plan.close();
+        assertEquals(expected, actual);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void testRadixHashJoinPlan() throws Exception {
+        List<List<Integer>> t1Tuples = new ArrayList<>();
+        HeapFile table1 = SystemTestUtil.createRandomHeapFile(
+                COLUMNS, 6000, 1000, null, t1Tuples, "c");
+        List<List<Integer>> t2Tuples = new ArrayList<>();
+        HeapFile table2 = SystemTestUtil.createRandomHeapFile(
+                COLUMNS, 5000, 1000, null, t2Tuples, "c");
+        List<List<Integer>> t3Tuples = new ArrayList<>();
+        HeapFile table3 = SystemTestUtil.createRandomHeapFile(
+                COLUMNS, 100000, 1000, null, t3Tuples, "c");
+        Map<String, TableStats> stats = new HashMap<>();
+        for (HeapFile table : new HeapFile[]{table1, table2, table3}) {
+            stats.put(Database.getCatalog().getTableName(table.getId()),
+                    new TableStats(table.getId(), 1));
+        }
+
+        Map<Integer, Integer> counts = new HashMap<>();
+        for (List<Integer> t2 : t2Tuples) {
+            counts.merge(t2.get(0), 1, Integer::sum);
+        }
+        int expected = 0;
+        for (List<Integer> t1 : t1Tuples) {
+            expected += counts.getOrDefault(t1.get(0), 0);
+        }
+
+        TransactionId tid = new TransactionId();
+        try {
+            LogicalPlan.setParallelism(1);
+            // both inputs are larger than a partition and fit in memory
+            LogicalPlan lp = new LogicalPlan();
+            lp.addScan(table1.getId(), "a");
+            lp.addScan(table2.getId(), "b");
+            lp.addJoin("a.c0", "b.c0", Predicate.Op.EQUALS);
+            lp.addProjectField("null.*", null);
+            OpIterator plan = lp.physicalPlan(tid, stats, false);
+            assertTrue(containsOperator(plan, RadixHashJoin.class));
+            int f1 = plan.getTupleDesc().fieldNameToIndex("a.c0");
+            int f2 = plan.getTupleDesc().fieldNameToIndex("b.c0");
+            int actual = 0;
+            plan.open();
+            while (plan.hasNext()) {
+                List<Integer> t = SystemTestUtil.tupleToList(plan.next());
+                assertEquals(t.get(f1), t.get(f2));
+                actual++;
+            }
+            plan.close();
+            assertEquals(expected, actual);
+
+            // above the budget, the join keeps to memory by spilling
+            lp = new LogicalPlan();
+            lp.addScan(table1.getId(), "a");
+            lp.addScan(table3.getId(), "b");
+            lp.addJoin("a.c0", "b.c0", Predicate.Op.EQUALS);
+            lp.addProjectField("null.*", null);
+            plan = lp.physicalPlan(tid, stats, false);
+            assertFalse(containsOperator(plan, RadixHashJoin.class));
+            assertTrue(containsOperator(plan, HashEquiJoin.class));
+        } finally {
+            LogicalPlan.setParallelism(Runtime.getRuntime().availableProcessors());
+            Database.getBufferPool().transactionComplete(tid);
+        }
+    }
+
     /** Make test compatible with older version of ant. */
     public static junit.framework.Test suite() {
         return new junit.framework.JUnit4TestAdapter(JoinTest.class);
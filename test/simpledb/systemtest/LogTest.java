@@ -1,6 +1,7 @@
 package simpledb.systemtest;
 
 import java.io.*;
+import java.nio.file.Files;
 import java.util.*;
 
 import org.junit.Test;
@@ -198,6 +199,34 @@ public class LogTest extends SimpleDbTestBase {
         t.commit();
     }
 
+    @Test public void TestRecoverUnreadableRecord()
+            throws IOException, DbException, TransactionAbortedException {
+        setup();
+        doInsert(hf1, 1, 2);
+
+        // *** Test:
+        // a whole record whose pages cannot be rebuilt (here, because
+        // its table is not in the catalog) fails recovery rather than
+        // ending the log there, so the records are still there once the
+        // catalog is right
+
+        Database.reset();
+        try {
+            Database.getLogFile().recover();
+            fail("recovered a record of an unknown table");
+        } catch (RuntimeException e) {
+            // expected
+        }
+
+        crash();
+
+        Transaction t = new Transaction();
+        t.start();
+        look(hf1, t, 1, true);
+        look(hf1, t, 2, true);
+        t.commit();
+    }
+
     @Test public void TestAbort()
             throws IOException, DbException, TransactionAbortedException {
         setup();
@@ -251,6 +280,148 @@ public class LogTest extends SimpleDbTestBase {
         t.commit();
     }
 
+    @Test public void TestAbortSpilledUndo()
+            throws IOException, DbException, TransactionAbortedException {
+        setup();
+        doInsert(hf1, 1, 2);
+
+        // *** Test:
+        // with no room in the undo buffer, abort must roll back
+        // from the log records, across a checkpoint
+
+        Database.getLogFile().setMaxUndoPages(0);
+
+        Transaction t1 = new Transaction();
+        t1.start();
+        insertRow(hf1, t1, 3);
+        Database.getBufferPool().flushAllPages();
+        Database.getLogFile().logCheckpoint();
+        insertRow(hf1, t1, 4);
+        abort(t1);
+
+        Transaction t = new Transaction();
+        t.start();
+        look(hf1, t, 1, true);
+        look(hf1, t, 2, true);
+        look(hf1, t, 3, false);
+        look(hf1, t, 4, false);
+        t.commit();
+    }
+
+    // files in dir whose names start with prefix
+    int countLogFiles(File dir, String prefix) {
+        String[] names = dir.list();
+        int count = 0;
+        for (String n : names) {
+            if (n.startsWith(prefix))
+                count++;
+        }
+        return count;
+    }
+
+    @Test public void TestSegmentRecycling()
+            throws IOException, DbException, TransactionAbortedException {
+        setup();
+        doInsert(hf1, 1, 2);
+        Page page = hf1.readPage(new HeapPageId(hf1.getId(), 0));
+
+        // *** Test:
+        // checkpoints retire old segments instead of copying the log,
+        // so the number of segment files stays bounded, and the log
+        // can still be recovered and appended to afterwards
+
+        File dir = Files.createTempDirectory("seglog").toFile();
+        File f = new File(dir, "seglog");
+        try {
+            int segmentSize = 3 * BufferPool.getPageSize();
+            LogFile log = new LogFile(f, segmentSize);
+            for (int i = 0; i < 40; i++) {
+                Transaction t = new Transaction();
+                log.logXactionBegin(t.getId());
+                log.logWrite(t.getId(), page, page);
+                log.logCommit(t.getId());
+                log.logCheckpoint();
+                assertTrue(countLogFiles(dir, "seglog.0") <= 2);
+            }
+            assertTrue(countLogFiles(dir, "seglog.spare.") <= 4);
+            log.shutdown();
+
+            log = new LogFile(f, segmentSize);
+            log.recover();
+            Transaction t = new Transaction();
+            log.logXactionBegin(t.getId());
+            log.logCommit(t.getId());
+            log.shutdown();
+        } finally {
+            for (File file : dir.listFiles()) {
+                file.delete();
+            }
+            dir.delete();
+        }
+    }
+
+    @Test public void TestAsyncCommitCrash()
+            throws IOException, DbException, TransactionAbortedException, InterruptedException {
+        setup();
+        doInsert(hf1, 1, 2);
+
+        // *** Test:
+        // an asynchronous commit is durable once the commit delay
+        // has passed
+
+        Database.getLogFile().setMaxCommitDelay(5);
+        Transaction t1 = new Transaction();
+        t1.setAsyncCommit(true);
+        t1.start();
+        insertRow(hf1, t1, 3);
+        t1.commit();
+        Thread.sleep(200);
+
+        crash();
+
+        Transaction t = new Transaction();
+        t.start();
+        look(hf1, t, 1, true);
+        look(hf1, t, 2, true);
+        look(hf1, t, 3, true);
+        t.commit();
+    }
+
+    @Test public void TestAsyncCommitNoForce()
+            throws IOException, DbException, TransactionAbortedException {
+        setup();
+        doInsert(hf1, 1, 2);
+
+        // *** Test:
+        // an asynchronous commit returns without forcing the log, and
+        // its page is not written before its log records are forced;
+        // recovery redoes it from the log
+
+        Database.getLogFile().setMaxCommitDelay(60000);
+        Transaction t1 = new Transaction();
+        t1.setAsyncCommit(true);
+        t1.start();
+        insertRow(hf1, t1, 3);
+        int forces = Database.getLogFile().getTotalForces();
+        t1.commit();
+        assertEquals(forces, Database.getLogFile().getTotalForces());
+
+        HeapPage onDisk = (HeapPage) hf1.readPage(new HeapPageId(hf1.getId(), 0));
+        Iterator<Tuple> it = onDisk.iterator();
+        while (it.hasNext()) {
+            assertNotEquals(3, ((IntField) it.next().getField(0)).getValue());
+        }
+
+        crash();
+
+        Transaction t = new Transaction();
+        t.start();
+        look(hf1, t, 1, true);
+        look(hf1, t, 2, true);
+        look(hf1, t, 3, true);
+        t.commit();
+    }
+
     @Test public void TestAbortCrash()
             throws IOException, DbException, TransactionAbortedException {
         setup();
@@ -0,0 +1,170 @@
+package simpledb.systemtest;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import simpledb.Parser;
+import simpledb.common.Database;
+import simpledb.execution.Limit;
+import simpledb.execution.OpIterator;
+import simpledb.execution.OrderBy;
+import simpledb.execution.SeqScan;
+import simpledb.execution.TopN;
+import simpledb.optimizer.LogicalPlan;
+import simpledb.optimizer.TableStats;
+import simpledb.storage.HeapFile;
+import simpledb.storage.IntField;
+import simpledb.storage.Tuple;
+import simpledb.transaction.TransactionId;
+
+public class OrderByTest extends SimpleDbTestBase {
+    private static final int COLUMNS = 3;
+    private static final int ROWS = 3000;
+
+    // the keys of the sorted tuples, sorted by the first column ascending,
+    // then by the second descending
+    private static List<List<Integer>> sortedKeys(List<List<Integer>> tuples) {
+        List<List<Integer>> keys = new ArrayList<>();
+        for (List<Integer> t : tuples) {
+            keys.add(t.subList(0, 2));
+        }
+        keys.sort(Comparator.<List<Integer>>comparingInt(k -> k.get(0))
+                .thenComparing(k -> k.get(1), Comparator.reverseOrder()));
+        return keys;
+    }
+
+    private void validateOrderBy(int maxTuples) throws Exception {
+        List<List<Integer>> createdTuples = new ArrayList<>();
+        HeapFile table = SystemTestUtil.createRandomHeapFile(
+                COLUMNS, ROWS, 20, null, createdTuples);
+        List<List<Integer>> expected = sortedKeys(createdTuples);
+
+        TransactionId tid = new TransactionId();
+        OrderBy ob = new OrderBy(new int[]{0, 1}, new boolean[]{true, false},
+                new SeqScan(tid, table.getId(), ""), maxTuples);
+        SystemTestUtil.matchTuples(ob, createdTuples);
+
+        // the order of the keys is right, also after a rewind
+        ob.open();
+        for (int pass = 0; pass < 2; pass++) {
+            for (List<Integer> key : expected) {
+                Tuple t = ob.next();
+                assertEquals(key.get(0).intValue(), ((IntField) t.getField(0)).getValue());
+                assertEquals(key.get(1).intValue(), ((IntField) t.getField(1)).getValue());
+            }
+            assertFalse(ob.hasNext());
+            ob.rewind();
+        }
+        ob.close();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** Sort a table that fits in memory on two keys */
+    @Test public void testInMemory() throws Exception {
+        validateOrderBy(OrderBy.MAX_TUPLES);
+    }
+
+    /**
+     * Sort a table in runs of a few tuples, so that there are more runs than
+     * can be merged at once
+     */
+    @Test public void testExternal() throws Exception {
+        validateOrderBy(ROWS / (2 * OrderBy.MERGE_FANIN));
+    }
+
+    /**
+     * Sort a table on a key with many duplicates, in runs small enough that
+     * they are merged in more than two passes; tuples with equal keys stay
+     * in the order of the table
+     */
+    @Test public void testExternalStable() throws Exception {
+        HeapFile table = SystemTestUtil.createRandomHeapFile(COLUMNS, ROWS, 20, null, null);
+        TransactionId tid = new TransactionId();
+        List<List<Integer>> expected = tuples(new SeqScan(tid, table.getId(), ""));
+        expected.sort(Comparator.comparingInt(t -> t.get(0)));
+        OrderBy ob = new OrderBy(new int[]{0}, new boolean[]{true},
+                new SeqScan(tid, table.getId(), ""), ROWS / (3 * OrderBy.MERGE_FANIN));
+        assertEquals(expected, tuples(ob));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    // the tuples of an iterator, in order
+    private static List<List<Integer>> tuples(OpIterator it) throws Exception {
+        List<List<Integer>> result = new ArrayList<>();
+        it.open();
+        while (it.hasNext()) {
+            result.add(SystemTestUtil.tupleToList(it.next()));
+        }
+        it.close();
+        return result;
+    }
+
+    /** The first tuples of a TopN are those of an OrderBy, ties included */
+    @Test public void testTopN() throws Exception {
+        HeapFile table = SystemTestUtil.createRandomHeapFile(COLUMNS, ROWS, 20, null, null);
+        TransactionId tid = new TransactionId();
+        List<List<Integer>> sorted = tuples(new OrderBy(new int[]{1, 0}, new boolean[]{false, true},
+                new SeqScan(tid, table.getId(), "")));
+        for (int n : new int[]{0, 1, 50, ROWS, ROWS + 1}) {
+            TopN top = new TopN(new int[]{1, 0}, new boolean[]{false, true},
+                    new SeqScan(tid, table.getId(), ""), n);
+            assertEquals(sorted.subList(0, Math.min(n, ROWS)), tuples(top));
+        }
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** Limit returns the tuples of its child that follow the offset */
+    @Test public void testLimit() throws Exception {
+        HeapFile table = SystemTestUtil.createRandomHeapFile(COLUMNS, ROWS, 20, null, null);
+        TransactionId tid = new TransactionId();
+        List<List<Integer>> all = tuples(new SeqScan(tid, table.getId(), ""));
+        assertEquals(all.subList(10, 60), tuples(new Limit(new SeqScan(tid, table.getId(), ""), 50, 10)));
+        assertEquals(all.subList(ROWS - 5, ROWS),
+                tuples(new Limit(new SeqScan(tid, table.getId(), ""), 50, ROWS - 5)));
+        assertEquals(new ArrayList<>(), tuples(new Limit(new SeqScan(tid, table.getId(), ""), 0, 0)));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** Parse and run ORDER BY ... LIMIT ... OFFSET, and LIMIT on its own */
+    @Test public void testParsedLimit() throws Exception {
+        List<List<Integer>> createdTuples = new ArrayList<>();
+        HeapFile table = SystemTestUtil.createRandomHeapFile(
+                COLUMNS, ROWS, 20, null, createdTuples, "c");
+        // a name the parser accepts
+        String name = "ordered";
+        Database.getCatalog().addTable(table, name);
+        Map<String, TableStats> stats = new HashMap<>();
+        stats.put(name, new TableStats(table.getId(), 1));
+        TransactionId tid = new TransactionId();
+        Parser p = new Parser();
+
+        LogicalPlan lp = p.generateLogicalPlan(tid,
+                "SELECT * FROM " + name + " t ORDER BY t.c0, t.c1 DESC LIMIT 20 OFFSET 5;");
+        List<List<Integer>> keys = new ArrayList<>();
+        for (List<Integer> t : tuples(lp.physicalPlan(tid, stats, false))) {
+            keys.add(t.subList(0, 2));
+        }
+        assertEquals(sortedKeys(createdTuples).subList(5, 25), keys);
+
+        lp = p.generateLogicalPlan(tid, "SELECT * FROM " + name + " t WHERE t.c2 > 10 limit 7;");
+        List<List<Integer>> rows = tuples(lp.physicalPlan(tid, stats, false));
+        assertEquals(7, rows.size());
+        for (List<Integer> t : rows) {
+            assertTrue(t.get(2) > 10);
+        }
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(OrderByTest.class);
+    }
+}
@@ -0,0 +1,201 @@
+package simpledb.systemtest;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.execution.*;
+import simpledb.optimizer.LogicalPlan;
+import simpledb.optimizer.TableStats;
+import simpledb.storage.HeapFile;
+import simpledb.storage.IntField;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+/**
+ * Checks that push pipelines produce the same tuples as the plans they were
+ * translated from.
+ */
+public class PushPipelineTest extends SimpleDbTestBase {
+    private final static int MAX_VALUE = 100;
+
+    private static List<List<Integer>> drain(OpIterator it)
+            throws DbException, TransactionAbortedException {
+        List<List<Integer>> tuples = new ArrayList<>();
+        it.open();
+        while (it.hasNext()) {
+            tuples.add(SystemTestUtil.tupleToList(it.next()));
+        }
+        it.close();
+        return tuples;
+    }
+
+    // a join of table1 and table2 on table1.c1 = table2.c0, filtered on both sides
+    private static OpIterator join(TransactionId tid, HeapFile table1, HeapFile table2) {
+        Predicate p1 = new Predicate(0, Predicate.Op.GREATER_THAN, new IntField(10));
+        Predicate p2 = new Predicate(2, Predicate.Op.LESS_THAN_OR_EQ, new IntField(70));
+        return new HashEquiJoin(new JoinPredicate(1, Predicate.Op.EQUALS, 0),
+                new Filter(p1, new SeqScan(tid, table1.getId(), "a")),
+                new Filter(p2, new SeqScan(tid, table2.getId(), "b")));
+    }
+
+    @Test public void testFilterProject()
+            throws IOException, DbException, TransactionAbortedException {
+        HeapFile table = SystemTestUtil.createRandomHeapFile(3, 2000, MAX_VALUE, null, null);
+        TransactionId tid = new TransactionId();
+        List<Integer> fields = Arrays.asList(2, 0);
+        Type[] types = {Type.INT_TYPE, Type.INT_TYPE};
+        Predicate p = new Predicate(1, Predicate.Op.NOT_EQUALS, new IntField(MAX_VALUE / 2));
+        List<List<Integer>> expected = drain(new Project(fields, types,
+                new Filter(p, new SeqScan(tid, table.getId(), ""))));
+
+        OpIterator pushed = PushPlanner.translate(new Project(fields, types,
+                new Filter(p, new SeqScan(tid, table.getId(), ""))));
+        assertTrue(pushed instanceof PushPipeline);
+        SystemTestUtil.matchTuples(pushed, expected);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void testJoin()
+            throws IOException, DbException, TransactionAbortedException {
+        HeapFile table1 = SystemTestUtil.createRandomHeapFile(2, 500, MAX_VALUE, null, null);
+        HeapFile table2 = SystemTestUtil.createRandomHeapFile(3, 1000, MAX_VALUE, null, null);
+        TransactionId tid = new TransactionId();
+        List<List<Integer>> expected = drain(join(tid, table1, table2));
+        OpIterator pushed = PushPlanner.translate(join(tid, table1, table2));
+        assertTrue(pushed instanceof PushPipeline);
+        SystemTestUtil.matchTuples(pushed, expected);
+
+        // a rewind pushes the probe side through again
+        pushed.open();
+        for (int pass = 0; pass < 2; pass++) {
+            int n = 0;
+            while (pushed.hasNext()) {
+                pushed.next();
+                n++;
+            }
+            assertEquals(expected.size(), n);
+            pushed.rewind();
+        }
+        pushed.close();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void testJoinAggregate()
+            throws IOException, DbException, TransactionAbortedException {
+        HeapFile table1 = SystemTestUtil.createRandomHeapFile(2, 500, MAX_VALUE, null, null);
+        HeapFile table2 = SystemTestUtil.createRandomHeapFile(3, 1000, MAX_VALUE, null, null);
+        TransactionId tid = new TransactionId();
+        int[] afields = {3, 4};
+        Aggregator.Op[] aops = {Aggregator.Op.SUM, Aggregator.Op.MAX};
+        for (int[] gfields : new int[][]{{}, {0}, {0, 4}}) {
+            List<List<Integer>> expected = drain(
+                    new Aggregate(join(tid, table1, table2), afields, aops, gfields));
+            OpIterator pushed = PushPlanner.translate(
+                    new Aggregate(join(tid, table1, table2), afields, aops, gfields));
+            assertTrue(pushed instanceof PushPipeline);
+            SystemTestUtil.matchTuples(pushed, expected);
+        }
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** An aggregate with more groups than its budget is run by itself */
+    @Test public void testAggregateOverBudget()
+            throws IOException, DbException, TransactionAbortedException {
+        HeapFile table1 = SystemTestUtil.createRandomHeapFile(2, 500, MAX_VALUE, null, null);
+        HeapFile table2 = SystemTestUtil.createRandomHeapFile(3, 1000, MAX_VALUE, null, null);
+        TransactionId tid = new TransactionId();
+        int[] afields = {3};
+        Aggregator.Op[] aops = {Aggregator.Op.COUNT};
+        int[] gfields = {0};
+        List<List<Integer>> expected = drain(
+                new Aggregate(join(tid, table1, table2), afields, aops, gfields));
+        OpIterator pushed = PushPlanner.translate(
+                new Aggregate(join(tid, table1, table2), afields, aops, gfields, 10));
+        assertTrue(pushed instanceof PushPipeline);
+        SystemTestUtil.matchTuples(pushed, expected);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** A join whose build side does not fit in its budget is run by itself, so that it spills */
+    @Test public void testJoinOverBudget()
+            throws IOException, DbException, TransactionAbortedException {
+        HeapFile table1 = SystemTestUtil.createRandomHeapFile(2, 500, MAX_VALUE, null, null);
+        HeapFile table2 = SystemTestUtil.createRandomHeapFile(3, 1000, MAX_VALUE, null, null);
+        TransactionId tid = new TransactionId();
+        List<List<Integer>> expected = drain(join(tid, table1, table2));
+        HashEquiJoin j = (HashEquiJoin) join(tid, table1, table2);
+        OpIterator pushed = PushPlanner.translate(
+                new HashEquiJoin(j.getJoinPredicate(), j.getChildren()[0], j.getChildren()[1], 50));
+        assertTrue(pushed instanceof PushPipeline);
+        SystemTestUtil.matchTuples(pushed, expected);
+        SystemTestUtil.matchTuples(pushed, expected);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** A push pipeline, such as a subquery's, goes through the planners again unchanged */
+    @Test public void testPlanAgain()
+            throws IOException, DbException, TransactionAbortedException {
+        HeapFile table1 = SystemTestUtil.createRandomHeapFile(2, 5000, MAX_VALUE, null, null);
+        HeapFile table2 = SystemTestUtil.createRandomHeapFile(3, 10000, MAX_VALUE, null, null);
+        TransactionId tid = new TransactionId();
+        List<List<Integer>> expected = drain(join(tid, table1, table2));
+        OpIterator pushed = PushPlanner.translate(join(tid, table1, table2));
+        assertTrue(pushed instanceof PushPipeline);
+        assertSame(pushed, ParallelPlanner.parallelize(pushed, 4));
+        assertSame(pushed, PipelineCompiler.compile(pushed));
+        assertSame(pushed, PushPlanner.translate(pushed));
+        ((Operator) pushed).setChildren(((Operator) pushed).getChildren());
+        SystemTestUtil.matchTuples(pushed, expected);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void testLogicalPlan() throws Exception {
+        HeapFile table1 = SystemTestUtil.createRandomHeapFile(2, 500, MAX_VALUE, null, null, "c");
+        HeapFile table2 = SystemTestUtil.createRandomHeapFile(3, 1000, MAX_VALUE, null, null, "c");
+        Map<String, TableStats> stats = new HashMap<>();
+        for (HeapFile table : new HeapFile[]{table1, table2}) {
+            stats.put(Database.getCatalog().getTableName(table.getId()),
+                    new TableStats(table.getId(), 1));
+        }
+        TransactionId tid = new TransactionId();
+
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(table1.getId(), "a");
+        lp.addScan(table2.getId(), "b");
+        lp.addJoin("a.c1", "b.c0", Predicate.Op.EQUALS);
+        lp.addFilter("b.c2", Predicate.Op.GREATER_THAN, "20");
+        lp.addAggregate("SUM", "b.c1", "a.c0");
+        lp.addProjectField("a.c0", null);
+        lp.addProjectField("b.c1", "SUM");
+        try {
+            // the aggregate of a join of two small tables is vectorized otherwise
+            LogicalPlan.setVectorize(false);
+            LogicalPlan.setCompilePipelines(false);
+            LogicalPlan.setPushPipelines(false);
+            List<List<Integer>> expected = drain(lp.physicalPlan(tid, stats, false));
+            LogicalPlan.setPushPipelines(true);
+            Operator plan = (Operator) lp.physicalPlan(tid, stats, false);
+            assertTrue(plan.getChildren()[0] instanceof PushPipeline);
+            SystemTestUtil.matchTuples(plan, expected);
+        } finally {
+            LogicalPlan.setVectorize(true);
+            LogicalPlan.setCompilePipelines(true);
+            LogicalPlan.setPushPipelines(true);
+        }
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(PushPipelineTest.class);
+    }
+}
@@ -2,6 +2,7 @@ package simpledb.systemtest;
 
 import simpledb.common.Database;
 import simpledb.common.DbException;
+import simpledb.common.Permissions;
 import simpledb.common.Utility;
 import simpledb.execution.SeqScan;
 import simpledb.storage.*;
@@ -11,9 +12,13 @@ import static org.junit.Assert.*;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.junit.Test;
 
@@ -73,6 +78,58 @@ public class ScanTest extends SimpleDbTestBase {
         Database.getBufferPool().transactionComplete(tid);
     }
 
+    private static Map<List<Integer>, Integer> multiset(List<List<Integer>> tuples) {
+        Map<List<Integer>, Integer> counts = new HashMap<>();
+        for (List<Integer> t : tuples) {
+            counts.merge(t, 1, Integer::sum);
+        }
+        return counts;
+    }
+
+    /**
+     * Scans that share the morsels of a table read each tuple once between
+     * them, whichever scan reads it, and can be run again once all closed.
+     */
+    @Test public void testMorsels() throws IOException, DbException, TransactionAbortedException {
+        List<List<Integer>> tuples = new ArrayList<>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 20000, null, tuples);
+        assertTrue(f.numPages() > PageMorsels.MORSEL_PAGES * 3);
+
+        TransactionId tid = new TransactionId();
+        PageMorsels morsels = new PageMorsels(f.getId(), 3);
+        SeqScan[] scans = new SeqScan[3];
+        for (int i = 0; i < scans.length; i++) {
+            scans[i] = new SeqScan(tid, "table", morsels);
+        }
+        for (int pass = 0; pass < 2; pass++) {
+            // interleave the scans, a few tuples each at a time
+            List<List<Integer>> read = new ArrayList<>();
+            int[] counts = new int[scans.length];
+            for (SeqScan scan : scans) {
+                scan.open();
+            }
+            boolean more = true;
+            while (more) {
+                more = false;
+                for (int i = 0; i < scans.length; i++) {
+                    for (int j = 0; j < 100 && scans[i].hasNext(); j++) {
+                        read.add(SystemTestUtil.tupleToList(scans[i].next()));
+                        counts[i]++;
+                        more = true;
+                    }
+                }
+            }
+            for (SeqScan scan : scans) {
+                scan.close();
+            }
+            for (int count : counts) {
+                assertTrue(count > 0);
+            }
+            assertEquals(multiset(tuples), multiset(read));
+        }
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
     /** Verifies that the buffer pool is actually caching data.
      * @throws TransactionAbortedException
      * @throws DbException */
@@ -110,6 +167,58 @@ public class ScanTest extends SimpleDbTestBase {
         assertEquals(0, table.readCount);
     }
 
+    /** Threads that miss the same pages at once read each page once, and share it */
+    @Test public void testConcurrentMisses() throws Exception {
+        class InstrumentedHeapFile extends HeapFile {
+            public InstrumentedHeapFile(File f, TupleDesc td) {
+                super(f, td);
+            }
+
+            @Override
+            public Page readPage(PageId pid) throws NoSuchElementException {
+                readCount.incrementAndGet();
+                return super.readPage(pid);
+            }
+
+            public final AtomicInteger readCount = new AtomicInteger();
+        }
+
+        final int PAGES = 30;
+        File f = SystemTestUtil.createRandomHeapFileUnopened(1, 992*PAGES, 1000, null, new ArrayList<>());
+        InstrumentedHeapFile table = new InstrumentedHeapFile(f, Utility.getTupleDesc(1));
+        Database.getCatalog().addTable(table, SystemTestUtil.getUUID());
+
+        TransactionId tid = new TransactionId();
+        Page[][] read = new Page[4][PAGES];
+        Thread[] threads = new Thread[read.length];
+        AtomicReference<Throwable> error = new AtomicReference<>();
+        for (int i = 0; i < threads.length; i++) {
+            final Page[] pages = read[i];
+            threads[i] = new Thread(() -> {
+                try {
+                    for (int pg = 0; pg < PAGES; pg++) {
+                        pages[pg] = Database.getBufferPool().getPage(tid,
+                                new HeapPageId(table.getId(), pg), Permissions.READ_ONLY);
+                    }
+                } catch (Throwable e) {
+                    error.compareAndSet(null, e);
+                }
+            });
+            threads[i].start();
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+        assertNull(error.get());
+        assertEquals(PAGES, table.readCount.get());
+        for (int pg = 0; pg < PAGES; pg++) {
+            for (Page[] pages : read) {
+                assertSame(read[0][pg], pages[pg]);
+            }
+        }
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
     /** Verifies SeqScan's getTupleDesc prefixes the table name + "." to the field names
      * @throws IOException
      */